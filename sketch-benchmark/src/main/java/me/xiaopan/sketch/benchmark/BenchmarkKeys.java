@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+/**
+ * 生成同真实场景差不多的key
+ */
+public class BenchmarkKeys {
+
+    private BenchmarkKeys() {
+    }
+
+    /**
+     * 生成指定数量的图片uri，长度和内存缓存的key差不多
+     */
+    public static String[] imageUris(int count) {
+        String[] uris = new String[count];
+        for (int i = 0; i < count; i++) {
+            uris[i] = "http://img.example.com/photos/" + (i * 7919L) + "/large.jpg?width=720&height=1280&_sketch_" + i;
+        }
+        return uris;
+    }
+}
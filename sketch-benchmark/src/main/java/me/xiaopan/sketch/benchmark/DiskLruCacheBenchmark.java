@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.DiskLruCache;
+import me.xiaopan.sketch.util.SketchMD5Utils;
+
+/**
+ * DiskLruCache在多线程下的读写混合吞吐量，读不到就写入，同LruDiskCache的用法一样key是uri的MD5
+ * <p>
+ * 容量是全部数据的一半，因此会持续淘汰，journal也会不断重建
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DiskLruCacheBenchmark {
+    @Param({"512"})
+    int keyCount;
+
+    @Param({"16384"})
+    int valueSize;
+
+    private File directory;
+    private DiskLruCache cache;
+    private String[] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = File.createTempFile("sketch-disk-lru-cache", "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("can not create directory " + directory);
+        }
+        cache = DiskLruCache.open(directory, 1, 1, (long) keyCount * valueSize / 2);
+
+        String[] uris = BenchmarkKeys.imageUris(keyCount);
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = SketchMD5Utils.md5(uris[i]);
+        }
+
+        value = new byte[valueSize];
+        new Random(keyCount).nextBytes(value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.delete();
+    }
+
+    @Benchmark
+    public long getOrPut(ThreadState state) throws Exception {
+        String key = keys[state.keys.next()];
+
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        if (snapshot != null) {
+            long length = 0;
+            try {
+                InputStream inputStream = snapshot.getInputStream(0);
+                int read;
+                while ((read = inputStream.read(state.buffer)) != -1) {
+                    length += read;
+                }
+            } finally {
+                snapshot.close();
+            }
+            return length;
+        }
+
+        // 其它线程正在写入同一个key时edit()返回null，同LruDiskCache的处理一样直接放弃
+        DiskLruCache.Editor editor = cache.edit(key);
+        if (editor == null) {
+            return 0;
+        }
+        OutputStream outputStream = editor.newOutputStream(0);
+        try {
+            outputStream.write(value);
+        } finally {
+            outputStream.close();
+        }
+        editor.commit();
+        return value.length;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        ZipfianKeys keys;
+        byte[] buffer = new byte[8 * 1024];
+
+        @Setup
+        public void setup(DiskLruCacheBenchmark benchmark) {
+            keys = new ZipfianKeys(benchmark.keyCount, 0.99, Thread.currentThread().getId());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.LruCache;
+
+/**
+ * LruCache在多线程下的读写混合吞吐量，LruMemoryCache就是基于它实现的
+ * <p>
+ * 容量是key总数的四分之一，读不到就写入，模拟内存缓存未命中后解码并放入缓存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LruCacheBenchmark {
+    @Param({"1024", "16384"})
+    int keyCount;
+
+    @Param({"0.99"})
+    double exponent;
+
+    private LruCache<String, Object> cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        cache = new LruCache<String, Object>(keyCount / 4);
+        keys = BenchmarkKeys.imageUris(keyCount);
+        for (int i = 0; i < keyCount / 4; i++) {
+            cache.put(keys[i], new Object());
+        }
+    }
+
+    @Benchmark
+    public Object getOrPut(ThreadKeys threadKeys) {
+        String key = keys[threadKeys.keys.next()];
+        Object value = cache.get(key);
+        if (value == null) {
+            value = new Object();
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        ZipfianKeys keys;
+
+        @Setup
+        public void setup(LruCacheBenchmark benchmark) {
+            keys = new ZipfianKeys(benchmark.keyCount, benchmark.exponent, Thread.currentThread().getId());
+        }
+    }
+}
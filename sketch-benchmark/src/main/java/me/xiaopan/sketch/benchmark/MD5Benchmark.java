@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.SketchMD5Utils;
+
+/**
+ * SketchMD5Utils.md5(String)的吞吐量，每次读写磁盘缓存都要用它把uri转成文件名，MessageDigest来自ObjectPool
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MD5Benchmark {
+    private String[] uris;
+
+    @Setup
+    public void setup() {
+        uris = BenchmarkKeys.imageUris(1024);
+    }
+
+    @Benchmark
+    public String md5(ThreadKeys threadKeys) {
+        return SketchMD5Utils.md5(uris[threadKeys.keys.next()]);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        ZipfianKeys keys = new ZipfianKeys(1024, 0.99, Thread.currentThread().getId());
+    }
+}
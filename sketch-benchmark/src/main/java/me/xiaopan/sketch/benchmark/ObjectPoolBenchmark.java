@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.util.ObjectPool;
+
+/**
+ * ObjectPool在多线程下借出再归还的吞吐量，SketchMD5Utils的MessageDigest、DisplayHelper等都是这样用的
+ * <p>
+ * 同newObject直接创建对比，可以看出池子的锁在多少个线程时开始比分配更贵
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ObjectPoolBenchmark {
+    @Param({"10"})
+    int maxPoolSize;
+
+    private ObjectPool<StringBuilder> pool;
+
+    @Setup
+    public void setup() {
+        pool = new ObjectPool<StringBuilder>(new ObjectPool.ObjectFactory<StringBuilder>() {
+            @Override
+            public StringBuilder newObject() {
+                return new StringBuilder(64);
+            }
+        }, maxPoolSize);
+    }
+
+    @Benchmark
+    public int getAndPut() {
+        StringBuilder builder = pool.get();
+        builder.setLength(0);
+        builder.append("sketch");
+        int length = builder.length();
+        pool.put(builder);
+        return length;
+    }
+
+    @Benchmark
+    public int allocate() {
+        StringBuilder builder = new StringBuilder(64);
+        builder.append("sketch");
+        return builder.length();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.benchmark;
+
+import java.util.Random;
+
+/**
+ * 按Zipfian分布预先生成的一串key序号，模拟列表滑动时少数热门图片被反复访问、大量图片只访问一两次的情况
+ * <p>
+ * 预先生成是为了不让随机数的开销混进测量结果里，每个线程一份，互不影响
+ */
+public class ZipfianKeys {
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+
+    private final int[] sequence = new int[SEQUENCE_LENGTH];
+    private int cursor;
+
+    /**
+     * @param keyCount key的总数
+     * @param exponent 分布的指数，越大越集中，0.99是YCSB等常用的值
+     * @param seed     随机数种子，不同线程用不同的种子
+     */
+    public ZipfianKeys(int keyCount, double exponent, long seed) {
+        double[] cumulative = new double[keyCount];
+        double sum = 0;
+        for (int i = 0; i < keyCount; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            sequence[i] = search(cumulative, random.nextDouble() * sum);
+        }
+    }
+
+    private static int search(double[] cumulative, double value) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 获取下一个key序号，范围是[0, keyCount)
+     */
+    public int next() {
+        int index = sequence[cursor];
+        cursor = (cursor + 1) & (SEQUENCE_LENGTH - 1);
+        return index;
+    }
+}
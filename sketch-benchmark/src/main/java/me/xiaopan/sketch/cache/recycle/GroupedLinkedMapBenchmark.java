@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.cache.recycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.benchmark.ZipfianKeys;
+
+/**
+ * GroupedLinkedMap单独的读写吞吐量，去掉了SizeConfigStrategy中TreeMap查找的部分，在一把锁里访问
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class GroupedLinkedMapBenchmark {
+    @Param({"256"})
+    int keyCount;
+
+    private final Object lock = new Object();
+    private final GroupedLinkedMap<IntKey, Object> map = new GroupedLinkedMap<IntKey, Object>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < keyCount; i++) {
+            map.put(new IntKey(i), new Object());
+        }
+    }
+
+    @Benchmark
+    public Object getAndPut(ThreadKeys threadKeys) {
+        int index = threadKeys.keys.next();
+        synchronized (lock) {
+            Object value = map.get(new IntKey(index));
+            if (value == null) {
+                value = new Object();
+            }
+            map.put(new IntKey(index), value);
+            return value;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        ZipfianKeys keys;
+
+        @Setup
+        public void setup(GroupedLinkedMapBenchmark benchmark) {
+            keys = new ZipfianKeys(benchmark.keyCount, 0.99, Thread.currentThread().getId());
+        }
+    }
+
+    private static final class IntKey implements Poolable {
+        private final int value;
+
+        IntKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void offer() {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntKey && ((IntKey) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+}
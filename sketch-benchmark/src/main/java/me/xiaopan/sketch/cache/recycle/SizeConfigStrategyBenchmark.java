@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.cache.recycle;
+
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.benchmark.ZipfianKeys;
+
+/**
+ * SizeConfigStrategy在多线程下借出、归还Bitmap的吞吐量
+ * <p>
+ * SizeConfigStrategy本身不是线程安全的，同LruBitmapPool一样在一把锁里访问；尺寸按Zipfian分布从常见的缩略图、列表图、全屏图尺寸中选取，
+ * 取不到就新建，模拟解码时从bitmap pool中寻找inBitmap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SizeConfigStrategyBenchmark {
+    private static final int[][] SIZES = {
+            {180, 180}, {240, 320}, {360, 360}, {480, 640}, {720, 405}, {720, 1280}, {1080, 1920},
+            {200, 150}, {300, 300}, {640, 480}, {96, 96}, {1280, 720}, {540, 960}, {320, 240}, {450, 800}, {128, 128},
+    };
+    private static final Bitmap.Config[] CONFIGS = {Bitmap.Config.ARGB_8888, Bitmap.Config.RGB_565};
+
+    @Param({"64"})
+    int pooledCount;
+
+    private final Object lock = new Object();
+    private SizeConfigStrategy strategy;
+
+    @Setup
+    public void setup() {
+        strategy = new SizeConfigStrategy();
+        for (int i = 0; i < pooledCount; i++) {
+            int[] size = SIZES[i % SIZES.length];
+            strategy.put(Bitmap.createBitmap(size[0], size[1], CONFIGS[i % CONFIGS.length]));
+        }
+    }
+
+    @Benchmark
+    public Bitmap getAndPut(ThreadKeys threadKeys) {
+        int index = threadKeys.keys.next();
+        int[] size = SIZES[index % SIZES.length];
+        Bitmap.Config config = CONFIGS[index / SIZES.length];
+
+        Bitmap bitmap;
+        synchronized (lock) {
+            bitmap = strategy.get(size[0], size[1], config);
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(size[0], size[1], config);
+        }
+        synchronized (lock) {
+            strategy.put(bitmap);
+            // 同LruBitmapPool一样超出容量就淘汰最久未用的
+            if (threadKeys.putCount++ % 4 == 0) {
+                strategy.removeLast();
+            }
+        }
+        return bitmap;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        ZipfianKeys keys = new ZipfianKeys(SIZES.length * CONFIGS.length, 0.99, Thread.currentThread().getId());
+        int putCount;
+    }
+}
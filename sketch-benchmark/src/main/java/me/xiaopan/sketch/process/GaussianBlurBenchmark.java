@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.process;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GaussianBlurEngine整图模糊的耗时，引擎内部会按CPU核数拆分并行执行，因此这里只用一个线程调用
+ * <p>
+ * 每次都从同一份原始像素开始，避免越模糊越平滑影响结果
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GaussianBlurBenchmark {
+    @Param({"720x1280", "1080x1920"})
+    String size;
+
+    @Param({"5", "25", "100"})
+    int radius;
+
+    private int width;
+    private int height;
+    private int[] source;
+    private int[] pixels;
+    private int[] temp;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] items = size.split("x");
+        width = Integer.parseInt(items[0]);
+        height = Integer.parseInt(items[1]);
+
+        source = new int[width * height];
+        Random random = new Random(width * 31 + height);
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextInt();
+        }
+        pixels = new int[source.length];
+        temp = new int[source.length];
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+    }
+
+    @Benchmark
+    public int[] blur() {
+        GaussianBlurEngine.blur(pixels, temp, width, height, radius);
+        return pixels;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.graphics;
+
+/**
+ * JVM上的Bitmap替身，只记录宽、高和配置，不分配像素，够SizeConfigStrategy这样的池子策略使用
+ */
+public final class Bitmap {
+    private int width;
+    private int height;
+    private Config config;
+    private final int allocationByteCount;
+    private boolean recycled;
+
+    private Bitmap(int width, int height, Config config) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.allocationByteCount = width * height * config.bytesPerPixel;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public int getAllocationByteCount() {
+        return allocationByteCount;
+    }
+
+    public int getByteCount() {
+        return width * height * config.bytesPerPixel;
+    }
+
+    public int getRowBytes() {
+        return width * config.bytesPerPixel;
+    }
+
+    public boolean isRecycled() {
+        return recycled;
+    }
+
+    public void recycle() {
+        recycled = true;
+    }
+
+    public void reconfigure(int width, int height, Config config) {
+        if (width * height * config.bytesPerPixel > allocationByteCount) {
+            throw new IllegalArgumentException("Bitmap not large enough to support new configuration");
+        }
+        this.width = width;
+        this.height = height;
+        this.config = config;
+    }
+
+    public enum Config {
+        ALPHA_8(1),
+        RGB_565(2),
+        ARGB_4444(2),
+        ARGB_8888(4),;
+
+        final int bytesPerPixel;
+
+        Config(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+}
@@ -27,7 +27,9 @@ import me.xiaopan.sketch.cache.LruBitmapPool;
 import me.xiaopan.sketch.cache.LruDiskCache;
 import me.xiaopan.sketch.cache.LruMemoryCache;
 import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.cache.MemoryGovernor;
 import me.xiaopan.sketch.cache.MemorySizeCalculator;
+import me.xiaopan.sketch.decode.DecodeCostModel;
 import me.xiaopan.sketch.decode.ImageDecoder;
 import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.decode.ImageSizeCalculator;
@@ -36,8 +38,12 @@ import me.xiaopan.sketch.decode.ResizeCalculator;
 import me.xiaopan.sketch.display.DefaultImageDisplayer;
 import me.xiaopan.sketch.display.ImageDisplayer;
 import me.xiaopan.sketch.http.HttpStack;
+import me.xiaopan.sketch.http.HttpStatistics;
 import me.xiaopan.sketch.http.HurlStack;
 import me.xiaopan.sketch.http.ImageDownloader;
+import me.xiaopan.sketch.metrics.BindTracker;
+import me.xiaopan.sketch.metrics.HistogramMetricsSink;
+import me.xiaopan.sketch.metrics.MetricsSink;
 import me.xiaopan.sketch.preprocess.ImagePreprocessor;
 import me.xiaopan.sketch.process.ImageProcessor;
 import me.xiaopan.sketch.process.ResizeImageProcessor;
@@ -45,6 +51,7 @@ import me.xiaopan.sketch.request.FreeRideManager;
 import me.xiaopan.sketch.request.HelperFactory;
 import me.xiaopan.sketch.request.MobileNetworkGlobalPauseDownloadController;
 import me.xiaopan.sketch.request.RequestExecutor;
+import me.xiaopan.sketch.request.RequestRegistry;
 import me.xiaopan.sketch.request.RequestFactory;
 
 /**
@@ -58,6 +65,7 @@ public final class Configuration {
     private DiskCache diskCache;
     private BitmapPool bitmapPool;
     private MemoryCache memoryCache;
+    private MemoryCache sourceMemoryCache;
     private ProcessedImageCache processedImageCache;
 
     private HttpStack httpStack;
@@ -76,12 +84,22 @@ public final class Configuration {
     private HelperFactory helperFactory;
     private RequestFactory requestFactory;
     private ErrorTracker errorTracker;
+    private MetricsSink metricsSink;
+    private RequestRegistry requestRegistry;
+    private HttpStatistics httpStatistics;
+    private BindTracker bindTracker;
+    private DecodeCostModel decodeCostModel;
+    private MemoryGovernor memoryGovernor;
 
     // TODO: 2017/4/15 搞一个通用的属性拦截器，把这些放到属性拦截器里
     private boolean globalPauseLoad;   // 全局暂停加载新图片，开启后将只从内存缓存中找寻图片，只影响display请求
     private boolean globalPauseDownload;   // 全局暂停下载新图片，开启后将不再从网络下载新图片，只影响display请求
     private boolean globalLowQualityImage; // 全局使用低质量的图片
     private boolean globalInPreferQualityOverSpeed;   // false:全局解码时优先考虑速度；true:全局解码时优先考虑质量
+    private boolean globalDisabledResizeInDecode;   // 全局禁止在解码时直接缩放到resize的尺寸
+    private boolean globalDisabledProcessorFusion;   // 全局禁止合并处理器链，开启后WrappedImageProcessor链上的每个处理器都单独绘制一次
+    private boolean globalDisabledDownsampleForProcess;   // 全局禁止根据处理器的提示在解码时额外缩小图片
+    private boolean globalScrolling;   // 列表正在滚动，预计解码耗时超出预算的图片会临时降低质量
     private MobileNetworkGlobalPauseDownloadController mobileNetworkGlobalPauseDownloadController;
 
     Configuration(Context context) {
@@ -90,12 +108,18 @@ public final class Configuration {
 
         MemorySizeCalculator memorySizeCalculator = new MemorySizeCalculator(context);
 
+        // 各个内存缓存不再按固定比例瓜分内存，每个都可以用到总上限，由MemoryGovernor保证加起来不超过总上限
+        int memoryMaxSize = memorySizeCalculator.getMaxSize();
+        this.memoryGovernor = new MemoryGovernor(context, this, memoryMaxSize);
+
         // 由于默认的缓存文件名称从URLEncoder加密变成了MD5所以这里要升级一下版本号，好清除旧的缓存
         this.diskCache = new LruDiskCache(context, this, 2, DiskCache.DISK_CACHE_MAX_SIZE);
-        this.bitmapPool = new LruBitmapPool(context, memorySizeCalculator.getBitmapPoolSize());
-        this.memoryCache = new LruMemoryCache(context, memorySizeCalculator.getMemoryCacheSize());
+        this.bitmapPool = new LruBitmapPool(context, memorySizeCalculator.getBitmapPoolSize() > 0 ? memoryMaxSize : 0);
+        this.memoryCache = new LruMemoryCache(context, memoryMaxSize);
+        this.sourceMemoryCache = new LruMemoryCache(context, memoryMaxSize);
 
-        this.httpStack = new HurlStack();
+        this.httpStatistics = new HttpStatistics();
+        this.httpStack = new HurlStack().setEventListener(httpStatistics);
         this.imageDecoder = new ImageDecoder();
         this.freeRideManager = new FreeRideManager();
         this.requestExecutor = new RequestExecutor();
@@ -112,6 +136,10 @@ public final class Configuration {
         this.requestFactory = new RequestFactory();
 
         this.errorTracker = new ErrorTracker(context);
+        this.metricsSink = new HistogramMetricsSink();
+        this.requestRegistry = new RequestRegistry();
+        this.bindTracker = new BindTracker(context);
+        this.decodeCostModel = new DecodeCostModel(context, bindTracker.getFrameIntervalNanos());
 
         if (SLogType.BASE.isEnabled()) {
             SLog.d(SLogType.BASE, getInfo());
@@ -219,6 +247,36 @@ public final class Configuration {
         return this;
     }
 
+    /**
+     * 获取源图内存缓存器，缓存解码后还没有经过ImageProcessor处理的图片，
+     * 同一张图片换一个ImageProcessor显示时就不用再解码了，只需要处理一下
+     *
+     * @return MemoryCache
+     */
+    public MemoryCache getSourceMemoryCache() {
+        return sourceMemoryCache;
+    }
+
+    /**
+     * 设置源图内存缓存器
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    @SuppressWarnings("unused")
+    public Configuration setSourceMemoryCache(MemoryCache sourceMemoryCache) {
+        if (sourceMemoryCache != null) {
+            MemoryCache oldSourceMemoryCache = this.sourceMemoryCache;
+            this.sourceMemoryCache = sourceMemoryCache;
+            if (oldSourceMemoryCache != null) {
+                oldSourceMemoryCache.close();
+            }
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setSourceMemoryCache. %s", sourceMemoryCache.getKey());
+            }
+        }
+        return this;
+    }
+
     /**
      * 获取再处理图片缓存器
      *
@@ -259,6 +317,13 @@ public final class Configuration {
     @SuppressWarnings("unused")
     public Configuration setHttpStack(HttpStack httpStack) {
         if (httpStack != null) {
+            // 支持事件监听又没有自己的事件监听器就用默认的，保证getHttpStatistics()有数据
+            if (httpStack instanceof HttpStack.EventSource) {
+                HttpStack.EventSource eventSource = (HttpStack.EventSource) httpStack;
+                if (eventSource.getEventListener() == null) {
+                    eventSource.setEventListener(httpStatistics);
+                }
+            }
             this.httpStack = httpStack;
             if (SLogType.BASE.isEnabled()) {
                 SLog.fd(SLogType.BASE, LOG_NAME, "setHttpStack. %s", httpStack.getKey());
@@ -601,6 +666,84 @@ public final class Configuration {
         return this;
     }
 
+    /**
+     * 获取请求指标接收器
+     *
+     * @return MetricsSink
+     */
+    @SuppressWarnings("unused")
+    public MetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
+    /**
+     * 设置请求指标接收器，每个请求结束时都会把它的时间线交给MetricsSink，默认是HistogramMetricsSink
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    @SuppressWarnings("unused")
+    public Configuration setMetricsSink(MetricsSink metricsSink) {
+        if (metricsSink != null) {
+            this.metricsSink = metricsSink;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setMetricsSink. %s", metricsSink.getKey());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 获取内存总管，可以查看各个用途占用的内存以及调整总上限
+     *
+     * @return MemoryGovernor
+     */
+    @SuppressWarnings("unused")
+    public MemoryGovernor getMemoryGovernor() {
+        return memoryGovernor;
+    }
+
+    /**
+     * 获取进行中的请求的登记表，默认关闭，调用RequestRegistry.setEnabled(true)或显示RequestInspectorView后开始登记
+     *
+     * @return RequestRegistry
+     */
+    @SuppressWarnings("unused")
+    public RequestRegistry getRequestRegistry() {
+        return requestRegistry;
+    }
+
+    /**
+     * 获取按host汇总的网络统计信息，包括连接耗时、首字节耗时、下载速度、重试次数以及并发连接数，
+     * 自定义HttpStack时如果没有实现HttpStack.EventSource或者设置了自己的事件监听器这里就没有数据了
+     *
+     * @return HttpStatistics
+     */
+    @SuppressWarnings("unused")
+    public HttpStatistics getHttpStatistics() {
+        return httpStatistics;
+    }
+
+    /**
+     * 获取主线程绑定耗时统计器，默认关闭，调用BindTracker.setEnabled(true)开始统计，
+     * 调用BindTracker.setBudgetMode(true)开启预算模式后，有掉帧风险时MakerStateImage会推迟到后台线程中创建
+     *
+     * @return BindTracker
+     */
+    @SuppressWarnings("unused")
+    public BindTracker getBindTracker() {
+        return bindTracker;
+    }
+
+    /**
+     * 获取解码耗时模型，根据真实的解码耗时学习，用来在解码之前预估耗时
+     *
+     * @return DecodeCostModel
+     */
+    @SuppressWarnings("unused")
+    public DecodeCostModel getDecodeCostModel() {
+        return decodeCostModel;
+    }
+
     /**
      * 全局暂停加载新图片？开启后将只从内存缓存中找寻图片，只影响display请求
      */
@@ -726,11 +869,105 @@ public final class Configuration {
         return this;
     }
 
+    /**
+     * 全局禁止在解码时直接缩放到resize的尺寸？
+     */
+    public boolean isGlobalDisabledResizeInDecode() {
+        return globalDisabledResizeInDecode;
+    }
+
+    /**
+     * 设置全局禁止在解码时直接缩放到resize的尺寸，默认解码时会结合inSampleSize和inDensity、inTargetDensity一步解码到resize的尺寸，
+     * 这样就不用先解码一张较大的图片再缩放了，禁止后恢复先采样再由ResizeImageProcessor缩放的方式
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    public Configuration setGlobalDisabledResizeInDecode(boolean globalDisabledResizeInDecode) {
+        if (this.globalDisabledResizeInDecode != globalDisabledResizeInDecode) {
+            this.globalDisabledResizeInDecode = globalDisabledResizeInDecode;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setGlobalDisabledResizeInDecode. %s", globalDisabledResizeInDecode);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 全局禁止合并处理器链？
+     */
+    public boolean isGlobalDisabledProcessorFusion() {
+        return globalDisabledProcessorFusion;
+    }
+
+    /**
+     * 设置全局禁止合并处理器链，默认由内置处理器组成的WrappedImageProcessor链会合并成尽可能少的绘制，
+     * 合并后的结果同逐个处理在滤波上会有细微的差别，如果需要逐像素一致的结果可以禁止
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    public Configuration setGlobalDisabledProcessorFusion(boolean globalDisabledProcessorFusion) {
+        if (this.globalDisabledProcessorFusion != globalDisabledProcessorFusion) {
+            this.globalDisabledProcessorFusion = globalDisabledProcessorFusion;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setGlobalDisabledProcessorFusion. %s", globalDisabledProcessorFusion);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 全局禁止根据处理器的提示在解码时额外缩小图片？
+     */
+    public boolean isGlobalDisabledDownsampleForProcess() {
+        return globalDisabledDownsampleForProcess;
+    }
+
+    /**
+     * 设置全局禁止根据处理器的提示在解码时额外缩小图片，默认没有设置resize时，像模糊这种不需要高分辨率的处理器会提示解码时再缩小一些，
+     * 处理完的图片比原来小，由View在绘制时放大，如果View的尺寸是wrap_content的话会显得变小了，这时候可以禁止
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    public Configuration setGlobalDisabledDownsampleForProcess(boolean globalDisabledDownsampleForProcess) {
+        if (this.globalDisabledDownsampleForProcess != globalDisabledDownsampleForProcess) {
+            this.globalDisabledDownsampleForProcess = globalDisabledDownsampleForProcess;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setGlobalDisabledDownsampleForProcess. %s", globalDisabledDownsampleForProcess);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 列表是否正在滚动？
+     */
+    public boolean isGlobalScrolling() {
+        return globalScrolling;
+    }
+
+    /**
+     * 设置列表是否正在滚动，滚动中根据DecodeCostModel预计解码耗时会超出预算的图片会换成RGB_565或增大inSampleSize解码，
+     * 这些图片不会放入内存缓存，所以停止滚动后刷新一下列表就会按照正常的质量重新解码
+     *
+     * @return Configuration. Convenient chain calls
+     */
+    public Configuration setGlobalScrolling(boolean globalScrolling) {
+        if (this.globalScrolling != globalScrolling) {
+            this.globalScrolling = globalScrolling;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setGlobalScrolling. %s", globalScrolling);
+            }
+        }
+        return this;
+    }
+
     public String getInfo() {
         return LOG_NAME + ": " +
                 "\n" + "diskCache：" + diskCache.getKey() +
                 "\n" + "bitmapPool：" + bitmapPool.getKey() +
                 "\n" + "memoryCache：" + memoryCache.getKey() +
+                "\n" + "sourceMemoryCache：" + sourceMemoryCache.getKey() +
+                "\n" + "memoryGovernor：" + memoryGovernor.getKey() +
                 "\n" + "processedImageCache：" + processedImageCache.getKey() +
 
                 "\n" + "httpStack：" + httpStack.getKey() +
@@ -749,11 +986,20 @@ public final class Configuration {
                 "\n" + "helperFactory：" + helperFactory.getKey() +
                 "\n" + "requestFactory：" + requestFactory.getKey() +
                 "\n" + "errorTracker：" + errorTracker.getKey() +
+                "\n" + "metricsSink：" + metricsSink.getKey() +
+                "\n" + "requestRegistry：" + requestRegistry.getKey() +
+                "\n" + "httpStatistics：" + httpStatistics.getKey() +
+                "\n" + "bindTracker：" + bindTracker.getKey() +
+                "\n" + "decodeCostModel：" + decodeCostModel.getKey() +
 
                 "\n" + "globalPauseLoad：" + globalPauseLoad +
                 "\n" + "globalPauseDownload：" + globalPauseDownload +
                 "\n" + "globalLowQualityImage：" + globalLowQualityImage +
                 "\n" + "globalInPreferQualityOverSpeed：" + globalInPreferQualityOverSpeed +
+                "\n" + "globalDisabledResizeInDecode：" + globalDisabledResizeInDecode +
+                "\n" + "globalDisabledProcessorFusion：" + globalDisabledProcessorFusion +
+                "\n" + "globalDisabledDownsampleForProcess：" + globalDisabledDownsampleForProcess +
+                "\n" + "globalScrolling：" + globalScrolling +
                 "\n" + "mobileNetworkGlobalPauseDownload：" + isMobileNetworkGlobalPauseDownload();
     }
 
@@ -11,6 +11,7 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
+import me.xiaopan.sketch.drawable.RefBitmapTracker;
 import me.xiaopan.sketch.drawable.SketchRefDrawable;
 import me.xiaopan.sketch.process.ImageProcessor;
 import me.xiaopan.sketch.request.DisplayRequest;
@@ -152,6 +153,11 @@ public class ErrorTracker implements Identifier {
     public void onBitmapRecycledOnDisplay(DisplayRequest request, SketchRefDrawable refDrawable) {
         SLog.fw(LOG_NAME, "onBitmapRecycledOnDisplay. imageUri=%s, drawable=%s",
                 request.getUri(), refDrawable.getInfo());
+
+        // 开启了RefBitmapTracker的话把引用历史也打出来，方便找到是哪里多减了引用
+        if (refDrawable != null && RefBitmapTracker.isEnabled()) {
+            SLog.fw(LOG_NAME, "onBitmapRecycledOnDisplay. history=%s", RefBitmapTracker.getHistory(refDrawable.getKey()));
+        }
     }
 
     /**
@@ -25,7 +25,10 @@ import android.util.Log;
 public class SLog {
     private static final String TAG_NAME = "%s-%s";
     private static final String DEFAULT_FORMAL = "%s";
+    private static final int ASYNC_BUFFER_CAPACITY = 1024;
     private static SLogTracker logTracker;
+    private static volatile boolean asyncEnabled;
+    private static volatile SLogRingBuffer ringBuffer;
 
     @SuppressWarnings("unused")
     public static SLogTracker getLogTracker() {
@@ -43,26 +46,111 @@ public class SLog {
         }
     }
 
-    public static void fv(SLogType type, String name, String format, Object... args) {
-        if (type != null && !type.isEnabled()) {
-            return;
+    /**
+     * 是否开启了异步打印
+     */
+    @SuppressWarnings("unused")
+    public static boolean isAsyncEnabled() {
+        return asyncEnabled;
+    }
+
+    /**
+     * 开启异步打印，开启后日志先写入环形缓冲区，由日志线程负责格式化和打印，
+     * 这样{@link #event(SLogType, String, String)}记录日志时就不用在当前线程中格式化了，缓冲区满了的时候会退回到同步打印
+     */
+    @SuppressWarnings("unused")
+    public static void setAsyncEnabled(boolean asyncEnabled) {
+        if (asyncEnabled && ringBuffer == null) {
+            synchronized (SLog.class) {
+                if (ringBuffer == null) {
+                    ringBuffer = new SLogRingBuffer(ASYNC_BUFFER_CAPACITY);
+                }
+            }
+        }
+        SLog.asyncEnabled = asyncEnabled;
+        if (!asyncEnabled) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即在当前线程中打印异步缓冲区中的所有日志，例如崩溃前或者读取日志文件前
+     */
+    public static void flush() {
+        SLogRingBuffer buffer = ringBuffer;
+        if (buffer != null) {
+            buffer.drain();
         }
+    }
 
+    /**
+     * 获取异步缓冲区满了退回到同步打印的次数，如果很多就说明日志太多了
+     */
+    @SuppressWarnings("unused")
+    public static long getAsyncOverflowCount() {
+        SLogRingBuffer buffer = ringBuffer;
+        return buffer != null ? buffer.getOverflowCount() : 0;
+    }
+
+    /**
+     * 创建一个结构化日志事件，参数不装箱、不用可变参数，指定的类型没有开启时只有一次判断的开销，详情请参考{@link SLogEvent}
+     */
+    public static SLogEvent event(SLogType type, String name, String format) {
+        return SLogEvent.obtain(type, name, format);
+    }
+
+    static boolean offer(SLogEvent event, int level) {
+        SLogRingBuffer buffer = asyncEnabled ? ringBuffer : null;
+        return buffer != null && buffer.offer(event, level);
+    }
+
+    private static void print(int level, String name, String msg) {
+        SLogRingBuffer buffer = asyncEnabled ? ringBuffer : null;
+        if (buffer == null || !buffer.offer(level, name, msg)) {
+            println(level, name, msg);
+        }
+    }
+
+    static void println(int level, String name, String msg) {
         String tag = Sketch.TAG;
         if (!TextUtils.isEmpty(name)) {
             tag = String.format(TAG_NAME, Sketch.TAG, name);
         }
 
-        if (TextUtils.isEmpty(format)) {
-            format = DEFAULT_FORMAL;
+        Log.println(level, tag, msg);
+
+        SLogTracker tracker = logTracker;
+        if (tracker != null) {
+            switch (level) {
+                case Log.VERBOSE:
+                    tracker.v(tag, msg);
+                    break;
+                case Log.INFO:
+                    tracker.i(tag, msg);
+                    break;
+                case Log.WARN:
+                    tracker.w(tag, msg);
+                    break;
+                case Log.ERROR:
+                    tracker.e(tag, msg);
+                    break;
+                default:
+                    tracker.d(tag, msg);
+                    break;
+            }
         }
+    }
 
-        String msg = String.format(format, args);
-        Log.v(tag, msg);
+    public static void fv(SLogType type, String name, String format, Object... args) {
+        if (type != null && !type.isEnabled()) {
+            return;
+        }
 
-        if (logTracker != null) {
-            logTracker.v(tag, msg);
+        if (TextUtils.isEmpty(format)) {
+            format = DEFAULT_FORMAL;
         }
+
+        print(Log.VERBOSE, name, String.format(format, args));
     }
 
     public static void fv(SLogType type, String format, Object... args) {
@@ -82,16 +170,7 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
-        Log.v(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.v(tag, msg);
-        }
+        print(Log.VERBOSE, name, msg);
     }
 
     public static void v(SLogType type, String msg) {
@@ -112,21 +191,11 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
         if (TextUtils.isEmpty(format)) {
             format = DEFAULT_FORMAL;
         }
 
-        String msg = String.format(format, args);
-        Log.i(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.i(tag, msg);
-        }
+        print(Log.INFO, name, String.format(format, args));
     }
 
     public static void fi(SLogType type, String format, Object... args) {
@@ -146,16 +215,7 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
-        Log.i(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.i(tag, msg);
-        }
+        print(Log.INFO, name, msg);
     }
 
     public static void i(SLogType type, String msg) {
@@ -176,21 +236,11 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
         if (TextUtils.isEmpty(format)) {
             format = DEFAULT_FORMAL;
         }
 
-        String msg = String.format(format, args);
-        Log.d(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.d(tag, msg);
-        }
+        print(Log.DEBUG, name, String.format(format, args));
     }
 
     public static void fd(SLogType type, String format, Object... args) {
@@ -210,16 +260,7 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
-        Log.d(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.d(tag, msg);
-        }
+        print(Log.DEBUG, name, msg);
     }
 
     public static void d(SLogType type, String msg) {
@@ -240,21 +281,11 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
         if (TextUtils.isEmpty(format)) {
             format = DEFAULT_FORMAL;
         }
 
-        String msg = String.format(format, args);
-        Log.w(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.w(tag, msg);
-        }
+        print(Log.WARN, name, String.format(format, args));
     }
 
     public static void fw(SLogType type, String format, Object... args) {
@@ -274,16 +305,7 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
-        Log.w(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.w(tag, msg);
-        }
+        print(Log.WARN, name, msg);
     }
 
     public static void w(SLogType type, String msg) {
@@ -304,21 +326,11 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
         if (TextUtils.isEmpty(format)) {
             format = DEFAULT_FORMAL;
         }
 
-        String msg = String.format(format, args);
-        Log.e(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.e(tag, msg);
-        }
+        print(Log.ERROR, name, String.format(format, args));
     }
 
     public static void fe(SLogType type, String format, Object... args) {
@@ -338,16 +350,7 @@ public class SLog {
             return;
         }
 
-        String tag = Sketch.TAG;
-        if (!TextUtils.isEmpty(name)) {
-            tag = String.format(TAG_NAME, Sketch.TAG, name);
-        }
-
-        Log.e(tag, msg);
-
-        if (logTracker != null) {
-            logTracker.e(tag, msg);
-        }
+        print(Log.ERROR, name, msg);
     }
 
     public static void e(SLogType type, String msg) {
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch;
+
+/**
+ * 结构化日志事件，参数按原始类型保存，不用可变参数也不装箱，异步模式下连格式化都放到日志线程里执行
+ * <p>
+ * 通过{@link SLog#event(SLogType, String, String)}获取，依次调用arg()添加参数，最后一定要以v()、d()、i()、w()或e()结束，例如：
+ * <pre>
+ * SLog.event(SLogType.CACHE, LOG_NAME, "get. %s. size=%d").arg(key).arg(size).d();
+ * </pre>
+ * 对应的SLogType没有开启时返回的是一个什么都不做的事件，整个调用只有一次判断的开销
+ * <p>
+ * 异步模式下arg(Object)的toString()会延迟到日志线程中执行，因此请传入不可变的对象或字符串
+ */
+public final class SLogEvent {
+    static final int MAX_ARG_COUNT = 8;
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_INT = 1;
+    private static final byte KIND_LONG = 2;
+    private static final byte KIND_DOUBLE = 3;
+    private static final byte KIND_BOOLEAN = 4;
+    private static final byte KIND_CALLER = 5;
+
+    private static final SLogEvent DISABLED = new SLogEvent(false);
+    private static final ThreadLocal<SLogEvent> LOCAL_EVENT = new ThreadLocal<SLogEvent>() {
+        @Override
+        protected SLogEvent initialValue() {
+            return new SLogEvent(true);
+        }
+    };
+
+    private final boolean enabled;
+    private final byte[] kinds = new byte[MAX_ARG_COUNT];
+    private final Object[] objects = new Object[MAX_ARG_COUNT];
+    private final long[] longs = new long[MAX_ARG_COUNT];
+    private String name;
+    private String format;
+    private int argCount;
+    private boolean inUse;
+
+    // 以下字段只在作为环形缓冲区的槽位时使用
+    int level;
+    volatile long sequence = -1;
+
+    SLogEvent(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static SLogEvent obtain(SLogType type, String name, String format) {
+        if (type != null && !type.isEnabled()) {
+            return DISABLED;
+        }
+
+        SLogEvent event = LOCAL_EVENT.get();
+        if (event.inUse) {
+            // 在参数的计算过程中又记录了日志，只能新建一个
+            event = new SLogEvent(true);
+        }
+        event.inUse = true;
+        event.name = name;
+        event.format = format;
+        event.argCount = 0;
+        return event;
+    }
+
+    public SLogEvent arg(Object value) {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_OBJECT;
+            objects[argCount++] = value;
+        }
+        return this;
+    }
+
+    public SLogEvent arg(int value) {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_INT;
+            longs[argCount++] = value;
+        }
+        return this;
+    }
+
+    public SLogEvent arg(long value) {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_LONG;
+            longs[argCount++] = value;
+        }
+        return this;
+    }
+
+    public SLogEvent arg(double value) {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_DOUBLE;
+            longs[argCount++] = Double.doubleToRawLongBits(value);
+        }
+        return this;
+    }
+
+    public SLogEvent arg(boolean value) {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_BOOLEAN;
+            longs[argCount++] = value ? 1 : 0;
+        }
+        return this;
+    }
+
+    /**
+     * 添加调用者信息参数，格式为“类名.方法名:行号”，指的是调用当前方法的那个方法
+     * <p>
+     * 只记录调用栈，解析调用栈和格式化都延迟到打印的时候
+     */
+    public SLogEvent caller() {
+        if (enabled && argCount < MAX_ARG_COUNT) {
+            kinds[argCount] = KIND_CALLER;
+            objects[argCount++] = new Throwable();
+        }
+        return this;
+    }
+
+    public void v() {
+        submit(android.util.Log.VERBOSE);
+    }
+
+    public void d() {
+        submit(android.util.Log.DEBUG);
+    }
+
+    public void i() {
+        submit(android.util.Log.INFO);
+    }
+
+    public void w() {
+        submit(android.util.Log.WARN);
+    }
+
+    public void e() {
+        submit(android.util.Log.ERROR);
+    }
+
+    private void submit(int level) {
+        if (!enabled) {
+            return;
+        }
+
+        if (SLog.offer(this, level)) {
+            release();
+        } else {
+            // 同步模式或缓冲区满了就在当前线程打印
+            String name = this.name;
+            String msg = formatMessage();
+            release();
+            SLog.println(level, name, msg);
+        }
+    }
+
+    private void release() {
+        for (int i = 0; i < argCount; i++) {
+            objects[i] = null;
+        }
+        name = null;
+        format = null;
+        argCount = 0;
+        inUse = false;
+    }
+
+    /**
+     * 作为环形缓冲区的槽位时，从另一个事件复制数据
+     */
+    void copyFrom(SLogEvent event, int level) {
+        this.level = level;
+        this.name = event.name;
+        this.format = event.format;
+        this.argCount = event.argCount;
+        System.arraycopy(event.kinds, 0, kinds, 0, event.argCount);
+        System.arraycopy(event.objects, 0, objects, 0, event.argCount);
+        System.arraycopy(event.longs, 0, longs, 0, event.argCount);
+    }
+
+    /**
+     * 作为环形缓冲区的槽位时，保存一条已经格式化好的日志
+     */
+    void setMessage(int level, String name, String msg) {
+        this.level = level;
+        this.name = name;
+        this.format = msg;
+        this.argCount = -1;
+    }
+
+    /**
+     * 作为环形缓冲区的槽位时，打印并清空
+     */
+    void printAndClear() {
+        int level = this.level;
+        String name = this.name;
+        String msg = formatMessage();
+        for (int i = 0; i < argCount; i++) {
+            objects[i] = null;
+        }
+        this.name = null;
+        this.format = null;
+        this.argCount = 0;
+        SLog.println(level, name, msg);
+    }
+
+    private String formatMessage() {
+        if (argCount < 0) {
+            return format;
+        }
+
+        Object[] args = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            switch (kinds[i]) {
+                case KIND_INT:
+                    args[i] = (int) longs[i];
+                    break;
+                case KIND_LONG:
+                    args[i] = longs[i];
+                    break;
+                case KIND_DOUBLE:
+                    args[i] = Double.longBitsToDouble(longs[i]);
+                    break;
+                case KIND_BOOLEAN:
+                    args[i] = longs[i] != 0;
+                    break;
+                case KIND_CALLER:
+                    args[i] = callerToString((Throwable) objects[i]);
+                    break;
+                default:
+                    args[i] = objects[i];
+                    break;
+            }
+        }
+
+        try {
+            return String.format(format != null ? format : "", args);
+        } catch (RuntimeException e) {
+            // 格式不匹配时不能影响打印其它日志
+            return format + ". " + e.getMessage();
+        }
+    }
+
+    private static String callerToString(Throwable throwable) {
+        // 0：caller()，1：记录日志的方法，2：调用记录日志的方法的方法
+        StackTraceElement[] elements = throwable.getStackTrace();
+        if (elements.length == 0) {
+            return "unknown";
+        }
+        StackTraceElement element = elements[Math.min(2, elements.length - 1)];
+        return element.getClassName() + "." + element.getMethodName() + ":" + element.getLineNumber();
+    }
+}
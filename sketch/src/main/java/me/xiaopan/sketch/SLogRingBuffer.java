@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志的环形缓冲区，槽位都是预先创建好的，多个线程无锁写入，由一个日志线程按顺序格式化并打印
+ * <p>
+ * 满了的时候写入会失败，写入方先帮忙打印缓冲区中已有的日志，再在自己的线程中同步打印，这样既不会丢日志也不会打乱顺序
+ */
+class SLogRingBuffer {
+    private static final long MAX_PARK_NANOS = 1000L * 1000 * 1000;
+
+    private final SLogEvent[] slots;
+    private final int mask;
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile long readSequence;
+    private volatile boolean waiting;
+    private Thread thread;
+
+    SLogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new SLogEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new SLogEvent(true);
+        }
+        mask = size - 1;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "SLogThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 写入一个结构化事件
+     *
+     * @return false：满了
+     */
+    boolean offer(SLogEvent event, int level) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        SLogEvent slot = slots[(int) (sequence & mask)];
+        slot.copyFrom(event, level);
+        publish(slot, sequence);
+        return true;
+    }
+
+    /**
+     * 写入一条已经格式化好的日志
+     *
+     * @return false：满了
+     */
+    boolean offer(int level, String name, String msg) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        SLogEvent slot = slots[(int) (sequence & mask)];
+        slot.setMessage(level, name, msg);
+        publish(slot, sequence);
+        return true;
+    }
+
+    private long claim() {
+        long sequence;
+        do {
+            sequence = writeSequence.get();
+            if (sequence - readSequence >= slots.length) {
+                // 先把已经写入的打印掉，保证同一个线程的日志顺序不乱
+                overflowCount.incrementAndGet();
+                drain();
+                return -1;
+            }
+        } while (!writeSequence.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    private void publish(SLogEvent slot, long sequence) {
+        slot.sequence = sequence;
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 打印所有已经写入的日志，日志线程和flush()都会调用，因此要加锁保证同一时间只有一个消费者
+     *
+     * @return 打印了多少条
+     */
+    synchronized int drain() {
+        int count = 0;
+        long sequence = readSequence;
+        while (true) {
+            SLogEvent slot = slots[(int) (sequence & mask)];
+            if (slot.sequence != sequence) {
+                break;
+            }
+            try {
+                slot.printAndClear();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            sequence++;
+            readSequence = sequence;
+            count++;
+        }
+        return count;
+    }
+
+    private boolean hasPending() {
+        long sequence = readSequence;
+        return slots[(int) (sequence & mask)].sequence == sequence;
+    }
+
+    private void loop() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            if (drain() > 0) {
+                continue;
+            }
+
+            waiting = true;
+            if (!hasPending()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    long getOverflowCount() {
+        return overflowCount.get();
+    }
+}
@@ -33,7 +33,7 @@ public enum SLogType {
     REQUEST,
 
     /**
-     * DisplayHelper.commit()执行时间和解码耗时
+     * 请求的时间线，包括DisplayHelper.commit()执行时间和解码耗时
      */
     TIME,
 
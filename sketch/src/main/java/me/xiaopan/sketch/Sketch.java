@@ -17,6 +17,7 @@
 package me.xiaopan.sketch;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
@@ -31,6 +32,7 @@ import me.xiaopan.sketch.request.LoadHelper;
 import me.xiaopan.sketch.request.LoadListener;
 import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.SketchUtils;
+import me.xiaopan.sketch.viewfun.large.ImageRegionDecoderCache;
 
 /**
  * Sketch是一个功能强大且全面的图片加载器，可以从网络或者本地加载图片，支持gif、手势缩放以及分块显示超大图
@@ -289,7 +291,13 @@ public class Sketch {
         }
 
         configuration.getMemoryCache().trimMemory(level);
+        configuration.getSourceMemoryCache().trimMemory(level);
         configuration.getBitmapPool().trimMemory(level);
+
+        // 退到后台时保存解码耗时模型，文件读写在它自己的线程中执行
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            configuration.getDecodeCostModel().save();
+        }
     }
 
     /**
@@ -305,10 +313,12 @@ public class Sketch {
         }
 
         if (SLogType.BASE.isEnabled()) {
-            SLog.w(SLogType.BASE, "Memory is very low, clean memory cache and bitmap pool");
+            SLog.w(SLogType.BASE, "Memory is very low, clean memory cache, bitmap pool and image region decoder cache");
         }
 
         configuration.getMemoryCache().clear();
+        configuration.getSourceMemoryCache().clear();
         configuration.getBitmapPool().clear();
+        ImageRegionDecoderCache.with().clear();
     }
 }
\ No newline at end of file
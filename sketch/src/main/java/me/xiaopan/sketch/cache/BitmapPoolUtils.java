@@ -26,6 +26,7 @@ import android.text.TextUtils;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.decode.ImageType;
+import me.xiaopan.sketch.drawable.RefBitmapTracker;
 import me.xiaopan.sketch.util.SketchUtils;
 
 public class BitmapPoolUtils {
@@ -112,22 +113,22 @@ public class BitmapPoolUtils {
             return false;
         }
 
+        if (RefBitmapTracker.isEnabled()) {
+            RefBitmapTracker.onFreeToPool(bitmap);
+        }
+
         boolean success = bitmapPool.put(bitmap);
         if (success) {
             if (SLogType.CACHE.isEnabled()) {
-                StackTraceElement[] elements = new Exception().getStackTrace();
-                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
-                SLog.d(SLogType.CACHE, String.format("Put to bitmap pool. info:%dx%d,%s,%s - %s.%s:%d",
-                        bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig(), SketchUtils.toHexString(bitmap),
-                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+                SLog.event(SLogType.CACHE, null, "Put to bitmap pool. info:%dx%d,%s,%x - %s")
+                        .arg(bitmap.getWidth()).arg(bitmap.getHeight()).arg(bitmap.getConfig())
+                        .arg(bitmap.hashCode()).caller().d();
             }
         } else {
             if (SLogType.CACHE.isEnabled()) {
-                StackTraceElement[] elements = new Exception().getStackTrace();
-                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
-                SLog.w(SLogType.CACHE, String.format("Recycle bitmap. info:%dx%d,%s,%s - %s.%s:%d",
-                        bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig(), SketchUtils.toHexString(bitmap),
-                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+                SLog.event(SLogType.CACHE, null, "Recycle bitmap. info:%dx%d,%s,%x - %s")
+                        .arg(bitmap.getWidth()).arg(bitmap.getHeight()).arg(bitmap.getConfig())
+                        .arg(bitmap.hashCode()).caller().w();
             }
             bitmap.recycle();
         }
@@ -186,20 +187,16 @@ public class BitmapPoolUtils {
         boolean success = sdkSupportInBitmapForRegionDecoder() && bitmapPool.put(bitmap);
         if (!success) {
             if (SLogType.CACHE.isEnabled()) {
-                StackTraceElement[] elements = new Exception().getStackTrace();
-                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
-                SLog.w(SLogType.CACHE, String.format("Recycle bitmap. info:%dx%d,%s,%s - %s.%s:%d",
-                        bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig(), SketchUtils.toHexString(bitmap),
-                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+                SLog.event(SLogType.CACHE, null, "Recycle bitmap. info:%dx%d,%s,%x - %s")
+                        .arg(bitmap.getWidth()).arg(bitmap.getHeight()).arg(bitmap.getConfig())
+                        .arg(bitmap.hashCode()).caller().w();
             }
             bitmap.recycle();
         } else {
             if (SLogType.CACHE.isEnabled()) {
-                StackTraceElement[] elements = new Exception().getStackTrace();
-                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
-                SLog.d(SLogType.CACHE, String.format("Put to bitmap pool. info:%dx%d,%s,%s - %s.%s:%d",
-                        bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig(), SketchUtils.toHexString(bitmap),
-                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+                SLog.event(SLogType.CACHE, null, "Put to bitmap pool. info:%dx%d,%s,%x - %s")
+                        .arg(bitmap.getWidth()).arg(bitmap.getHeight()).arg(bitmap.getConfig())
+                        .arg(bitmap.hashCode()).caller().d();
             }
         }
         return success;
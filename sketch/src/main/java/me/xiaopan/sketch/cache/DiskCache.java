@@ -167,4 +167,16 @@ public interface DiskCache extends Identifier {
          */
         void abort();
     }
+
+    /**
+     * 可以边写边读的磁盘缓存编辑器，是可选的，不实现的话边下边解就不可用
+     */
+    interface ReadableEditor {
+        /**
+         * 获取正在写入的文件，提交之前文件的内容是不完整的，可以边写边读
+         *
+         * @return File
+         */
+        File getFile();
+    }
 }
\ No newline at end of file
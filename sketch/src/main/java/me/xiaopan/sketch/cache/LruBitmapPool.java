@@ -27,7 +27,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  * eviction policy to evict {@link android.graphics.Bitmap}s from the least recently used bucket in order to keep
  * the pool below a given maximum size limit.
  */
-public class LruBitmapPool implements BitmapPool {
+public class LruBitmapPool implements BitmapPool, MemoryGovernor.Shrinkable {
     private static final Bitmap.Config DEFAULT_CONFIG = Bitmap.Config.ARGB_8888;
     private static final String LOG_NAME = "LruBitmapPool";
 
@@ -105,8 +105,10 @@ public class LruBitmapPool implements BitmapPool {
         }
 
         if (disabled) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, bitmap=%s,%s",
-                    strategy.logBitmap(bitmap), SketchUtils.toHexString(bitmap));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, bitmap=%s,%x")
+                        .arg(strategy.logBitmap(bitmap)).arg(bitmap.hashCode()).w();
+            }
             return false;
         }
 
@@ -114,9 +116,11 @@ public class LruBitmapPool implements BitmapPool {
             throw new NullPointerException("Bitmap must not be null");
         }
         if (bitmap.isRecycled() || !bitmap.isMutable() || strategy.getSize(bitmap) > maxSize || !allowedConfigs.contains(bitmap.getConfig())) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Reject bitmap from pool, bitmap: %s, is recycled: %s, is mutable: %s, is allowed config: %s, %s",
-                    strategy.logBitmap(bitmap), bitmap.isRecycled(), bitmap.isMutable(),
-                    allowedConfigs.contains(bitmap.getConfig()), SketchUtils.toHexString(bitmap));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Reject bitmap from pool, bitmap: %s, is recycled: %s, is mutable: %s, is allowed config: %s, %x")
+                        .arg(strategy.logBitmap(bitmap)).arg(bitmap.isRecycled()).arg(bitmap.isMutable())
+                        .arg(allowedConfigs.contains(bitmap.getConfig())).arg(bitmap.hashCode()).w();
+            }
             return false;
         }
 
@@ -127,8 +131,10 @@ public class LruBitmapPool implements BitmapPool {
         puts++;
         currentSize += size;
 
-        SLog.fv(SLogType.CACHE, LOG_NAME, "Put bitmap in pool=%s,%s",
-                strategy.logBitmap(bitmap), SketchUtils.toHexString(bitmap));
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.event(SLogType.CACHE, LOG_NAME, "Put bitmap in pool=%s,%x")
+                    .arg(strategy.logBitmap(bitmap)).arg(bitmap.hashCode()).v();
+        }
         dump();
 
         evict();
@@ -143,8 +149,10 @@ public class LruBitmapPool implements BitmapPool {
         }
 
         if (disabled) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, bitmap=%s,%s",
-                    strategy.logBitmap(width, height, config));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, bitmap=%s")
+                        .arg(strategy.logBitmap(width, height, config)).w();
+            }
             return null;
         }
 
@@ -152,10 +160,15 @@ public class LruBitmapPool implements BitmapPool {
         // null as the requested config here. See issue #194.
         final Bitmap result = strategy.get(width, height, config != null ? config : DEFAULT_CONFIG);
         if (result == null) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Missing bitmap=%s", strategy.logBitmap(width, height, config));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Missing bitmap=%s").arg(strategy.logBitmap(width, height, config)).w();
+            }
             misses++;
         } else {
-            SLog.fi(SLogType.CACHE, LOG_NAME, "Get bitmap=%s,%s", strategy.logBitmap(width, height, config), SketchUtils.toHexString(result));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Get bitmap=%s,%x")
+                        .arg(strategy.logBitmap(width, height, config)).arg(result.hashCode()).i();
+            }
             hits++;
             currentSize -= strategy.getSize(result);
             tracker.remove(result);
@@ -187,11 +200,9 @@ public class LruBitmapPool implements BitmapPool {
         if (result == null) {
             result = Bitmap.createBitmap(width, height, config);
             if (SLogType.CACHE.isEnabled()) {
-                StackTraceElement[] elements = new Exception().getStackTrace();
-                StackTraceElement element = elements.length > 1 ? elements[1] : elements[0];
-                SLog.i(SLogType.CACHE, String.format("Make bitmap. info:%dx%d,%s,%s - %s.%s:%d",
-                        result.getWidth(), result.getHeight(), result.getConfig(), SketchUtils.toHexString(result),
-                        element.getClassName(), element.getMethodName(), element.getLineNumber()));
+                SLog.event(SLogType.CACHE, null, "Make bitmap. info:%dx%d,%s,%x - %s")
+                        .arg(result.getWidth()).arg(result.getHeight()).arg(result.getConfig())
+                        .arg(result.hashCode()).caller().i();
             }
         }
 
@@ -259,6 +270,20 @@ public class LruBitmapPool implements BitmapPool {
         }
     }
 
+    @Override
+    public synchronized void shrinkTo(long size) {
+        if (closed) {
+            return;
+        }
+
+        long oldSize = getSize();
+        trimToSize((int) Math.min(size, Integer.MAX_VALUE));
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "shrinkTo. size=%s, released: %s", Formatter.formatFileSize(context, size),
+                    Formatter.formatFileSize(context, oldSize - getSize()));
+        }
+    }
+
     @Override
     public synchronized void clear() {
         if (SLogType.CACHE.isEnabled()) {
@@ -293,8 +318,10 @@ public class LruBitmapPool implements BitmapPool {
                 return;
             }
 
-            SLog.fe(SLogType.CACHE, LOG_NAME, "Evicting bitmap=%s,%s",
-                    strategy.logBitmap(removed), SketchUtils.toHexString(removed));
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.event(SLogType.CACHE, LOG_NAME, "Evicting bitmap=%s,%x")
+                        .arg(strategy.logBitmap(removed)).arg(removed.hashCode()).e();
+            }
             tracker.remove(removed);
             currentSize -= strategy.getSize(removed);
             removed.recycle();
@@ -310,9 +337,10 @@ public class LruBitmapPool implements BitmapPool {
     }
 
     private void dumpUnchecked() {
-        SLog.fv(SLogType.CACHE, LOG_NAME,
-                "Hits=%d, misses=%d, puts=%d, evictions=%d, currentSize=%d, maxSize=%d, Strategy=%s",
-                hits, misses, puts, evictions, currentSize, maxSize, strategy);
+        // 参数在日志线程中才格式化，strategy不是线程安全的，要在持有锁的时候转成字符串
+        SLog.event(SLogType.CACHE, LOG_NAME,
+                "Hits=%d, misses=%d, puts=%d, evictions=%d, currentSize=%d, maxSize=%d, Strategy=%s")
+                .arg(hits).arg(misses).arg(puts).arg(evictions).arg(currentSize).arg(maxSize).arg(strategy.toString()).v();
     }
 
     @Override
@@ -386,7 +386,7 @@ public class LruDiskCache implements DiskCache {
         }
     }
 
-    public static class LruDiskCacheEditor implements Editor {
+    public static class LruDiskCacheEditor implements Editor, ReadableEditor {
         private DiskLruCache.Editor diskEditor;
 
         public LruDiskCacheEditor(DiskLruCache.Editor diskEditor) {
@@ -398,6 +398,11 @@ public class LruDiskCache implements DiskCache {
             return diskEditor.newOutputStream(0);
         }
 
+        @Override
+        public File getFile() {
+            return diskEditor.getFile(0);
+        }
+
         @Override
         public void commit() throws IOException, DiskLruCache.EditorChangedException, DiskLruCache.ClosedException, DiskLruCache.FileNotExistException {
             diskEditor.commit();
@@ -25,7 +25,7 @@ import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.util.LruCache;
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class LruMemoryCache implements MemoryCache {
+public class LruMemoryCache implements MemoryCache, MemoryGovernor.Shrinkable {
     private static final String LOG_NAME = "LruMemoryCache";
 
     private final LruCache<String, SketchRefBitmap> cache;
@@ -46,12 +46,12 @@ public class LruMemoryCache implements MemoryCache {
         }
 
         if (disabled) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, key=%s", key);
+            SLog.event(SLogType.CACHE, LOG_NAME, "Disabled. Unable put, key=%s").arg(key).w();
             return;
         }
 
         if (cache.get(key) != null) {
-            SLog.w(SLogType.CACHE, LOG_NAME, String.format("Exist. key=%s", key));
+            SLog.event(SLogType.CACHE, LOG_NAME, "Exist. key=%s").arg(key).w();
             return;
         }
 
@@ -76,7 +76,7 @@ public class LruMemoryCache implements MemoryCache {
         }
 
         if (disabled) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, key=%s", key);
+            SLog.event(SLogType.CACHE, LOG_NAME, "Disabled. Unable get, key=%s").arg(key).w();
             return null;
         }
 
@@ -90,13 +90,15 @@ public class LruMemoryCache implements MemoryCache {
         }
 
         if (disabled) {
-            SLog.fw(SLogType.CACHE, LOG_NAME, "Disabled. Unable remove, key=%s", key);
+            SLog.event(SLogType.CACHE, LOG_NAME, "Disabled. Unable remove, key=%s").arg(key).w();
             return null;
         }
 
         SketchRefBitmap refBitmap = cache.remove(key);
-        SLog.fi(SLogType.CACHE, LOG_NAME, "remove. memoryCacheSize: %s",
-                Formatter.formatFileSize(context, cache.size()));
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fi(SLogType.CACHE, LOG_NAME, "remove. memoryCacheSize: %s",
+                    Formatter.formatFileSize(context, cache.size()));
+        }
         return refBitmap;
     }
 
@@ -133,6 +135,20 @@ public class LruMemoryCache implements MemoryCache {
                 SketchUtils.getTrimLevelName(level), Formatter.formatFileSize(context, releasedSize));
     }
 
+    @Override
+    public synchronized void shrinkTo(long size) {
+        if (closed) {
+            return;
+        }
+
+        long oldCacheSize = getSize();
+        cache.trimToSize((int) Math.min(size, Integer.MAX_VALUE));
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fw(SLogType.CACHE, LOG_NAME, "shrinkTo. size=%s, released: %s", Formatter.formatFileSize(context, size),
+                    Formatter.formatFileSize(context, oldCacheSize - getSize()));
+        }
+    }
+
     @Override
     public boolean isDisabled() {
         return disabled;
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.cache;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.format.Formatter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.drawable.SketchGifDrawable;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
+
+/**
+ * 内存总管，按用途统计Sketch持有的所有图片占用的内存，并保证它们加起来不超过一个总上限
+ * <p>
+ * 内存缓存、原图内存缓存和BitmapPool直接读取它们自己的大小；大图碎片在解码完成和回收时记账；
+ * GIF和显示中但已经不在内存缓存里的SketchRefBitmap用弱引用登记，定期清点还活着的
+ * <p>
+ * 超出上限时按照{@link Category}的顺序从价值最低的开始缩减，BitmapPool最先，其次是原图内存缓存，最后才是内存缓存，
+ * 正在使用的碎片、GIF和显示中的图片不会被缩减。有了总上限，各个缓存就不再需要按固定比例瓜分内存了
+ */
+public class MemoryGovernor implements Identifier {
+    private static final String KEY = "MemoryGovernor";
+    private static final long SWEEP_INTERVAL = 500;
+
+    private final Context context;
+    private final Configuration configuration;
+    private volatile long maxSize;
+
+    private final AtomicLong tileBytes = new AtomicLong();
+    private final List<WeakReference<SketchRefBitmap>> refBitmaps = new ArrayList<WeakReference<SketchRefBitmap>>();
+    private final List<WeakReference<SketchGifDrawable>> gifDrawables = new ArrayList<WeakReference<SketchGifDrawable>>();
+    private long displayedBytes;
+    private long gifBytes;
+    private long lastSweepTime;
+
+    private final AtomicBoolean enforcing = new AtomicBoolean();
+    private final AtomicLong shrinkCount = new AtomicLong();
+    private final AtomicLong shrinkBytes = new AtomicLong();
+
+    /**
+     * @param maxSize 总上限，单位字节
+     */
+    public MemoryGovernor(Context context, Configuration configuration, long maxSize) {
+        context = context.getApplicationContext();
+        this.context = context;
+        this.configuration = configuration;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 获取总上限，单位字节
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 设置总上限，单位字节，超出的部分会立即缩减
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fd(SLogType.CACHE, KEY, "setMaxSize. %s", Formatter.formatFileSize(context, maxSize));
+        }
+        checkBudget();
+    }
+
+    /**
+     * 登记一个新创建的SketchRefBitmap，它不在内存缓存里的时候算作显示中
+     */
+    public void trackRefBitmap(SketchRefBitmap refBitmap) {
+        synchronized (this) {
+            refBitmaps.add(new WeakReference<SketchRefBitmap>(refBitmap));
+        }
+    }
+
+    /**
+     * 登记一个新创建的GIF，它的帧缓冲会一直占用内存直到被回收
+     */
+    public void trackGifDrawable(SketchGifDrawable gifDrawable) {
+        synchronized (this) {
+            gifDrawables.add(new WeakReference<SketchGifDrawable>(gifDrawable));
+        }
+    }
+
+    /**
+     * 大图碎片解码完成
+     */
+    public void onTileAllocated(long bytes) {
+        tileBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 大图碎片被回收
+     */
+    public void onTileReleased(long bytes) {
+        tileBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * 检查是否超出总上限，超出的话从价值最低的开始缩减，在新的图片放进缓存或创建出来之后调用
+     * <p>
+     * 不能在持有缓存锁的时候调用，已经有线程在缩减时直接返回
+     */
+    public void checkBudget() {
+        if (!enforcing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long[] bytes = collect(false);
+            long overBytes = sum(bytes) - maxSize;
+            if (overBytes <= 0) {
+                return;
+            }
+
+            long releasedBytes = 0;
+            for (Category category : Category.values()) {
+                if (overBytes - releasedBytes <= 0) {
+                    break;
+                }
+
+                Object target = getTarget(category);
+                if (!category.shrinkable || !(target instanceof Shrinkable)) {
+                    continue;
+                }
+
+                long size = bytes[category.ordinal()];
+                if (size <= 0) {
+                    continue;
+                }
+
+                Shrinkable shrinkable = (Shrinkable) target;
+                shrinkable.shrinkTo(Math.max(0, size - (overBytes - releasedBytes)));
+                releasedBytes += Math.max(0, size - getSize(category));
+            }
+
+            shrinkCount.incrementAndGet();
+            shrinkBytes.addAndGet(releasedBytes);
+            if (SLogType.CACHE.isEnabled()) {
+                SLog.fw(SLogType.CACHE, KEY, "over budget. over=%s, released=%s, maxSize=%s",
+                        Formatter.formatFileSize(context, overBytes), Formatter.formatFileSize(context, releasedBytes),
+                        Formatter.formatFileSize(context, maxSize));
+            }
+        } finally {
+            enforcing.set(false);
+        }
+    }
+
+    /**
+     * 获取各个用途占用内存的快照
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(collect(true), maxSize, shrinkCount.get(), shrinkBytes.get());
+    }
+
+    private long[] collect(boolean forceSweep) {
+        long[] bytes = new long[Category.values().length];
+        bytes[Category.BITMAP_POOL.ordinal()] = getSize(Category.BITMAP_POOL);
+        bytes[Category.SOURCE_MEMORY_CACHE.ordinal()] = getSize(Category.SOURCE_MEMORY_CACHE);
+        bytes[Category.MEMORY_CACHE.ordinal()] = getSize(Category.MEMORY_CACHE);
+        bytes[Category.TILES.ordinal()] = tileBytes.get();
+
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (forceSweep || now - lastSweepTime >= SWEEP_INTERVAL) {
+                sweep();
+                lastSweepTime = now;
+            }
+            bytes[Category.GIF.ordinal()] = gifBytes;
+            bytes[Category.DISPLAYED.ordinal()] = displayedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * 清点还活着的GIF和显示中的SketchRefBitmap，顺便移除已经回收的
+     */
+    private void sweep() {
+        long displayed = 0;
+        Iterator<WeakReference<SketchRefBitmap>> refBitmapIterator = refBitmaps.iterator();
+        while (refBitmapIterator.hasNext()) {
+            SketchRefBitmap refBitmap = refBitmapIterator.next().get();
+            if (refBitmap == null || refBitmap.isRecycled()) {
+                refBitmapIterator.remove();
+            } else if (!refBitmap.isCached()) {
+                displayed += refBitmap.getByteCount();
+            }
+        }
+        displayedBytes = displayed;
+
+        long gif = 0;
+        Iterator<WeakReference<SketchGifDrawable>> gifIterator = gifDrawables.iterator();
+        while (gifIterator.hasNext()) {
+            SketchGifDrawable gifDrawable = gifIterator.next().get();
+            if (gifDrawable == null || gifDrawable.isRecycled()) {
+                gifIterator.remove();
+            } else {
+                gif += gifDrawable.getByteCount();
+            }
+        }
+        gifBytes = gif;
+    }
+
+    private Object getTarget(Category category) {
+        switch (category) {
+            case BITMAP_POOL:
+                return configuration.getBitmapPool();
+            case SOURCE_MEMORY_CACHE:
+                return configuration.getSourceMemoryCache();
+            case MEMORY_CACHE:
+                return configuration.getMemoryCache();
+            default:
+                return null;
+        }
+    }
+
+    private long getSize(Category category) {
+        switch (category) {
+            case BITMAP_POOL:
+                return configuration.getBitmapPool().getSize();
+            case SOURCE_MEMORY_CACHE:
+                return configuration.getSourceMemoryCache().getSize();
+            case MEMORY_CACHE:
+                return configuration.getMemoryCache().getSize();
+            default:
+                return 0;
+        }
+    }
+
+    private static long sum(long[] bytes) {
+        long total = 0;
+        for (long value : bytes) {
+            total += value;
+        }
+        return total;
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(maxSize=%s)", KEY, Formatter.formatFileSize(context, maxSize));
+    }
+
+    /**
+     * 内存的用途，按价值从低到高排列，超出上限时从前往后缩减
+     */
+    public enum Category {
+        /**
+         * BitmapPool里等待复用的图片，丢掉只是少复用一次
+         */
+        BITMAP_POOL(true),
+
+        /**
+         * 原图内存缓存，丢掉后换个处理器需要重新解码
+         */
+        SOURCE_MEMORY_CACHE(true),
+
+        /**
+         * 内存缓存，丢掉后再显示需要重新解码
+         */
+        MEMORY_CACHE(true),
+
+        /**
+         * 大图碎片
+         */
+        TILES(false),
+
+        /**
+         * GIF的帧缓冲
+         */
+        GIF(false),
+
+        /**
+         * 显示中但已经不在内存缓存里的图片
+         */
+        DISPLAYED(false),;
+
+        private final boolean shrinkable;
+
+        Category(boolean shrinkable) {
+            this.shrinkable = shrinkable;
+        }
+
+        public boolean isShrinkable() {
+            return shrinkable;
+        }
+    }
+
+    /**
+     * 可以被MemoryGovernor缩减的缓存
+     */
+    public interface Shrinkable {
+        /**
+         * 淘汰最久没用的，直到不超过指定大小，单位字节
+         */
+        void shrinkTo(long size);
+    }
+
+    /**
+     * 某一时刻各个用途占用的内存
+     */
+    public static class Snapshot {
+        private final long[] bytes;
+        private final long maxSize;
+        private final long shrinkCount;
+        private final long shrinkBytes;
+
+        Snapshot(long[] bytes, long maxSize, long shrinkCount, long shrinkBytes) {
+            this.bytes = bytes;
+            this.maxSize = maxSize;
+            this.shrinkCount = shrinkCount;
+            this.shrinkBytes = shrinkBytes;
+        }
+
+        public long getBytes(Category category) {
+            return bytes[category.ordinal()];
+        }
+
+        public long getTotalBytes() {
+            return sum(bytes);
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * 获取因为超出上限而缩减的次数
+         */
+        public long getShrinkCount() {
+            return shrinkCount;
+        }
+
+        /**
+         * 获取因为超出上限而缩减的总字节数
+         */
+        public long getShrinkBytes() {
+            return shrinkBytes;
+        }
+
+        public String getInfo(Context context) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(KEY).append(": total=").append(Formatter.formatFileSize(context, getTotalBytes()));
+            builder.append("/").append(Formatter.formatFileSize(context, maxSize));
+            for (Category category : Category.values()) {
+                builder.append(", ").append(category.name()).append("=")
+                        .append(Formatter.formatFileSize(context, bytes[category.ordinal()]));
+            }
+            builder.append(", shrink=").append(shrinkCount).append("/").append(Formatter.formatFileSize(context, shrinkBytes));
+            return builder.toString();
+        }
+    }
+}
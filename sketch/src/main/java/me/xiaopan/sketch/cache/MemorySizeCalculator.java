@@ -21,11 +21,14 @@ public class MemorySizeCalculator {
     static final int BYTES_PER_ARGB_8888_PIXEL = 4;
     static final int MEMORY_CACHE_TARGET_SCREENS = 3;
     static final int BITMAP_POOL_TARGET_SCREENS = 3;
+    static final int SOURCE_MEMORY_CACHE_TARGET_SCREENS = 1;
     static final float MAX_SIZE_MULTIPLIER = 0.4f;
     static final float LOW_MEMORY_MAX_SIZE_MULTIPLIER = 0.33f;
 
+    private final int maxSize;
     private final int bitmapPoolSize;
     private final int memoryCacheSize;
+    private final int sourceMemoryCacheSize;
     private final Context context;
 
     interface ScreenDimensions {
@@ -45,28 +48,41 @@ public class MemorySizeCalculator {
         context = context.getApplicationContext();
         this.context = context;
         final int maxSize = getMaxSize(activityManager);
+        this.maxSize = maxSize;
 
         final int screenSize = screenDimensions.getWidthPixels() * screenDimensions.getHeightPixels()
                 * BYTES_PER_ARGB_8888_PIXEL;
 
         int targetPoolSize = screenSize * BITMAP_POOL_TARGET_SCREENS;
         int targetMemoryCacheSize = screenSize * MEMORY_CACHE_TARGET_SCREENS;
+        int targetSourceMemoryCacheSize = screenSize * SOURCE_MEMORY_CACHE_TARGET_SCREENS;
 
-        if (targetMemoryCacheSize + targetPoolSize <= maxSize) {
+        if (targetMemoryCacheSize + targetSourceMemoryCacheSize + targetPoolSize <= maxSize) {
             memoryCacheSize = targetMemoryCacheSize;
+            sourceMemoryCacheSize = targetSourceMemoryCacheSize;
             bitmapPoolSize = BitmapPoolUtils.sdkSupportInBitmap() ? targetPoolSize : 0;
         } else {
-            int part = Math.round((float) maxSize / (BITMAP_POOL_TARGET_SCREENS + MEMORY_CACHE_TARGET_SCREENS));
+            int part = Math.round((float) maxSize / (BITMAP_POOL_TARGET_SCREENS + MEMORY_CACHE_TARGET_SCREENS + SOURCE_MEMORY_CACHE_TARGET_SCREENS));
             memoryCacheSize = part * MEMORY_CACHE_TARGET_SCREENS;
+            sourceMemoryCacheSize = part * SOURCE_MEMORY_CACHE_TARGET_SCREENS;
             bitmapPoolSize = BitmapPoolUtils.sdkSupportInBitmap() ? part * BITMAP_POOL_TARGET_SCREENS : 0;
         }
 
         if (SLogType.CACHE.isEnabled()) {
-            SLog.fd(SLogType.CACHE, LOG_NAME, "Calculated memory cache size: %s pool size: %s memory class limited? %s max size: %s memoryClass: %d isLowMemoryDevice: %s",
-                    toMb(memoryCacheSize), toMb(bitmapPoolSize), targetMemoryCacheSize + targetPoolSize > maxSize, toMb(maxSize), activityManager.getMemoryClass(), isLowMemoryDevice(activityManager));
+            SLog.fd(SLogType.CACHE, LOG_NAME, "Calculated memory cache size: %s source memory cache size: %s pool size: %s memory class limited? %s max size: %s memoryClass: %d isLowMemoryDevice: %s",
+                    toMb(memoryCacheSize), toMb(sourceMemoryCacheSize), toMb(bitmapPoolSize),
+                    targetMemoryCacheSize + targetSourceMemoryCacheSize + targetPoolSize > maxSize, toMb(maxSize),
+                    activityManager.getMemoryClass(), isLowMemoryDevice(activityManager));
         }
     }
 
+    /**
+     * Returns the total budget for all bitmaps held by Sketch in bytes, MemoryGovernor uses it as the global ceiling.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
     /**
      * Returns the recommended memory cache size for the device it is run on in bytes.
      */
@@ -74,6 +90,14 @@ public class MemorySizeCalculator {
         return memoryCacheSize;
     }
 
+    /**
+     * Returns the recommended source memory cache size for the device it is run on in bytes,
+     * the source memory cache keeps decoded bitmaps before they are processed.
+     */
+    public int getSourceMemoryCacheSize() {
+        return sourceMemoryCacheSize;
+    }
+
     /**
      * Returns the recommended bitmap pool size for the device it is run on in bytes.
      */
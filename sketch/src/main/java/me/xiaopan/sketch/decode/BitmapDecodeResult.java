@@ -30,6 +30,10 @@ public class BitmapDecodeResult implements DecodeResult {
 
     private boolean banProcess;
     private boolean processed;
+    private long decodeUseTime;
+    private long processStartTime;
+    private int processDownsample = 1;
+    private boolean degraded;
 
     public BitmapDecodeResult(ImageAttrs imageAttrs, Bitmap bitmap) {
         this.imageAttrs = imageAttrs;
@@ -87,4 +91,48 @@ public class BitmapDecodeResult implements DecodeResult {
     public void setBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
     }
+
+    /**
+     * 获取解码花了多长时间，单位毫秒，同处理时间一起用来判断值不值得缓存已处理的图片
+     */
+    public long getDecodeUseTime() {
+        return decodeUseTime;
+    }
+
+    public void setDecodeUseTime(long decodeUseTime) {
+        this.decodeUseTime = decodeUseTime;
+    }
+
+    /**
+     * 获取开始处理的时间，解码和处理可能不在同一个线程，中间排队的时间不能算进去
+     */
+    public long getProcessStartTime() {
+        return processStartTime;
+    }
+
+    public void setProcessStartTime(long processStartTime) {
+        this.processStartTime = processStartTime;
+    }
+
+    /**
+     * 获取解码时为了处理器额外缩小的倍数，处理时要告诉处理器
+     */
+    public int getProcessDownsample() {
+        return processDownsample;
+    }
+
+    public void setProcessDownsample(int processDownsample) {
+        this.processDownsample = processDownsample;
+    }
+
+    /**
+     * 是否因为滚动中解码耗时超出预算而降低了质量，降低质量的图片不放入内存缓存，也不保存到已处理图片缓存
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    public void setDegraded(boolean degraded) {
+        this.degraded = degraded;
+    }
 }
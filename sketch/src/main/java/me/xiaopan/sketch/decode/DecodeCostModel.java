@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.decode;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 解码耗时模型，根据真实的解码耗时按(mimeType, 像素数量级, inSampleSize, config)分组在线学习每个像素的解码耗时，
+ * 用来在解码之前预估耗时
+ * <p>
+ * 每组用指数加权平均记录解码出来的每个像素花了多少纳秒，组里的样本不够时退而使用同一mimeType的平均值；
+ * 数据会保存到缓存目录中，下次启动时继续使用
+ * <p>
+ * 文件读写都在自己的单线程中执行，创建时就开始加载，保存时在锁里复制一份数据，在锁外写文件，不会阻塞解码线程，
+ * 单线程保证了加载一定在保存之前完成，加载完成之前记录的样本会保留
+ */
+public class DecodeCostModel implements Identifier {
+    private static final String KEY = "DecodeCostModel";
+    private static final String LOG_NAME = "DecodeCostModel";
+
+    private static final String FILE_NAME = "sketch_decode_cost";
+    private static final int FILE_VERSION = 1;
+
+    private static final int MAX_BUCKET_COUNT = 512;
+    private static final int MIN_SAMPLE_COUNT = 2;
+    private static final int SAVE_INTERVAL = 64;   // 每新增这么多个样本保存一次
+    private static final double ALPHA = 0.2;    // 指数加权平均的系数，样本少于1/ALPHA个时按算术平均计算
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final File file;
+    private final Map<String, Entry> bucketMap = new HashMap<String, Entry>();
+    private final Map<String, Entry> mimeTypeMap = new HashMap<String, Entry>();
+    private final ThreadPoolExecutor ioExecutor;
+    private long budgetNanos;
+    private boolean cleared;    // 加载完成之前清空了的话，加载出来的数据就不要了
+    private boolean savePending;
+    private int unsavedCount;
+
+    public DecodeCostModel(Context context, long budgetNanos) {
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+        this.budgetNanos = budgetNanos;
+
+        ioExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IOThreadFactory());
+        ioExecutor.allowCoreThreadTimeOut(true);
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * 获取解码耗时预算，单位纳秒，滚动中预计解码耗时超出预算时会降低解码质量，默认是一帧的时长
+     */
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * 设置解码耗时预算，单位纳秒
+     */
+    @SuppressWarnings("unused")
+    public DecodeCostModel setBudgetNanos(long budgetNanos) {
+        if (budgetNanos > 0) {
+            this.budgetNanos = budgetNanos;
+        }
+        return this;
+    }
+
+    /**
+     * 记录一次解码耗时
+     *
+     * @param width        图片原始宽
+     * @param height       图片原始高
+     * @param inSampleSize 解码时使用的inSampleSize
+     * @param config       解码时使用的config，null表示默认的ARGB_8888
+     * @param decodeNanos  解码耗时，单位纳秒
+     */
+    public synchronized void record(String mimeType, int width, int height, int inSampleSize,
+                                    Bitmap.Config config, long decodeNanos) {
+        long decodedPixels = decodedPixels(width, height, inSampleSize);
+        if (mimeType == null || decodedPixels <= 0 || decodeNanos <= 0) {
+            return;
+        }
+
+        double nanosPerPixel = decodeNanos / (double) decodedPixels;
+        String bucketKey = bucketKey(mimeType, width, height, inSampleSize, config);
+        Entry bucket = bucketMap.get(bucketKey);
+        if (bucket == null && bucketMap.size() < MAX_BUCKET_COUNT) {
+            bucket = new Entry();
+            bucketMap.put(bucketKey, bucket);
+        }
+        if (bucket != null) {
+            bucket.update(nanosPerPixel);
+        }
+
+        Entry mimeTypeEntry = mimeTypeMap.get(mimeType);
+        if (mimeTypeEntry == null) {
+            mimeTypeEntry = new Entry();
+            mimeTypeMap.put(mimeType, mimeTypeEntry);
+        }
+        mimeTypeEntry.update(nanosPerPixel);
+
+        if (++unsavedCount >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    /**
+     * 预估解码耗时
+     *
+     * @param config null表示默认的ARGB_8888
+     * @return 预估的解码耗时，单位纳秒；-1：还没有这种图片的数据
+     */
+    public synchronized long estimateNanos(String mimeType, int width, int height, int inSampleSize, Bitmap.Config config) {
+        long decodedPixels = decodedPixels(width, height, inSampleSize);
+        if (mimeType == null || decodedPixels <= 0) {
+            return -1;
+        }
+
+        Entry entry = bucketMap.get(bucketKey(mimeType, width, height, inSampleSize, config));
+        if (entry == null || entry.count < MIN_SAMPLE_COUNT) {
+            entry = mimeTypeMap.get(mimeType);
+        }
+        if (entry == null || entry.count < MIN_SAMPLE_COUNT) {
+            return -1;
+        }
+
+        return (long) (entry.nanosPerPixel * decodedPixels);
+    }
+
+    private static long decodedPixels(int width, int height, int inSampleSize) {
+        int sampleSize = Math.max(1, inSampleSize);
+        return (long) Math.ceil(width / (double) sampleSize) * (long) Math.ceil(height / (double) sampleSize);
+    }
+
+    private static String bucketKey(String mimeType, int width, int height, int inSampleSize, Bitmap.Config config) {
+        // 像素数量按2的幂分级，同一级内的耗时基本与像素数成正比
+        long pixels = Math.max(1, (long) width * height);
+        int magnitude = 63 - Long.numberOfLeadingZeros(pixels);
+        return mimeType + "/" + magnitude + "/" + Math.max(1, inSampleSize) + "/"
+                + (config != null ? config.name() : Bitmap.Config.ARGB_8888.name());
+    }
+
+    /**
+     * 在IO线程中加载上次保存的数据，只补充还没有的分组，加载完成之前记录的样本更新，保留不动
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        Map<String, Entry> loadedBucketMap = new HashMap<String, Entry>();
+        Map<String, Entry> loadedMimeTypeMap = new HashMap<String, Entry>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line = reader.readLine();
+            if (line == null || !String.valueOf(FILE_VERSION).equals(line.trim())) {
+                return;
+            }
+
+            while ((line = reader.readLine()) != null) {
+                String[] items = line.split("\t");
+                if (items.length != 4) {
+                    continue;
+                }
+
+                Entry entry = new Entry();
+                entry.count = Long.parseLong(items[2]);
+                entry.nanosPerPixel = Double.parseDouble(items[3]);
+                if ("b".equals(items[0])) {
+                    loadedBucketMap.put(items[1], entry);
+                } else if ("m".equals(items[0])) {
+                    loadedMimeTypeMap.put(items[1], entry);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            SLog.fw(SLogType.BASE, LOG_NAME, "load failed. %s. %s", e.getMessage(), file.getPath());
+            return;
+        } finally {
+            SketchUtils.close(reader);
+        }
+
+        synchronized (this) {
+            if (cleared) {
+                return;
+            }
+            for (Map.Entry<String, Entry> mapEntry : loadedBucketMap.entrySet()) {
+                if (bucketMap.size() >= MAX_BUCKET_COUNT) {
+                    break;
+                }
+                if (!bucketMap.containsKey(mapEntry.getKey())) {
+                    bucketMap.put(mapEntry.getKey(), mapEntry.getValue());
+                }
+            }
+            for (Map.Entry<String, Entry> mapEntry : loadedMimeTypeMap.entrySet()) {
+                if (!mimeTypeMap.containsKey(mapEntry.getKey())) {
+                    mimeTypeMap.put(mapEntry.getKey(), mapEntry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * 在IO线程中保存到缓存目录中，不会阻塞调用线程，已经有一次保存在排队的话就不再重复提交
+     */
+    public synchronized void save() {
+        if (unsavedCount == 0 || savePending) {
+            return;
+        }
+        savePending = true;
+
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(snapshot());
+            }
+        });
+    }
+
+    /**
+     * 在锁里把数据复制成要写入的文本，复制完就可以继续记录新的样本了
+     */
+    private synchronized String snapshot() {
+        savePending = false;
+        unsavedCount = 0;
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(FILE_VERSION).append("\n");
+        appendEntries(builder, "b", bucketMap);
+        appendEntries(builder, "m", mimeTypeMap);
+        return builder.toString();
+    }
+
+    private void write(String content) {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(file));
+            writer.write(content);
+        } catch (IOException e) {
+            e.printStackTrace();
+            SLog.fw(SLogType.BASE, LOG_NAME, "save failed. %s. %s", e.getMessage(), file.getPath());
+        } finally {
+            SketchUtils.close(writer);
+        }
+    }
+
+    private static void appendEntries(StringBuilder builder, String type, Map<String, Entry> map) {
+        for (Map.Entry<String, Entry> mapEntry : map.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            builder.append(type).append("\t").append(mapEntry.getKey()).append("\t")
+                    .append(entry.count).append("\t").append(entry.nanosPerPixel).append("\n");
+        }
+    }
+
+    /**
+     * 清空所有数据，包括保存在缓存目录中的
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() {
+        bucketMap.clear();
+        mimeTypeMap.clear();
+        unsavedCount = 0;
+        cleared = true;
+
+        // 删除也在IO线程中执行，排在已经提交的保存之后，保证删完之后不会再被写回来
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) {
+                    SLog.fw(SLogType.BASE, LOG_NAME, "delete failed. %s", file.getPath());
+                }
+            }
+        });
+    }
+
+    public synchronized String getInfo() {
+        StringBuilder builder = new StringBuilder(KEY).append(":");
+        for (Map.Entry<String, Entry> mapEntry : mimeTypeMap.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            builder.append(String.format(Locale.US, "\n%s(count=%d, %.2fms/megapixel)",
+                    mapEntry.getKey(), entry.count, entry.nanosPerPixel));
+        }
+        builder.append(String.format(Locale.US, "\nbuckets=%d", bucketMap.size()));
+        return builder.toString();
+    }
+
+    @Override
+    public String getKey() {
+        return String.format(Locale.US, "%s(budget=%.2fms)", KEY, budgetNanos / 1000000f);
+    }
+
+    private static class IOThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DecodeCostModelThread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class Entry {
+        private long count;
+        private double nanosPerPixel;
+
+        void update(double value) {
+            count++;
+            double weight = Math.max(ALPHA, 1d / count);
+            nanosPerPixel += (value - nanosPerPixel) * weight;
+        }
+    }
+}
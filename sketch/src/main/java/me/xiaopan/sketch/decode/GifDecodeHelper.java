@@ -21,6 +21,7 @@ import android.graphics.BitmapFactory;
 import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.MemoryGovernor;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
 import me.xiaopan.sketch.drawable.SketchGifFactory;
@@ -54,6 +55,10 @@ public class GifDecodeHelper extends DecodeHelper {
                 return null;
             }
 
+            MemoryGovernor memoryGovernor = request.getConfiguration().getMemoryGovernor();
+            memoryGovernor.trackGifDrawable(gifDrawable);
+            memoryGovernor.checkBudget();
+
             return new GifDecodeResult(imageAttrs, gifDrawable).setBanProcess(true);
         } catch (Throwable e) {
             e.printStackTrace();
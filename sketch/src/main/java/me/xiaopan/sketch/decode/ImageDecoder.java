@@ -19,6 +19,8 @@ package me.xiaopan.sketch.decode;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
+import android.os.SystemClock;
+import android.text.TextUtils;
 
 import java.io.IOException;
 import java.util.LinkedList;
@@ -27,6 +29,7 @@ import java.util.List;
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.request.LoadOptions;
 import me.xiaopan.sketch.request.LoadRequest;
 import me.xiaopan.sketch.util.ExifInterface;
 
@@ -36,7 +39,6 @@ import me.xiaopan.sketch.util.ExifInterface;
 public class ImageDecoder implements Identifier {
     private static final String LOG_NAME = "ImageDecoder";
 
-    private DecodeTimeAnalyze timeAnalyze = new DecodeTimeAnalyze();
     private List<DecodeHelper> decodeHelperList;
     private List<ResultProcessor> resultProcessorList;
 
@@ -61,10 +63,18 @@ public class ImageDecoder implements Identifier {
      * @throws DecodeException 解码失败了
      */
     public DecodeResult decode(LoadRequest request) throws DecodeException {
-        long startTime = 0;
-        if (SLogType.TIME.isEnabled()) {
-            startTime = timeAnalyze.decodeStart();
-        }
+        return process(request, decodeWithoutProcess(request));
+    }
+
+    /**
+     * 只解码不执行后续处理，后续处理可以放到处理线程中通过{@link #process(LoadRequest, DecodeResult)}执行
+     *
+     * @param request LoadRequest
+     * @return DecodeResult
+     * @throws DecodeException 解码失败了
+     */
+    public DecodeResult decodeWithoutProcess(LoadRequest request) throws DecodeException {
+        long decodeStartTime = SystemClock.uptimeMillis();
 
         DecodeResult result = null;
         try {
@@ -75,8 +85,41 @@ public class ImageDecoder implements Identifier {
             e.printStackTrace();
         }
 
-        if (SLogType.TIME.isEnabled()) {
-            timeAnalyze.decodeEnd(startTime, LOG_NAME, request.getKey());
+        if (result instanceof BitmapDecodeResult) {
+            ((BitmapDecodeResult) result).setDecodeUseTime(SystemClock.uptimeMillis() - decodeStartTime);
+        }
+
+        return result;
+    }
+
+    /**
+     * 解码结果是否需要执行后续处理，不需要的话就不用再提交到处理线程了
+     */
+    public boolean isNeedProcess(LoadRequest request, DecodeResult result) {
+        if (!(result instanceof BitmapDecodeResult) || result.isBanProcess()) {
+            return false;
+        }
+
+        LoadOptions loadOptions = request.getOptions();
+        if (loadOptions.getImageProcessor() != null) {
+            return true;
+        }
+
+        ProcessedImageCache processedImageCache = request.getConfiguration().getProcessedImageCache();
+        return result.isProcessed() && processedImageCache.canUse(loadOptions);
+    }
+
+    /**
+     * 执行后续处理，包括转换、缓存，失败的话会回收解码结果
+     *
+     * @param request LoadRequest
+     * @param result  解码结果
+     * @return 处理后的结果，null：处理失败了
+     * @throws DecodeException 处理失败了
+     */
+    public DecodeResult process(LoadRequest request, DecodeResult result) throws DecodeException {
+        if (result instanceof BitmapDecodeResult) {
+            ((BitmapDecodeResult) result).setProcessStartTime(SystemClock.uptimeMillis());
         }
 
         if (result != null) {
@@ -119,6 +162,11 @@ public class ImageDecoder implements Identifier {
             return null;
         }
 
+        // 原始像素格式的已处理缓存BitmapFactory读不了，读不出类型的时候再按原始像素格式解码，不用为了判断格式再多读一次文件
+        if (dataSource instanceof ProcessedCacheDataSource && TextUtils.isEmpty(boundOptions.outMimeType)) {
+            return ProcessedCacheDecodeHelper.decodeRaw(request, dataSource);
+        }
+
         // Exclude images with a width of less than or equal to 1
         if (boundOptions.outWidth <= 1 || boundOptions.outHeight <= 1) {
             SLog.fe(SLogType.REQUEST, LOG_NAME, "image width or height less than or equal to 1px. imageSize: %dx%d. %s",
@@ -31,6 +31,7 @@ import java.io.InputStream;
 import me.xiaopan.sketch.Identifier;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.drawable.ImageAttrs;
+import me.xiaopan.sketch.process.OrientationEngine;
 import me.xiaopan.sketch.util.ExifInterface;
 import me.xiaopan.sketch.util.SketchUtils;
 
@@ -215,6 +216,11 @@ public class ImageOrientationCorrector implements Identifier {
             return null;
         }
 
+        // 90°的整数倍旋转和翻转直接搬运像素，比Canvas快而且没有误差
+        if (OrientationEngine.support(bitmap, exifOrientation)) {
+            return OrientationEngine.transform(bitmap, exifOrientation, bitmapPool);
+        }
+
         Matrix matrix = new Matrix();
         initializeMatrixForExifRotation(exifOrientation, matrix);
 
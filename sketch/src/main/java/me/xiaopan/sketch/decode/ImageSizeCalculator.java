@@ -18,6 +18,7 @@
 package me.xiaopan.sketch.decode;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.util.DisplayMetrics;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -35,6 +36,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  */
 public class ImageSizeCalculator implements Identifier {
     private static final String KEY = "ImageSizeCalculator";
+    private static final int MAX_BUDGET_DOWNSAMPLE_STEPS = 2;
 
     private int openGLMaxTextureSize = -1;
     private float targetSizeScale = 1.1f;
@@ -251,6 +253,28 @@ public class ImageSizeCalculator implements Identifier {
         return inSampleSize;
     }
 
+    /**
+     * 预计解码耗时超出预算时，在原来的inSampleSize的基础上再缩小，每次缩小一倍，最多缩小两次
+     *
+     * @param inSampleSize 原来的inSampleSize
+     * @param config       解码时使用的config，null表示默认的ARGB_8888
+     * @return 新的inSampleSize，没有数据可以预估或者预计不会超出预算时返回原来的inSampleSize
+     */
+    public int calculateBudgetInSampleSize(DecodeCostModel costModel, String mimeType, int outWidth, int outHeight,
+                                           int inSampleSize, Bitmap.Config config) {
+        long budgetNanos = costModel.getBudgetNanos();
+        int newInSampleSize = Math.max(1, inSampleSize);
+        int steps = 0;
+        long estimateNanos = costModel.estimateNanos(mimeType, outWidth, outHeight, newInSampleSize, config);
+        while (estimateNanos > budgetNanos && steps < MAX_BUDGET_DOWNSAMPLE_STEPS
+                && SketchUtils.ceil(outWidth, newInSampleSize * 2) > 1 && SketchUtils.ceil(outHeight, newInSampleSize * 2) > 1) {
+            newInSampleSize *= 2;
+            steps++;
+            estimateNanos = costModel.estimateNanos(mimeType, outWidth, outHeight, newInSampleSize, config);
+        }
+        return newInSampleSize;
+    }
+
     /**
      * 根据高度计算是否可以使用阅读模式
      */
@@ -18,15 +18,23 @@ package me.xiaopan.sketch.decode;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.os.Build;
 
+import me.xiaopan.sketch.Configuration;
 import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.drawable.ImageAttrs;
+import me.xiaopan.sketch.process.ImageProcessor;
+import me.xiaopan.sketch.process.ResizeImageProcessor;
+import me.xiaopan.sketch.process.WrappedImageProcessor;
+import me.xiaopan.sketch.request.LoadOptions;
 import me.xiaopan.sketch.request.LoadRequest;
 import me.xiaopan.sketch.request.MaxSize;
+import me.xiaopan.sketch.request.Resize;
 import me.xiaopan.sketch.util.SketchUtils;
 
 public class NormalDecodeHelper extends DecodeHelper {
@@ -42,6 +50,10 @@ public class NormalDecodeHelper extends DecodeHelper {
     public DecodeResult decode(LoadRequest request, DataSource dataSource, ImageType imageType,
                                BitmapFactory.Options boundOptions, BitmapFactory.Options decodeOptions, int exifOrientation) throws DecodeException {
 
+        // 解码出来的是原始方向的图片，解码时缩放要按原始方向的宽高计算，boundOptions接下来会被改成旋转后的宽高
+        int rawWidth = boundOptions.outWidth;
+        int rawHeight = boundOptions.outHeight;
+
         ImageOrientationCorrector orientationCorrector = request.getConfiguration().getImageOrientationCorrector();
         orientationCorrector.rotateSize(boundOptions, exifOrientation);
 
@@ -54,16 +66,43 @@ public class NormalDecodeHelper extends DecodeHelper {
                     maxSize.getWidth(), maxSize.getHeight(), supportLargeImage);
         }
 
+        // 解码时直接缩放到resize的尺寸
+        int maxSizeInSampleSize = decodeOptions.inSampleSize;
+        int[] resizeInDecodeSize = setupResizeInDecode(request, imageType, rawWidth, rawHeight, decodeOptions, exifOrientation);
+        boolean scaleInDecode = decodeOptions.inDensity != 0 && decodeOptions.inDensity != decodeOptions.inTargetDensity;
+
+        // 模糊之类的处理不需要那么高的分辨率，解码时就再缩小一些
+        int processDownsample = resizeInDecodeSize == null ? setupDownsampleForProcess(request, boundOptions, decodeOptions) : 1;
+
+        // 滚动中预计解码耗时会超出预算的话就临时降低质量
+        boolean degraded = !scaleInDecode && request.getConfiguration().isGlobalScrolling()
+                && degradeForDecodeBudget(request, imageType, boundOptions, decodeOptions, processDownsample);
+
         // Set inBitmap from bitmap pool
         if (BitmapPoolUtils.sdkSupportInBitmap() && !request.getOptions().isBitmapPoolDisabled()) {
             BitmapPool bitmapPool = request.getConfiguration().getBitmapPool();
-            BitmapPoolUtils.setInBitmapFromPool(decodeOptions,
-                    boundOptions.outWidth, boundOptions.outHeight, boundOptions.outMimeType, bitmapPool);
+            if (!scaleInDecode) {
+                BitmapPoolUtils.setInBitmapFromPool(decodeOptions,
+                        boundOptions.outWidth, boundOptions.outHeight, boundOptions.outMimeType, bitmapPool);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // 4.4以下inBitmap的尺寸必须同缩放前的一样，因此只有4.4及以上才能在缩放解码时复用，并且要按照缩放后的尺寸来找
+                BitmapPoolUtils.setInBitmapFromPool(decodeOptions,
+                        resizeInDecodeSize[0] * decodeOptions.inSampleSize, resizeInDecodeSize[1] * decodeOptions.inSampleSize,
+                        boundOptions.outMimeType, bitmapPool);
+            }
         }
 
         Bitmap bitmap = null;
         try {
+            long decodeStartNanos = System.nanoTime();
             bitmap = ImageDecodeUtils.decodeBitmap(dataSource, decodeOptions);
+
+            // 解码时缩放的耗时同inSampleSize、config的关系不大，不参与学习
+            if (bitmap != null && !scaleInDecode) {
+                DecodeCostModel costModel = request.getConfiguration().getDecodeCostModel();
+                costModel.record(boundOptions.outMimeType, boundOptions.outWidth, boundOptions.outHeight,
+                        decodeOptions.inSampleSize, decodeOptions.inPreferredConfig, System.nanoTime() - decodeStartNanos);
+            }
         } catch (Throwable throwable) {
             throwable.printStackTrace();
 
@@ -103,15 +142,218 @@ public class NormalDecodeHelper extends DecodeHelper {
             return null;
         }
 
-        ProcessedImageCache processedImageCache = request.getConfiguration().getProcessedImageCache();
-        boolean processed = processedImageCache.canUseCacheProcessedImageInDisk(decodeOptions.inSampleSize);
+        if (scaleInDecode) {
+            // 缩放解码后bitmap的density会变成inTargetDensity，要改回来，否则绘制时会被按照density再缩放一次
+            bitmap.setDensity(request.getContext().getResources().getDisplayMetrics().densityDpi);
+        }
+
+        if (resizeInDecodeSize != null && SLogType.REQUEST.isEnabled()) {
+            logResizeInDecode(request, rawWidth, rawHeight, decodeOptions, exifOrientation, maxSizeInSampleSize, bitmap);
+        }
+
+        // 缩小过的都算处理过，值不值得缓存到磁盘由ProcessedImageCache根据耗时决定
+        boolean processed = decodeOptions.inSampleSize > 1 || scaleInDecode;
 
         ImageAttrs imageAttrs = new ImageAttrs(boundOptions.outMimeType, boundOptions.outWidth, boundOptions.outHeight, exifOrientation);
         BitmapDecodeResult result = new BitmapDecodeResult(imageAttrs, bitmap).setProcessed(processed);
+        result.setProcessDownsample(processDownsample);
+        result.setDegraded(degraded);
 
         correctOrientation(orientationCorrector, result, exifOrientation, request);
 
         ImageDecodeUtils.decodeSuccess(bitmap, boundOptions.outWidth, boundOptions.outHeight, decodeOptions.inSampleSize, request, LOG_NAME);
         return result;
     }
+
+    /**
+     * 根据解码耗时模型预估解码耗时，超出预算的话先换成RGB_565，还不够再增大inSampleSize，
+     * 只有没有处理器或者只是ResizeImageProcessor时才增大inSampleSize，其它处理器的效果同图片的分辨率有关
+     *
+     * @return 是否降低了质量
+     */
+    private boolean degradeForDecodeBudget(LoadRequest request, ImageType imageType, BitmapFactory.Options boundOptions,
+                                           BitmapFactory.Options decodeOptions, int processDownsample) {
+        Configuration configuration = request.getConfiguration();
+        DecodeCostModel costModel = configuration.getDecodeCostModel();
+        LoadOptions loadOptions = request.getOptions();
+        String mimeType = boundOptions.outMimeType;
+        int inSampleSize = Math.max(1, decodeOptions.inSampleSize);
+        Bitmap.Config oldConfig = decodeOptions.inPreferredConfig;
+
+        long estimateNanos = costModel.estimateNanos(mimeType, boundOptions.outWidth, boundOptions.outHeight, inSampleSize, oldConfig);
+        if (estimateNanos <= costModel.getBudgetNanos()) {
+            return false;
+        }
+
+        // 没有指定config并且这种图片的低质量config是RGB_565时才换，ARGB_4444效果太差
+        if (loadOptions.getBitmapConfig() == null && imageType != null
+                && imageType.getConfig(true) == Bitmap.Config.RGB_565 && oldConfig != Bitmap.Config.RGB_565) {
+            decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+
+        ImageProcessor imageProcessor = loadOptions.getImageProcessor();
+        if (processDownsample <= 1 && (imageProcessor == null || imageProcessor.getClass() == ResizeImageProcessor.class)) {
+            ImageSizeCalculator imageSizeCalculator = configuration.getImageSizeCalculator();
+            decodeOptions.inSampleSize = imageSizeCalculator.calculateBudgetInSampleSize(costModel, mimeType,
+                    boundOptions.outWidth, boundOptions.outHeight, inSampleSize, decodeOptions.inPreferredConfig);
+        }
+
+        boolean degraded = decodeOptions.inPreferredConfig != oldConfig || decodeOptions.inSampleSize != inSampleSize;
+        if (degraded && SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "degrade for decode budget. estimate=%dms, budget=%dms, " +
+                            "inSampleSize=%d->%d, config=%s->%s. %s",
+                    estimateNanos / 1000000, costModel.getBudgetNanos() / 1000000, inSampleSize, decodeOptions.inSampleSize,
+                    oldConfig, decodeOptions.inPreferredConfig, request.getKey());
+        }
+        return degraded;
+    }
+
+    /**
+     * 没有resize时根据处理器链的提示在inSampleSize的基础上再缩小，例如半径较大的模糊，缩小后模糊再放大显示同直接模糊几乎看不出差别，
+     * 这个倍数不体现在缓存key中，所以缓存的结果依然可以共享
+     *
+     * @return 额外缩小的倍数，处理时要告诉处理器
+     */
+    private int setupDownsampleForProcess(LoadRequest request, BitmapFactory.Options boundOptions,
+                                          BitmapFactory.Options decodeOptions) {
+        LoadOptions loadOptions = request.getOptions();
+        ImageProcessor imageProcessor = loadOptions.getImageProcessor();
+        if (request.getConfiguration().isGlobalDisabledDownsampleForProcess() || loadOptions.getResize() != null
+                || !(imageProcessor instanceof WrappedImageProcessor)) {
+            return 1;
+        }
+
+        int inSampleSize = Math.max(1, decodeOptions.inSampleSize);
+        int sampledWidth = (int) Math.ceil(boundOptions.outWidth / (double) inSampleSize);
+        int sampledHeight = (int) Math.ceil(boundOptions.outHeight / (double) inSampleSize);
+        int downsample = ((WrappedImageProcessor) imageProcessor).getMaxDecodeDownsample(sampledWidth, sampledHeight);
+        if (downsample <= 1 || downsample == Integer.MAX_VALUE) {
+            return 1;
+        }
+
+        decodeOptions.inSampleSize = inSampleSize * downsample;
+        if (SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "downsample for process. downsample=%d, inSampleSize=%d, processor=%s. %s",
+                    downsample, decodeOptions.inSampleSize, imageProcessor.getKey(), request.getKey());
+        }
+        return downsample;
+    }
+
+    /**
+     * 如果处理图片时首先要按照resize缩放，那么就在解码时结合inSampleSize和inDensity、inTargetDensity直接解码到resize的尺寸，
+     * 这样就不用先解码一张较大的图片再缩放了，只有需要裁剪时ResizeImageProcessor才会再处理一次
+     * <p>
+     * BitmapRegionDecoder不支持inDensity缩放，因此只能用于普通解码
+     *
+     * @param rawWidth  图片原始方向的宽，没有经过旋转
+     * @param rawHeight 图片原始方向的高，没有经过旋转
+     * @return 解码后原始方向的宽高，null：不能在解码时缩放
+     */
+    private int[] setupResizeInDecode(LoadRequest request, ImageType imageType, int rawWidth, int rawHeight,
+                                      BitmapFactory.Options decodeOptions, int exifOrientation) {
+        if (request.getConfiguration().isGlobalDisabledResizeInDecode()) {
+            return null;
+        }
+
+        LoadOptions loadOptions = request.getOptions();
+        Resize resize = loadOptions.getResize();
+        ImageProcessor imageProcessor = loadOptions.getImageProcessor();
+        if (resize == null || resize.getWidth() <= 0 || resize.getHeight() <= 0
+                || !(imageProcessor instanceof ResizeImageProcessor) || !((ResizeImageProcessor) imageProcessor).isResizeFirst()) {
+            return null;
+        }
+
+        // resize是按照旋转后的方向给的，ResizeImageProcessor也是在旋转后才裁剪，所以要用旋转后的宽高计算映射关系
+        Point rotatedSize = new Point(rawWidth, rawHeight);
+        request.getConfiguration().getImageOrientationCorrector().rotateSize(rotatedSize, exifOrientation);
+
+        ResizeCalculator resizeCalculator = request.getConfiguration().getResizeCalculator();
+        ResizeCalculator.Mapping mapping = resizeCalculator.calculator(rotatedSize.x, rotatedSize.y,
+                resize.getWidth(), resize.getHeight(), resize.getScaleType(), loadOptions.isForceUseResize());
+        if (mapping == null || mapping.srcRect.isEmpty()) {
+            return null;
+        }
+
+        // 只缩小不放大
+        float scale = (float) mapping.destRect.width() / mapping.srcRect.width();
+        if (scale >= 1) {
+            return null;
+        }
+
+        // 缩放比例同方向无关，解码出来的是原始方向的图片，所以目标尺寸按原始宽高计算
+        int targetWidth = Math.round(rawWidth * scale);
+        int targetHeight = Math.round(rawHeight * scale);
+        if (targetWidth <= 1 || targetHeight <= 1) {
+            return null;
+        }
+
+        // 先用inSampleSize缩小到不小于目标尺寸的最小尺寸，剩下的交给inDensity缩放，这样质量同先采样再缩放是一样的
+        int inSampleSize = 1;
+        while (calculateSampledSize(rawWidth, inSampleSize * 2, imageType) >= targetWidth
+                && calculateSampledSize(rawHeight, inSampleSize * 2, imageType) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+
+        // 根据maxSize计算的inSampleSize更大说明目标尺寸超出了maxSize的限制，那就还按原来的方式来
+        if (decodeOptions.inSampleSize > inSampleSize) {
+            return null;
+        }
+
+        decodeOptions.inSampleSize = inSampleSize;
+        int sampledWidth = calculateSampledSize(rawWidth, inSampleSize, imageType);
+        if (sampledWidth != targetWidth) {
+            decodeOptions.inDensity = sampledWidth;
+            decodeOptions.inTargetDensity = targetWidth;
+        }
+        return new int[]{targetWidth, targetHeight};
+    }
+
+    /**
+     * 计算按照inSampleSize采样后的尺寸，不同格式的取整方式不一样，算错的话inDensity缩放后的尺寸就会差一两个像素：
+     * <ul>
+     * <li>JPEG：由libjpeg缩放，向上取整</li>
+     * <li>WEBP：7.0及以上由libwebp按比例缩放，四舍五入；7.0以下同其它格式一样</li>
+     * <li>PNG、GIF、BMP等其它格式：由Skia隔行隔列采样，向下取整，最小为1</li>
+     * </ul>
+     */
+    static int calculateSampledSize(int size, int inSampleSize, ImageType imageType) {
+        if (inSampleSize <= 1) {
+            return size;
+        }
+        if (imageType == ImageType.JPEG) {
+            return SketchUtils.ceil(size, inSampleSize);
+        }
+        if (imageType == ImageType.WEBP && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Math.max(1, Math.round((float) size / inSampleSize));
+        }
+        return Math.max(1, size / inSampleSize);
+    }
+
+    /**
+     * 输出解码时直接缩放节省的内存，原来的方式要先解码一张按照maxSize采样的图片，
+     * 现在不需要裁剪的话这张图片就省掉了，需要裁剪的话省掉的是两者的差
+     */
+    private void logResizeInDecode(LoadRequest request, int rawWidth, int rawHeight, BitmapFactory.Options decodeOptions,
+                                   int exifOrientation, int maxSizeInSampleSize, Bitmap bitmap) {
+        if (maxSizeInSampleSize <= 0) {
+            maxSizeInSampleSize = 1;
+        }
+        int oldBytes = SketchUtils.computeByteCount(SketchUtils.ceil(rawWidth, maxSizeInSampleSize),
+                SketchUtils.ceil(rawHeight, maxSizeInSampleSize), bitmap.getConfig());
+
+        // bitmap是原始方向的，resize是旋转后的方向，比较前要对调
+        int degrees = ImageOrientationCorrector.getExifOrientationDegrees(exifOrientation);
+        boolean swap = degrees == 90 || degrees == 270;
+        Resize resize = request.getOptions().getResize();
+        int bitmapWidth = swap ? bitmap.getHeight() : bitmap.getWidth();
+        int bitmapHeight = swap ? bitmap.getWidth() : bitmap.getHeight();
+        boolean cropRequired = bitmapWidth != resize.getWidth() || bitmapHeight != resize.getHeight();
+        int savedBytes = cropRequired ? oldBytes - SketchUtils.getByteCount(bitmap) : oldBytes;
+
+        SLog.fd(SLogType.REQUEST, LOG_NAME, "resizeInDecode. inSampleSize=%d, density=%d->%d, bitmapSize=%dx%d, " +
+                        "resize=%dx%d, cropRequired=%s, savedBytes=%d. %s",
+                decodeOptions.inSampleSize, decodeOptions.inDensity, decodeOptions.inTargetDensity,
+                bitmap.getWidth(), bitmap.getHeight(), resize.getWidth(), resize.getHeight(),
+                cropRequired, savedBytes, request.getKey());
+    }
 }
@@ -19,8 +19,13 @@ package me.xiaopan.sketch.decode;
 import android.graphics.Bitmap;
 
 import me.xiaopan.sketch.ErrorTracker;
+import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.cache.MemoryGovernor;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.process.ImageProcessor;
+import me.xiaopan.sketch.process.WrappedImageProcessor;
 import me.xiaopan.sketch.request.BaseRequest;
 import me.xiaopan.sketch.request.ErrorCause;
 import me.xiaopan.sketch.request.LoadOptions;
@@ -52,12 +57,24 @@ public class ProcessImageResultProcessor implements ResultProcessor {
 
         request.setStatus(BaseRequest.Status.PROCESSING);
 
+        // 为处理器额外缩小过的图片不能给别的处理器用，降低了质量的图片也不能长期保留，所以都不能放进源图内存缓存
+        int processDownsample = bitmapDecodeResult.getProcessDownsample();
+        boolean cacheSource = request.canUseSourceMemoryCache() && processDownsample <= 1 && !bitmapDecodeResult.isDegraded();
+        int generationId = cacheSource ? bitmap.getGenerationId() : 0;
+
         Bitmap newBitmap = null;
         try {
-            newBitmap = imageProcessor.process(
-                    request.getSketch(), bitmap,
-                    loadOptions.getResize(), loadOptions.isForceUseResize(),
-                    loadOptions.isLowQualityImage());
+            if (processDownsample > 1 && imageProcessor instanceof WrappedImageProcessor) {
+                newBitmap = ((WrappedImageProcessor) imageProcessor).process(
+                        request.getSketch(), bitmap,
+                        loadOptions.getResize(), loadOptions.isForceUseResize(),
+                        loadOptions.isLowQualityImage(), processDownsample);
+            } else {
+                newBitmap = imageProcessor.process(
+                        request.getSketch(), bitmap,
+                        loadOptions.getResize(), loadOptions.isForceUseResize(),
+                        loadOptions.isLowQualityImage());
+            }
         } catch (Throwable e) {
             e.printStackTrace();
             ErrorTracker errorTracker = request.getConfiguration().getErrorTracker();
@@ -66,7 +83,11 @@ public class ProcessImageResultProcessor implements ResultProcessor {
 
         if (newBitmap != null && !newBitmap.isRecycled()) {
             if (newBitmap != bitmap) {
-                BitmapPoolUtils.freeBitmapToPool(bitmap, request.getConfiguration().getBitmapPool());
+                // 处理器没有改动源图的话就放进源图内存缓存，换一个处理器显示时就不用再解码了
+                if (!cacheSource || bitmap.isRecycled() || bitmap.getGenerationId() != generationId
+                        || !putSourceMemoryCache(request, bitmap, result)) {
+                    BitmapPoolUtils.freeBitmapToPool(bitmap, request.getConfiguration().getBitmapPool());
+                }
                 bitmapDecodeResult.setBitmap(newBitmap);
             }
             result.setProcessed(true);
@@ -75,4 +96,20 @@ public class ProcessImageResultProcessor implements ResultProcessor {
                     imageProcessor.getKey(), request.getUri()), ErrorCause.PROCESS_IMAGE_FAIL);
         }
     }
+
+    private boolean putSourceMemoryCache(LoadRequest request, Bitmap bitmap, DecodeResult result) {
+        MemoryCache sourceMemoryCache = request.getConfiguration().getSourceMemoryCache();
+        String sourceKey = request.getSourceMemoryCacheKey();
+        if (sourceMemoryCache.isDisabled() || sourceMemoryCache.get(sourceKey) != null) {
+            return false;
+        }
+
+        BitmapPool bitmapPool = request.getConfiguration().getBitmapPool();
+        SketchRefBitmap sourceRefBitmap = new SketchRefBitmap(bitmap, sourceKey, request.getUri(), result.getImageAttrs(), bitmapPool);
+        MemoryGovernor memoryGovernor = request.getConfiguration().getMemoryGovernor();
+        memoryGovernor.trackRefBitmap(sourceRefBitmap);
+        memoryGovernor.checkBudget();
+        sourceMemoryCache.put(sourceKey, sourceRefBitmap);
+        return sourceMemoryCache.get(sourceKey) == sourceRefBitmap;
+    }
 }
@@ -94,7 +94,39 @@ public class ProcessedCacheDecodeHelper extends DecodeHelper {
             return null;
         }
 
-        // 由于是读取的经过处理的缓存图片，因此要重新读取原图的类型、宽高信息
+        ImageAttrs imageAttrs = readOriginImageAttrs(request, boundOptions.outMimeType,
+                boundOptions.outWidth, boundOptions.outHeight, exifOrientation);
+
+        ImageDecodeUtils.decodeSuccess(bitmap, boundOptions.outWidth, boundOptions.outHeight, decodeOptions.inSampleSize, request, LOG_NAME);
+        return new BitmapDecodeResult(imageAttrs, bitmap).setBanProcess(true);
+    }
+
+    /**
+     * 解码原始像素格式的缓存，这种格式BitmapFactory读不了，直接拷贝像素到bitmap中，文件头不对的话readRaw()会返回null，按解码失败处理
+     */
+    static DecodeResult decodeRaw(LoadRequest request, DataSource dataSource) {
+        BitmapPool bitmapPool = request.getConfiguration().getBitmapPool();
+        Bitmap bitmap = ProcessedImageCache.readRaw(dataSource, bitmapPool);
+        if (bitmap == null) {
+            ImageDecodeUtils.decodeError(request, dataSource, LOG_NAME);
+            return null;
+        }
+
+        String fallbackMimeType = bitmap.hasAlpha() ? ImageType.PNG.getMimeType() : ImageType.JPEG.getMimeType();
+        ImageAttrs imageAttrs = readOriginImageAttrs(request, fallbackMimeType,
+                bitmap.getWidth(), bitmap.getHeight(), ExifInterface.ORIENTATION_UNDEFINED);
+
+        ImageDecodeUtils.decodeSuccess(bitmap, bitmap.getWidth(), bitmap.getHeight(), 1, request, LOG_NAME);
+        BitmapDecodeResult result = new BitmapDecodeResult(imageAttrs, bitmap).setBanProcess(true);
+        result.setImageFrom(dataSource.getImageFrom());
+        return result;
+    }
+
+    /**
+     * 由于是读取的经过处理的缓存图片，因此要重新读取原图的类型、宽高信息，读不到的话就用缓存图片的
+     */
+    private static ImageAttrs readOriginImageAttrs(LoadRequest request, String cacheMimeType,
+                                                   int cacheWidth, int cacheHeight, int cacheExifOrientation) {
         DataSource originFileDataSource = null;
         try {
             originFileDataSource = DataSourceFactory.makeDataSource(request.getContext(), request.getUriInfo(), request.getDownloadResult());
@@ -124,12 +156,10 @@ public class ProcessedCacheDecodeHelper extends DecodeHelper {
 
             imageAttrs = new ImageAttrs(originImageOptions.outMimeType, originImageOptions.outWidth, originImageOptions.outHeight, realExifOrientation);
         } else {
-            imageAttrs = new ImageAttrs(boundOptions.outMimeType, boundOptions.outWidth, boundOptions.outHeight, exifOrientation);
+            imageAttrs = new ImageAttrs(cacheMimeType, cacheWidth, cacheHeight, cacheExifOrientation);
         }
 
         orientationCorrector.rotateSize(imageAttrs, imageAttrs.getExifOrientation());
-
-        ImageDecodeUtils.decodeSuccess(bitmap, boundOptions.outWidth, boundOptions.outHeight, decodeOptions.inSampleSize, request, LOG_NAME);
-        return new BitmapDecodeResult(imageAttrs, bitmap).setBanProcess(true);
+        return imageAttrs;
     }
 }
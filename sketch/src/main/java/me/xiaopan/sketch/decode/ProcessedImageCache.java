@@ -17,21 +17,68 @@
 package me.xiaopan.sketch.decode;
 
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.cache.DiskCache;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.request.LoadOptions;
 import me.xiaopan.sketch.util.DiskLruCache;
 import me.xiaopan.sketch.util.SketchUtils;
 
 /**
  * 对读到内存后又再次处理过的图片进行缓存，下次就不用再处理了，可加快加载速度
+ * <p>
+ * 默认不透明的图片用JPEG格式保存，透明的用WEBP格式（4.3以下用PNG），还可以直接保存原始像素数据，读取的时候最快但占用的磁盘空间最大。
+ * 是否保存根据这次解码加处理所花的时间和下次读取缓存所需的时间来决定，省不了多少时间的就不保存了
  */
 public class ProcessedImageCache implements Identifier {
+    private static final String LOG_NAME = "ProcessedImageCache";
+
+    private static final int RAW_MAGIC = 0x534B5257; // "SKRW"
+    // 2：像素按行分段读写，不再依赖copyPixelsToBuffer()的内存布局
+    private static final int RAW_VERSION = 2;
+
+    /**
+     * 读写原始像素格式时用的缓冲区大小，按行分段拷贝，不管图片多大都只占用这么多临时内存
+     */
+    private static final int RAW_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 估算解码JPEG、WEBP等压缩格式缓存的速度，单位像素每毫秒。
+     * 按照中低端设备估算，这类设备上解码一张1080x1920的JPEG大约需要100毫秒，也就是每毫秒2万像素左右
+     */
+    private static final int ESTIMATED_DECODE_PIXELS_PER_MILLIS = 20 * 1000;
+
+    /**
+     * 估算读取原始像素格式缓存的速度，单位字节每毫秒。
+     * 读取原始像素没有解码过程，耗时主要在磁盘IO上，按照中低端设备eMMC的顺序读取速度约100MB/s估算
+     */
+    private static final int ESTIMATED_READ_RAW_BYTES_PER_MILLIS = 100 * 1024;
+
+    private EncodeFormat encodeFormat = EncodeFormat.COMPRESSED;
+    private int quality = 85;
+    private int minSavedTime = 8;
+
+    private ThreadPoolExecutor saveExecutor;
 
     /**
      * 判断是否可以使用此功能
@@ -62,10 +109,25 @@ public class ProcessedImageCache implements Identifier {
     }
 
     /**
-     * 此缩放比例是否可以使用缓存到本地磁盘功能
+     * 根据这次解码加处理所花的时间判断值不值得保存到磁盘缓存，下次读取缓存省下的时间太少的话就不保存了
+     *
+     * @param bitmap   处理后的图片
+     * @param costTime 这次解码加处理所花的时间，单位毫秒
      */
-    public boolean canUseCacheProcessedImageInDisk(int inSampleSize) {
-        return inSampleSize >= 8;
+    public boolean isWorthSaving(Bitmap bitmap, long costTime) {
+        long reloadTime;
+        if (encodeFormat == EncodeFormat.RAW) {
+            reloadTime = SketchUtils.getByteCount(bitmap) / ESTIMATED_READ_RAW_BYTES_PER_MILLIS;
+        } else {
+            reloadTime = ((long) bitmap.getWidth() * bitmap.getHeight()) / ESTIMATED_DECODE_PIXELS_PER_MILLIS;
+        }
+        long savedTime = costTime - reloadTime;
+
+        if (SLogType.CACHE.isEnabled()) {
+            SLog.fd(SLogType.CACHE, LOG_NAME, "isWorthSaving. %s. costTime=%dms, reloadTime=%dms, savedTime=%dms, bitmapSize=%dx%d",
+                    savedTime >= minSavedTime, costTime, reloadTime, savedTime, bitmap.getWidth(), bitmap.getHeight());
+        }
+        return savedTime >= minSavedTime;
     }
 
     public boolean checkDiskCache(DiskCache diskCache, String processedImageDiskCacheKey) {
@@ -109,12 +171,15 @@ public class ProcessedImageCache implements Identifier {
             diskCacheEntry.delete();
         }
 
+        long startTime = SLogType.CACHE.isEnabled() ? SystemClock.uptimeMillis() : 0;
+
         DiskCache.Editor diskCacheEditor = diskCache.edit(processedImageDiskCacheKey);
         if (diskCacheEditor != null) {
             BufferedOutputStream outputStream = null;
             try {
                 outputStream = new BufferedOutputStream(diskCacheEditor.newOutputStream(), 8 * 1024);
-                bitmap.compress(SketchUtils.bitmapConfigToCompressFormat(bitmap.getConfig()), 100, outputStream);
+                encode(bitmap, outputStream);
+                outputStream.flush();
                 diskCacheEditor.commit();
             } catch (DiskLruCache.EditorChangedException e) {
                 e.printStackTrace();
@@ -134,10 +199,313 @@ public class ProcessedImageCache implements Identifier {
         }
 
         editLock.unlock();
+
+        if (SLogType.CACHE.isEnabled()) {
+            DiskCache.Entry newEntry = diskCache.get(processedImageDiskCacheKey);
+            SLog.fd(SLogType.CACHE, LOG_NAME, "saveToDiskCache. format=%s, bitmapSize=%dx%d, fileLength=%d, useTime=%dms. %s",
+                    encodeFormat, bitmap.getWidth(), bitmap.getHeight(), newEntry != null ? newEntry.getFile().length() : 0,
+                    SystemClock.uptimeMillis() - startTime, processedImageDiskCacheKey);
+        }
+    }
+
+    /**
+     * 在后台线程中保存bitmap到磁盘缓存，不占用加载线程，保存期间会一直持有等待使用引用，防止bitmap被回收
+     */
+    public void saveToDiskCacheAsync(final DiskCache diskCache, final String processedImageDiskCacheKey, final SketchRefBitmap refBitmap) {
+        final String callingStation = LOG_NAME + ":waitingUse:save";
+        refBitmap.setIsWaitingUse(callingStation, true);
+
+        getSaveExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!refBitmap.isRecycled()) {
+                        saveToDiskCache(diskCache, processedImageDiskCacheKey, refBitmap.getBitmap());
+                    }
+                } finally {
+                    refBitmap.setIsWaitingUse(callingStation, false);
+                }
+            }
+        });
+    }
+
+    private synchronized ThreadPoolExecutor getSaveExecutor() {
+        if (saveExecutor == null) {
+            saveExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new SaveThreadFactory());
+            saveExecutor.allowCoreThreadTimeOut(true);
+        }
+        return saveExecutor;
+    }
+
+    /**
+     * 编码bitmap，可以重写此方法使用自己的格式，不过读取的时候只支持BitmapFactory能解码的格式和原始像素格式
+     */
+    protected void encode(Bitmap bitmap, OutputStream outputStream) throws IOException {
+        if (encodeFormat == EncodeFormat.RAW) {
+            writeRaw(bitmap, outputStream);
+        } else if (encodeFormat == EncodeFormat.PNG) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        } else if (!bitmap.hasAlpha()) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // 4.3以下WEBP不支持透明度
+            bitmap.compress(Bitmap.CompressFormat.WEBP, quality, outputStream);
+        } else {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        }
+    }
+
+    private static void writeRaw(Bitmap bitmap, OutputStream outputStream) throws IOException {
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == null) {
+            throw new IOException("bitmap config is null");
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int bytesPerPixel = SketchUtils.getBytesPerPixel(config);
+
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(RAW_MAGIC);
+        dataOutputStream.writeInt(RAW_VERSION);
+        dataOutputStream.writeInt(width);
+        dataOutputStream.writeInt(height);
+        dataOutputStream.writeUTF(config.name());
+        dataOutputStream.writeBoolean(bitmap.hasAlpha());
+        dataOutputStream.writeInt(SketchUtils.computeByteCount(width, height, config));
+
+        int stripRows = computeStripRows(width);
+        int[] pixels = new int[width * stripRows];
+        byte[] bytes = new byte[pixels.length * bytesPerPixel];
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+            int count = width * rows;
+            bitmap.getPixels(pixels, 0, width, 0, top, width, rows);
+            packPixels(pixels, count, config, bytes);
+            dataOutputStream.write(bytes, 0, count * bytesPerPixel);
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * 读取原始像素格式的缓存文件，文件头不是原始像素格式的话直接返回null，不会读取后面的内容
+     *
+     * @return null：格式不对或读取失败
+     */
+    public static Bitmap readRaw(DataSource dataSource, BitmapPool bitmapPool) {
+        InputStream inputStream = null;
+        Bitmap bitmap = null;
+        try {
+            inputStream = dataSource.getInputStream();
+            DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, 8 * 1024));
+            if (dataInputStream.readInt() != RAW_MAGIC || dataInputStream.readInt() != RAW_VERSION) {
+                return null;
+            }
+
+            int width = dataInputStream.readInt();
+            int height = dataInputStream.readInt();
+            Bitmap.Config config = Bitmap.Config.valueOf(dataInputStream.readUTF());
+            boolean hasAlpha = dataInputStream.readBoolean();
+            int length = dataInputStream.readInt();
+            if (width <= 0 || height <= 0 || length != SketchUtils.computeByteCount(width, height, config)) {
+                return null;
+            }
+
+            int bytesPerPixel = SketchUtils.getBytesPerPixel(config);
+            int stripRows = computeStripRows(width);
+            int[] pixels = new int[width * stripRows];
+            byte[] bytes = new byte[pixels.length * bytesPerPixel];
+
+            bitmap = bitmapPool.getOrMake(width, height, config);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+                bitmap.setHasAlpha(hasAlpha);
+            }
+            for (int top = 0; top < height; top += stripRows) {
+                int rows = Math.min(stripRows, height - top);
+                int count = width * rows;
+                dataInputStream.readFully(bytes, 0, count * bytesPerPixel);
+                unpackPixels(bytes, count, config, pixels);
+                bitmap.setPixels(pixels, 0, width, 0, top, width, rows);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            e.printStackTrace();
+            BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+            return null;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
+            return null;
+        } finally {
+            SketchUtils.close(inputStream);
+        }
+    }
+
+    /**
+     * 计算每段拷贝多少行，至少一行，getPixels()取出的颜色每个像素固定占4个字节
+     */
+    private static int computeStripRows(int width) {
+        return Math.max(1, RAW_BUFFER_SIZE / (width * 4));
+    }
+
+    /**
+     * 把getPixels()取出的ARGB颜色按照config的像素大小压缩成字节，这样文件大小和内存中的像素数据一样
+     */
+    private static void packPixels(int[] pixels, int count, Bitmap.Config config, byte[] bytes) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            for (int i = 0; i < count; i++) {
+                bytes[i] = (byte) (pixels[i] >>> 24);
+            }
+        } else if (config == Bitmap.Config.RGB_565) {
+            for (int i = 0, j = 0; i < count; i++) {
+                int color = pixels[i];
+                int packed = ((color >> 8) & 0xF800) | ((color >> 5) & 0x07E0) | ((color >> 3) & 0x001F);
+                bytes[j++] = (byte) (packed >> 8);
+                bytes[j++] = (byte) packed;
+            }
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            for (int i = 0, j = 0; i < count; i++) {
+                int color = pixels[i];
+                bytes[j++] = (byte) (((color >>> 24) & 0xF0) | ((color >> 20) & 0x0F));
+                bytes[j++] = (byte) (((color >> 8) & 0xF0) | ((color >> 4) & 0x0F));
+            }
+        } else {
+            for (int i = 0, j = 0; i < count; i++) {
+                int color = pixels[i];
+                bytes[j++] = (byte) (color >>> 24);
+                bytes[j++] = (byte) (color >> 16);
+                bytes[j++] = (byte) (color >> 8);
+                bytes[j++] = (byte) color;
+            }
+        }
+    }
+
+    /**
+     * packPixels()的逆过程，还原成setPixels()需要的ARGB颜色
+     */
+    private static void unpackPixels(byte[] bytes, int count, Bitmap.Config config, int[] pixels) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            for (int i = 0; i < count; i++) {
+                pixels[i] = (bytes[i] & 0xFF) << 24;
+            }
+        } else if (config == Bitmap.Config.RGB_565) {
+            for (int i = 0, j = 0; i < count; i++) {
+                int packed = ((bytes[j++] & 0xFF) << 8) | (bytes[j++] & 0xFF);
+                int r = (packed >> 11) & 0x1F;
+                int g = (packed >> 5) & 0x3F;
+                int b = packed & 0x1F;
+                pixels[i] = 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+            }
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            for (int i = 0, j = 0; i < count; i++) {
+                int ar = bytes[j++] & 0xFF;
+                int gb = bytes[j++] & 0xFF;
+                pixels[i] = ((ar >> 4) * 0x11 << 24) | ((ar & 0x0F) * 0x11 << 16)
+                        | ((gb >> 4) * 0x11 << 8) | ((gb & 0x0F) * 0x11);
+            }
+        } else {
+            for (int i = 0, j = 0; i < count; i++) {
+                pixels[i] = ((bytes[j++] & 0xFF) << 24) | ((bytes[j++] & 0xFF) << 16)
+                        | ((bytes[j++] & 0xFF) << 8) | (bytes[j++] & 0xFF);
+            }
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public EncodeFormat getEncodeFormat() {
+        return encodeFormat;
+    }
+
+    /**
+     * 设置保存格式，默认COMPRESSED
+     */
+    @SuppressWarnings("unused")
+    public ProcessedImageCache setEncodeFormat(EncodeFormat encodeFormat) {
+        if (encodeFormat != null) {
+            this.encodeFormat = encodeFormat;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setEncodeFormat. %s", encodeFormat);
+            }
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unused")
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 设置JPEG和WEBP格式的压缩质量，默认85
+     */
+    @SuppressWarnings("unused")
+    public ProcessedImageCache setQuality(int quality) {
+        if (quality > 0 && quality <= 100) {
+            this.quality = quality;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setQuality. %d", quality);
+            }
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unused")
+    public int getMinSavedTime() {
+        return minSavedTime;
+    }
+
+    /**
+     * 设置下次读取缓存至少要省下多少时间才保存，单位毫秒，默认8毫秒，设为0的话只要比解码加处理快就保存
+     */
+    @SuppressWarnings("unused")
+    public ProcessedImageCache setMinSavedTime(int minSavedTime) {
+        if (minSavedTime >= 0) {
+            this.minSavedTime = minSavedTime;
+            if (SLogType.BASE.isEnabled()) {
+                SLog.fd(SLogType.BASE, LOG_NAME, "setMinSavedTime. %d", minSavedTime);
+            }
+        }
+        return this;
     }
 
     @Override
     public String getKey() {
-        return "ProcessedImageCache";
+        return String.format("%s(encodeFormat=%s,quality=%d,minSavedTime=%d)", LOG_NAME, encodeFormat, quality, minSavedTime);
+    }
+
+    /**
+     * 保存格式
+     */
+    public enum EncodeFormat {
+        /**
+         * 不透明的用JPEG，透明的用WEBP（4.3以下用PNG）
+         */
+        COMPRESSED,
+
+        /**
+         * 无损的PNG，编码慢，文件也大
+         */
+        PNG,
+
+        /**
+         * 原始像素数据，读取最快，文件最大
+         */
+        RAW,
+    }
+
+    private static class SaveThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(@SuppressWarnings("NullableProblems") Runnable r) {
+            Thread thread = new Thread(r, "ProcessedImageSaveThread") {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    super.run();
+                }
+            };
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -16,6 +16,9 @@
 
 package me.xiaopan.sketch.decode;
 
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
 import me.xiaopan.sketch.request.LoadRequest;
 
 /**
@@ -42,8 +45,26 @@ public class ProcessedResultCacheProcessor implements ResultProcessor {
             return;
         }
 
+        // 降低了质量的只是滚动中临时用一下，不能保存
         BitmapDecodeResult bitmapDecodeResult = (BitmapDecodeResult) result;
-        processedImageCache.saveToDiskCache(request.getConfiguration().getDiskCache(),
-                request.getProcessedImageDiskCacheKey(), bitmapDecodeResult.getBitmap());
+        if (bitmapDecodeResult.isDegraded()) {
+            return;
+        }
+        Bitmap bitmap = bitmapDecodeResult.getBitmap();
+
+        // 下次读取缓存省不了多少时间的就不保存了
+        long costTime = bitmapDecodeResult.getDecodeUseTime()
+                + (SystemClock.uptimeMillis() - bitmapDecodeResult.getProcessStartTime());
+        if (!processedImageCache.isWorthSaving(bitmap, costTime)) {
+            return;
+        }
+
+        if (request.canSaveProcessedImageLater()) {
+            // 编码比较耗时，等显示之后再去后台保存
+            request.setSaveProcessedImageLater(true);
+        } else {
+            processedImageCache.saveToDiskCache(request.getConfiguration().getDiskCache(),
+                    request.getProcessedImageDiskCacheKey(), bitmap);
+        }
     }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.drawable;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import me.xiaopan.sketch.SLog;
+
+/**
+ * 调试用的SketchRefBitmap引用计数追踪器，默认关闭，关闭时SketchRefBitmap只多一次判空
+ * <p>
+ * 开启后每个新建的SketchRefBitmap都会带一个{@link Record}，用环形缓冲区记录最近{@link #HISTORY_SIZE}次引用变化的调用位置和变化后的计数，
+ * 并检查以下问题：
+ * <ul>
+ * <li>{@link Issue#LEAKED}：SketchRefBitmap已经被GC回收了，但引用计数没有归零，Bitmap没有还给BitmapPool（通过ReferenceQueue发现）</li>
+ * <li>{@link Issue#FREE_WHILE_REFERENCED}：引用计数没有归零，Bitmap却被别的地方放进了BitmapPool，之后很可能出现显示已回收的图片</li>
+ * <li>{@link Issue#REF_UNDERFLOW}：计数已经是0了还在减，说明有地方多减了一次</li>
+ * <li>{@link Issue#REF_AFTER_RECYCLED}：Bitmap已经释放了还在改引用</li>
+ * </ul>
+ * 发现问题时立即打印这个Bitmap的引用历史，{@link #getReport()}按问题类型和调用位置汇总
+ */
+public final class RefBitmapTracker {
+    public static final int HISTORY_SIZE = 16;
+
+    private static final String LOG_NAME = "RefBitmapTracker";
+    private static final int MAX_RECENT_ISSUES = 8;
+
+    static final int EVENT_DISPLAY_ADD = 0;
+    static final int EVENT_DISPLAY_REMOVE = 1;
+    static final int EVENT_CACHE_ADD = 2;
+    static final int EVENT_CACHE_REMOVE = 3;
+    static final int EVENT_WAITING_ADD = 4;
+    static final int EVENT_WAITING_REMOVE = 5;
+    static final int EVENT_FREE = 6;
+    private static final String[] EVENT_NAMES = {"display+", "display-", "cache+", "cache-", "waiting+", "waiting-", "free"};
+
+    private static volatile boolean enabled;
+
+    private static final Object LOCK = new Object();
+    private static final ReferenceQueue<SketchRefBitmap> QUEUE = new ReferenceQueue<SketchRefBitmap>();
+    private static final Set<Record> RECORDS = new HashSet<Record>();
+    private static final Map<Bitmap, Record> BITMAP_RECORDS = new WeakHashMap<Bitmap, Record>();
+    private static final Map<String, int[]> ISSUE_COUNTS = new HashMap<String, int[]>();
+    private static final LinkedList<String> RECENT_ISSUES = new LinkedList<String>();
+
+    private RefBitmapTracker() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 开启或关闭，只对之后新建的SketchRefBitmap生效
+     */
+    public static void setEnabled(boolean enabled) {
+        RefBitmapTracker.enabled = enabled;
+        SLog.fw(LOG_NAME, "setEnabled. %s", enabled);
+    }
+
+    /**
+     * 开始追踪一个新建的SketchRefBitmap
+     */
+    static Record track(SketchRefBitmap refBitmap, Bitmap bitmap) {
+        Record record = new Record(refBitmap, QUEUE);
+        synchronized (LOCK) {
+            pollQueue();
+            RECORDS.add(record);
+            if (bitmap != null) {
+                BITMAP_RECORDS.put(bitmap, record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * 引用计数归零，SketchRefBitmap马上要把Bitmap还给BitmapPool了
+     */
+    static void onFree(Record record, String callingStation, Bitmap bitmap) {
+        record.add(EVENT_FREE, callingStation, 0, 0, 0);
+        synchronized (LOCK) {
+            record.freed = true;
+            if (bitmap != null && BITMAP_RECORDS.get(bitmap) == record) {
+                BITMAP_RECORDS.remove(bitmap);
+            }
+        }
+    }
+
+    /**
+     * 有Bitmap要放进BitmapPool了，检查它是不是还被某个SketchRefBitmap引用着
+     */
+    public static void onFreeToPool(Bitmap bitmap) {
+        Record record;
+        synchronized (LOCK) {
+            pollQueue();
+            record = BITMAP_RECORDS.get(bitmap);
+            if (record == null || record.freed) {
+                return;
+            }
+            BITMAP_RECORDS.remove(bitmap);
+        }
+        report(Issue.FREE_WHILE_REFERENCED, record, findCaller());
+    }
+
+    static void onUnderflow(Record record, int event, String callingStation) {
+        report(Issue.REF_UNDERFLOW, record, EVENT_NAMES[event] + "@" + callingStation);
+    }
+
+    static void onRefAfterRecycled(Record record, String callingStation) {
+        report(Issue.REF_AFTER_RECYCLED, record, callingStation);
+    }
+
+    /**
+     * 获取指定KEY的所有还在追踪中的SketchRefBitmap的引用历史，例如在显示已回收的图片时用来排查
+     */
+    public static String getHistory(String key) {
+        StringBuilder builder = new StringBuilder();
+        synchronized (LOCK) {
+            for (Record record : RECORDS) {
+                if (record.key.equals(key)) {
+                    if (builder.length() > 0) {
+                        builder.append("\n");
+                    }
+                    builder.append(record.getHistory());
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 获取汇总报告，包括每种问题在每个调用位置出现的次数和最近几次问题的详情
+     */
+    public static String getReport() {
+        List<Map.Entry<String, int[]>> entries;
+        List<String> recentIssues;
+        int liveCount;
+        synchronized (LOCK) {
+            pollQueue();
+            entries = new ArrayList<Map.Entry<String, int[]>>(ISSUE_COUNTS.entrySet());
+            recentIssues = new ArrayList<String>(RECENT_ISSUES);
+            liveCount = RECORDS.size();
+        }
+
+        Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+            @Override
+            public int compare(Map.Entry<String, int[]> lhs, Map.Entry<String, int[]> rhs) {
+                return rhs.getValue()[0] - lhs.getValue()[0];
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(LOG_NAME).append(": enabled=").append(enabled).append(", tracking=").append(liveCount);
+        for (Map.Entry<String, int[]> entry : entries) {
+            builder.append("\n  ").append(entry.getValue()[0]).append("x ").append(entry.getKey());
+        }
+        for (String issue : recentIssues) {
+            builder.append("\n").append(issue);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 打印汇总报告
+     */
+    public static void dump() {
+        SLog.w(LOG_NAME, getReport());
+    }
+
+    /**
+     * 清空统计，正在追踪的SketchRefBitmap不受影响
+     */
+    public static void reset() {
+        synchronized (LOCK) {
+            ISSUE_COUNTS.clear();
+            RECENT_ISSUES.clear();
+        }
+    }
+
+    /**
+     * SketchRefBitmap被GC回收后它的Record会进入队列，这时还没释放的就是泄露了
+     */
+    private static void pollQueue() {
+        Record record;
+        while ((record = (Record) QUEUE.poll()) != null) {
+            RECORDS.remove(record);
+            if (!record.freed) {
+                reportLocked(Issue.LEAKED, record, record.getLastCallingStation());
+            }
+        }
+    }
+
+    private static void report(Issue issue, Record record, String where) {
+        synchronized (LOCK) {
+            reportLocked(issue, record, where);
+        }
+    }
+
+    private static void reportLocked(Issue issue, Record record, String where) {
+        String issueKey = issue.name() + " @ " + where;
+        int[] count = ISSUE_COUNTS.get(issueKey);
+        if (count == null) {
+            count = new int[1];
+            ISSUE_COUNTS.put(issueKey, count);
+        }
+        count[0]++;
+
+        String detail = issue.name() + ". " + where + ". " + record.getHistory();
+        RECENT_ISSUES.addLast(detail);
+        if (RECENT_ISSUES.size() > MAX_RECENT_ISSUES) {
+            RECENT_ISSUES.removeFirst();
+        }
+        SLog.fw(LOG_NAME, "%s", detail);
+    }
+
+    /**
+     * 找到BitmapPoolUtils的调用者，只在发现问题时才会执行
+     */
+    private static String findCaller() {
+        StackTraceElement[] elements = new Throwable().getStackTrace();
+        for (StackTraceElement element : elements) {
+            String className = element.getClassName();
+            if (!className.equals(RefBitmapTracker.class.getName()) && !className.endsWith(".BitmapPoolUtils")) {
+                return className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName() + ":" + element.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    public enum Issue {
+        LEAKED,
+        FREE_WHILE_REFERENCED,
+        REF_UNDERFLOW,
+        REF_AFTER_RECYCLED,
+    }
+
+    /**
+     * 一个SketchRefBitmap的追踪记录，弱引用着它，它被GC回收后会进入ReferenceQueue
+     * <p>
+     * 引用历史存在定长的环形缓冲区里，三个计数压缩到一个int里，每个占10位
+     */
+    static final class Record extends WeakReference<SketchRefBitmap> {
+        private final String key;
+        private final int byteCount;
+        private final byte[] events = new byte[HISTORY_SIZE];
+        private final String[] callingStations = new String[HISTORY_SIZE];
+        private final int[] counts = new int[HISTORY_SIZE];
+        private final long[] times = new long[HISTORY_SIZE];
+        private int total;
+        volatile boolean freed;
+
+        Record(SketchRefBitmap refBitmap, ReferenceQueue<SketchRefBitmap> queue) {
+            super(refBitmap, queue);
+            this.key = refBitmap.getKey();
+            this.byteCount = refBitmap.getByteCount();
+        }
+
+        synchronized void add(int event, String callingStation, int cacheCount, int displayCount, int waitingCount) {
+            int index = total % HISTORY_SIZE;
+            events[index] = (byte) event;
+            callingStations[index] = callingStation;
+            counts[index] = (Math.min(cacheCount, 0x3FF) << 20) | (Math.min(displayCount, 0x3FF) << 10) | Math.min(waitingCount, 0x3FF);
+            times[index] = SystemClock.uptimeMillis();
+            total++;
+        }
+
+        synchronized String getLastCallingStation() {
+            for (int i = total - 1; i >= Math.max(0, total - HISTORY_SIZE); i--) {
+                String callingStation = callingStations[i % HISTORY_SIZE];
+                if (callingStation != null) {
+                    return callingStation;
+                }
+            }
+            return "unknown";
+        }
+
+        synchronized String getHistory() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(key).append("(").append(byteCount).append("B, changes=").append(total).append(")");
+            long lastTime = 0;
+            for (int i = Math.max(0, total - HISTORY_SIZE); i < total; i++) {
+                int index = i % HISTORY_SIZE;
+                int count = counts[index];
+                builder.append("\n    ");
+                if (lastTime != 0) {
+                    builder.append("+").append(times[index] - lastTime).append("ms ");
+                }
+                lastTime = times[index];
+                builder.append(EVENT_NAMES[events[index]]);
+                if (events[index] != EVENT_FREE) {
+                    builder.append(" (").append(count >>> 20).append(",").append((count >>> 10) & 0x3FF)
+                            .append(",").append(count & 0x3FF).append(")");
+                }
+                if (callingStations[index] != null) {
+                    builder.append(" ").append(callingStations[index]);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -35,10 +35,14 @@ public class SketchRefBitmap extends SketchBitmap {
     private int waitingUseRefCount; // 等待使用引用
 
     private BitmapPool bitmapPool;
+    private RefBitmapTracker.Record trackRecord;    // 只有开启了RefBitmapTracker才有
 
     public SketchRefBitmap(Bitmap bitmap, String key, String uri, ImageAttrs imageAttrs, BitmapPool bitmapPool) {
         super(bitmap, key, uri, imageAttrs);
         this.bitmapPool = bitmapPool;
+        if (RefBitmapTracker.isEnabled()) {
+            this.trackRecord = RefBitmapTracker.track(this, bitmap);
+        }
     }
 
     @Override
@@ -59,6 +63,13 @@ public class SketchRefBitmap extends SketchBitmap {
         return bitmap == null || bitmap.isRecycled();
     }
 
+    /**
+     * 在内存缓存中？
+     */
+    public synchronized boolean isCached() {
+        return memoryCacheRefCount > 0;
+    }
+
     /**
      * 设置显示引用
      *
@@ -68,10 +79,14 @@ public class SketchRefBitmap extends SketchBitmap {
     public synchronized void setIsDisplayed(String callingStation, boolean displayed) {
         if (displayed) {
             displayRefCount++;
+            track(RefBitmapTracker.EVENT_DISPLAY_ADD, callingStation);
             referenceChanged(callingStation);
         } else if (displayRefCount > 0) {
             displayRefCount--;
+            track(RefBitmapTracker.EVENT_DISPLAY_REMOVE, callingStation);
             referenceChanged(callingStation);
+        } else if (trackRecord != null) {
+            RefBitmapTracker.onUnderflow(trackRecord, RefBitmapTracker.EVENT_DISPLAY_REMOVE, callingStation);
         }
     }
 
@@ -84,10 +99,14 @@ public class SketchRefBitmap extends SketchBitmap {
     public synchronized void setIsCached(String callingStation, boolean cached) {
         if (cached) {
             memoryCacheRefCount++;
+            track(RefBitmapTracker.EVENT_CACHE_ADD, callingStation);
             referenceChanged(callingStation);
         } else if (memoryCacheRefCount > 0) {
             memoryCacheRefCount--;
+            track(RefBitmapTracker.EVENT_CACHE_REMOVE, callingStation);
             referenceChanged(callingStation);
+        } else if (trackRecord != null) {
+            RefBitmapTracker.onUnderflow(trackRecord, RefBitmapTracker.EVENT_CACHE_REMOVE, callingStation);
         }
     }
 
@@ -100,10 +119,20 @@ public class SketchRefBitmap extends SketchBitmap {
     public synchronized void setIsWaitingUse(String callingStation, boolean waitingUse) {
         if (waitingUse) {
             waitingUseRefCount++;
+            track(RefBitmapTracker.EVENT_WAITING_ADD, callingStation);
             referenceChanged(callingStation);
         } else if (waitingUseRefCount > 0) {
             waitingUseRefCount--;
+            track(RefBitmapTracker.EVENT_WAITING_REMOVE, callingStation);
             referenceChanged(callingStation);
+        } else if (trackRecord != null) {
+            RefBitmapTracker.onUnderflow(trackRecord, RefBitmapTracker.EVENT_WAITING_REMOVE, callingStation);
+        }
+    }
+
+    private void track(int event, String callingStation) {
+        if (trackRecord != null) {
+            trackRecord.add(event, callingStation, memoryCacheRefCount, displayRefCount, waitingUseRefCount);
         }
     }
 
@@ -117,6 +146,9 @@ public class SketchRefBitmap extends SketchBitmap {
             if (SLogType.CACHE.isEnabled()) {
                 SLog.fe(SLogType.CACHE, LOG_NAME, "Recycled. %s. %s", callingStation, getKey());
             }
+            if (trackRecord != null) {
+                RefBitmapTracker.onRefAfterRecycled(trackRecord, callingStation);
+            }
             return;
         }
 
@@ -125,6 +157,9 @@ public class SketchRefBitmap extends SketchBitmap {
                 SLog.fw(SLogType.CACHE, LOG_NAME, "Free. %s. %s", callingStation, getInfo());
             }
 
+            if (trackRecord != null) {
+                RefBitmapTracker.onFree(trackRecord, callingStation, bitmap);
+            }
             BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
             bitmap = null;
         } else {
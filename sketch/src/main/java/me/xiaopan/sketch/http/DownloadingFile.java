@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import java.io.File;
+
+/**
+ * 正在下载的文件，下载过程中可以读取已经写入磁盘的部分，例如大图功能可以在下载完成之前就开始解码碎片
+ * <p>
+ * 下载结束后（不论成功还是失败）文件都会被移走或删除，因此结束后就不能再读了，成功的话应该从磁盘缓存中读取
+ */
+public class DownloadingFile {
+    private String uri;
+    private File file;
+    private long contentLength;
+    private volatile long availableLength;
+    private volatile boolean finished;
+
+    DownloadingFile(String uri, File file, long contentLength) {
+        this.uri = uri;
+        this.file = file;
+        this.contentLength = contentLength;
+    }
+
+    @SuppressWarnings("unused")
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * 获取正在写入的文件
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 获取文件的总长度，小于等于0表示未知（分块传输）
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 获取已经写入磁盘可以读取的长度
+     */
+    public long getAvailableLength() {
+        return availableLength;
+    }
+
+    void setAvailableLength(long availableLength) {
+        this.availableLength = availableLength;
+    }
+
+    /**
+     * 下载是否已经结束，结束后就不能再读取文件了
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    void finish() {
+        this.finished = true;
+    }
+}
@@ -151,4 +151,67 @@ public interface HttpStack extends Identifier {
          */
         void releaseConnection();
     }
+
+    /**
+     * 可选接口，HttpStack实现了这个接口才支持网络事件监听，没实现的话Configuration.getHttpStatistics()就没有数据
+     */
+    interface EventSource {
+        /**
+         * 获取网络事件监听器
+         */
+        @SuppressWarnings("unused")
+        EventListener getEventListener();
+
+        /**
+         * 设置网络事件监听器，用来统计连接、首字节、下载速度等指标，传null就不再回调
+         */
+        @SuppressWarnings("unused")
+        HttpStack setEventListener(EventListener eventListener);
+    }
+
+    /**
+     * 网络事件监听器，所有回调都在下载线程中执行，不要做耗时操作
+     * <p>
+     * 每次onConnectStart之后要么以带异常的onConnectEnd结束，要么最终回调且只回调一次onBodyEnd，
+     * 实现类可以据此统计每个host当前的并发连接数。时间参数单位都是纳秒，除bodyNanos外都是从onConnectStart开始算起
+     */
+    interface EventListener {
+        /**
+         * 开始连接
+         */
+        void onConnectStart(String uri);
+
+        /**
+         * 连接结束，包括DNS解析、TCP连接以及TLS握手
+         *
+         * @param error 连接失败时的异常，成功时为null
+         */
+        void onConnectEnd(String uri, long connectNanos, Throwable error);
+
+        /**
+         * 收到了响应头
+         */
+        void onResponseHeaders(String uri, int responseCode, long headersNanos);
+
+        /**
+         * 读到了响应体的第一个字节
+         */
+        void onFirstByte(String uri, long firstByteNanos);
+
+        /**
+         * 响应体读取结束，包括读完、中途关闭以及直接释放连接
+         *
+         * @param bytes     实际读取的字节数
+         * @param bodyNanos 从第一个字节到结束的耗时，没有读到任何数据时为0
+         * @param complete  是否读到了流的末尾
+         */
+        void onBodyEnd(String uri, long bytes, long bodyNanos, long totalNanos, boolean complete);
+
+        /**
+         * 下载失败即将重试
+         *
+         * @param retryCount 这是第几次重试，从1开始
+         */
+        void onRetry(String uri, int retryCount, Throwable cause);
+    }
 }
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.http;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.metrics.StageHistogram;
+
+/**
+ * 默认的网络事件监听器，按host汇总连接耗时、响应头耗时、首字节耗时、下载速度、重试次数以及并发连接数
+ * <p>
+ * 下载线程池的大小可以参考各host的并发连接数峰值和下载速度来调整
+ */
+public class HttpStatistics implements HttpStack.EventListener, Identifier {
+    private static final String KEY = "HttpStatistics";
+    private static final String UNKNOWN_HOST = "unknown";
+
+    private final ConcurrentMap<String, HostStatistics> hostMap = new ConcurrentHashMap<String, HostStatistics>();
+    // 正在进行的请求的uri和host统计的对应关系，一次请求从onConnectStart到结束只解析一次uri
+    private final ConcurrentMap<String, HostStatistics> requestMap = new ConcurrentHashMap<String, HostStatistics>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    @Override
+    public void onConnectStart(String uri) {
+        HostStatistics hostStatistics = obtainHostStatistics(uri);
+        if (uri != null) {
+            requestMap.put(uri, hostStatistics);
+        }
+        hostStatistics.onConnectStart();
+        updatePeak(peakInFlight, inFlight.incrementAndGet());
+    }
+
+    @Override
+    public void onConnectEnd(String uri, long connectNanos, Throwable error) {
+        HostStatistics hostStatistics = obtainHostStatistics(uri);
+        hostStatistics.connectHistogram.recordNanos(connectNanos);
+        if (error != null) {
+            hostStatistics.connectFailedCount.incrementAndGet();
+            hostStatistics.inFlight.decrementAndGet();
+            inFlight.decrementAndGet();
+            endRequest(uri);
+        }
+    }
+
+    @Override
+    public void onResponseHeaders(String uri, int responseCode, long headersNanos) {
+        HostStatistics hostStatistics = obtainHostStatistics(uri);
+        hostStatistics.headersHistogram.recordNanos(headersNanos);
+        if (responseCode != 200) {
+            hostStatistics.errorResponseCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onFirstByte(String uri, long firstByteNanos) {
+        obtainHostStatistics(uri).firstByteHistogram.recordNanos(firstByteNanos);
+    }
+
+    @Override
+    public void onBodyEnd(String uri, long bytes, long bodyNanos, long totalNanos, boolean complete) {
+        HostStatistics hostStatistics = obtainHostStatistics(uri);
+        hostStatistics.inFlight.decrementAndGet();
+        inFlight.decrementAndGet();
+        endRequest(uri);
+
+        hostStatistics.bytes.addAndGet(bytes);
+        hostStatistics.bodyNanos.addAndGet(bodyNanos);
+        if (complete) {
+            hostStatistics.completedCount.incrementAndGet();
+            hostStatistics.totalHistogram.recordNanos(totalNanos);
+        } else {
+            hostStatistics.abortedCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onRetry(String uri, int retryCount, Throwable cause) {
+        obtainHostStatistics(uri).retryCount.incrementAndGet();
+    }
+
+    private HostStatistics obtainHostStatistics(String uri) {
+        if (uri == null) {
+            return obtainHostStatisticsByHost(UNKNOWN_HOST);
+        }
+
+        HostStatistics requestHostStatistics = requestMap.get(uri);
+        if (requestHostStatistics != null) {
+            return requestHostStatistics;
+        }
+
+        return obtainHostStatisticsByHost(Uri.parse(uri).getHost());
+    }
+
+    private void endRequest(String uri) {
+        if (uri != null) {
+            requestMap.remove(uri);
+        }
+    }
+
+    private HostStatistics obtainHostStatisticsByHost(String host) {
+        if (host == null) {
+            host = UNKNOWN_HOST;
+        }
+
+        HostStatistics hostStatistics = hostMap.get(host);
+        if (hostStatistics == null) {
+            HostStatistics newHostStatistics = new HostStatistics(host);
+            hostStatistics = hostMap.putIfAbsent(host, newHostStatistics);
+            if (hostStatistics == null) {
+                hostStatistics = newHostStatistics;
+            }
+        }
+        return hostStatistics;
+    }
+
+    private static void updatePeak(AtomicInteger peak, int value) {
+        int current = peak.get();
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get();
+        }
+    }
+
+    /**
+     * 获取指定host的统计信息
+     *
+     * @return null：还没有这个host的请求
+     */
+    @SuppressWarnings("unused")
+    public HostStatistics getHostStatistics(String host) {
+        return hostMap.get(host);
+    }
+
+    /**
+     * 获取所有host的统计信息
+     */
+    @SuppressWarnings("unused")
+    public List<HostStatistics> getAllHostStatistics() {
+        return new ArrayList<HostStatistics>(hostMap.values());
+    }
+
+    /**
+     * 获取当前所有host的并发连接数
+     */
+    @SuppressWarnings("unused")
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 获取所有host的并发连接数峰值
+     */
+    @SuppressWarnings("unused")
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * 清空所有统计，正在进行的连接数会保留，否则这些连接结束后并发数会变成负的
+     */
+    @SuppressWarnings("unused")
+    public void reset() {
+        for (HostStatistics hostStatistics : hostMap.values()) {
+            hostStatistics.reset();
+        }
+        peakInFlight.set(inFlight.get());
+    }
+
+    public String getInfo() {
+        StringBuilder builder = new StringBuilder(KEY).append(":");
+        builder.append(String.format(Locale.US, "inFlight=%d/peakInFlight=%d", getInFlight(), getPeakInFlight()));
+        for (HostStatistics hostStatistics : hostMap.values()) {
+            builder.append("\n").append(hostStatistics.getInfo());
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    /**
+     * 一个host的网络统计信息，耗时快照的单位都是微秒
+     */
+    public static class HostStatistics {
+        private final String host;
+        private final StageHistogram connectHistogram = new StageHistogram("connect");
+        private final StageHistogram headersHistogram = new StageHistogram("headers");
+        private final StageHistogram firstByteHistogram = new StageHistogram("firstByte");
+        private final StageHistogram totalHistogram = new StageHistogram("total");
+        private final AtomicLong connectCount = new AtomicLong();
+        private final AtomicLong connectFailedCount = new AtomicLong();
+        private final AtomicLong errorResponseCount = new AtomicLong();
+        private final AtomicLong completedCount = new AtomicLong();
+        private final AtomicLong abortedCount = new AtomicLong();
+        private final AtomicLong retryCount = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong bodyNanos = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+
+        HostStatistics(String host) {
+            this.host = host;
+        }
+
+        void onConnectStart() {
+            connectCount.incrementAndGet();
+            updatePeak(peakInFlight, inFlight.incrementAndGet());
+        }
+
+        void reset() {
+            connectHistogram.reset();
+            headersHistogram.reset();
+            firstByteHistogram.reset();
+            totalHistogram.reset();
+            connectCount.set(0);
+            connectFailedCount.set(0);
+            errorResponseCount.set(0);
+            completedCount.set(0);
+            abortedCount.set(0);
+            retryCount.set(0);
+            bytes.set(0);
+            bodyNanos.set(0);
+            peakInFlight.set(inFlight.get());
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * 获取连接耗时的快照，包括DNS解析、TCP连接以及TLS握手
+         */
+        @SuppressWarnings("unused")
+        public StageHistogram.Snapshot getConnectSnapshot() {
+            return connectHistogram.getSnapshot();
+        }
+
+        /**
+         * 获取从开始连接到收到响应头耗时的快照
+         */
+        @SuppressWarnings("unused")
+        public StageHistogram.Snapshot getHeadersSnapshot() {
+            return headersHistogram.getSnapshot();
+        }
+
+        /**
+         * 获取从开始连接到读到第一个字节耗时的快照
+         */
+        @SuppressWarnings("unused")
+        public StageHistogram.Snapshot getFirstByteSnapshot() {
+            return firstByteHistogram.getSnapshot();
+        }
+
+        /**
+         * 获取完整下载的总耗时的快照
+         */
+        @SuppressWarnings("unused")
+        public StageHistogram.Snapshot getTotalSnapshot() {
+            return totalHistogram.getSnapshot();
+        }
+
+        @SuppressWarnings("unused")
+        public long getConnectCount() {
+            return connectCount.get();
+        }
+
+        @SuppressWarnings("unused")
+        public long getConnectFailedCount() {
+            return connectFailedCount.get();
+        }
+
+        /**
+         * 获取状态码不是200的响应数
+         */
+        @SuppressWarnings("unused")
+        public long getErrorResponseCount() {
+            return errorResponseCount.get();
+        }
+
+        /**
+         * 获取完整读完响应体的次数
+         */
+        @SuppressWarnings("unused")
+        public long getCompletedCount() {
+            return completedCount.get();
+        }
+
+        /**
+         * 获取没有读完响应体就结束的次数，包括取消、读取超时以及状态码异常
+         */
+        @SuppressWarnings("unused")
+        public long getAbortedCount() {
+            return abortedCount.get();
+        }
+
+        @SuppressWarnings("unused")
+        public long getRetryCount() {
+            return retryCount.get();
+        }
+
+        /**
+         * 获取下载的总字节数
+         */
+        @SuppressWarnings("unused")
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * 获取平均下载速度，单位字节每秒，只计算读取响应体的时间
+         */
+        public long getBytesPerSecond() {
+            long bodyNanos = this.bodyNanos.get();
+            return bodyNanos > 0 ? (long) (bytes.get() * 1000000000d / bodyNanos) : 0;
+        }
+
+        /**
+         * 获取当前的并发连接数
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * 获取并发连接数的峰值
+         */
+        public int getPeakInFlight() {
+            return peakInFlight.get();
+        }
+
+        public String getInfo() {
+            return String.format(Locale.US, "%s(connect=%d/failed=%d/errorResponse=%d/completed=%d/aborted=%d/retry=%d" +
+                            "/bytes=%d/speed=%.1fKB/s/inFlight=%d/peakInFlight=%d)\n  %s\n  %s\n  %s\n  %s",
+                    host, getConnectCount(), getConnectFailedCount(), getErrorResponseCount(), getCompletedCount(),
+                    getAbortedCount(), getRetryCount(), getBytes(), getBytesPerSecond() / 1024f, getInFlight(),
+                    getPeakInFlight(), getConnectSnapshot().getInfo(), getHeadersSnapshot().getInfo(),
+                    getFirstByteSnapshot().getInfo(), getTotalSnapshot().getInfo());
+        }
+    }
+}
@@ -18,6 +18,7 @@ package me.xiaopan.sketch.http;
 
 import android.os.Build;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -28,7 +29,7 @@ import java.util.Map;
 
 import me.xiaopan.sketch.util.SketchUtils;
 
-public class HurlStack implements HttpStack {
+public class HurlStack implements HttpStack, HttpStack.EventSource {
     private static final String KEY = "HurlStack";
 
     private int readTimeout = DEFAULT_READ_TIMEOUT;
@@ -37,6 +38,7 @@ public class HurlStack implements HttpStack {
     private String userAgent;
     private Map<String, String> setExtraHeaders;
     private Map<String, String> addExtraHeaders;
+    private EventListener eventListener;
 
     @Override
     public int getMaxRetryCount() {
@@ -104,6 +106,17 @@ public class HurlStack implements HttpStack {
         return this;
     }
 
+    @Override
+    public EventListener getEventListener() {
+        return eventListener;
+    }
+
+    @Override
+    public HurlStack setEventListener(EventListener eventListener) {
+        this.eventListener = eventListener;
+        return this;
+    }
+
     @Override
     public boolean canRetry(Throwable throwable) {
         return throwable instanceof SocketTimeoutException;
@@ -145,9 +158,25 @@ public class HurlStack implements HttpStack {
 
         processRequest(uri, connection);
 
-        connection.connect();
+        // HttpURLConnection没有单独暴露DNS解析的耗时，所以连接耗时里包含了DNS解析和TLS握手
+        EventListener eventListener = this.eventListener;
+        long startNanos = System.nanoTime();
+        if (eventListener != null) {
+            eventListener.onConnectStart(uri);
+        }
+        try {
+            connection.connect();
+        } catch (IOException | RuntimeException e) {
+            if (eventListener != null) {
+                eventListener.onConnectEnd(uri, System.nanoTime() - startNanos, e);
+            }
+            throw e;
+        }
+        if (eventListener != null) {
+            eventListener.onConnectEnd(uri, System.nanoTime() - startNanos, null);
+        }
 
-        return new HttpUrlConnectionResponse(connection);
+        return new HttpUrlConnectionResponse(connection, uri, eventListener, startNanos);
     }
 
     protected void processRequest(@SuppressWarnings("UnusedParameters") String uri,
@@ -158,13 +187,25 @@ public class HurlStack implements HttpStack {
     private static class HttpUrlConnectionResponse implements ImageHttpResponse {
         private HttpURLConnection connection;
 
-        HttpUrlConnectionResponse(HttpURLConnection connection) {
+        private String uri;
+        private EventListener eventListener;
+        private long startNanos;
+        private EventInputStream eventInputStream;
+        private boolean headersNotified;
+        private boolean bodyEnded;
+
+        HttpUrlConnectionResponse(HttpURLConnection connection, String uri, EventListener eventListener, long startNanos) {
             this.connection = connection;
+            this.uri = uri;
+            this.eventListener = eventListener;
+            this.startNanos = startNanos;
         }
 
         @Override
         public int getResponseCode() throws IOException {
-            return connection.getResponseCode();
+            int responseCode = connection.getResponseCode();
+            notifyResponseHeaders(responseCode);
+            return responseCode;
         }
 
         @Override
@@ -213,7 +254,17 @@ public class HurlStack implements HttpStack {
 
         @Override
         public InputStream getContent() throws IOException {
-            return connection.getInputStream();
+            if (eventListener == null) {
+                return connection.getInputStream();
+            }
+
+            // 同一个响应始终返回同一个包装流，保证字节数和结束事件只统计一次
+            if (eventInputStream == null) {
+                InputStream inputStream = connection.getInputStream();
+                notifyResponseHeaders(connection.getResponseCode());
+                eventInputStream = new EventInputStream(inputStream);
+            }
+            return eventInputStream;
         }
 
         @Override
@@ -223,6 +274,27 @@ public class HurlStack implements HttpStack {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+
+            // 状态码异常时getContent()会抛异常，流没有机会关闭，这里补上结束事件
+            notifyBodyEnd(false);
+        }
+
+        private void notifyResponseHeaders(int responseCode) {
+            if (eventListener != null && !headersNotified) {
+                headersNotified = true;
+                eventListener.onResponseHeaders(uri, responseCode, System.nanoTime() - startNanos);
+            }
+        }
+
+        private void notifyBodyEnd(boolean complete) {
+            if (eventListener != null && !bodyEnded) {
+                bodyEnded = true;
+                long nowNanos = System.nanoTime();
+                long bytes = eventInputStream != null ? eventInputStream.bytes : 0;
+                long bodyNanos = eventInputStream != null && eventInputStream.firstByteNanos != 0
+                        ? nowNanos - eventInputStream.firstByteNanos : 0;
+                eventListener.onBodyEnd(uri, bytes, bodyNanos, nowNanos - startNanos, complete);
+            }
         }
 
         @Override
@@ -233,5 +305,59 @@ public class HurlStack implements HttpStack {
             }
             return transferEncodingValue != null && "chunked".equalsIgnoreCase(transferEncodingValue);
         }
+
+        /**
+         * 统计读取的字节数，并在读到第一个字节、读到末尾以及关闭时回调监听器
+         */
+        private class EventInputStream extends FilterInputStream {
+            private long bytes;
+            private long firstByteNanos;
+
+            EventInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int result = super.read();
+                onRead(result != -1 ? 1 : -1);
+                return result;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int result = super.read(buffer, offset, count);
+                onRead(result);
+                return result;
+            }
+
+            @Override
+            public long skip(long byteCount) throws IOException {
+                long result = super.skip(byteCount);
+                bytes += result;
+                return result;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    notifyBodyEnd(false);
+                }
+            }
+
+            private void onRead(int readCount) {
+                if (readCount == -1) {
+                    notifyBodyEnd(true);
+                } else if (readCount > 0) {
+                    if (firstByteNanos == 0) {
+                        firstByteNanos = System.nanoTime();
+                        eventListener.onFirstByte(uri, firstByteNanos - startNanos);
+                    }
+                    bytes += readCount;
+                }
+            }
+        }
     }
 }
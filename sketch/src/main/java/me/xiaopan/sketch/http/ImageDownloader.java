@@ -22,6 +22,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import me.xiaopan.sketch.Identifier;
@@ -37,6 +39,18 @@ import me.xiaopan.sketch.util.SketchUtils;
 public class ImageDownloader implements Identifier {
     private static final String KEY = "ImageDownloader";
 
+    private final Map<String, DownloadingFile> downloadingFileMap = new ConcurrentHashMap<String, DownloadingFile>();
+
+    /**
+     * 获取正在下载到磁盘缓存中的文件，可以在下载完成之前读取已经下载的部分
+     *
+     * @param diskCacheKey 磁盘缓存key
+     * @return null：没有正在下载或者已经下载结束了
+     */
+    public DownloadingFile getDownloadingFile(String diskCacheKey) {
+        return diskCacheKey != null ? downloadingFileMap.get(diskCacheKey) : null;
+    }
+
     /**
      * 下载，这个方法主要实现缓存锁与检查缓存
      */
@@ -119,6 +133,11 @@ public class ImageDownloader implements Identifier {
 
                 if (httpStack.canRetry(e) && retryCount < maxRetryCount) {
                     retryCount++;
+                    HttpStack.EventListener eventListener = httpStack instanceof HttpStack.EventSource ?
+                            ((HttpStack.EventSource) httpStack).getEventListener() : null;
+                    if (eventListener != null) {
+                        eventListener.onRetry(request.getUriInfo().getContent(), retryCount, e);
+                    }
                     if (SLogType.REQUEST.isEnabled()) {
                         request.printLogW("download failed", "runDownload", "retry");
                     }
@@ -211,11 +230,18 @@ public class ImageDownloader implements Identifier {
             outputStream = new ByteArrayOutputStream();
         }
 
+        // 开启了边下边解就登记正在下载的文件，以便大图功能在下载完成之前就能读取已经下载的部分
+        DownloadingFile downloadingFile = null;
+        if (request.getOptions().isStreamingEnabled() && diskCacheEditor instanceof DiskCache.ReadableEditor) {
+            downloadingFile = new DownloadingFile(request.getUri(), ((DiskCache.ReadableEditor) diskCacheEditor).getFile(), contentLength);
+            downloadingFileMap.put(diskCacheKey, downloadingFile);
+        }
+
         // 读取数据
         int completedLength = 0;
         boolean readFully;
         try {
-            completedLength = readData(request, inputStream, outputStream, (int) contentLength);
+            completedLength = readData(request, inputStream, outputStream, (int) contentLength, downloadingFile);
 
             readFully = contentLength <= 0 || completedLength == contentLength;
             if (diskCacheEditor != null) {
@@ -238,6 +264,10 @@ public class ImageDownloader implements Identifier {
         } finally {
             SketchUtils.close(outputStream);
             SketchUtils.close(inputStream);
+            if (downloadingFile != null) {
+                downloadingFileMap.remove(diskCacheKey);
+                downloadingFile.finish();
+            }
         }
 
         if (request.isCanceled()) {
@@ -267,7 +297,8 @@ public class ImageDownloader implements Identifier {
         }
     }
 
-    private int readData(DownloadRequest request, InputStream inputStream, OutputStream outputStream, int contentLength) throws IOException {
+    private int readData(DownloadRequest request, InputStream inputStream, OutputStream outputStream,
+                         int contentLength, DownloadingFile downloadingFile) throws IOException {
         int realReadCount;
         int completedLength = 0;
         long lastCallbackTime = 0;
@@ -287,6 +318,12 @@ public class ImageDownloader implements Identifier {
                 if (currentTime - lastCallbackTime >= 100) {
                     lastCallbackTime = currentTime;
                     request.updateProgress(contentLength, completedLength);
+
+                    // 边下边解时刷新到磁盘上之后才能被读取，没开启的话就让BufferedOutputStream自己决定什么时候写
+                    if (downloadingFile != null) {
+                        outputStream.flush();
+                        downloadingFile.setAvailableLength(completedLength);
+                    }
                 }
             } else {
                 // 结束的时候再次回调一下进度，确保页面上能显示100%
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.metrics;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.Identifier;
+
+/**
+ * 统计DisplayHelper.commit()在主线程中的耗时，按阶段拆分，并借助Choreographer统计每一帧里绑定占用了多少时间、有多少次绑定越过了帧的截止时间
+ * <p>
+ * 默认关闭，开启后每一帧都会收到Choreographer的回调，所以只建议在调试或采样时开启；
+ * 开启预算模式后，当这一帧有掉帧的风险时DisplayHelper会把MakerStateImage的处理和包装放到后台线程中执行
+ * <p>
+ * onBindStart()、onPhaseEnd()、onBindEnd()只能在主线程中调用，读取统计数据可以在任意线程
+ */
+public class BindTracker implements Identifier {
+    private static final String KEY = "BindTracker";
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    private static final float DEFAULT_RISK_RATIO = 0.5f;
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long frameIntervalNanos;
+
+    private final StageHistogram bindHistogram = new StageHistogram("bind");
+    private final StageHistogram frameHistogram = new StageHistogram("bindsPerFrame");
+    private final StageHistogram[] phaseHistograms = new StageHistogram[PHASES.length];
+    private final AtomicLong overDeadlineCount = new AtomicLong();
+    private final AtomicLong overBudgetFrameCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+
+    private volatile boolean enabled;
+    private volatile boolean budgetMode;
+    private volatile float riskRatio = DEFAULT_RISK_RATIO;
+
+    // 以下字段只在主线程中访问
+    private final long[] bindPhaseNanos = new long[PHASES.length];
+    private boolean binding;
+    private long bindStartNanos;
+    private long phaseStartNanos;
+    private long frameStartNanos;
+    private long frameBindNanos;
+    private Object frameCallback;
+
+    private final Runnable startFrameCallbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (enabled && frameCallback == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                frameCallback = new FrameCallbackCompat();
+                Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+            }
+        }
+    };
+
+    public BindTracker(Context context) {
+        for (Phase phase : PHASES) {
+            phaseHistograms[phase.ordinal()] = new StageHistogram(phase.getLog());
+        }
+
+        float refreshRate = 0;
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = windowManager != null ? windowManager.getDefaultDisplay() : null;
+        if (display != null) {
+            refreshRate = display.getRefreshRate();
+        }
+        frameIntervalNanos = refreshRate >= 1 ? (long) (1000000000L / refreshRate) : DEFAULT_FRAME_INTERVAL_NANOS;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 开启或关闭统计，可以在任意线程调用，Choreographer的回调会在主线程中开始，关闭后在下一帧停止
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            handler.post(startFrameCallbackRunnable);
+        } else {
+            budgetMode = false;
+        }
+    }
+
+    public boolean isBudgetMode() {
+        return budgetMode;
+    }
+
+    /**
+     * 开启或关闭预算模式，开启时会同时开启统计，因为需要知道当前这一帧的剩余时间
+     */
+    public void setBudgetMode(boolean budgetMode) {
+        if (budgetMode) {
+            setEnabled(true);
+        }
+        this.budgetMode = budgetMode;
+    }
+
+    /**
+     * 设置风险比例，距离帧的截止时间不足一帧的这个比例，或者这一帧里的绑定已经用掉了一帧的这个比例时就认为有掉帧的风险，默认0.5
+     */
+    @SuppressWarnings("unused")
+    public void setRiskRatio(float riskRatio) {
+        if (riskRatio > 0 && riskRatio <= 1) {
+            this.riskRatio = riskRatio;
+        }
+    }
+
+    /**
+     * 获取一帧的时长，根据屏幕的刷新率计算，单位纳秒
+     */
+    @SuppressWarnings("unused")
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    /**
+     * 开始一次绑定
+     *
+     * @param initNanos DisplayHelper.init()的时间，从init()到commit()之间设置参数的耗时会记在PREPARE阶段
+     */
+    public void onBindStart(long initNanos) {
+        binding = enabled;
+        if (!binding) {
+            return;
+        }
+
+        long nowNanos = System.nanoTime();
+        for (int i = 0; i < bindPhaseNanos.length; i++) {
+            bindPhaseNanos[i] = 0;
+        }
+        bindStartNanos = initNanos > 0 && initNanos <= nowNanos ? initNanos : nowNanos;
+        bindPhaseNanos[Phase.PREPARE.ordinal()] = nowNanos - bindStartNanos;
+        phaseStartNanos = nowNanos;
+    }
+
+    /**
+     * 一个阶段结束，从上一个阶段结束到现在的耗时都记在这个阶段上，同一次绑定里同一个阶段可以多次结束，耗时会累加
+     */
+    public void onPhaseEnd(Phase phase) {
+        if (!binding) {
+            return;
+        }
+
+        long nowNanos = System.nanoTime();
+        bindPhaseNanos[phase.ordinal()] += nowNanos - phaseStartNanos;
+        phaseStartNanos = nowNanos;
+    }
+
+    /**
+     * 结束一次绑定
+     */
+    public void onBindEnd() {
+        if (!binding) {
+            return;
+        }
+        binding = false;
+
+        long nowNanos = System.nanoTime();
+        long bindNanos = nowNanos - bindStartNanos;
+        bindHistogram.recordNanos(bindNanos);
+        for (Phase phase : PHASES) {
+            long phaseNanos = bindPhaseNanos[phase.ordinal()];
+            if (phaseNanos > 0) {
+                phaseHistograms[phase.ordinal()].recordNanos(phaseNanos);
+            }
+        }
+
+        if (frameStartNanos != 0) {
+            frameBindNanos += bindNanos;
+
+            // 开始时还在这一帧的截止时间之内，结束时却超过了，说明是这次绑定把这一帧拖过了截止时间
+            if (bindStartNanos - frameStartNanos <= frameIntervalNanos && nowNanos - frameStartNanos > frameIntervalNanos) {
+                overDeadlineCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 记录一次被推迟到后台线程执行的状态图片
+     */
+    public void onStateImageDeferred() {
+        deferredCount.incrementAndGet();
+    }
+
+    /**
+     * 当前这一帧是否有掉帧的风险，只能在主线程中调用，没有帧信息时（API 16以下或还没收到第一帧）始终返回false
+     */
+    public boolean isFrameAtRisk() {
+        if (frameStartNanos == 0) {
+            return false;
+        }
+
+        long nowNanos = System.nanoTime();
+        long riskNanos = (long) (frameIntervalNanos * riskRatio);
+        long usedNanos = frameBindNanos + (binding ? nowNanos - bindStartNanos : 0);
+        if (usedNanos >= riskNanos) {
+            return true;
+        }
+
+        // 已经过了这一帧的截止时间的话就按照下一帧的截止时间来算
+        long elapsedNanos = Math.max(0, nowNanos - frameStartNanos);
+        long remainingNanos = frameIntervalNanos - elapsedNanos % frameIntervalNanos;
+        return remainingNanos < riskNanos;
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (frameBindNanos > 0) {
+            frameHistogram.recordNanos(frameBindNanos);
+            if (frameBindNanos > frameIntervalNanos * riskRatio) {
+                overBudgetFrameCount.incrementAndGet();
+            }
+        }
+        frameBindNanos = 0;
+        frameStartNanos = frameTimeNanos;
+    }
+
+    /**
+     * 获取每次绑定在主线程中总耗时的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getBindSnapshot() {
+        return bindHistogram.getSnapshot();
+    }
+
+    /**
+     * 获取指定阶段耗时的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getPhaseSnapshot(Phase phase) {
+        return phaseHistograms[phase.ordinal()].getSnapshot();
+    }
+
+    /**
+     * 获取有绑定的帧里所有绑定耗时之和的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getFrameSnapshot() {
+        return frameHistogram.getSnapshot();
+    }
+
+    /**
+     * 获取越过了帧截止时间的绑定次数
+     */
+    @SuppressWarnings("unused")
+    public long getOverDeadlineCount() {
+        return overDeadlineCount.get();
+    }
+
+    /**
+     * 获取绑定耗时之和超过了风险比例的帧数
+     */
+    @SuppressWarnings("unused")
+    public long getOverBudgetFrameCount() {
+        return overBudgetFrameCount.get();
+    }
+
+    /**
+     * 获取预算模式下被推迟到后台线程执行的状态图片数
+     */
+    @SuppressWarnings("unused")
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * 清空所有统计
+     */
+    @SuppressWarnings("unused")
+    public void reset() {
+        bindHistogram.reset();
+        frameHistogram.reset();
+        for (StageHistogram histogram : phaseHistograms) {
+            histogram.reset();
+        }
+        overDeadlineCount.set(0);
+        overBudgetFrameCount.set(0);
+        deferredCount.set(0);
+    }
+
+    public String getInfo() {
+        StringBuilder builder = new StringBuilder(KEY).append(":");
+        builder.append(String.format(Locale.US, "frameInterval=%.2fms/overDeadline=%d/overBudgetFrames=%d/deferred=%d",
+                frameIntervalNanos / 1000000f, getOverDeadlineCount(), getOverBudgetFrameCount(), getDeferredCount()));
+        appendSnapshot(builder, bindHistogram.getSnapshot());
+        appendSnapshot(builder, frameHistogram.getSnapshot());
+        for (StageHistogram histogram : phaseHistograms) {
+            appendSnapshot(builder, histogram.getSnapshot());
+        }
+        return builder.toString();
+    }
+
+    private static void appendSnapshot(StringBuilder builder, StageHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() > 0) {
+            builder.append("\n").append(snapshot.getInfo());
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return String.format(Locale.US, "%s(enabled=%s,budgetMode=%s,riskRatio=%.2f)", KEY, enabled, budgetMode, riskRatio);
+    }
+
+    /**
+     * 绑定的阶段
+     */
+    public enum Phase {
+        /**
+         * 从DisplayHelper.init()到commit()，也就是设置各种参数
+         */
+        PREPARE("prepare"),
+
+        CHECK_URI("checkUri"),
+
+        PRE_PROCESS("preProcess"),
+
+        SAVE_PARAMS("saveParams"),
+
+        /**
+         * 查找内存缓存
+         */
+        MEMORY_CACHE("memoryCache"),
+
+        /**
+         * 用内存缓存中的图片创建Drawable，包括SketchShapeBitmapDrawable
+         */
+        DRAWABLE("drawable"),
+
+        /**
+         * 设置Drawable以及回调监听器
+         */
+        DISPLAY("display"),
+
+        /**
+         * 检查请求级别，LOCAL级别时会检查磁盘缓存是否存在
+         */
+        REQUEST_LEVEL("requestLevel"),
+
+        /**
+         * 检查重复请求，不一样的旧请求会在这里取消
+         */
+        REPEAT_CHECK("repeatCheck"),
+
+        /**
+         * 创建请求
+         */
+        CREATE_REQUEST("createRequest"),
+
+        /**
+         * 创建加载中状态图片，MakerStateImage会在这里执行ImageProcessor
+         */
+        STATE_IMAGE("stateImage"),
+
+        /**
+         * 提交请求
+         */
+        SUBMIT("submit"),;
+
+        private String log;
+
+        Phase(String log) {
+            this.log = log;
+        }
+
+        public String getLog() {
+            return log;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameCallbackCompat implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (enabled) {
+                onFrame(frameTimeNanos);
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                frameCallback = null;
+                frameStartNanos = 0;
+                frameBindNanos = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.metrics;
+
+import me.xiaopan.sketch.request.BaseRequest;
+import me.xiaopan.sketch.request.DisplayRequest;
+
+/**
+ * 默认的指标接收器，为每个状态以及提交、显示总耗时各维护一个直方图，可以随时获取百分位快照
+ */
+public class HistogramMetricsSink implements MetricsSink {
+    private static final String KEY = "HistogramMetricsSink";
+
+    private static final BaseRequest.Status[] STATUSES = BaseRequest.Status.values();
+
+    private final StageHistogram[] statusHistograms = new StageHistogram[STATUSES.length];
+    private final StageHistogram commitHistogram = new StageHistogram("commit");
+    private final StageHistogram displayHistogram = new StageHistogram("display");
+
+    public HistogramMetricsSink() {
+        for (BaseRequest.Status status : STATUSES) {
+            statusHistograms[status.ordinal()] = new StageHistogram(status.getLog());
+        }
+    }
+
+    @Override
+    public void onRequestFinished(BaseRequest request, RequestTimeline timeline) {
+        for (BaseRequest.Status status : STATUSES) {
+            if (timeline.getEnterNanos(status) != 0) {
+                long duration = timeline.getDurationNanos(status);
+                if (duration > 0) {
+                    statusHistograms[status.ordinal()].recordNanos(duration);
+                }
+            }
+        }
+
+        if (request instanceof DisplayRequest) {
+            commitHistogram.recordNanos(timeline.getCommitNanos());
+
+            // 只统计成功显示的，取消的和失败的会拉低或拉高整体的耗时
+            if (timeline.getEndStatus() == BaseRequest.Status.COMPLETED) {
+                displayHistogram.recordNanos(timeline.getTotalNanos());
+            }
+        }
+    }
+
+    /**
+     * 获取指定状态停留时长的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getSnapshot(BaseRequest.Status status) {
+        return statusHistograms[status.ordinal()].getSnapshot();
+    }
+
+    /**
+     * 获取显示请求在主线程中提交耗时的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getCommitSnapshot() {
+        return commitHistogram.getSnapshot();
+    }
+
+    /**
+     * 获取显示请求从提交到显示总耗时的快照
+     */
+    @SuppressWarnings("unused")
+    public StageHistogram.Snapshot getDisplaySnapshot() {
+        return displayHistogram.getSnapshot();
+    }
+
+    /**
+     * 清空所有统计
+     */
+    @SuppressWarnings("unused")
+    public void reset() {
+        for (StageHistogram histogram : statusHistograms) {
+            histogram.reset();
+        }
+        commitHistogram.reset();
+        displayHistogram.reset();
+    }
+
+    /**
+     * 获取所有有数据的直方图的快照信息
+     */
+    public String getInfo() {
+        StringBuilder builder = new StringBuilder(KEY).append(":");
+        appendSnapshot(builder, displayHistogram.getSnapshot());
+        appendSnapshot(builder, commitHistogram.getSnapshot());
+        for (StageHistogram histogram : statusHistograms) {
+            appendSnapshot(builder, histogram.getSnapshot());
+        }
+        return builder.toString();
+    }
+
+    private static void appendSnapshot(StringBuilder builder, StageHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() > 0) {
+            builder.append("\n").append(snapshot.getInfo());
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.metrics;
+
+import me.xiaopan.sketch.Identifier;
+import me.xiaopan.sketch.request.BaseRequest;
+
+/**
+ * 请求指标接收器，每个请求结束（完成、失败或取消）时都会收到它的时间线，可以实现此接口将数据上报到自己的监控系统
+ * <p>
+ * 会在结束请求的线程中回调，可能是主线程，因此不要做耗时操作
+ */
+public interface MetricsSink extends Identifier {
+
+    /**
+     * 请求结束了
+     *
+     * @param request  请求
+     * @param timeline 请求的时间线
+     */
+    void onRequestFinished(BaseRequest request, RequestTimeline timeline);
+}
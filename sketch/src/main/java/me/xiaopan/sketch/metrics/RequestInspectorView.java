@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.metrics;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.request.RequestRegistry;
+import me.xiaopan.sketch.request.RequestSnapshot;
+import me.xiaopan.sketch.util.SketchUtils;
+
+/**
+ * 悬浮在页面上的请求查看器，每隔一段时间读取一次RequestRegistry的快照，按耗时从长到短显示进行中的请求走到了哪一步
+ * <p>
+ * 直接加在Activity的DecorView上，不需要悬浮窗权限，也不拦截触摸事件；显示期间会开启RequestRegistry，移除后恢复原来的状态
+ */
+public class RequestInspectorView extends View {
+    private static final long REFRESH_INTERVAL = 500;
+    private static final int MAX_LINES = 20;
+
+    private final RequestRegistry registry;
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final List<String> lines = new ArrayList<String>();
+    private final int padding;
+    private boolean registryEnabledBefore;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    private static final Comparator<RequestSnapshot> ELAPSED_DESC = new Comparator<RequestSnapshot>() {
+        @Override
+        public int compare(RequestSnapshot lhs, RequestSnapshot rhs) {
+            long lhsElapsed = lhs.getElapsedNanos();
+            long rhsElapsed = rhs.getElapsedNanos();
+            return lhsElapsed > rhsElapsed ? -1 : (lhsElapsed == rhsElapsed ? 0 : 1);
+        }
+    };
+
+    public RequestInspectorView(Context context) {
+        super(context);
+        registry = Sketch.with(context).getConfiguration().getRequestRegistry();
+        padding = SketchUtils.dp2px(context, 4);
+
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(SketchUtils.dp2px(context, 10));
+        backgroundPaint.setColor(0x99000000);
+    }
+
+    /**
+     * 显示在指定Activity的底部
+     */
+    public static RequestInspectorView attach(Activity activity) {
+        ViewGroup decorView = (ViewGroup) activity.getWindow().getDecorView();
+        RequestInspectorView inspectorView = new RequestInspectorView(activity);
+        decorView.addView(inspectorView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM));
+        return inspectorView;
+    }
+
+    /**
+     * 从页面上移除
+     */
+    public void detach() {
+        if (getParent() instanceof ViewGroup) {
+            ((ViewGroup) getParent()).removeView(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        registryEnabledBefore = registry.isEnabled();
+        registry.setEnabled(true);
+        post(refreshRunnable);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(refreshRunnable);
+        registry.setEnabled(registryEnabledBefore);
+        super.onDetachedFromWindow();
+    }
+
+    private void refresh() {
+        List<RequestSnapshot> snapshots = registry.getSnapshot();
+        Collections.sort(snapshots, ELAPSED_DESC);
+
+        int oldLineCount = lines.size();
+        lines.clear();
+        lines.add("requests: " + snapshots.size() + ", dropped: " + registry.getDroppedCount());
+        for (int i = 0, size = Math.min(snapshots.size(), MAX_LINES); i < size; i++) {
+            lines.add(snapshots.get(i).getInfo());
+        }
+
+        if (lines.size() != oldLineCount) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    private float getLineHeight() {
+        return textPaint.getFontSpacing();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int height = (int) Math.ceil(padding * 2 + getLineHeight() * Math.max(1, lines.size()));
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        canvas.drawRect(0, 0, getWidth(), getHeight(), backgroundPaint);
+
+        float lineHeight = getLineHeight();
+        float baseline = padding - textPaint.ascent();
+        for (String line : lines) {
+            canvas.drawText(line, padding, baseline, textPaint);
+            baseline += lineHeight;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.sketch.metrics;
+
+import java.util.Locale;
+
+import me.xiaopan.sketch.request.BaseRequest;
+
+/**
+ * 请求的时间线，记录每个状态的进入时间和停留时长，时间都是System.nanoTime()，不受系统时间调整的影响
+ * <p>
+ * 状态可能在不同的线程中切换（例如主线程取消），因此记录时要加锁，但不会有竞争，开销可以忽略
+ * <p>
+ * RequestRegistry读取快照时不能加锁，所以当前状态和进入时间是volatile的，并且总是在更新完停留时长之后才写，
+ * 读的时候先读它们再读停留时长，就能保证看到的停留时长不会比当前状态更旧
+ */
+public class RequestTimeline {
+    private static final BaseRequest.Status[] STATUSES = BaseRequest.Status.values();
+
+    private final long[] enterNanos = new long[STATUSES.length];
+    private final long[] durationNanos = new long[STATUSES.length];
+
+    private long startNanos;
+    private volatile long currentEnterNanos;
+    private volatile BaseRequest.Status currentStatus;
+    private BaseRequest.Status endStatus;
+    private long endNanos;
+
+    public RequestTimeline() {
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * 修改开始时间，例如显示请求从DisplayHelper开始提交的时候就开始计时
+     */
+    public synchronized void setStartNanos(long startNanos) {
+        if (currentStatus == null) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * 记录进入一个新状态，结束之后不再记录
+     *
+     * @return true：这次记录的是结束状态，时间线刚刚结束
+     */
+    public synchronized boolean mark(BaseRequest.Status status, long nanos) {
+        if (status == null || endStatus != null) {
+            return false;
+        }
+
+        if (currentStatus != null) {
+            durationNanos[currentStatus.ordinal()] += nanos - currentEnterNanos;
+        }
+
+        if (enterNanos[status.ordinal()] == 0) {
+            enterNanos[status.ordinal()] = nanos;
+        }
+        currentEnterNanos = nanos;
+        currentStatus = status;
+
+        if (isEndStatus(status)) {
+            endStatus = status;
+            endNanos = nanos;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取当前状态，不加锁
+     *
+     * @return null：还没有进入任何状态
+     */
+    public BaseRequest.Status getCurrentStatus() {
+        return currentStatus;
+    }
+
+    /**
+     * 获取进入当前状态的时间，不加锁
+     */
+    public long getCurrentEnterNanos() {
+        return currentEnterNanos;
+    }
+
+    /**
+     * 不加锁复制每个状态已经结束的停留时长，不包括当前状态正在停留的时长，请先调用getCurrentStatus()
+     *
+     * @param out 长度必须等于BaseRequest.Status.values().length
+     */
+    public void copyDurationNanos(long[] out) {
+        System.arraycopy(durationNanos, 0, out, 0, durationNanos.length);
+    }
+
+    private static boolean isEndStatus(BaseRequest.Status status) {
+        return status == BaseRequest.Status.COMPLETED || status == BaseRequest.Status.FAILED
+                || status == BaseRequest.Status.CANCELED;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * 获取第一次进入指定状态的时间
+     *
+     * @return 0：没有进入过这个状态
+     */
+    public synchronized long getEnterNanos(BaseRequest.Status status) {
+        return enterNanos[status.ordinal()];
+    }
+
+    /**
+     * 获取在指定状态上一共停留了多长时间
+     */
+    public synchronized long getDurationNanos(BaseRequest.Status status) {
+        return durationNanos[status.ordinal()];
+    }
+
+    /**
+     * 获取从开始到第一个状态之间的时长，对于显示请求来说就是在主线程中提交请求的耗时
+     */
+    public synchronized long getCommitNanos() {
+        long firstEnterNanos = Long.MAX_VALUE;
+        for (long nanos : enterNanos) {
+            if (nanos != 0 && nanos < firstEnterNanos) {
+                firstEnterNanos = nanos;
+            }
+        }
+        return firstEnterNanos != Long.MAX_VALUE ? firstEnterNanos - startNanos : 0;
+    }
+
+    /**
+     * 获取结束状态
+     *
+     * @return null：还没结束
+     */
+    public synchronized BaseRequest.Status getEndStatus() {
+        return endStatus;
+    }
+
+    /**
+     * 获取从开始到结束一共花了多长时间
+     *
+     * @return 0：还没结束
+     */
+    public synchronized long getTotalNanos() {
+        return endStatus != null ? endNanos - startNanos : 0;
+    }
+
+    public synchronized String getInfo() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("commit:").append(formatMillis(getCommitNanos()));
+        for (BaseRequest.Status status : STATUSES) {
+            long duration = durationNanos[status.ordinal()];
+            if (enterNanos[status.ordinal()] != 0 && duration > 0) {
+                builder.append(", ").append(status.getLog()).append(":").append(formatMillis(duration));
+            }
+        }
+        if (endStatus != null) {
+            builder.append(". ").append(endStatus.getLog()).append(", useTime=").append(formatMillis(getTotalNanos()));
+        }
+        return builder.toString();
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1000000f);
+    }
+}
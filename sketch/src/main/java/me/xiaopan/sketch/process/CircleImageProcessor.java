@@ -19,8 +19,6 @@ package me.xiaopan.sketch.process;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.widget.ImageView;
 
 import me.xiaopan.sketch.Sketch;
@@ -89,20 +87,23 @@ public class CircleImageProcessor extends WrappedImageProcessor {
 
         Bitmap circleBitmap = bitmapPool.getOrMake(mapping.imageWidth, mapping.imageHeight, config);
 
-        Canvas canvas = new Canvas(circleBitmap);
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(0xFFFF0000);
-
-        // 绘制圆形的罩子
-        canvas.drawCircle(mapping.imageWidth / 2, mapping.imageHeight / 2,
-                (mapping.imageWidth < mapping.imageHeight ? mapping.imageWidth : mapping.imageHeight) / 2, paint);
-
-        // 应用遮罩模式并绘制图片
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, paint);
-
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Canvas canvas = drawCache.obtainCanvas(circleBitmap);
+        try {
+            Paint paint = drawCache.obtainPaint(Paint.ANTI_ALIAS_FLAG);
+            canvas.drawARGB(0, 0, 0, 0);
+            paint.setColor(0xFFFF0000);
+
+            // 绘制圆形的罩子
+            canvas.drawCircle(mapping.imageWidth / 2, mapping.imageHeight / 2,
+                    (mapping.imageWidth < mapping.imageHeight ? mapping.imageWidth : mapping.imageHeight) / 2, paint);
+
+            // 应用遮罩模式并绘制图片
+            paint.setXfermode(ProcessDrawCache.SRC_IN);
+            canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, paint);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
         return circleBitmap;
     }
 }
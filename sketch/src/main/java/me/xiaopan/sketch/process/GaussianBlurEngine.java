@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.process;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 高斯模糊引擎，算法同以前的fastGaussianBlur一样是Stack Blur，结果也完全一样，区别在于：
+ * <ul>
+ * <li>不再分配r、g、b三个数组，横向的结果打包成一个int写入临时数组，像素数组和临时数组都从池中获取，用完放回去，内存紧张时会被GC回收</li>
+ * <li>不再分配256 * divsum大小的除法表，改用乘法加移位代替除法，在半径不超过254时结果同除法完全一样</li>
+ * <li>横向按行、纵向按列拆分成多段，在多个线程上并行处理，处理完横向再处理纵向</li>
+ * </ul>
+ * 输入输出都是int数组，不依赖Bitmap。半径最大为MAX_RADIUS，超过的按MAX_RADIUS处理
+ */
+class GaussianBlurEngine {
+    static final int MAX_RADIUS = 254;  // 乘法加移位只在这个范围内同除法结果一样
+
+    private static final int DIV_SHIFT = 40;
+    private static final int MIN_ROWS_PER_TASK = 64;   // 每一段至少的行数或列数，太小的话调度的开销比计算还大
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static final List<SoftReference<int[]>> bufferPool = new LinkedList<SoftReference<int[]>>();
+    private static final ThreadLocal<int[]> stackLocal = new ThreadLocal<int[]>();
+    private static ThreadPoolExecutor executor;
+
+    private GaussianBlurEngine() {
+    }
+
+    /**
+     * 从池中获取一个长度不小于size的数组，用完后要调用recycleBuffer()放回去
+     */
+    static int[] obtainBuffer(int size) {
+        synchronized (bufferPool) {
+            int[] best = null;
+            SoftReference<int[]> bestReference = null;
+            for (SoftReference<int[]> reference : bufferPool) {
+                int[] buffer = reference.get();
+                if (buffer != null && buffer.length >= size && (best == null || buffer.length < best.length)) {
+                    best = buffer;
+                    bestReference = reference;
+                }
+            }
+            if (bestReference != null) {
+                bufferPool.remove(bestReference);
+                return best;
+            }
+        }
+        return new int[size];
+    }
+
+    /**
+     * 把数组放回池中，池满的话替换掉最小的或已经被回收的
+     */
+    static void recycleBuffer(int[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        synchronized (bufferPool) {
+            SoftReference<int[]> smallestReference = null;
+            int smallestLength = Integer.MAX_VALUE;
+            Iterator<SoftReference<int[]>> iterator = bufferPool.iterator();
+            while (iterator.hasNext()) {
+                SoftReference<int[]> reference = iterator.next();
+                int[] pooled = reference.get();
+                if (pooled == null) {
+                    iterator.remove();
+                } else if (pooled.length < smallestLength) {
+                    smallestLength = pooled.length;
+                    smallestReference = reference;
+                }
+            }
+
+            if (bufferPool.size() >= MAX_POOLED_BUFFERS) {
+                if (smallestLength >= buffer.length) {
+                    return;
+                }
+                bufferPool.remove(smallestReference);
+            }
+            bufferPool.add(new SoftReference<int[]>(buffer));
+        }
+    }
+
+    /**
+     * 模糊，结果写回pixels，保留alpha通道
+     *
+     * @param pixels 像素，长度不小于width * height
+     * @param temp   临时数组，长度不小于width * height
+     * @param radius 模糊半径，超过MAX_RADIUS的按MAX_RADIUS处理
+     */
+    static void blur(final int[] pixels, final int[] temp, final int width, final int height, int radius) {
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+        final int finalRadius = Math.min(radius, MAX_RADIUS);
+
+        int divsum = finalRadius + 1;
+        divsum *= divsum;
+        final long divMul = ((1L << DIV_SHIFT) / divsum) + 1;
+
+        // 先横向再纵向，纵向依赖横向的全部结果
+        runInParallel(height, new Pass() {
+            @Override
+            public void run(int start, int end) {
+                blurRows(pixels, temp, width, finalRadius, divMul, start, end);
+            }
+        });
+        runInParallel(width, new Pass() {
+            @Override
+            public void run(int start, int end) {
+                blurColumns(temp, pixels, width, height, finalRadius, divMul, start, end);
+            }
+        });
+    }
+
+    /**
+     * 先缩小downsample倍再模糊，最后放大回来写回pixels，缩小时取每一块的平均值，放大时双线性插值，alpha通道也一样缩放，
+     * 缩小后的像素数组和临时数组都从池中获取，不需要创建Bitmap、Canvas等对象
+     *
+     * @param pixels 像素，长度不小于width * height
+     * @param radius 原图上的模糊半径，缩小后的半径是radius / downsample，超过MAX_RADIUS的按MAX_RADIUS处理
+     */
+    static void blurDownsampled(final int[] pixels, final int width, final int height, int radius, int downsample) {
+        if (downsample <= 1) {
+            int[] temp = obtainBuffer(width * height);
+            try {
+                blur(pixels, temp, width, height, radius);
+            } finally {
+                recycleBuffer(temp);
+            }
+            return;
+        }
+        if (radius < 1 || width <= 0 || height <= 0) {
+            return;
+        }
+
+        final int smallWidth = Math.max(1, width / downsample);
+        final int smallHeight = Math.max(1, height / downsample);
+        final int[] small = obtainBuffer(smallWidth * smallHeight);
+        int[] smallTemp = obtainBuffer(smallWidth * smallHeight);
+        try {
+            runInParallel(smallHeight, new Pass() {
+                @Override
+                public void run(int start, int end) {
+                    scaleDown(pixels, width, height, small, smallWidth, smallHeight, start, end);
+                }
+            });
+            blur(small, smallTemp, smallWidth, smallHeight, Math.max(1, radius / downsample));
+            runInParallel(height, new Pass() {
+                @Override
+                public void run(int start, int end) {
+                    scaleUp(small, smallWidth, smallHeight, pixels, width, height, start, end);
+                }
+            });
+        } finally {
+            recycleBuffer(smallTemp);
+            recycleBuffer(small);
+        }
+    }
+
+    /**
+     * 缩小[rowStart, rowEnd)行，每个像素取原图对应块的平均值
+     */
+    private static void scaleDown(int[] pix, int w, int h, int[] out, int sw, int sh, int rowStart, int rowEnd) {
+        int a, r, g, b, count, p, yStart, yEnd, xStart, xEnd;
+        for (int sy = rowStart; sy < rowEnd; sy++) {
+            yStart = (int) ((long) sy * h / sh);
+            yEnd = (int) ((long) (sy + 1) * h / sh);
+            for (int sx = 0; sx < sw; sx++) {
+                xStart = (int) ((long) sx * w / sw);
+                xEnd = (int) ((long) (sx + 1) * w / sw);
+                a = r = g = b = 0;
+                for (int y = yStart; y < yEnd; y++) {
+                    for (int x = xStart; x < xEnd; x++) {
+                        p = pix[y * w + x];
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xff;
+                        g += (p >> 8) & 0xff;
+                        b += p & 0xff;
+                    }
+                }
+                count = (yEnd - yStart) * (xEnd - xStart);
+                out[sy * sw + sx] = ((a / count) << 24) | ((r / count) << 16) | ((g / count) << 8) | (b / count);
+            }
+        }
+    }
+
+    /**
+     * 放大[rowStart, rowEnd)行，双线性插值，坐标按像素中心对齐，权重是8位定点数
+     */
+    private static void scaleUp(int[] small, int sw, int sh, int[] pix, int w, int h, int rowStart, int rowEnd) {
+        int fy, y0, y1, wy, fx, x0, x1, wx, p00, p01, p10, p11;
+        for (int y = rowStart; y < rowEnd; y++) {
+            fy = Math.min(Math.max((int) (((2L * y + 1) * sh << 8) / (2L * h)) - 128, 0), (sh - 1) << 8);
+            y0 = fy >> 8;
+            y1 = Math.min(y0 + 1, sh - 1);
+            wy = fy & 0xff;
+            for (int x = 0; x < w; x++) {
+                fx = Math.min(Math.max((int) (((2L * x + 1) * sw << 8) / (2L * w)) - 128, 0), (sw - 1) << 8);
+                x0 = fx >> 8;
+                x1 = Math.min(x0 + 1, sw - 1);
+                wx = fx & 0xff;
+
+                p00 = small[y0 * sw + x0];
+                p01 = small[y0 * sw + x1];
+                p10 = small[y1 * sw + x0];
+                p11 = small[y1 * sw + x1];
+                pix[y * w + x] = (interpolate(p00, p01, p10, p11, wx, wy, 24) << 24)
+                        | (interpolate(p00, p01, p10, p11, wx, wy, 16) << 16)
+                        | (interpolate(p00, p01, p10, p11, wx, wy, 8) << 8)
+                        | interpolate(p00, p01, p10, p11, wx, wy, 0);
+            }
+        }
+    }
+
+    private static int interpolate(int p00, int p01, int p10, int p11, int wx, int wy, int shift) {
+        int top = ((p00 >>> shift) & 0xff) * (256 - wx) + ((p01 >>> shift) & 0xff) * wx;
+        int bottom = ((p10 >>> shift) & 0xff) * (256 - wx) + ((p11 >>> shift) & 0xff) * wx;
+        return (top * (256 - wy) + bottom * wy + 32768) >> 16;
+    }
+
+    /**
+     * 把[0, count)拆分成多段并行执行，当前线程也执行其中一段，全部执行完才返回，OrientationEngine也用它来拆分任务
+     */
+    static void runInParallel(int count, final Pass pass) {
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        int taskCount = Math.max(1, Math.min(cpuCount, count / MIN_ROWS_PER_TASK));
+        if (taskCount == 1) {
+            pass.run(0, count);
+            return;
+        }
+
+        ThreadPoolExecutor threadPool = getExecutor(cpuCount - 1);
+        final CountDownLatch latch = new CountDownLatch(taskCount - 1);
+        final Throwable[] errors = new Throwable[1];
+        int step = (count + taskCount - 1) / taskCount;
+        for (int task = 1; task < taskCount; task++) {
+            final int start = task * step;
+            final int end = Math.min(count, start + step);
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (start < end) {
+                            pass.run(start, end);
+                        }
+                    } catch (Throwable throwable) {
+                        errors[0] = throwable;
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        pass.run(0, Math.min(count, step));
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable error = errors[0];
+        if (error != null) {
+            throw new IllegalStateException("blur task failed", error);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor(int poolSize) {
+        if (executor == null) {
+            poolSize = Math.max(1, poolSize);
+            executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new BlurThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private static int[] getStack(int radius) {
+        int size = (radius + radius + 1) * 3;
+        int[] stack = stackLocal.get();
+        if (stack == null || stack.length < size) {
+            stack = new int[size];
+            stackLocal.set(stack);
+        }
+        return stack;
+    }
+
+    /**
+     * 横向模糊[rowStart, rowEnd)行，结果打包成RGB写入out
+     */
+    private static void blurRows(int[] pix, int[] out, int w, int radius, long divMul, int rowStart, int rowEnd) {
+        int[] stack = getStack(radius);
+        int wm = w - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        int rsum, gsum, bsum, routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        int p, si, sr, sg, sb, rbs, stackpointer, yw;
+
+        for (int y = rowStart; y < rowEnd; y++) {
+            yw = y * w;
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                p = pix[yw + Math.min(wm, Math.max(i, 0))];
+                si = (i + radius) * 3;
+                sr = stack[si] = (p & 0xff0000) >> 16;
+                sg = stack[si + 1] = (p & 0x00ff00) >> 8;
+                sb = stack[si + 2] = (p & 0x0000ff);
+                rbs = r1 - Math.abs(i);
+                rsum += sr * rbs;
+                gsum += sg * rbs;
+                bsum += sb * rbs;
+                if (i > 0) {
+                    rinsum += sr;
+                    ginsum += sg;
+                    binsum += sb;
+                } else {
+                    routsum += sr;
+                    goutsum += sg;
+                    boutsum += sb;
+                }
+            }
+            stackpointer = radius;
+
+            for (int x = 0; x < w; x++) {
+                out[yw + x] = ((int) ((rsum * divMul) >>> DIV_SHIFT) << 16)
+                        | ((int) ((gsum * divMul) >>> DIV_SHIFT) << 8)
+                        | (int) ((bsum * divMul) >>> DIV_SHIFT);
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                si = ((stackpointer - radius + div) % div) * 3;
+
+                routsum -= stack[si];
+                goutsum -= stack[si + 1];
+                boutsum -= stack[si + 2];
+
+                p = pix[yw + Math.min(x + radius + 1, wm)];
+
+                sr = stack[si] = (p & 0xff0000) >> 16;
+                sg = stack[si + 1] = (p & 0x00ff00) >> 8;
+                sb = stack[si + 2] = (p & 0x0000ff);
+
+                rinsum += sr;
+                ginsum += sg;
+                binsum += sb;
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                si = stackpointer * 3;
+
+                routsum += stack[si];
+                goutsum += stack[si + 1];
+                boutsum += stack[si + 2];
+
+                rinsum -= stack[si];
+                ginsum -= stack[si + 1];
+                binsum -= stack[si + 2];
+            }
+        }
+    }
+
+    /**
+     * 纵向模糊[columnStart, columnEnd)列，读取横向的结果，保留原来的alpha通道写回pix
+     */
+    private static void blurColumns(int[] in, int[] pix, int w, int h, int radius, long divMul, int columnStart, int columnEnd) {
+        int[] stack = getStack(radius);
+        int hm = h - 1;
+        int div = radius + radius + 1;
+        int r1 = radius + 1;
+        int rsum, gsum, bsum, routsum, goutsum, boutsum, rinsum, ginsum, binsum;
+        int p, si, sr, sg, sb, rbs, stackpointer, yi, yp;
+
+        for (int x = columnStart; x < columnEnd; x++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            yp = -radius * w;
+            for (int i = -radius; i <= radius; i++) {
+                p = in[Math.max(0, yp) + x];
+                si = (i + radius) * 3;
+                sr = stack[si] = (p & 0xff0000) >> 16;
+                sg = stack[si + 1] = (p & 0x00ff00) >> 8;
+                sb = stack[si + 2] = (p & 0x0000ff);
+
+                rbs = r1 - Math.abs(i);
+                rsum += sr * rbs;
+                gsum += sg * rbs;
+                bsum += sb * rbs;
+
+                if (i > 0) {
+                    rinsum += sr;
+                    ginsum += sg;
+                    binsum += sb;
+                } else {
+                    routsum += sr;
+                    goutsum += sg;
+                    boutsum += sb;
+                }
+
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = x;
+            stackpointer = radius;
+            for (int y = 0; y < h; y++) {
+                pix[yi] = (0xff000000 & pix[yi])
+                        | ((int) ((rsum * divMul) >>> DIV_SHIFT) << 16)
+                        | ((int) ((gsum * divMul) >>> DIV_SHIFT) << 8)
+                        | (int) ((bsum * divMul) >>> DIV_SHIFT);
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                si = ((stackpointer - radius + div) % div) * 3;
+
+                routsum -= stack[si];
+                goutsum -= stack[si + 1];
+                boutsum -= stack[si + 2];
+
+                p = in[x + Math.min(y + r1, hm) * w];
+
+                sr = stack[si] = (p & 0xff0000) >> 16;
+                sg = stack[si + 1] = (p & 0x00ff00) >> 8;
+                sb = stack[si + 2] = (p & 0x0000ff);
+
+                rinsum += sr;
+                ginsum += sg;
+                binsum += sb;
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                si = stackpointer * 3;
+
+                routsum += stack[si];
+                goutsum += stack[si + 1];
+                boutsum += stack[si + 2];
+
+                rinsum -= stack[si];
+                ginsum -= stack[si + 1];
+                binsum -= stack[si + 2];
+
+                yi += w;
+            }
+        }
+    }
+
+    interface Pass {
+        void run(int start, int end);
+    }
+
+    private static class BlurThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GaussianBlurThread" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package me.xiaopan.sketch.process;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
+import android.os.Build;
 
 import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.request.Resize;
 
 /**
@@ -14,20 +16,22 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
 
     private static final int NO_LAYER_COLOR = -1;
     private static final int DEFAULT_RADIUS = 15;
+    private static final int DOWNSAMPLE_MIN_RADIUS = 24;    // 半径达到这个值才缩小后模糊
+    private static final int DOWNSAMPLE_MIN_PIXELS = 256 * 256;    // 像素数达到这个值才缩小后模糊
 
-    private int radius; // 模糊半径，取值为0到100
+    private int radius; // 模糊半径，取值为0到254
     private int layerColor; // 图层颜色，在模糊后的图片上加一层颜色
 
     private GaussianBlurImageProcessor(int radius, int layerColor, WrappedImageProcessor wrappedImageProcessor) {
         super(wrappedImageProcessor);
-        this.radius = radius;
+        this.radius = Math.min(radius, GaussianBlurEngine.MAX_RADIUS);
         this.layerColor = layerColor;
     }
 
     /**
      * 创建一个指定半径和图层颜色的高斯模糊图片处理器
      *
-     * @param radius                模糊半径，取值为0到100
+     * @param radius                模糊半径，取值为0到254，超过254的按254处理
      * @param layerColor            图层颜色，在模糊后的图片上加一层颜色
      * @param wrappedImageProcessor 嵌套一个图片处理器
      * @return GaussianBlurImageProcessor
@@ -40,7 +44,7 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
     /**
      * 创建一个指定半径和图层颜色的高斯模糊图片处理器
      *
-     * @param radius     模糊半径，取值为0到100
+     * @param radius     模糊半径，取值为0到254，超过254的按254处理
      * @param layerColor 图层颜色，在模糊后的图片上加一层颜色
      * @return GaussianBlurImageProcessor
      */
@@ -73,7 +77,7 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
     /**
      * 创建一个指定半径的高斯模糊图片处理器
      *
-     * @param radius                模糊半径，取值为0到100
+     * @param radius                模糊半径，取值为0到254，超过254的按254处理
      * @param wrappedImageProcessor 嵌套一个图片处理器
      * @return GaussianBlurImageProcessor
      */
@@ -85,7 +89,7 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
     /**
      * 创建一个指定半径的高斯模糊图片处理器
      *
-     * @param radius 模糊半径，取值为0到100
+     * @param radius 模糊半径，取值为0到254，超过254的按254处理
      * @return GaussianBlurImageProcessor
      */
     @SuppressWarnings("unused")
@@ -115,9 +119,26 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
     }
 
     /**
-     * 快速高斯模糊
+     * 快速高斯模糊，半径较大时会先缩小图片再模糊，最后再放大回来
+     *
+     * @param radius 模糊半径，取值为0到254，超过254的按254处理
      */
     public static Bitmap fastGaussianBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap) {
+        return fastGaussianBlur(sentBitmap, radius, canReuseInBitmap, true);
+    }
+
+    /**
+     * 快速高斯模糊
+     *
+     * @param radius          模糊半径，取值为0到254，超过254的按254处理
+     * @param allowDownsample 是否允许在半径较大时先缩小图片再模糊，最后再放大回来，结果同直接模糊相比会有细微的差别，但要快得多
+     */
+    public static Bitmap fastGaussianBlur(Bitmap sentBitmap, int radius, boolean canReuseInBitmap, boolean allowDownsample) {
+        if (radius < 1) {
+            return null;
+        }
+        radius = Math.min(radius, GaussianBlurEngine.MAX_RADIUS);
+
         Bitmap bitmap;
         if (canReuseInBitmap) {
             bitmap = sentBitmap;
@@ -126,200 +147,11 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
         }
 
         try {
-            if (radius < 1) {
-                return (null);
-            }
-
             int w = bitmap.getWidth();
             int h = bitmap.getHeight();
 
-            int[] pix = new int[w * h];
-            bitmap.getPixels(pix, 0, w, 0, 0, w, h);
-
-            int wm = w - 1;
-            int hm = h - 1;
-            int wh = w * h;
-            int div = radius + radius + 1;
-
-            int r[] = new int[wh];
-            int g[] = new int[wh];
-            int b[] = new int[wh];
-            int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
-            int vmin[] = new int[Math.max(w, h)];
-
-            int divsum = (div + 1) >> 1;
-            divsum *= divsum;
-            int dv[] = new int[256 * divsum];
-            for (i = 0; i < 256 * divsum; i++) {
-                dv[i] = (i / divsum);
-            }
-
-            yw = yi = 0;
-
-            int[][] stack = new int[div][3];
-            int stackpointer;
-            int stackstart;
-            int[] sir;
-            int rbs;
-            int r1 = radius + 1;
-            int routsum, goutsum, boutsum;
-            int rinsum, ginsum, binsum;
-
-            for (y = 0; y < h; y++) {
-                rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-                for (i = -radius; i <= radius; i++) {
-                    p = pix[yi + Math.min(wm, Math.max(i, 0))];
-                    sir = stack[i + radius];
-                    sir[0] = (p & 0xff0000) >> 16;
-                    sir[1] = (p & 0x00ff00) >> 8;
-                    sir[2] = (p & 0x0000ff);
-                    rbs = r1 - Math.abs(i);
-                    rsum += sir[0] * rbs;
-                    gsum += sir[1] * rbs;
-                    bsum += sir[2] * rbs;
-                    if (i > 0) {
-                        rinsum += sir[0];
-                        ginsum += sir[1];
-                        binsum += sir[2];
-                    } else {
-                        routsum += sir[0];
-                        goutsum += sir[1];
-                        boutsum += sir[2];
-                    }
-                }
-                stackpointer = radius;
-
-                for (x = 0; x < w; x++) {
-
-                    r[yi] = dv[rsum];
-                    g[yi] = dv[gsum];
-                    b[yi] = dv[bsum];
-
-                    rsum -= routsum;
-                    gsum -= goutsum;
-                    bsum -= boutsum;
-
-                    stackstart = stackpointer - radius + div;
-                    sir = stack[stackstart % div];
-
-                    routsum -= sir[0];
-                    goutsum -= sir[1];
-                    boutsum -= sir[2];
-
-                    if (y == 0) {
-                        vmin[x] = Math.min(x + radius + 1, wm);
-                    }
-                    p = pix[yw + vmin[x]];
-
-                    sir[0] = (p & 0xff0000) >> 16;
-                    sir[1] = (p & 0x00ff00) >> 8;
-                    sir[2] = (p & 0x0000ff);
-
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-
-                    rsum += rinsum;
-                    gsum += ginsum;
-                    bsum += binsum;
-
-                    stackpointer = (stackpointer + 1) % div;
-                    sir = stack[(stackpointer) % div];
-
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-
-                    rinsum -= sir[0];
-                    ginsum -= sir[1];
-                    binsum -= sir[2];
-
-                    yi++;
-                }
-                yw += w;
-            }
-            for (x = 0; x < w; x++) {
-                rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-                yp = -radius * w;
-                for (i = -radius; i <= radius; i++) {
-                    yi = Math.max(0, yp) + x;
-
-                    sir = stack[i + radius];
-
-                    sir[0] = r[yi];
-                    sir[1] = g[yi];
-                    sir[2] = b[yi];
-
-                    rbs = r1 - Math.abs(i);
-
-                    rsum += r[yi] * rbs;
-                    gsum += g[yi] * rbs;
-                    bsum += b[yi] * rbs;
-
-                    if (i > 0) {
-                        rinsum += sir[0];
-                        ginsum += sir[1];
-                        binsum += sir[2];
-                    } else {
-                        routsum += sir[0];
-                        goutsum += sir[1];
-                        boutsum += sir[2];
-                    }
-
-                    if (i < hm) {
-                        yp += w;
-                    }
-                }
-                yi = x;
-                stackpointer = radius;
-                for (y = 0; y < h; y++) {
-                    // Preserve alpha channel: ( 0xff000000 & pix[yi] )
-                    pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
-
-                    rsum -= routsum;
-                    gsum -= goutsum;
-                    bsum -= boutsum;
-
-                    stackstart = stackpointer - radius + div;
-                    sir = stack[stackstart % div];
-
-                    routsum -= sir[0];
-                    goutsum -= sir[1];
-                    boutsum -= sir[2];
-
-                    if (x == 0) {
-                        vmin[y] = Math.min(y + r1, hm) * w;
-                    }
-                    p = x + vmin[y];
-
-                    sir[0] = r[p];
-                    sir[1] = g[p];
-                    sir[2] = b[p];
-
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-
-                    rsum += rinsum;
-                    gsum += ginsum;
-                    bsum += binsum;
-
-                    stackpointer = (stackpointer + 1) % div;
-                    sir = stack[stackpointer];
-
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-
-                    rinsum -= sir[0];
-                    ginsum -= sir[1];
-                    binsum -= sir[2];
-
-                    yi += w;
-                }
-            }
-
-            bitmap.setPixels(pix, 0, w, 0, 0, w, h);
+            int downsample = allowDownsample ? calculateDownsample(radius, w, h) : 1;
+            blur(bitmap, radius, downsample);
 
             return (bitmap);
         } catch (Throwable throwable) {
@@ -331,6 +163,64 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
         }
     }
 
+    /**
+     * 计算缩小倍数，半径达到DOWNSAMPLE_MIN_RADIUS时每缩小一倍半径也减半，但缩小后的半径不能小于DOWNSAMPLE_MIN_RADIUS的一半，否则效果差别太明显
+     */
+    private static int calculateDownsample(int radius, int width, int height) {
+        if (radius < DOWNSAMPLE_MIN_RADIUS || width * height < DOWNSAMPLE_MIN_PIXELS) {
+            return 1;
+        }
+
+        int downsample = 1;
+        while (radius / (downsample * 2) >= DOWNSAMPLE_MIN_RADIUS / 2
+                && width / (downsample * 2) > 0 && height / (downsample * 2) > 0) {
+            downsample *= 2;
+        }
+        return downsample;
+    }
+
+    /**
+     * 直接在bitmap上模糊，downsample大于1时先缩小模糊再放大回来，不透明度保持缩小图里的，所有数组都是从池中获取的
+     */
+    private static void blur(Bitmap bitmap, int radius, int downsample) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] pixels = GaussianBlurEngine.obtainBuffer(w * h);
+        try {
+            bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+            GaussianBlurEngine.blurDownsampled(pixels, w, h, radius, downsample);
+            bitmap.setPixels(pixels, 0, w, 0, 0, w, h);
+        } finally {
+            GaussianBlurEngine.recycleBuffer(pixels);
+        }
+    }
+
+    /**
+     * 在像素上叠加一层颜色，同Canvas.drawColor(color)的SRC_OVER效果一样，像素都是非预乘的
+     */
+    private static void drawLayerColor(int[] pixels, int count, int color) {
+        int ca = color >>> 24;
+        int cr = (color >> 16) & 0xff;
+        int cg = (color >> 8) & 0xff;
+        int cb = color & 0xff;
+        int inverse = 255 - ca;
+        int p, da, oa, dw;
+        for (int i = 0; i < count; i++) {
+            p = pixels[i];
+            da = p >>> 24;
+            dw = da * inverse / 255;
+            oa = ca + dw;
+            if (oa == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            pixels[i] = (oa << 24)
+                    | (((cr * ca + ((p >> 16) & 0xff) * dw) / oa) << 16)
+                    | (((cg * ca + ((p >> 8) & 0xff) * dw) / oa) << 8)
+                    | ((cb * ca + (p & 0xff) * dw) / oa);
+        }
+    }
+
     /**
      * 获取模糊半径
      */
@@ -352,21 +242,61 @@ public class GaussianBlurImageProcessor extends WrappedImageProcessor {
         return String.format("%s(radius=%d,maskColor=%d)", KEY, radius, layerColor);
     }
 
+    @Override
+    protected int onGetMaxDecodeDownsample(int width, int height) {
+        // 半径较大时模糊本来就会先缩小图片，那不如解码时就缩小，结果交给View在绘制时放大
+        return calculateDownsample(radius, width, height);
+    }
+
     @Override
     public Bitmap onProcess(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize, boolean lowQualityImage) {
+        return onProcess(sketch, bitmap, resize, forceUseResize, lowQualityImage, 1);
+    }
+
+    @Override
+    protected Bitmap onProcess(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize,
+                               boolean lowQualityImage, int decodeDownsample) {
         if (bitmap == null || bitmap.isRecycled()) {
             return bitmap;
         }
 
-        // blur handle
-        Bitmap blurBitmap = fastGaussianBlur(bitmap, radius, bitmap.getConfig() != null && bitmap.isMutable());
+        // 解码时已经缩小了，半径也要跟着缩小，这样放大显示后的效果才同原图模糊一样
+        int finalRadius = decodeDownsample > 1 ? Math.max(1, radius / decodeDownsample) : radius;
 
-        // layer color handle
-        if (blurBitmap != null && layerColor != NO_LAYER_COLOR) {
-            Canvas canvas = new Canvas(blurBitmap);
-            canvas.drawColor(layerColor);
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
+
+        // 输入的图片可能正被源图内存缓存引用着，因此不能直接在上面模糊，结果写到从BitmapPool中取的图片上，每个像素都会被覆盖
+        Bitmap blurBitmap = bitmapPool.getDirty(w, h, config);
+        if (blurBitmap == null) {
+            blurBitmap = Bitmap.createBitmap(w, h, config);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            blurBitmap.setHasAlpha(bitmap.hasAlpha());
         }
 
-        return blurBitmap;
+        int[] pixels = GaussianBlurEngine.obtainBuffer(w * h);
+        try {
+            bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+
+            // blur handle
+            GaussianBlurEngine.blurDownsampled(pixels, w, h, finalRadius, calculateDownsample(finalRadius, w, h));
+
+            // layer color handle
+            if (layerColor != NO_LAYER_COLOR) {
+                drawLayerColor(pixels, w * h, layerColor);
+            }
+
+            blurBitmap.setPixels(pixels, 0, w, 0, 0, w, h);
+            return blurBitmap;
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+            BitmapPoolUtils.freeBitmapToPool(blurBitmap, bitmapPool);
+            return null;
+        } finally {
+            GaussianBlurEngine.recycleBuffer(pixels);
+        }
     }
 }
\ No newline at end of file
@@ -27,7 +27,7 @@ import me.xiaopan.sketch.request.Resize;
  */
 public interface ImageProcessor extends Identifier {
     /**
-     * 处理
+     * 处理，不能修改传进来的bitmap，它可能正被源图内存缓存引用着，需要修改的话要创建一张新的图片
      */
     Bitmap process(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize, boolean lowQualityImage);
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.process;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.decode.ResizeCalculator;
+import me.xiaopan.sketch.request.Resize;
+
+/**
+ * 图片处理流水线，把由内置处理器组成的WrappedImageProcessor链合并成尽可能少的绘制
+ * <p>
+ * 原来链上的每个处理器都要创建一张新图片并把上一张完整的画上去，合并后：
+ * <ul>
+ * <li>Resize、Circle、RoundRect、Rotate的尺寸变换合并成一个Matrix</li>
+ * <li>Circle、RoundRect的形状变换到最终的尺寸后先画成罩子，再用SRC_IN按合并后的Matrix把图片画进去，每次绘制最多一个形状</li>
+ * <li>Mask合并成一个ColorMatrixColorFilter</li>
+ * <li>Reflection以及不是90度倍数的Rotate会结束当前这次绘制，后面的处理器从它的结果开始</li>
+ * </ul>
+ * 每次绘制完成后立即把上一次的结果放回BitmapPool。绘制用的Matrix、Path、RectF、ColorMatrix都在线程缓存的{@link Pass}里，
+ * ColorMatrixColorFilter在颜色矩阵不变时也会复用，所以处理一张图片不会再创建这些对象。
+ * 形状没有用BitmapShader画，因为BitmapShader绑定了图片，每次绘制的图片都不一样，没法复用
+ */
+public class ImageProcessorPipeline {
+    private static final String NAME = "ImageProcessorPipeline";
+
+    private final List<WrappedImageProcessor> steps;    // 按执行顺序排列，也就是从最里层到最外层
+    private final boolean resizeFirst;
+
+    private ImageProcessorPipeline(List<WrappedImageProcessor> steps, boolean resizeFirst) {
+        this.steps = steps;
+        this.resizeFirst = resizeFirst;
+    }
+
+    /**
+     * 分析处理器链，只有全部是内置的并且可以合并的处理器时才能编译
+     *
+     * @return null：不能编译
+     */
+    public static ImageProcessorPipeline compile(WrappedImageProcessor processor) {
+        List<WrappedImageProcessor> steps = new ArrayList<WrappedImageProcessor>();
+        boolean resizeFirst = false;
+        WrappedImageProcessor current = processor;
+        while (current != null) {
+            if (!isSupported(current)) {
+                return null;
+            }
+            // 不拦截Resize的处理器都会在处理之前先Resize，而Resize之后链上其它处理器的Resize都不再有效果了，因此只需要在最开始Resize一次
+            if (!current.isInterceptResize()) {
+                resizeFirst = true;
+            }
+            steps.add(0, current);
+            current = current.getWrappedProcessor();
+        }
+
+        return steps.size() > 1 ? new ImageProcessorPipeline(steps, resizeFirst) : null;
+    }
+
+    private static boolean isSupported(WrappedImageProcessor processor) {
+        Class<?> processorClass = processor.getClass();
+        return processorClass == CircleImageProcessor.class
+                || processorClass == RoundRectImageProcessor.class
+                || processorClass == MaskImageProcessor.class
+                || processorClass == ReflectionImageProcessor.class
+                || processorClass == RotateImageProcessor.class;
+    }
+
+    public Bitmap process(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize, boolean lowQualityImage) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return bitmap;
+        }
+
+        ResizeCalculator resizeCalculator = sketch.getConfiguration().getResizeCalculator();
+        BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
+
+        Bitmap current = bitmap;
+        int passCount = 0;
+        Pass pass = ProcessDrawCache.get().obtainPipelinePass();
+        pass.reset(current, lowQualityImage);
+        try {
+            if (resizeFirst && resize != null && resize.getWidth() != 0 && resize.getHeight() != 0
+                    && (bitmap.getWidth() != resize.getWidth() || bitmap.getHeight() != resize.getHeight())) {
+                ResizeCalculator.Mapping mapping = resizeCalculator.calculator(bitmap.getWidth(), bitmap.getHeight(),
+                        resize.getWidth(), resize.getHeight(), resize.getScaleType(), forceUseResize);
+                if (mapping != null) {
+                    pass.applyMapping(mapping);
+                }
+            }
+
+            for (WrappedImageProcessor step : steps) {
+                if (step instanceof CircleImageProcessor || step instanceof RoundRectImageProcessor) {
+                    // 每次绘制最多一个形状
+                    if (pass.hasShape) {
+                        current = flush(pass, bitmap, bitmapPool);
+                        passCount++;
+                        pass.reset(current, lowQualityImage);
+                    }
+
+                    ResizeCalculator.Mapping mapping;
+                    if (step instanceof CircleImageProcessor) {
+                        int targetWidth = resize != null ? resize.getWidth() : pass.width;
+                        int targetHeight = resize != null ? resize.getHeight() : pass.height;
+                        int newSize = targetWidth < targetHeight ? targetWidth : targetHeight;
+                        ImageView.ScaleType scaleType = resize != null ? resize.getScaleType() : ImageView.ScaleType.FIT_CENTER;
+                        mapping = resizeCalculator.calculator(pass.width, pass.height, newSize, newSize, scaleType, forceUseResize);
+                    } else {
+                        mapping = resizeCalculator.calculator(pass.width, pass.height,
+                                resize != null ? resize.getWidth() : pass.width,
+                                resize != null ? resize.getHeight() : pass.height,
+                                resize != null ? resize.getScaleType() : null, forceUseResize);
+                    }
+                    if (mapping == null) {
+                        continue;
+                    }
+                    pass.applyMapping(mapping);
+
+                    if (step instanceof CircleImageProcessor) {
+                        pass.setCircleShape(mapping.imageWidth, mapping.imageHeight);
+                    } else {
+                        pass.setRoundRectShape(mapping.imageWidth, mapping.imageHeight,
+                                ((RoundRectImageProcessor) step).getCornerRadius());
+                    }
+                } else if (step instanceof MaskImageProcessor) {
+                    pass.addMask(((MaskImageProcessor) step).getMaskColor());
+                } else if (step instanceof RotateImageProcessor) {
+                    int degrees = ((RotateImageProcessor) step).getDegrees();
+                    if (degrees % 360 == 0) {
+                        continue;
+                    }
+                    pass.applyRotate(degrees);
+
+                    // 倾斜后新图片的尺寸是按外接矩形算的，先画出来，后面的处理器按照倾斜后的结果计算，同单独执行时一样
+                    if (degrees % 90 != 0) {
+                        current = flush(pass, bitmap, bitmapPool);
+                        passCount++;
+                        pass.reset(current, lowQualityImage);
+                    }
+                } else if (step instanceof ReflectionImageProcessor) {
+                    pass.reflection = (ReflectionImageProcessor) step;
+                    current = flush(pass, bitmap, bitmapPool);
+                    passCount++;
+                    pass.reset(current, lowQualityImage);
+                }
+            }
+
+            if (pass.hasWork()) {
+                current = flush(pass, bitmap, bitmapPool);
+                passCount++;
+            }
+        } finally {
+            // Pass是线程缓存的，不能一直引用着图片
+            pass.reset(null, false);
+        }
+
+        if (SLogType.BASE.isEnabled()) {
+            SLog.fd(SLogType.BASE, NAME, "fused %d processors into %d passes. %dx%d -> %dx%d",
+                    steps.size(), passCount, bitmap.getWidth(), bitmap.getHeight(), current.getWidth(), current.getHeight());
+        }
+
+        return current;
+    }
+
+    /**
+     * 执行一次绘制，并把上一次绘制的结果放回BitmapPool
+     *
+     * @param original 最初的输入图片，不能放回BitmapPool
+     */
+    private Bitmap flush(Pass pass, Bitmap original, BitmapPool bitmapPool) {
+        Bitmap source = pass.source;
+        Bitmap result = pass.draw(bitmapPool);
+        if (result != source && source != original) {
+            BitmapPoolUtils.freeBitmapToPool(source, bitmapPool);
+        }
+        return result;
+    }
+
+    /**
+     * 一次绘制，由{@link ProcessDrawCache}按线程缓存，每次绘制前调用{@link #reset(Bitmap, boolean)}重置
+     */
+    static final class Pass {
+        private final Matrix matrix = new Matrix();
+        private final Matrix stepMatrix = new Matrix();
+        private final Path shape = new Path();
+        private final RectF srcRectF = new RectF();
+        private final RectF destRectF = new RectF();
+        private final ColorMatrix colorMatrix = new ColorMatrix();
+        private final ColorMatrix stepColorMatrix = new ColorMatrix();
+        private final float[] stepColorArray = new float[20];
+
+        private Bitmap source;
+        private boolean lowQualityImage;
+
+        private int width;
+        private int height;
+        private boolean matrixChanged;
+        private boolean rotated;    // 是否有不是90度倍数的旋转
+        private boolean hasShape;
+        private boolean hasColorMatrix;
+        private ReflectionImageProcessor reflection;
+
+        void reset(Bitmap source, boolean lowQualityImage) {
+            this.source = source;
+            this.lowQualityImage = lowQualityImage;
+            this.width = source != null ? source.getWidth() : 0;
+            this.height = source != null ? source.getHeight() : 0;
+            this.matrix.reset();
+            this.shape.reset();
+            this.matrixChanged = false;
+            this.rotated = false;
+            this.hasShape = false;
+            this.hasColorMatrix = false;
+            this.reflection = null;
+        }
+
+        void applyMapping(ResizeCalculator.Mapping mapping) {
+            if (mapping.imageWidth == width && mapping.imageHeight == height && mapping.srcRect.equals(mapping.destRect)) {
+                return;
+            }
+
+            srcRectF.set(mapping.srcRect);
+            destRectF.set(mapping.destRect);
+            stepMatrix.setRectToRect(srcRectF, destRectF, Matrix.ScaleToFit.FILL);
+            matrix.postConcat(stepMatrix);
+            if (hasShape) {
+                shape.transform(stepMatrix);
+            }
+            width = mapping.imageWidth;
+            height = mapping.imageHeight;
+            matrixChanged = true;
+        }
+
+        void applyRotate(int degrees) {
+            stepMatrix.setRotate(degrees);
+
+            srcRectF.set(0, 0, width, height);
+            stepMatrix.mapRect(srcRectF);
+            stepMatrix.postTranslate(-srcRectF.left, -srcRectF.top);
+
+            matrix.postConcat(stepMatrix);
+            if (hasShape) {
+                shape.transform(stepMatrix);
+            }
+            width = (int) srcRectF.width();
+            height = (int) srcRectF.height();
+            matrixChanged = true;
+            if (degrees % 90 != 0) {
+                rotated = true;
+            }
+        }
+
+        void setCircleShape(int shapeWidth, int shapeHeight) {
+            shape.reset();
+            shape.addCircle(shapeWidth / 2, shapeHeight / 2, (shapeWidth < shapeHeight ? shapeWidth : shapeHeight) / 2, Path.Direction.CW);
+            hasShape = true;
+        }
+
+        void setRoundRectShape(int shapeWidth, int shapeHeight, float[] cornerRadius) {
+            shape.reset();
+            destRectF.set(0, 0, shapeWidth, shapeHeight);
+            shape.addRoundRect(destRectF, cornerRadius, Path.Direction.CW);
+            hasShape = true;
+        }
+
+        /**
+         * 同MaskImageProcessor的效果一样，在不透明的部分盖上一层颜色，
+         * MaskImageProcessor的图层和颜色都带有透明度，因此实际的透明度是两者相乘
+         */
+        void addMask(int maskColor) {
+            int alpha = (maskColor >>> 24) & 0xFF;
+            float ratio = (alpha * alpha) / (255f * 255f);
+            float keep = 1 - ratio;
+            float[] array = stepColorArray;
+            array[0] = keep;
+            array[1] = 0;
+            array[2] = 0;
+            array[3] = 0;
+            array[4] = ((maskColor >> 16) & 0xFF) * ratio;
+            array[5] = 0;
+            array[6] = keep;
+            array[7] = 0;
+            array[8] = 0;
+            array[9] = ((maskColor >> 8) & 0xFF) * ratio;
+            array[10] = 0;
+            array[11] = 0;
+            array[12] = keep;
+            array[13] = 0;
+            array[14] = (maskColor & 0xFF) * ratio;
+            array[15] = 0;
+            array[16] = 0;
+            array[17] = 0;
+            array[18] = 1;
+            array[19] = 0;
+            if (!hasColorMatrix) {
+                colorMatrix.set(array);
+                hasColorMatrix = true;
+            } else {
+                stepColorMatrix.set(array);
+                colorMatrix.postConcat(stepColorMatrix);
+            }
+        }
+
+        boolean hasWork() {
+            return matrixChanged || hasShape || hasColorMatrix || reflection != null;
+        }
+
+        Bitmap.Config getConfig() {
+            if (hasShape || reflection != null) {
+                return lowQualityImage ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ARGB_8888;
+            }
+            if (rotated) {
+                return Bitmap.Config.ARGB_8888;
+            }
+            Bitmap.Config config = source.getConfig();
+            if (config == null) {
+                config = lowQualityImage ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ARGB_8888;
+            }
+            return config;
+        }
+
+        Bitmap draw(BitmapPool bitmapPool) {
+            if (!hasWork()) {
+                return source;
+            }
+
+            int reflectionTop = 0;
+            int outHeight = height;
+            if (reflection != null) {
+                reflectionTop = height + reflection.getReflectionSpacing();
+                outHeight = reflectionTop + (int) (height * reflection.getReflectionScale());
+            }
+
+            Bitmap result = bitmapPool.getOrMake(width, outHeight, getConfig());
+            ProcessDrawCache drawCache = ProcessDrawCache.get();
+            Canvas canvas = drawCache.obtainCanvas(result);
+            Paint paint = null;
+            try {
+                paint = drawContent(canvas, drawCache);
+
+                if (reflection != null) {
+                    // 在下半部分绘制倒影
+                    int saveCount = canvas.save();
+                    canvas.translate(0, height + reflectionTop);
+                    canvas.scale(1, -1);
+                    drawContent(canvas, drawCache);
+                    canvas.restoreToCount(saveCount);
+
+                    // 在倒影部分绘制半透明遮罩，让倒影部分产生半透明渐变的效果，内容已经画完了，Paint可以重置后接着用
+                    paint = drawCache.obtainPaint(0);
+                    paint.setShader(drawCache.obtainReflectionShader(reflectionTop, outHeight));
+                    paint.setXfermode(ProcessDrawCache.DST_IN);
+                    canvas.drawRect(0, reflectionTop, width, outHeight, paint);
+                }
+            } finally {
+                // 解绑ColorFilter和Shader，不然线程缓存的Paint会一直引用着它们
+                if (paint != null) {
+                    paint.reset();
+                }
+                drawCache.releaseCanvas(canvas);
+            }
+            return result;
+        }
+
+        /**
+         * 绘制一次内容，有形状的时候先画形状的罩子，再用SRC_IN把图片画进去，同CircleImageProcessor、RoundRectImageProcessor一样
+         *
+         * @return 最后用的Paint
+         */
+        private Paint drawContent(Canvas canvas, ProcessDrawCache drawCache) {
+            Paint paint = drawCache.obtainPaint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+            if (hasShape) {
+                paint.setColor(0xFFFF0000);
+                canvas.drawPath(shape, paint);
+                paint.setXfermode(ProcessDrawCache.SRC_IN);
+            }
+            if (hasColorMatrix) {
+                paint.setColorFilter(drawCache.obtainColorFilter(colorMatrix));
+            }
+
+            if (matrixChanged) {
+                canvas.drawBitmap(source, matrix, paint);
+            } else {
+                canvas.drawBitmap(source, null, drawCache.obtainRectF(0, 0, width, height), paint);
+            }
+            return paint;
+        }
+    }
+}
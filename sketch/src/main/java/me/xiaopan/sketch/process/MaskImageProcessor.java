@@ -3,8 +3,6 @@ package me.xiaopan.sketch.process;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
@@ -17,7 +15,6 @@ public class MaskImageProcessor extends WrappedImageProcessor {
 
     private static final String KEY = "MaskImageProcessor";
 
-    private Paint paint;
     private int maskColor;
 
     public MaskImageProcessor(int maskColor, WrappedImageProcessor wrappedProcessor) {
@@ -42,6 +39,12 @@ public class MaskImageProcessor extends WrappedImageProcessor {
         return String.format("%s(maskColor=%d)", KEY, maskColor);
     }
 
+    @Override
+    protected int onGetMaxDecodeDownsample(int width, int height) {
+        // 只是加一层颜色，跟分辨率无关
+        return Integer.MAX_VALUE;
+    }
+
     @Override
     public Bitmap onProcess(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize, boolean lowQualityImage) {
         if (bitmap == null || bitmap.isRecycled()) {
@@ -55,37 +58,31 @@ public class MaskImageProcessor extends WrappedImageProcessor {
             newBitmapConfig = lowQualityImage ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ARGB_8888;
         }
 
-        Bitmap maskBitmap;
-        boolean isNewBitmap = false;
-        if (bitmap.isMutable()) {
-            maskBitmap = bitmap;
-        } else {
-            maskBitmap = bitmapPool.getOrMake(bitmap.getWidth(), bitmap.getHeight(), newBitmapConfig);
-            isNewBitmap = true;
-        }
-
-        Canvas canvas = new Canvas(maskBitmap);
+        // 输入的图片可能正被源图内存缓存引用着，因此不能直接在上面绘制
+        Bitmap maskBitmap = bitmapPool.getOrMake(bitmap.getWidth(), bitmap.getHeight(), newBitmapConfig);
 
-        if (isNewBitmap) {
+        // 处理器会被多个线程同时使用，所以Paint不能作为成员变量，只能用线程缓存的
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Canvas canvas = drawCache.obtainCanvas(maskBitmap);
+        try {
             canvas.drawBitmap(bitmap, 0, 0, null);
-        }
 
-        if (paint == null) {
-            paint = new Paint();
+            Paint paint = drawCache.obtainPaint(0);
             paint.setColor(maskColor);
-        }
-        paint.setXfermode(null);
 
-        int saveFlags = Canvas.MATRIX_SAVE_FLAG | Canvas.CLIP_SAVE_FLAG | Canvas.HAS_ALPHA_LAYER_SAVE_FLAG |
-                Canvas.FULL_COLOR_LAYER_SAVE_FLAG | Canvas.CLIP_TO_LAYER_SAVE_FLAG;
-        int src = canvas.saveLayer(0, 0, bitmap.getWidth(), bitmap.getHeight(), paint, saveFlags);
+            int saveFlags = Canvas.MATRIX_SAVE_FLAG | Canvas.CLIP_SAVE_FLAG | Canvas.HAS_ALPHA_LAYER_SAVE_FLAG |
+                    Canvas.FULL_COLOR_LAYER_SAVE_FLAG | Canvas.CLIP_TO_LAYER_SAVE_FLAG;
+            int src = canvas.saveLayer(0, 0, bitmap.getWidth(), bitmap.getHeight(), paint, saveFlags);
 
-        canvas.drawBitmap(bitmap, 0, 0, null);
+            canvas.drawBitmap(bitmap, 0, 0, null);
 
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawRect(0, 0, bitmap.getWidth(), bitmap.getHeight(), paint);
+            paint.setXfermode(ProcessDrawCache.SRC_IN);
+            canvas.drawRect(0, 0, bitmap.getWidth(), bitmap.getHeight(), paint);
 
-        canvas.restoreToCount(src);
+            canvas.restoreToCount(src);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
 
         return maskBitmap;
     }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.process;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.util.ExifInterface;
+
+/**
+ * 方向变换引擎，90°、180°、270°旋转以及翻转都只是像素位置的重新排列，没必要像Canvas那样按照Matrix过滤采样，
+ * 直接搬运int像素即可，又快又没有任何误差
+ * <ul>
+ * <li>按条带处理，每次从原图读取若干行到int数组中，转置后写入新图片对应的若干列，数组从池中获取，不需要一次读取整张图片的像素</li>
+ * <li>转置时按32x32的块进行，读写都尽量在缓存里</li>
+ * <li>大图按行拆分成多段，在多个线程上并行处理</li>
+ * </ul>
+ * 只支持不透明的ARGB_8888和RGB_565，只有这时getPixels()和setPixels()的转换才是没有损失的。半透明的ARGB_8888在内存中是预乘过alpha的，
+ * 读出来要除以alpha，写回去再乘上alpha，半透明像素的颜色会有舍入误差，因此同其它格式以及任意角度的旋转一样还得用Canvas
+ */
+public class OrientationEngine {
+    private static final int STRIP_ROWS = 32;
+    private static final int BLOCK_SIZE = 32;
+
+    private OrientationEngine() {
+    }
+
+    /**
+     * 是否可以用像素搬运的方式变换
+     *
+     * @param exifOrientation 图片方向
+     */
+    public static boolean support(Bitmap bitmap, int exifOrientation) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return false;
+        }
+
+        Bitmap.Config config = bitmap.getConfig();
+        if (config != Bitmap.Config.RGB_565 && (config != Bitmap.Config.ARGB_8888 || bitmap.hasAlpha())) {
+            return false;
+        }
+
+        switch (exifOrientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_ROTATE_270:
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 把顺时针旋转角度转换成对应的图片方向
+     *
+     * @return ORIENTATION_UNDEFINED：不是90的整数倍
+     */
+    public static int degreesToOrientation(int degrees) {
+        degrees = degrees % 360;
+        if (degrees < 0) {
+            degrees += 360;
+        }
+        switch (degrees) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+    }
+
+    /**
+     * 按照图片方向变换，结果同ImageOrientationCorrector.initializeMatrixForExifRotation()的Matrix一致
+     *
+     * @param exifOrientation 图片方向
+     * @return 新的bitmap，null：不支持，请先调用{@link #support(Bitmap, int)}判断
+     */
+    public static Bitmap transform(final Bitmap source, int exifOrientation, BitmapPool bitmapPool) {
+        if (!support(source, exifOrientation)) {
+            return null;
+        }
+
+        final boolean swap = exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270
+                || exifOrientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || exifOrientation == ExifInterface.ORIENTATION_TRANSVERSE;
+        // 交换宽高时flipX表示新图片的列是原图的行倒过来，flipY表示新图片的行是原图的列倒过来
+        final boolean flipX = exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_180
+                || exifOrientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL
+                || exifOrientation == ExifInterface.ORIENTATION_TRANSVERSE;
+        final boolean flipY = exifOrientation == ExifInterface.ORIENTATION_ROTATE_270
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_180
+                || exifOrientation == ExifInterface.ORIENTATION_FLIP_VERTICAL
+                || exifOrientation == ExifInterface.ORIENTATION_TRANSVERSE;
+
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final Bitmap result = bitmapPool.getOrMake(swap ? height : width, swap ? width : height, source.getConfig());
+        // 池中取出的图片hasAlpha被重置成了true，support()只接受不透明的图片，这里改回来
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            result.setHasAlpha(false);
+        }
+
+        GaussianBlurEngine.runInParallel(height, new GaussianBlurEngine.Pass() {
+            @Override
+            public void run(int start, int end) {
+                int[] in = GaussianBlurEngine.obtainBuffer(width * STRIP_ROWS);
+                int[] out = GaussianBlurEngine.obtainBuffer(width * STRIP_ROWS);
+                try {
+                    for (int y0 = start; y0 < end; y0 += STRIP_ROWS) {
+                        int rows = Math.min(STRIP_ROWS, end - y0);
+                        source.getPixels(in, 0, width, 0, y0, width, rows);
+                        if (swap) {
+                            transposeStrip(in, out, width, rows, flipX, flipY);
+                            int destX = flipX ? height - y0 - rows : y0;
+                            result.setPixels(out, 0, rows, destX, 0, rows, width);
+                        } else {
+                            flipStrip(in, out, width, rows, flipX, flipY);
+                            int destY = flipY ? height - y0 - rows : y0;
+                            result.setPixels(out, 0, width, 0, destY, width, rows);
+                        }
+                    }
+                } finally {
+                    GaussianBlurEngine.recycleBuffer(in);
+                    GaussianBlurEngine.recycleBuffer(out);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * 不交换宽高时只需要翻转行内像素的顺序或行的顺序
+     */
+    private static void flipStrip(int[] in, int[] out, int width, int rows, boolean flipX, boolean flipY) {
+        for (int row = 0; row < rows; row++) {
+            int inOffset = row * width;
+            int outOffset = (flipY ? rows - 1 - row : row) * width;
+            if (flipX) {
+                for (int x = 0, outIndex = outOffset + width - 1; x < width; x++, outIndex--) {
+                    out[outIndex] = in[inOffset + x];
+                }
+            } else {
+                System.arraycopy(in, inOffset, out, outOffset, width);
+            }
+        }
+    }
+
+    /**
+     * 把rows行width列的条带转置成width行rows列，按块进行，读写都尽量命中缓存
+     */
+    private static void transposeStrip(int[] in, int[] out, int width, int rows, boolean flipX, boolean flipY) {
+        for (int blockX = 0; blockX < width; blockX += BLOCK_SIZE) {
+            int blockEndX = Math.min(width, blockX + BLOCK_SIZE);
+            for (int blockY = 0; blockY < rows; blockY += BLOCK_SIZE) {
+                int blockEndY = Math.min(rows, blockY + BLOCK_SIZE);
+                for (int x = blockX; x < blockEndX; x++) {
+                    int outRowOffset = (flipY ? width - 1 - x : x) * rows;
+                    for (int y = blockY; y < blockEndY; y++) {
+                        out[outRowOffset + (flipX ? rows - 1 - y : y)] = in[y * width + x];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.process;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.Build;
+
+import java.util.Arrays;
+
+/**
+ * 图片处理器绘制时用到的Canvas、Paint、Matrix、Path等对象的线程缓存，每个加载线程一份，避免每处理一张图片都要创建一堆对象
+ * <p>
+ * 这些对象都不是线程安全的，所以只能在当前线程内使用，不能保存起来跨线程使用。用完要在finally中调用{@link #releaseCanvas(Canvas)}，
+ * 否则绘制时出了异常Canvas会一直处于使用中的状态并引用着bitmap
+ */
+final class ProcessDrawCache {
+    // Xfermode创建后就不会再改变了，可以共用
+    static final PorterDuffXfermode SRC = new PorterDuffXfermode(PorterDuff.Mode.SRC);
+    static final PorterDuffXfermode SRC_IN = new PorterDuffXfermode(PorterDuff.Mode.SRC_IN);
+    static final PorterDuffXfermode DST_IN = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+
+    private static final ThreadLocal<ProcessDrawCache> CACHE = new ThreadLocal<ProcessDrawCache>() {
+        @Override
+        protected ProcessDrawCache initialValue() {
+            return new ProcessDrawCache();
+        }
+    };
+
+    // 关闭后每次都创建新的对象，同没有这个缓存时一样，只给基准测试做前后对比用
+    private static volatile boolean reuseDisabled;
+
+    private Canvas canvas;
+    private int canvasSaveCount;
+    private boolean canvasInUse;
+
+    private final Paint paint = new Paint();
+    private final Matrix matrix = new Matrix();
+    private final Path path = new Path();
+    private final RectF rectF = new RectF();
+
+    private LinearGradient reflectionShader;
+    private Matrix reflectionShaderMatrix;
+
+    private ImageProcessorPipeline.Pass pipelinePass;
+    private ColorMatrixColorFilter colorFilter;
+    private float[] colorFilterArray;
+
+    private ProcessDrawCache() {
+    }
+
+    static ProcessDrawCache get() {
+        return CACHE.get();
+    }
+
+    /**
+     * 设置是否关闭复用，关闭后所有obtain方法都返回新创建的对象
+     */
+    static void setReuseDisabled(boolean disabled) {
+        reuseDisabled = disabled;
+    }
+
+    /**
+     * 获取一个在指定bitmap上绘制的Canvas，4.0以下Canvas不支持解绑bitmap，只能每次都创建新的
+     */
+    Canvas obtainCanvas(Bitmap bitmap) {
+        if (reuseDisabled || canvasInUse || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return new Canvas(bitmap);
+        }
+
+        if (canvas == null) {
+            canvas = new Canvas();
+        }
+        canvas.setBitmap(bitmap);
+        canvasSaveCount = canvas.save();
+        canvasInUse = true;
+        return canvas;
+    }
+
+    /**
+     * 用完Canvas后恢复状态并解绑bitmap，否则bitmap会一直被线程缓存引用着
+     */
+    void releaseCanvas(Canvas usedCanvas) {
+        if (usedCanvas == null || usedCanvas != canvas || !canvasInUse) {
+            return;
+        }
+
+        canvas.restoreToCount(canvasSaveCount);
+        canvas.setBitmap(null);
+        canvasInUse = false;
+    }
+
+    /**
+     * 获取一个重置过的Paint
+     */
+    Paint obtainPaint(int flags) {
+        if (reuseDisabled) {
+            return new Paint(flags);
+        }
+        paint.reset();
+        paint.setFlags(flags);
+        return paint;
+    }
+
+    /**
+     * 获取一个重置过的Matrix
+     */
+    Matrix obtainMatrix() {
+        if (reuseDisabled) {
+            return new Matrix();
+        }
+        matrix.reset();
+        return matrix;
+    }
+
+    /**
+     * 获取一个重置过的Path
+     */
+    Path obtainPath() {
+        if (reuseDisabled) {
+            return new Path();
+        }
+        path.reset();
+        return path;
+    }
+
+    RectF obtainRectF(float left, float top, float right, float bottom) {
+        if (reuseDisabled) {
+            return new RectF(left, top, right, bottom);
+        }
+        rectF.set(left, top, right, bottom);
+        return rectF;
+    }
+
+    /**
+     * 获取倒影的渐变Shader，渐变只创建一次，之后通过LocalMatrix拉伸到指定的区域
+     */
+    Shader obtainReflectionShader(float top, float bottom) {
+        if (reuseDisabled) {
+            return new LinearGradient(0, top, 0, bottom, 0x70ffffff, 0x00ffffff, Shader.TileMode.CLAMP);
+        }
+        if (reflectionShader == null) {
+            reflectionShader = new LinearGradient(0, 0, 0, 1, 0x70ffffff, 0x00ffffff, Shader.TileMode.CLAMP);
+            reflectionShaderMatrix = new Matrix();
+        }
+        reflectionShaderMatrix.setScale(1, bottom - top);
+        reflectionShaderMatrix.postTranslate(0, top);
+        reflectionShader.setLocalMatrix(reflectionShaderMatrix);
+        return reflectionShader;
+    }
+
+    /**
+     * 获取ImageProcessorPipeline绘制用的Pass，Pass里有一整套Matrix、Path、RectF，处理过程中一直在用，所以同上面的那些分开
+     */
+    ImageProcessorPipeline.Pass obtainPipelinePass() {
+        if (reuseDisabled) {
+            return new ImageProcessorPipeline.Pass();
+        }
+        if (pipelinePass == null) {
+            pipelinePass = new ImageProcessorPipeline.Pass();
+        }
+        return pipelinePass;
+    }
+
+    /**
+     * 获取指定颜色矩阵的ColorFilter，ColorMatrixColorFilter创建后不能修改，所以只有矩阵同上次一样时才能复用，
+     * 同一个处理器链每次的矩阵都是一样的
+     */
+    ColorFilter obtainColorFilter(ColorMatrix colorMatrix) {
+        if (reuseDisabled) {
+            return new ColorMatrixColorFilter(colorMatrix);
+        }
+
+        float[] array = colorMatrix.getArray();
+        if (colorFilter == null || !Arrays.equals(array, colorFilterArray)) {
+            colorFilter = new ColorMatrixColorFilter(colorMatrix);
+            if (colorFilterArray == null) {
+                colorFilterArray = new float[array.length];
+            }
+            System.arraycopy(array, 0, colorFilterArray, 0, array.length);
+        }
+        return colorFilter;
+    }
+}
@@ -18,12 +18,8 @@ package me.xiaopan.sketch.process;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PorterDuff.Mode;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Shader.TileMode;
 
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
@@ -94,21 +90,25 @@ public class ReflectionImageProcessor extends WrappedImageProcessor {
         Bitmap reflectionBitmap = bitmapPool.getOrMake(bitmap.getWidth(), reflectionTop + reflectionHeight, config);
 
         // 在上半部分绘制原图
-        Canvas canvas = new Canvas(reflectionBitmap);
-        canvas.drawBitmap(bitmap, 0, 0, null);
-
-        // 在下半部分绘制倒影
-        Matrix matrix = new Matrix();
-        matrix.postScale(1, -1);
-        matrix.postTranslate(0, srcHeight + reflectionTop);
-        canvas.drawBitmap(bitmap, matrix, null);
-
-        // 在倒影部分绘制半透明遮罩，让倒影部分产生半透明渐变的效果
-        Paint paint = new Paint();
-        paint.setShader(new LinearGradient(0, reflectionTop, 0, reflectionBitmap.getHeight(), 0x70ffffff, 0x00ffffff, TileMode.CLAMP));
-        paint.setXfermode(new PorterDuffXfermode(Mode.DST_IN));
-        canvas.drawRect(0, reflectionTop, reflectionBitmap.getWidth(), reflectionBitmap.getHeight(), paint);
-
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Canvas canvas = drawCache.obtainCanvas(reflectionBitmap);
+        try {
+            canvas.drawBitmap(bitmap, 0, 0, null);
+
+            // 在下半部分绘制倒影
+            Matrix matrix = drawCache.obtainMatrix();
+            matrix.postScale(1, -1);
+            matrix.postTranslate(0, srcHeight + reflectionTop);
+            canvas.drawBitmap(bitmap, matrix, null);
+
+            // 在倒影部分绘制半透明遮罩，让倒影部分产生半透明渐变的效果
+            Paint paint = drawCache.obtainPaint(0);
+            paint.setShader(drawCache.obtainReflectionShader(reflectionTop, reflectionBitmap.getHeight()));
+            paint.setXfermode(ProcessDrawCache.DST_IN);
+            canvas.drawRect(0, reflectionTop, reflectionBitmap.getWidth(), reflectionBitmap.getHeight(), paint);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
         return reflectionBitmap;
     }
 
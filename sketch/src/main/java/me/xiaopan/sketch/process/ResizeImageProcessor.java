@@ -53,12 +53,27 @@ public class ResizeImageProcessor implements ImageProcessor {
 
         Bitmap resizeBitmap = bitmapPool.getOrMake(mapping.imageWidth, mapping.imageHeight, config);
 
-        Canvas canvas = new Canvas(resizeBitmap);
-        canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, null);
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Canvas canvas = drawCache.obtainCanvas(resizeBitmap);
+        try {
+            canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, null);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
 
         return resizeBitmap;
     }
 
+    /**
+     * 处理时是否首先按照resize缩放图片，是的话解码时就可以直接缩放到resize的尺寸，省掉一次缩放
+     * <p>
+     * 只有ResizeImageProcessor自己默认返回true，直接继承它的子类不一定会先缩放，因此默认返回false，确定会先缩放的话重写返回true即可。
+     * WrappedImageProcessor的process()是final的，不拦截resize时一定会先缩放，因此它根据isInterceptResize()来判断
+     */
+    public boolean isResizeFirst() {
+        return getClass() == ResizeImageProcessor.class;
+    }
+
     @Override
     public String getKey() {
         return KEY;
@@ -45,11 +45,18 @@ public class RotateImageProcessor extends WrappedImageProcessor {
     }
 
     public static Bitmap rotate(Bitmap bitmap, int degrees, BitmapPool bitmapPool) {
-        Matrix matrix = new Matrix();
+        // 90°的整数倍直接搬运像素，只有任意角度才需要Canvas
+        int orientation = OrientationEngine.degreesToOrientation(degrees);
+        if (OrientationEngine.support(bitmap, orientation)) {
+            return OrientationEngine.transform(bitmap, orientation, bitmapPool);
+        }
+
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Matrix matrix = drawCache.obtainMatrix();
         matrix.setRotate(degrees);
 
         // 根据旋转角度计算新的图片的尺寸
-        RectF newRect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        RectF newRect = drawCache.obtainRectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
         matrix.mapRect(newRect);
         int newWidth = (int) newRect.width();
         int newHeight = (int) newRect.height();
@@ -64,9 +71,13 @@ public class RotateImageProcessor extends WrappedImageProcessor {
 
         matrix.postTranslate(-newRect.left, -newRect.top);
 
-        final Canvas canvas = new Canvas(result);
-        final Paint paint = new Paint(Paint.DITHER_FLAG | Paint.FILTER_BITMAP_FLAG);
-        canvas.drawBitmap(bitmap, matrix, paint);
+        final Canvas canvas = drawCache.obtainCanvas(result);
+        try {
+            final Paint paint = drawCache.obtainPaint(Paint.DITHER_FLAG | Paint.FILTER_BITMAP_FLAG);
+            canvas.drawBitmap(bitmap, matrix, paint);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
 
         return result;
     }
@@ -89,4 +100,8 @@ public class RotateImageProcessor extends WrappedImageProcessor {
             return String.format("%s(degrees=%d)", KEY, degrees);
         }
     }
+
+    public int getDegrees() {
+        return degrees;
+    }
 }
@@ -20,9 +20,6 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.RectF;
 
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
@@ -94,21 +91,24 @@ public class RoundRectImageProcessor extends WrappedImageProcessor {
 
         Bitmap roundRectBitmap = bitmapPool.getOrMake(mapping.imageWidth, mapping.imageHeight, config);
 
-        Canvas canvas = new Canvas(roundRectBitmap);
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(0xFFFF0000);
-
-        // 绘制圆角的罩子
-        Path path = new Path();
-        path.addRoundRect(new RectF(0, 0, mapping.imageWidth, mapping.imageHeight), cornerRadius, Path.Direction.CW);
-        canvas.drawPath(path, paint);
-
-        // 应用遮罩模式并绘制图片
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, paint);
-
+        ProcessDrawCache drawCache = ProcessDrawCache.get();
+        Canvas canvas = drawCache.obtainCanvas(roundRectBitmap);
+        try {
+            Paint paint = drawCache.obtainPaint(Paint.ANTI_ALIAS_FLAG);
+            canvas.drawARGB(0, 0, 0, 0);
+            paint.setColor(0xFFFF0000);
+
+            // 绘制圆角的罩子
+            Path path = drawCache.obtainPath();
+            path.addRoundRect(drawCache.obtainRectF(0, 0, mapping.imageWidth, mapping.imageHeight), cornerRadius, Path.Direction.CW);
+            canvas.drawPath(path, paint);
+
+            // 应用遮罩模式并绘制图片
+            paint.setXfermode(ProcessDrawCache.SRC_IN);
+            canvas.drawBitmap(bitmap, mapping.srcRect, mapping.destRect, paint);
+        } finally {
+            drawCache.releaseCanvas(canvas);
+        }
         return roundRectBitmap;
     }
 
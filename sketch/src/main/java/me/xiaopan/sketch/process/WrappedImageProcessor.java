@@ -29,6 +29,8 @@ import me.xiaopan.sketch.request.Resize;
  */
 public abstract class WrappedImageProcessor extends ResizeImageProcessor {
     private WrappedImageProcessor wrappedProcessor;
+    private volatile ImageProcessorPipeline pipeline;
+    private volatile boolean pipelineCompiled;
 
     public WrappedImageProcessor(WrappedImageProcessor wrappedProcessor) {
         this.wrappedProcessor = wrappedProcessor;
@@ -64,13 +66,60 @@ public abstract class WrappedImageProcessor extends ResizeImageProcessor {
         return false;
     }
 
+    @Override
+    public boolean isResizeFirst() {
+        // 拦截了resize的话就看被包装的处理器，它们会在这之前执行
+        return !isInterceptResize() || (wrappedProcessor != null && wrappedProcessor.isResizeFirst());
+    }
+
+    /**
+     * 获取解码时最多还可以再缩小多少倍，模糊之类的处理不需要太高的分辨率，解码时可以在inSampleSize的基础上再缩小一些，
+     * 整条处理器链取最小值，有一个处理器需要原始分辨率就不能缩小
+     *
+     * @param width  按照inSampleSize缩小后的宽
+     * @param height 按照inSampleSize缩小后的高
+     * @return 1：不能缩小；Integer.MAX_VALUE：不在乎分辨率
+     */
+    public int getMaxDecodeDownsample(int width, int height) {
+        int downsample = onGetMaxDecodeDownsample(width, height);
+        if (wrappedProcessor != null) {
+            downsample = Math.min(downsample, wrappedProcessor.getMaxDecodeDownsample(width, height));
+        }
+        return downsample;
+    }
+
+    /**
+     * 当前处理器解码时最多还可以再缩小多少倍，默认1，也就是需要原始分辨率
+     */
+    protected int onGetMaxDecodeDownsample(int width, int height) {
+        return 1;
+    }
+
     @Override
     public final Bitmap process(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize,
                                 boolean lowQualityImage) {
+        return process(sketch, bitmap, resize, forceUseResize, lowQualityImage, 1);
+    }
+
+    /**
+     * 处理图片
+     *
+     * @param decodeDownsample 解码时按照{@link #getMaxDecodeDownsample(int, int)}额外缩小的倍数，跟尺寸相关的参数（例如模糊半径）要跟着缩小
+     */
+    public final Bitmap process(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize,
+                                boolean lowQualityImage, int decodeDownsample) {
         if (bitmap == null || bitmap.isRecycled()) {
             return bitmap;
         }
 
+        // 由内置处理器组成的链合并成尽可能少的绘制
+        if (wrappedProcessor != null && !sketch.getConfiguration().isGlobalDisabledProcessorFusion()) {
+            ImageProcessorPipeline pipeline = getPipeline();
+            if (pipeline != null) {
+                return pipeline.process(sketch, bitmap, resize, forceUseResize, lowQualityImage);
+            }
+        }
+
         // resize
         Bitmap newBitmap = bitmap;
         if (!isInterceptResize()) {
@@ -79,7 +128,7 @@ public abstract class WrappedImageProcessor extends ResizeImageProcessor {
 
         // wrapped
         if (wrappedProcessor != null) {
-            Bitmap wrappedBitmap = wrappedProcessor.process(sketch, newBitmap, resize, forceUseResize, lowQualityImage);
+            Bitmap wrappedBitmap = wrappedProcessor.process(sketch, newBitmap, resize, forceUseResize, lowQualityImage, decodeDownsample);
             if (wrappedBitmap != null && wrappedBitmap != newBitmap) {
                 if (newBitmap != bitmap) {
                     BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
@@ -88,9 +137,40 @@ public abstract class WrappedImageProcessor extends ResizeImageProcessor {
                 newBitmap = wrappedBitmap;
             }
         }
-        return onProcess(sketch, newBitmap, resize, forceUseResize, lowQualityImage);
+
+        Bitmap result = onProcess(sketch, newBitmap, resize, forceUseResize, lowQualityImage, decodeDownsample);
+
+        // 中间结果已经用不到了，放回BitmapPool
+        if (result != null && result != newBitmap && newBitmap != bitmap) {
+            BitmapPool bitmapPool = sketch.getConfiguration().getBitmapPool();
+            BitmapPoolUtils.freeBitmapToPool(newBitmap, bitmapPool);
+        }
+        return result;
+    }
+
+    /**
+     * 获取合并后的流水线，处理器链创建后就不会再变了，因此只需要编译一次
+     *
+     * @return null：不能合并
+     */
+    private ImageProcessorPipeline getPipeline() {
+        if (!pipelineCompiled) {
+            pipeline = ImageProcessorPipeline.compile(this);
+            pipelineCompiled = true;
+        }
+        return pipeline;
     }
 
     public abstract Bitmap onProcess(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize,
                                      boolean lowQualityImage);
+
+    /**
+     * 处理图片，跟尺寸相关的处理器需要重写此方法，按照decodeDownsample调整参数
+     *
+     * @param decodeDownsample 解码时额外缩小的倍数
+     */
+    protected Bitmap onProcess(Sketch sketch, Bitmap bitmap, Resize resize, boolean forceUseResize,
+                               boolean lowQualityImage, int decodeDownsample) {
+        return onProcess(sketch, bitmap, resize, forceUseResize, lowQualityImage);
+    }
 }
@@ -1,11 +1,16 @@
 package me.xiaopan.sketch.request;
 
+import android.os.SystemClock;
+
 import me.xiaopan.sketch.Sketch;
 
 abstract class AsyncRequest extends BaseRequest implements Runnable {
 
     private RunStatus runStatus;
     private boolean sync;
+    private long submitTime;
+    private volatile String threadName;
+    private int registryIndex = -1;
 
     AsyncRequest(Sketch sketch, UriInfo uriInfo, String key) {
         super(sketch, uriInfo, key);
@@ -13,16 +18,25 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
 
     @Override
     public final void run() {
+        threadName = Thread.currentThread().getName();
         if (runStatus != null) {
+            RequestExecutor requestExecutor = getConfiguration().getRequestExecutor();
+            long startTime = SystemClock.uptimeMillis();
             switch (runStatus) {
                 case DISPATCH:
                     executeDispatch();
                     break;
                 case DOWNLOAD:
                     executeDownload();
+                    requestExecutor.getDownloadStatistics().record(startTime - submitTime, SystemClock.uptimeMillis() - startTime);
                     break;
                 case LOAD:
                     executeLoad();
+                    requestExecutor.getLoadStatistics().record(startTime - submitTime, SystemClock.uptimeMillis() - startTime);
+                    break;
+                case PROCESS:
+                    executeProcess();
+                    requestExecutor.getProcessStatistics().record(startTime - submitTime, SystemClock.uptimeMillis() - startTime);
                     break;
                 default:
                     new IllegalArgumentException("unknown runStatus: " + runStatus.name()).printStackTrace();
@@ -45,6 +59,13 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
         this.sync = sync;
     }
 
+    /**
+     * 获取最近一次执行这个请求的线程的名称
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
     /**
      * 提交到分发线程执行分发
      */
@@ -70,6 +91,7 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
         if (sync) {
             executeDownload();
         } else {
+            submitTime = SystemClock.uptimeMillis();
             getConfiguration().getRequestExecutor().submitDownload(this);
         }
     }
@@ -87,6 +109,7 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
         if (sync) {
             executeLoad();
         } else {
+            submitTime = SystemClock.uptimeMillis();
             getConfiguration().getRequestExecutor().submitLoad(this);
         }
     }
@@ -96,13 +119,44 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
         runLoad();
     }
 
+    /**
+     * 提交到处理线程执行解码之后的处理
+     */
+    protected void submitRunProcess() {
+        this.runStatus = RunStatus.PROCESS;
+        if (sync) {
+            executeProcess();
+        } else {
+            submitTime = SystemClock.uptimeMillis();
+            // 处理线程池不接收的话就在当前线程处理，不能丢，否则等待处理的图片不会被回收，请求也永远不会结束
+            if (!getConfiguration().getRequestExecutor().submitProcess(this)) {
+                executeProcess();
+            }
+        }
+    }
+
+    private void executeProcess() {
+        setStatus(Status.START_PROCESS);
+        runProcess();
+    }
+
     /**
      * 提交请求
      */
     final void submit() {
+        threadName = Thread.currentThread().getName();
+        registryIndex = getConfiguration().getRequestRegistry().register(this);
         submitRunDispatch();
     }
 
+    @Override
+    void onTimelineFinished() {
+        super.onTimelineFinished();
+        if (registryIndex >= 0) {
+            getConfiguration().getRequestRegistry().unregister(this, registryIndex);
+        }
+    }
+
     /**
      * 推到主线程处理完成
      */
@@ -146,6 +200,11 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
      */
     protected abstract void runLoad();
 
+    /**
+     * 在处理线程执行解码之后的处理
+     */
+    protected abstract void runProcess();
+
     /**
      * 在主线程处理进度
      */
@@ -184,5 +243,10 @@ abstract class AsyncRequest extends BaseRequest implements Runnable {
          * 下载
          */
         DOWNLOAD,
+
+        /**
+         * 处理
+         */
+        PROCESS,
     }
 }
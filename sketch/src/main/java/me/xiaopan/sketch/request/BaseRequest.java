@@ -22,6 +22,7 @@ import me.xiaopan.sketch.Configuration;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.metrics.RequestTimeline;
 
 public abstract class BaseRequest {
     private UriInfo uriInfo;
@@ -31,6 +32,7 @@ public abstract class BaseRequest {
     private Status status;
     private ErrorCause errorCause;
     private CancelCause cancelCause;
+    private RequestTimeline timeline = new RequestTimeline();
 
     BaseRequest(Sketch sketch, UriInfo uriInfo, String key) {
         this.sketch = sketch;
@@ -95,6 +97,7 @@ public abstract class BaseRequest {
      */
     public void setStatus(Status status) {
         this.status = status;
+        boolean finished = timeline.mark(status, System.nanoTime());
         if (SLogType.REQUEST.isEnabled()) {
             if (status == Status.FAILED) {
                 printLogW("new status", status.getLog(), errorCause != null ? errorCause.name() : null);
@@ -104,6 +107,27 @@ public abstract class BaseRequest {
                 printLogD("new status", (status != null ? status.getLog() : null));
             }
         }
+
+        if (finished) {
+            onTimelineFinished();
+        }
+    }
+
+    /**
+     * 时间线结束了，交给MetricsSink统计
+     */
+    void onTimelineFinished() {
+        getConfiguration().getMetricsSink().onRequestFinished(this, timeline);
+        if (SLogType.TIME.isEnabled()) {
+            SLog.fd(SLogType.TIME, getLogName(), "timeline. %s. %s", timeline.getInfo(), getKey());
+        }
+    }
+
+    /**
+     * 获取时间线，记录了每个状态的进入时间和停留时长
+     */
+    public RequestTimeline getTimeline() {
+        return timeline;
     }
 
     /**
@@ -301,6 +325,16 @@ public abstract class BaseRequest {
          */
         DECODING("decoding"),
 
+        /**
+         * 等待处理
+         */
+        WAIT_PROCESS("waitProcess"),
+
+        /**
+         * 开始处理
+         */
+        START_PROCESS("startProcess"),
+
         /**
          * 处理中
          */
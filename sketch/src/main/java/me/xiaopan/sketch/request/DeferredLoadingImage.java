@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.request;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.SketchView;
+import me.xiaopan.sketch.drawable.SketchLoadingDrawable;
+import me.xiaopan.sketch.drawable.SketchRefDrawable;
+import me.xiaopan.sketch.state.MakerStateImage;
+
+/**
+ * 预算模式下在后台线程中创建加载中状态图片，创建好之后回到主线程替换掉空的占位Drawable
+ * <p>
+ * 如果回到主线程时View已经换了Drawable或者请求已经结束了就直接丢掉
+ */
+class DeferredLoadingImage implements Runnable {
+    private static final String LOG_NAME = "DeferredLoadingImage";
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private Context context;
+    private MakerStateImage stateImage;
+    private SketchView sketchView;
+    private DisplayRequest request;
+    private SketchLoadingDrawable placeholderDrawable;
+
+    DeferredLoadingImage(Context context, MakerStateImage stateImage, SketchView sketchView,
+                         DisplayRequest request, SketchLoadingDrawable placeholderDrawable) {
+        this.context = context;
+        this.stateImage = stateImage;
+        this.sketchView = sketchView;
+        this.request = request;
+        this.placeholderDrawable = placeholderDrawable;
+    }
+
+    @Override
+    public void run() {
+        if (request.isFinished()) {
+            return;
+        }
+
+        // MakerStateImage用不到SketchView，所以这里不会在后台线程中访问View
+        final Drawable drawable = stateImage.getDrawable(context, null, request.getOptions());
+        if (drawable == null) {
+            return;
+        }
+
+        // 新放入内存缓存的图片没有别的引用，回到主线程之前先标记等待使用，防止被回收
+        if (drawable instanceof SketchRefDrawable) {
+            ((SketchRefDrawable) drawable).setIsWaitingUse(String.format("%s:waitingUse:deferred", LOG_NAME), true);
+        }
+
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                apply(drawable);
+            }
+        });
+    }
+
+    private void apply(Drawable drawable) {
+        boolean recycled = drawable instanceof SketchRefDrawable && ((SketchRefDrawable) drawable).isRecycled();
+        if (!request.isFinished() && !recycled && sketchView.getDrawable() == placeholderDrawable) {
+            // 新的占位图绑定的是同一个请求，RequestFunction不会因为替换了旧的占位图而取消它
+            sketchView.setImageDrawable(new SketchLoadingDrawable(drawable, request));
+        } else if (SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "discard deferred loading image. %s", request.getKey());
+        }
+
+        if (drawable instanceof SketchRefDrawable) {
+            ((SketchRefDrawable) drawable).setIsWaitingUse(String.format("%s:waitingUse:finish", LOG_NAME), false);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import android.graphics.drawable.Drawable;
 import android.view.ViewGroup;
 import android.widget.ImageView.ScaleType;
 
+import java.util.Arrays;
+
 import me.xiaopan.sketch.Configuration;
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
@@ -35,11 +37,17 @@ import me.xiaopan.sketch.drawable.SketchLoadingDrawable;
 import me.xiaopan.sketch.drawable.SketchRefBitmap;
 import me.xiaopan.sketch.drawable.SketchRefDrawable;
 import me.xiaopan.sketch.drawable.SketchShapeBitmapDrawable;
+import me.xiaopan.sketch.metrics.BindTracker;
+import me.xiaopan.sketch.process.CircleImageProcessor;
 import me.xiaopan.sketch.process.ImageProcessor;
+import me.xiaopan.sketch.process.ResizeImageProcessor;
+import me.xiaopan.sketch.process.RoundRectImageProcessor;
+import me.xiaopan.sketch.shaper.CircleImageShaper;
 import me.xiaopan.sketch.shaper.ImageShaper;
+import me.xiaopan.sketch.shaper.RoundRectImageShaper;
+import me.xiaopan.sketch.state.MakerStateImage;
 import me.xiaopan.sketch.state.StateImage;
 import me.xiaopan.sketch.util.SketchUtils;
-import me.xiaopan.sketch.util.Stopwatch;
 
 /**
  * 显示Helper，负责组织、收集、初始化显示参数，最后执行commit()提交请求
@@ -57,27 +65,20 @@ public class DisplayHelper {
 
     private ViewInfo viewInfo = new ViewInfo();
     private SketchView sketchView;
+    private long initNanos;
+    private BindTracker bindTracker;
 
     public DisplayHelper init(Sketch sketch, String uri, SketchView sketchView) {
         this.sketch = sketch;
         this.uriInfo = UriInfo.make(uri);
         this.sketchView = sketchView;
-
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().start(LOG_NAME + ". display use time");
-        }
+        this.initNanos = System.nanoTime();
 
         // onDisplay一定要在最前面执行，因为在onDisplay中会设置一些属性，这些属性会影响到后续一些get方法返回的结果
         this.sketchView.onReadyDisplay(uriInfo != null ? uriInfo.getScheme() : null);
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("onDisplay");
-        }
 
         viewInfo.reset(sketchView, sketch);
         displayOptions.copy(sketchView.getOptions());
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("init");
-        }
 
         displayListener = sketchView.getDisplayListener();
         downloadProgressListener = sketchView.getDownloadProgressListener();
@@ -98,6 +99,7 @@ public class DisplayHelper {
         downloadProgressListener = null;
         viewInfo.reset(null, null);
         sketchView = null;
+        bindTracker = null;
     }
 
     /**
@@ -369,81 +371,58 @@ public class DisplayHelper {
         if (!SketchUtils.isMainThread()) {
             SLog.fw(SLogType.REQUEST, LOG_NAME, "Please perform a commit in the UI thread. viewHashCode=%s. %s",
                     Integer.toHexString(sketchView.hashCode()), uriInfo != null ? uriInfo.getUri() : "");
-            if (SLogType.TIME.isEnabled()) {
-                Stopwatch.with().print(uriInfo != null ? uriInfo.getUri() : "");
-            }
             sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
             return null;
         }
 
-        CallbackHandler.postCallbackStarted(displayListener, false);
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("callbackStarted");
+        // 统计在主线程中的耗时，回收之后DisplayHelper的字段就都被重置了，所以这里用局部变量结束统计
+        BindTracker bindTracker = sketch.getConfiguration().getBindTracker();
+        this.bindTracker = bindTracker;
+        bindTracker.onBindStart(initNanos);
+        try {
+            return doCommit();
+        } finally {
+            bindTracker.onBindEnd();
         }
+    }
+
+    private DisplayRequest doCommit() {
+        CallbackHandler.postCallbackStarted(displayListener, false);
 
         boolean checkResult = checkUri();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("checkUri");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.CHECK_URI);
         if (!checkResult) {
-            if (SLogType.TIME.isEnabled()) {
-                Stopwatch.with().print(uriInfo != null ? uriInfo.getUri() : "");
-            }
             sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
             return null;
         }
 
         preProcess();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("preProcess");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.PRE_PROCESS);
 
         saveParams();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("saveParams");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.SAVE_PARAMS);
 
         checkResult = checkMemoryCache();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("checkMemoryCache");
-        }
         if (!checkResult) {
-            if (SLogType.TIME.isEnabled()) {
-                Stopwatch.with().print(key);
-            }
             sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
             return null;
         }
 
         checkResult = checkRequestLevel();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("checkRequestLevel");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.REQUEST_LEVEL);
         if (!checkResult) {
-            if (SLogType.TIME.isEnabled()) {
-                Stopwatch.with().print(key);
-            }
             sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
             return null;
         }
 
         DisplayRequest potentialRequest = checkRepeatRequest();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("checkRepeatRequest");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.REPEAT_CHECK);
         if (potentialRequest != null) {
-            if (SLogType.TIME.isEnabled()) {
-                Stopwatch.with().print(key);
-            }
             sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
             return potentialRequest;
         }
 
         DisplayRequest request = submitRequest();
-
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().print(key);
-        }
         sketch.getConfiguration().getHelperFactory().recycleDisplayHelper(this);
         return request;
     }
@@ -562,6 +541,9 @@ public class DisplayHelper {
         }
 
 
+        // ImageProcessor和ImageShaper的形状一样的话就只在显示时绘制形状
+        chooseShapeRoute(configuration, resize);
+
         // 没有ImageProcessor但有resize的话就需要设置一个默认的图片裁剪处理器
         if (displayOptions.getImageProcessor() == null && resize != null) {
             displayOptions.setImageProcessor(configuration.getResizeImageProcessor());
@@ -620,6 +602,42 @@ public class DisplayHelper {
         key = SketchUtils.makeRequestKey(uriInfo.getUri(), uriInfo.getScheme(), displayOptions);
     }
 
+    /**
+     * CircleImageProcessor、RoundRectImageProcessor同时配合了同样形状的ImageShaper时，处理器的工作会在显示时由ImageShaper再做一遍，
+     * 这时候就去掉处理器，只在显示时通过SketchShapeBitmapDrawable绘制形状，这样内存中保留的就是解码出来的图片（例如RGB_565），
+     * 不需要再额外创建一张ARGB_8888的图片了
+     */
+    private void chooseShapeRoute(Configuration configuration, Resize resize) {
+        ImageProcessor imageProcessor = displayOptions.getImageProcessor();
+        ImageShaper imageShaper = displayOptions.getImageShaper();
+        if (imageProcessor == null || imageShaper == null) {
+            return;
+        }
+
+        boolean equivalent = false;
+        if (imageProcessor.getClass() == CircleImageProcessor.class && imageShaper instanceof CircleImageShaper) {
+            // 圆形处理器的结果一定是正方形的，只有resize也是正方形并且交给默认的ResizeImageProcessor处理时，
+            // 两条路线得到的图片尺寸才一样，没有resize的话原图多半不是正方形，不能走shaper路线
+            equivalent = ((CircleImageProcessor) imageProcessor).getWrappedProcessor() == null
+                    && resize != null && resize.getWidth() > 0 && resize.getWidth() == resize.getHeight()
+                    && configuration.getResizeImageProcessor().getClass() == ResizeImageProcessor.class;
+        } else if (imageProcessor.getClass() == RoundRectImageProcessor.class && imageShaper instanceof RoundRectImageShaper) {
+            RoundRectImageProcessor roundRectImageProcessor = (RoundRectImageProcessor) imageProcessor;
+            equivalent = roundRectImageProcessor.getWrappedProcessor() == null
+                    && Arrays.equals(roundRectImageProcessor.getCornerRadius(), ((RoundRectImageShaper) imageShaper).getOuterRadii());
+        }
+
+        if (equivalent) {
+            displayOptions.setImageProcessor(resize != null ? configuration.getResizeImageProcessor() : null);
+        }
+
+        if (SLogType.REQUEST.isEnabled()) {
+            SLog.fd(SLogType.REQUEST, LOG_NAME, "shape route. %s. processor=%s, shaper=%s. %s",
+                    equivalent ? "shaper" : "processor", imageProcessor.getKey(),
+                    imageShaper.getClass().getSimpleName(), uriInfo.getUri());
+        }
+    }
+
     /**
      * 将相关信息保存在SketchImageView中，以便在RecyclerView中恢复显示使用
      */
@@ -641,6 +659,7 @@ public class DisplayHelper {
 
         String memoryCacheKey = key;
         SketchRefBitmap cachedRefBitmap = sketch.getConfiguration().getMemoryCache().get(memoryCacheKey);
+        bindTracker.onPhaseEnd(BindTracker.Phase.MEMORY_CACHE);
         if (cachedRefBitmap == null) {
             return true;
         }
@@ -673,6 +692,7 @@ public class DisplayHelper {
         } else {
             finalDrawable = refBitmapDrawable;
         }
+        bindTracker.onPhaseEnd(BindTracker.Phase.DRAWABLE);
 
         ImageDisplayer imageDisplayer = displayOptions.getImageDisplayer();
         if (imageDisplayer != null && imageDisplayer.isAlwaysUse()) {
@@ -685,6 +705,7 @@ public class DisplayHelper {
         }
 
         ((SketchRefDrawable) finalDrawable).setIsWaitingUse(String.format("%s:waitingUse:finish", LOG_NAME), false);
+        bindTracker.onPhaseEnd(BindTracker.Phase.DISPLAY);
         return false;
     }
 
@@ -779,27 +800,30 @@ public class DisplayHelper {
         RequestAndViewBinder requestAndViewBinder = new RequestAndViewBinder(sketchView);
         DisplayRequest request = requestFactory.newDisplayRequest(sketch, uriInfo, key, displayOptions, viewInfo,
                 requestAndViewBinder, displayListener, downloadProgressListener);
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("createRequest");
-        }
+        // 从init()开始计时，这样时间线里就包含了在主线程中准备参数、检查内存缓存等的耗时
+        request.getTimeline().setStartNanos(initNanos);
+        bindTracker.onPhaseEnd(BindTracker.Phase.CREATE_REQUEST);
 
         SketchLoadingDrawable loadingDrawable;
         StateImage loadingImage = displayOptions.getLoadingImage();
-        if (loadingImage != null) {
-            Context context = sketch.getConfiguration().getContext();
+        Context context = sketch.getConfiguration().getContext();
+        if (loadingImage != null && isDeferLoadingImage(context, loadingImage)) {
+            // 这一帧快来不及了，先显示空的占位Drawable，状态图片的处理和包装放到单独的状态图片线程中执行，
+            // 不占用加载线程池的队列，队列满了被丢掉的话也只是不显示加载中图片，不会影响请求
+            loadingDrawable = new SketchLoadingDrawable(null, request);
+            sketch.getConfiguration().getRequestExecutor().submitStateImage(new DeferredLoadingImage(context,
+                    (MakerStateImage) loadingImage, sketchView, request, loadingDrawable));
+            bindTracker.onStateImageDeferred();
+        } else if (loadingImage != null) {
             Drawable drawable = loadingImage.getDrawable(context, sketchView, displayOptions);
             loadingDrawable = new SketchLoadingDrawable(drawable, request);
         } else {
             loadingDrawable = new SketchLoadingDrawable(null, request);
         }
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("createLoadingImage");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.STATE_IMAGE);
 
         sketchView.setImageDrawable(loadingDrawable);
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("setLoadingImage");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.DISPLAY);
 
         if (SLogType.REQUEST.isEnabled()) {
             SLog.fd(SLogType.REQUEST, LOG_NAME, "submit request. viewHashCode=%s. %s",
@@ -807,10 +831,17 @@ public class DisplayHelper {
         }
 
         request.submit();
-        if (SLogType.TIME.isEnabled()) {
-            Stopwatch.with().record("submitRequest");
-        }
+        bindTracker.onPhaseEnd(BindTracker.Phase.SUBMIT);
 
         return request;
     }
+
+    /**
+     * 预算模式下，这一帧有掉帧的风险并且MakerStateImage需要在主线程中执行ImageProcessor时就推迟到后台线程中创建
+     */
+    private boolean isDeferLoadingImage(Context context, StateImage loadingImage) {
+        return bindTracker.isBudgetMode() && loadingImage instanceof MakerStateImage
+                && bindTracker.isFrameAtRisk()
+                && !((MakerStateImage) loadingImage).canGetQuickly(context, displayOptions);
+    }
 }
\ No newline at end of file
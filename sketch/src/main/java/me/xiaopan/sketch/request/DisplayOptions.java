@@ -87,6 +87,11 @@ public class DisplayOptions extends LoadOptions {
         return (DisplayOptions) super.setCacheInDiskDisabled(cacheInDiskDisabled);
     }
 
+    @Override
+    public DisplayOptions setStreamingEnabled(boolean streamingEnabled) {
+        return (DisplayOptions) super.setStreamingEnabled(streamingEnabled);
+    }
+
     @Override
     public DisplayOptions setRequestLevel(RequestLevel requestLevel) {
         return (DisplayOptions) super.setRequestLevel(requestLevel);
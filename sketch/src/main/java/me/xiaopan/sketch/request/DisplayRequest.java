@@ -26,6 +26,8 @@ import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.SketchView;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.cache.MemoryGovernor;
+import me.xiaopan.sketch.decode.ProcessedImageCache;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchBitmapDrawable;
 import me.xiaopan.sketch.drawable.SketchDrawable;
@@ -44,6 +46,7 @@ public class DisplayRequest extends LoadRequest {
     private DisplayListener displayListener;
     private ViewInfo viewInfo;
     private RequestAndViewBinder requestAndViewBinder;
+    private SketchRefBitmap pendingSaveRefBitmap;
 
     public DisplayRequest(Sketch sketch, UriInfo uriInfo, String key, DisplayOptions displayOptions,
                           ViewInfo viewInfo, RequestAndViewBinder requestAndViewBinder, DisplayListener displayListener,
@@ -66,6 +69,16 @@ public class DisplayRequest extends LoadRequest {
         return getKey();
     }
 
+    @Override
+    public boolean canUseSourceMemoryCache() {
+        return super.canUseSourceMemoryCache() && !displayOptions.isCacheInMemoryDisabled();
+    }
+
+    @Override
+    public boolean canSaveProcessedImageLater() {
+        return true;
+    }
+
     /**
      * 获取View信息
      */
@@ -208,14 +221,22 @@ public class DisplayRequest extends LoadRequest {
 
             BitmapPool bitmapPool = getConfiguration().getBitmapPool();
             SketchRefBitmap refBitmap = new SketchRefBitmap(bitmap, getKey(), getUri(), loadResult.getImageAttrs(), bitmapPool);
+            MemoryGovernor memoryGovernor = getConfiguration().getMemoryGovernor();
+            memoryGovernor.trackRefBitmap(refBitmap);
 
             // 立马标记等待使用，防止刚放入内存缓存就被挤出去回收掉
             refBitmap.setIsWaitingUse(String.format("%s:waitingUse:new", getLogName()), true);
 
-            // 放入内存缓存中
-            if (!displayOptions.isCacheInMemoryDisabled() && getMemoryCacheKey() != null) {
+            // 放入内存缓存中，降低了质量的不放，停止滚动后再显示时就会按照正常的质量重新解码
+            if (!displayOptions.isCacheInMemoryDisabled() && getMemoryCacheKey() != null && !loadResult.isDegraded()) {
                 getConfiguration().getMemoryCache().put(getMemoryCacheKey(), refBitmap);
             }
+            memoryGovernor.checkBudget();
+
+            // 已处理图片等显示之后再保存到磁盘缓存
+            if (isSaveProcessedImageLater()) {
+                pendingSaveRefBitmap = refBitmap;
+            }
 
             Drawable drawable = new SketchBitmapDrawable(refBitmap, loadResult.getImageFrom());
             displayResult = new DisplayResult(drawable, loadResult.getImageFrom(), loadResult.getImageAttrs());
@@ -261,6 +282,14 @@ public class DisplayRequest extends LoadRequest {
 
         displayImage(drawable);
 
+        // 显示完了再去后台保存已处理图片，保存期间会持有引用，所以要在释放等待使用引用之前提交
+        if (pendingSaveRefBitmap != null) {
+            ProcessedImageCache processedImageCache = getConfiguration().getProcessedImageCache();
+            processedImageCache.saveToDiskCacheAsync(getConfiguration().getDiskCache(),
+                    getProcessedImageDiskCacheKey(), pendingSaveRefBitmap);
+            pendingSaveRefBitmap = null;
+        }
+
         // 使用完毕更新等待使用的引用计数
         if (drawable instanceof SketchRefDrawable) {
             ((SketchRefDrawable) drawable).setIsWaitingUse(String.format("%s:waitingUse:finish", getLogName()), false);
@@ -27,6 +27,11 @@ public class DownloadOptions {
      */
     private boolean cacheInDiskDisabled;
 
+    /**
+     * 边下边解
+     */
+    private boolean streamingEnabled;
+
     /**
      * 请求Level
      */
@@ -69,6 +74,26 @@ public class DownloadOptions {
         return this;
     }
 
+    /**
+     * 是否开启了边下边解？
+     */
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * 设置是否开启边下边解，开启后下载过程中会定时把数据刷到磁盘上并登记正在下载的文件，
+     * 大图功能就可以在下载完成之前解码已经下载的部分，需要配合{@link me.xiaopan.sketch.viewfun.large.LargeImageViewer#setStreamingEnabled(boolean)}使用，
+     * 禁用磁盘缓存时无效
+     *
+     * @param streamingEnabled 边下边解
+     * @return this
+     */
+    public DownloadOptions setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+        return this;
+    }
+
     /**
      * 获取请求Level
      *
@@ -116,6 +141,7 @@ public class DownloadOptions {
      */
     public void reset() {
         cacheInDiskDisabled = false;
+        streamingEnabled = false;
         requestLevel = null;
         requestLevelFrom = null;
     }
@@ -129,6 +155,7 @@ public class DownloadOptions {
         }
 
         cacheInDiskDisabled = options.cacheInDiskDisabled;
+        streamingEnabled = options.streamingEnabled;
         requestLevel = options.requestLevel;
         requestLevelFrom = options.requestLevelFrom;
     }
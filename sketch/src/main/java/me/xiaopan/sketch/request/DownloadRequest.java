@@ -29,6 +29,8 @@ public class DownloadRequest extends AsyncRequest {
     private DownloadOptions options;
     private DownloadListener downloadListener;
     private DownloadProgressListener downloadProgressListener;
+    private volatile int contentLength;
+    private volatile int downloadedLength;
 
     public DownloadRequest(Sketch sketch, UriInfo uriInfo, String key, DownloadOptions options,
                            DownloadListener downloadListener, DownloadProgressListener downloadProgressListener) {
@@ -56,6 +58,20 @@ public class DownloadRequest extends AsyncRequest {
         return downloadResult;
     }
 
+    /**
+     * 获取文件总长度，小于等于0表示未知或还没开始下载
+     */
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 获取已经下载的长度，下载过程中每100毫秒更新一次
+     */
+    public int getDownloadedLength() {
+        return downloadedLength;
+    }
+
     @Override
     public void error(ErrorCause errorCause) {
         super.error(errorCause);
@@ -157,10 +173,17 @@ public class DownloadRequest extends AsyncRequest {
 
     }
 
+    @Override
+    protected void runProcess() {
+
+    }
+
     /**
      * 更新进度
      */
     public void updateProgress(int totalLength, int completedLength) {
+        this.contentLength = totalLength;
+        this.downloadedLength = completedLength;
         if (downloadProgressListener != null && totalLength > 0) {
             postRunUpdateProgress(totalLength, completedLength);
         }
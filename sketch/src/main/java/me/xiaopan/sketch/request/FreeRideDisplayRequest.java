@@ -33,6 +33,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  */
 public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideManager.DisplayFreeRide {
     private Set<FreeRideManager.DisplayFreeRide> displayFreeRideSet;
+    private volatile int displayFreeRideCount;
 
     public FreeRideDisplayRequest(Sketch sketch, UriInfo uriInfo, String key, DisplayOptions displayOptions,
                                   ViewInfo viewInfo, RequestAndViewBinder requestAndViewBinder,
@@ -81,7 +82,17 @@ public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideMa
     protected void runLoad() {
         super.runLoad();
 
-        // 由于在submitRunLoad中会将自己注册成为顺风车主，因此一定要保证在这里取消注册
+        // 由于在submitRunLoad中会将自己注册成为顺风车主，因此一定要保证在这里取消注册，交给处理线程了的话就等处理完再取消
+        if (canByDisplayFreeRide() && !isWaitingProcess()) {
+            FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
+            freeRideManager.unregisterDisplayFreeRideProvider(this);
+        }
+    }
+
+    @Override
+    protected void runProcess() {
+        super.runProcess();
+
         if (canByDisplayFreeRide()) {
             FreeRideManager freeRideManager = getConfiguration().getFreeRideManager();
             freeRideManager.unregisterDisplayFreeRideProvider(this);
@@ -98,7 +109,9 @@ public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideMa
             }
         }
 
-        displayFreeRideSet.add(request);
+        if (displayFreeRideSet.add(request)) {
+            displayFreeRideCount++;
+        }
     }
 
     @Override
@@ -106,6 +119,13 @@ public class FreeRideDisplayRequest extends DisplayRequest implements FreeRideMa
         return displayFreeRideSet;
     }
 
+    /**
+     * 获取搭这个请求的显示顺风车的请求数，可以在任意线程读取
+     */
+    public int getDisplayFreeRideCount() {
+        return displayFreeRideCount;
+    }
+
     @Override
     public synchronized boolean processDisplayFreeRide() {
         MemoryCache memoryCache = getConfiguration().getMemoryCache();
@@ -29,6 +29,7 @@ import me.xiaopan.sketch.util.SketchUtils;
  */
 public class FreeRideDownloadRequest extends DownloadRequest implements FreeRideManager.DownloadFreeRide {
     private Set<FreeRideManager.DownloadFreeRide> downloadFreeRideSet;
+    private volatile int downloadFreeRideCount;
 
     public FreeRideDownloadRequest(Sketch sketch, UriInfo uriInfo, String key, DownloadOptions options,
                                    DownloadListener downloadListener, DownloadProgressListener downloadProgressListener) {
@@ -89,7 +90,9 @@ public class FreeRideDownloadRequest extends DownloadRequest implements FreeRide
             }
         }
 
-        downloadFreeRideSet.add(request);
+        if (downloadFreeRideSet.add(request)) {
+            downloadFreeRideCount++;
+        }
     }
 
     @Override
@@ -97,6 +100,13 @@ public class FreeRideDownloadRequest extends DownloadRequest implements FreeRide
         return downloadFreeRideSet;
     }
 
+    /**
+     * 获取搭这个请求的下载顺风车的请求数
+     */
+    public int getDownloadFreeRideCount() {
+        return downloadFreeRideCount;
+    }
+
     @Override
     public synchronized boolean processDownloadFreeRide() {
         DiskCache diskCache = getConfiguration().getDiskCache();
@@ -57,8 +57,10 @@ public class FreeRideManager implements Identifier {
 
             displayFreeRideProviderMap.put(provider.getDisplayFreeRideKey(), provider);
 
-            SLog.fv(SLogType.REQUEST, LOG_NAME, "display. register free ride provider. %s",
-                    provider.getDisplayFreeRideLog());
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.event(SLogType.REQUEST, LOG_NAME, "display. register free ride provider. %s")
+                        .arg(provider.getDisplayFreeRideLog()).v();
+            }
         }
     }
 
@@ -75,9 +77,9 @@ public class FreeRideManager implements Identifier {
         synchronized (displayFreeRideProviderMapLock) {
             if (displayFreeRideProviderMap != null) {
                 freeRideProvider = displayFreeRideProviderMap.remove(provider.getDisplayFreeRideKey());
-                if (freeRideProvider != null) {
-                    SLog.fw(SLogType.REQUEST, LOG_NAME, "display. unregister free ride provider. %s",
-                            freeRideProvider.getDisplayFreeRideLog());
+                if (freeRideProvider != null && SLogType.REQUEST.isEnabled()) {
+                    SLog.event(SLogType.REQUEST, LOG_NAME, "display. unregister free ride provider. %s")
+                            .arg(freeRideProvider.getDisplayFreeRideLog()).w();
                 }
             }
         }
@@ -89,11 +91,13 @@ public class FreeRideManager implements Identifier {
                 return;
             }
 
-            String providerId = freeRideProvider.getDisplayFreeRideLog();
+            String providerId = SLogType.REQUEST.isEnabled() ? freeRideProvider.getDisplayFreeRideLog() : null;
             for (DisplayFreeRide childFreeRide : freeRideSet) {
                 boolean success = childFreeRide.processDisplayFreeRide();
-                SLog.fd(SLogType.REQUEST, LOG_NAME, "display. callback free ride. %s. %s  <------  %s",
-                        success ? "success" : "failed", childFreeRide.getDisplayFreeRideLog(), providerId);
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.event(SLogType.REQUEST, LOG_NAME, "display. callback free ride. %s. %s  <------  %s")
+                            .arg(success ? "success" : "failed").arg(childFreeRide.getDisplayFreeRideLog()).arg(providerId).d();
+                }
             }
             freeRideSet.clear();
         }
@@ -121,8 +125,10 @@ public class FreeRideManager implements Identifier {
 
             freeRideProvider.byDisplayFreeRide(childFreeRide);
 
-            SLog.fi(SLogType.REQUEST, LOG_NAME, "display. by free ride. %s  ------>  %s",
-                    childFreeRide.getDisplayFreeRideLog(), freeRideProvider.getDisplayFreeRideLog());
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.event(SLogType.REQUEST, LOG_NAME, "display. by free ride. %s  ------>  %s")
+                        .arg(childFreeRide.getDisplayFreeRideLog()).arg(freeRideProvider.getDisplayFreeRideLog()).i();
+            }
             return true;
         }
     }
@@ -146,8 +152,10 @@ public class FreeRideManager implements Identifier {
 
             downloadFreeRideProviderMap.put(provider.getDownloadFreeRideKey(), provider);
 
-            SLog.fv(SLogType.REQUEST, LOG_NAME, "download. register free ride provider. %s",
-                    provider.getDownloadFreeRideLog());
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.event(SLogType.REQUEST, LOG_NAME, "download. register free ride provider. %s")
+                        .arg(provider.getDownloadFreeRideLog()).v();
+            }
         }
     }
 
@@ -164,9 +172,9 @@ public class FreeRideManager implements Identifier {
         synchronized (downloadFreeRideProviderMapLock) {
             if (downloadFreeRideProviderMap != null) {
                 freeRideProvider = downloadFreeRideProviderMap.remove(provider.getDownloadFreeRideKey());
-                if (freeRideProvider != null) {
-                    SLog.fw(SLogType.REQUEST, LOG_NAME, "download. unregister free ride provider. %s",
-                            freeRideProvider.getDownloadFreeRideLog());
+                if (freeRideProvider != null && SLogType.REQUEST.isEnabled()) {
+                    SLog.event(SLogType.REQUEST, LOG_NAME, "download. unregister free ride provider. %s")
+                            .arg(freeRideProvider.getDownloadFreeRideLog()).w();
                 }
             }
         }
@@ -178,11 +186,13 @@ public class FreeRideManager implements Identifier {
                 return;
             }
 
-            String providerId = freeRideProvider.getDownloadFreeRideLog();
+            String providerId = SLogType.REQUEST.isEnabled() ? freeRideProvider.getDownloadFreeRideLog() : null;
             for (DownloadFreeRide childFreeRide : freeRideSet) {
                 boolean success = childFreeRide.processDownloadFreeRide();
-                SLog.fd(SLogType.REQUEST, LOG_NAME, "download. callback free ride. %s. %s  <------  %s",
-                        success ? "success" : "failed", childFreeRide.getDownloadFreeRideLog(), providerId);
+                if (SLogType.REQUEST.isEnabled()) {
+                    SLog.event(SLogType.REQUEST, LOG_NAME, "download. callback free ride. %s. %s  <------  %s")
+                            .arg(success ? "success" : "failed").arg(childFreeRide.getDownloadFreeRideLog()).arg(providerId).d();
+                }
             }
             freeRideSet.clear();
         }
@@ -210,8 +220,10 @@ public class FreeRideManager implements Identifier {
 
             freeRideProvider.byDownloadFreeRide(childFreeRide);
 
-            SLog.fi(SLogType.REQUEST, LOG_NAME, "download. by free ride. %s  ------>  %s",
-                    childFreeRide.getDownloadFreeRideLog(), freeRideProvider.getDownloadFreeRideLog());
+            if (SLogType.REQUEST.isEnabled()) {
+                SLog.event(SLogType.REQUEST, LOG_NAME, "download. by free ride. %s  ------>  %s")
+                        .arg(childFreeRide.getDownloadFreeRideLog()).arg(freeRideProvider.getDownloadFreeRideLog()).i();
+            }
             return true;
         }
     }
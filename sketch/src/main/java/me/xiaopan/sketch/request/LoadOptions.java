@@ -21,6 +21,7 @@ import android.text.TextUtils;
 
 import me.xiaopan.sketch.decode.ImageType;
 import me.xiaopan.sketch.process.ImageProcessor;
+import me.xiaopan.sketch.process.ResizeImageProcessor;
 import me.xiaopan.sketch.util.SketchUtils;
 
 /**
@@ -108,6 +109,11 @@ public class LoadOptions extends DownloadOptions {
         return (LoadOptions) super.setCacheInDiskDisabled(cacheInDiskDisabled);
     }
 
+    @Override
+    public LoadOptions setStreamingEnabled(boolean streamingEnabled) {
+        return (LoadOptions) super.setStreamingEnabled(streamingEnabled);
+    }
+
     @Override
     public LoadOptions setRequestLevel(RequestLevel requestLevel) {
         return (LoadOptions) super.setRequestLevel(requestLevel);
@@ -460,6 +466,43 @@ public class LoadOptions extends DownloadOptions {
         return builder;
     }
 
+    /**
+     * 生成源图内存缓存用的key，同makeKey相比不包含ImageProcessor的key，这样同一张图片不同的ImageProcessor可以共用一张解码后的源图
+     */
+    public StringBuilder makeSourceKey(StringBuilder builder) {
+        super.makeKey(builder);
+
+        if (maxSize != null) {
+            builder.append("_").append(maxSize.getKey());
+        }
+        if (resize != null) {
+            builder.append("_").append(resize.getKey());
+            if (forceUseResize) {
+                builder.append("_").append("forceUseResize");
+            }
+            if (thumbnailMode) {
+                builder.append("_").append("thumbnailMode");
+            }
+        }
+        if (correctImageOrientationDisabled) {
+            builder.append("_").append("correctImageOrientationDisabled");
+        }
+        if (lowQualityImage) {
+            builder.append("_").append("lowQualityImage");
+        }
+        if (inPreferQualityOverSpeed) {
+            builder.append("_").append("preferQuality");
+        }
+        if (bitmapConfig != null) {
+            builder.append("_").append(bitmapConfig.name());
+        }
+        // 首先要resize的处理器会在解码时直接缩放到resize的尺寸，解码出来的源图不一样
+        if (imageProcessor instanceof ResizeImageProcessor && ((ResizeImageProcessor) imageProcessor).isResizeFirst()) {
+            builder.append("_").append("resizeFirst");
+        }
+        return builder;
+    }
+
     @Override
     public StringBuilder makeStateImageKey(StringBuilder builder) {
         super.makeKey(builder);
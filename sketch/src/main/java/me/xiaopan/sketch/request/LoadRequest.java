@@ -17,17 +17,24 @@
 package me.xiaopan.sketch.request;
 
 import android.graphics.Bitmap;
+import android.os.Build;
 
+import me.xiaopan.sketch.ErrorTracker;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.cache.MemoryCache;
 import me.xiaopan.sketch.decode.BitmapDecodeResult;
 import me.xiaopan.sketch.decode.DecodeException;
 import me.xiaopan.sketch.decode.DecodeResult;
 import me.xiaopan.sketch.decode.GifDecodeResult;
+import me.xiaopan.sketch.decode.ImageDecoder;
 import me.xiaopan.sketch.decode.ProcessedImageCache;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
+import me.xiaopan.sketch.drawable.SketchRefBitmap;
+import me.xiaopan.sketch.process.ImageProcessor;
+import me.xiaopan.sketch.util.SketchMD5Utils;
 import me.xiaopan.sketch.util.SketchUtils;
 
 /**
@@ -38,6 +45,10 @@ public class LoadRequest extends FreeRideDownloadRequest {
     private LoadListener loadListener;
 
     private LoadResult loadResult;
+    private String sourceMemoryCacheKey;
+    private boolean saveProcessedImageLater;
+    private DecodeResult waitingProcessResult;
+    private volatile boolean waitingProcess;
 
     public LoadRequest(Sketch sketch, UriInfo uriInfo, String key, LoadOptions loadOptions,
                        LoadListener loadListener, DownloadProgressListener downloadProgressListener) {
@@ -56,6 +67,47 @@ public class LoadRequest extends FreeRideDownloadRequest {
         return getKey();
     }
 
+    /**
+     * 获取源图内存缓存key，不包含ImageProcessor
+     */
+    public String getSourceMemoryCacheKey() {
+        if (sourceMemoryCacheKey == null) {
+            StringBuilder builder = new StringBuilder();
+            if (getUriInfo().getScheme() == UriScheme.BASE64) {
+                builder.append(SketchMD5Utils.md5(getUri()));
+            } else {
+                builder.append(getUri());
+            }
+            sourceMemoryCacheKey = loadOptions.makeSourceKey(builder).toString();
+        }
+        return sourceMemoryCacheKey;
+    }
+
+    /**
+     * 是否可以使用源图内存缓存，只有需要ImageProcessor处理的时候才有意义
+     */
+    public boolean canUseSourceMemoryCache() {
+        return loadOptions.getImageProcessor() != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1;
+    }
+
+    /**
+     * 是否可以等到显示之后再异步保存已处理图片到磁盘缓存，只有能用引用计数保住bitmap的请求才可以
+     */
+    public boolean canSaveProcessedImageLater() {
+        return false;
+    }
+
+    /**
+     * 已处理图片是否要等到显示之后再异步保存到磁盘缓存
+     */
+    public boolean isSaveProcessedImageLater() {
+        return saveProcessedImageLater;
+    }
+
+    public void setSaveProcessedImageLater(boolean saveProcessedImageLater) {
+        this.saveProcessedImageLater = saveProcessedImageLater;
+    }
+
     /**
      * 获取加载选项
      */
@@ -145,17 +197,91 @@ public class LoadRequest extends FreeRideDownloadRequest {
             return;
         }
 
+        // 源图内存缓存中有的话就不用再解码了，只需要处理一下
+        if (canUseSourceMemoryCache()) {
+            LoadResult sourceLoadResult = loadFromSourceMemoryCache();
+            if (sourceLoadResult != null) {
+                loadResult = sourceLoadResult;
+                loadCompleted();
+                return;
+            }
+        }
+
         // 解码
         setStatus(Status.DECODING);
+        ImageDecoder imageDecoder = getConfiguration().getImageDecoder();
         DecodeResult decodeResult;
         try {
-            decodeResult = getConfiguration().getImageDecoder().decode(this);
+            decodeResult = imageDecoder.decodeWithoutProcess(this);
         } catch (DecodeException e) {
             e.printStackTrace();
             error(e.getErrorCause());
             return;
         }
 
+        // 需要处理的话就交给处理线程，加载线程接着去解码别的图片
+        if (decodeResult != null && imageDecoder.isNeedProcess(this, decodeResult)) {
+            if (isCanceled()) {
+                if (SLogType.REQUEST.isEnabled()) {
+                    printLogW("canceled", "runLoad", "decode after");
+                }
+                decodeResult.recycle(getConfiguration().getBitmapPool());
+                return;
+            }
+
+            waitingProcessResult = decodeResult;
+            waitingProcess = true;
+            setStatus(Status.WAIT_PROCESS);
+            submitRunProcess();
+            return;
+        }
+
+        handleDecodeResult(decodeResult);
+    }
+
+    @Override
+    protected void runProcess() {
+        try {
+            processDecodeResult();
+        } finally {
+            waitingProcess = false;
+        }
+    }
+
+    private void processDecodeResult() {
+        DecodeResult decodeResult = waitingProcessResult;
+        waitingProcessResult = null;
+        if (decodeResult == null) {
+            return;
+        }
+
+        if (isCanceled()) {
+            if (SLogType.REQUEST.isEnabled()) {
+                printLogW("canceled", "runProcess", "process request just start");
+            }
+            decodeResult.recycle(getConfiguration().getBitmapPool());
+            return;
+        }
+
+        try {
+            decodeResult = getConfiguration().getImageDecoder().process(this, decodeResult);
+        } catch (DecodeException e) {
+            e.printStackTrace();
+            error(e.getErrorCause());
+            return;
+        }
+
+        handleDecodeResult(decodeResult);
+    }
+
+    /**
+     * 解码结果是否已经交给处理线程并且还没处理完
+     */
+    protected boolean isWaitingProcess() {
+        return waitingProcess;
+    }
+
+    private void handleDecodeResult(DecodeResult decodeResult) {
         if (decodeResult != null && decodeResult instanceof BitmapDecodeResult) {
             Bitmap bitmap = ((BitmapDecodeResult) decodeResult).getBitmap();
 
@@ -226,6 +352,64 @@ public class LoadRequest extends FreeRideDownloadRequest {
         }
     }
 
+    /**
+     * 从源图内存缓存中取出解码好的图片，然后只执行ImageProcessor
+     *
+     * @return null：没有缓存或处理失败，需要重新解码
+     */
+    private LoadResult loadFromSourceMemoryCache() {
+        MemoryCache sourceMemoryCache = getConfiguration().getSourceMemoryCache();
+        String sourceKey = getSourceMemoryCacheKey();
+        SketchRefBitmap sourceRefBitmap = sourceMemoryCache.get(sourceKey);
+        if (sourceRefBitmap == null) {
+            return null;
+        }
+
+        // 立马标记等待使用，防止处理的过程中被挤出去回收掉
+        sourceRefBitmap.setIsWaitingUse(String.format("%s:waitingUse:fromSourceMemory", getLogName()), true);
+        try {
+            if (sourceRefBitmap.isRecycled()) {
+                sourceMemoryCache.remove(sourceKey);
+                return null;
+            }
+
+            setStatus(Status.PROCESSING);
+
+            Bitmap sourceBitmap = sourceRefBitmap.getBitmap();
+            int generationId = sourceBitmap.getGenerationId();
+            ImageProcessor imageProcessor = loadOptions.getImageProcessor();
+            Bitmap newBitmap = null;
+            try {
+                newBitmap = imageProcessor.process(getSketch(), sourceBitmap, loadOptions.getResize(),
+                        loadOptions.isForceUseResize(), loadOptions.isLowQualityImage());
+            } catch (Throwable e) {
+                e.printStackTrace();
+                ErrorTracker errorTracker = getConfiguration().getErrorTracker();
+                errorTracker.onProcessImageError(e, getKey(), imageProcessor);
+            }
+
+            // 源图被改了就不能再用了
+            if (sourceBitmap.isRecycled() || sourceBitmap.getGenerationId() != generationId) {
+                sourceMemoryCache.remove(sourceKey);
+            }
+
+            // 处理器直接返回了源图的话就没办法同源图区分开了，还是重新解码
+            if (newBitmap == null || newBitmap.isRecycled() || newBitmap == sourceBitmap) {
+                return null;
+            }
+
+            if (SLogType.REQUEST.isEnabled()) {
+                printLogI("process from source memory cache", "runLoad", "source=" + sourceRefBitmap.getInfo());
+            }
+
+            BitmapDecodeResult decodeResult = new BitmapDecodeResult(sourceRefBitmap.getAttrs(), newBitmap).setProcessed(true);
+            decodeResult.setImageFrom(ImageFrom.MEMORY_CACHE);
+            return new LoadResult(newBitmap, decodeResult);
+        } finally {
+            sourceRefBitmap.setIsWaitingUse(String.format("%s:waitingUse:processed", getLogName()), false);
+        }
+    }
+
     protected void loadCompleted() {
         postRunCompleted();
     }
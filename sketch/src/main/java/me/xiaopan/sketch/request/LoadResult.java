@@ -18,6 +18,7 @@ package me.xiaopan.sketch.request;
 
 import android.graphics.Bitmap;
 
+import me.xiaopan.sketch.decode.BitmapDecodeResult;
 import me.xiaopan.sketch.decode.DecodeResult;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchGifDrawable;
@@ -27,12 +28,14 @@ public class LoadResult {
     private SketchGifDrawable gifDrawable;
     private ImageFrom imageFrom;
     private ImageAttrs imageAttrs;
+    private boolean degraded;
 
     public LoadResult(Bitmap bitmap, DecodeResult decodeResult) {
         this.bitmap = bitmap;
 
         this.imageAttrs = decodeResult.getImageAttrs();
         this.imageFrom = decodeResult.getImageFrom();
+        this.degraded = decodeResult instanceof BitmapDecodeResult && ((BitmapDecodeResult) decodeResult).isDegraded();
     }
 
     public LoadResult(SketchGifDrawable gifDrawable, DecodeResult decodeResult) {
@@ -57,4 +60,11 @@ public class LoadResult {
     public ImageAttrs getImageAttrs() {
         return imageAttrs;
     }
+
+    /**
+     * 是否因为滚动中解码耗时超出预算而降低了质量
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
 }
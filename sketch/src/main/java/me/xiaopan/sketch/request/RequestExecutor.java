@@ -23,10 +23,13 @@ import android.os.Message;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.xiaopan.sketch.Identifier;
 
@@ -36,24 +39,37 @@ import me.xiaopan.sketch.Identifier;
 public class RequestExecutor implements Identifier {
     public static final int DEFAULT_LOCAL_THREAD_POOL_SIZE = 3;
     public static final int DEFAULT_NET_THREAD_POOL_SIZE = 3;
+    public static final int DEFAULT_PROCESS_THREAD_POOL_SIZE = 2;
 
     private static final String KEY = "RequestExecutor";
 
     private ExecutorService netTaskExecutor;    //网络任务执行器
     private ExecutorService localTaskExecutor;    //本地任务执行器
+    private ExecutorService processTaskExecutor;    //处理任务执行器
+    private ExecutorService stateImageTaskExecutor;    //状态图片任务执行器
     private Handler dispatchHandler;
     private DispatchThread dispatchThread;
     private boolean shutdown;
     private int localThreadPoolSize;
     private int netThreadPoolSize;
+    private int processThreadPoolSize;
 
-    public RequestExecutor(int localThreadPoolSize, int netThreadPoolSize) {
+    private final StageStatistics downloadStatistics = new StageStatistics("download");
+    private final StageStatistics loadStatistics = new StageStatistics("load");
+    private final StageStatistics processStatistics = new StageStatistics("process");
+
+    public RequestExecutor(int localThreadPoolSize, int netThreadPoolSize, int processThreadPoolSize) {
         this.localThreadPoolSize = localThreadPoolSize;
         this.netThreadPoolSize = netThreadPoolSize;
+        this.processThreadPoolSize = processThreadPoolSize;
+    }
+
+    public RequestExecutor(int localThreadPoolSize, int netThreadPoolSize) {
+        this(localThreadPoolSize, netThreadPoolSize, DEFAULT_PROCESS_THREAD_POOL_SIZE);
     }
 
     public RequestExecutor() {
-        this(DEFAULT_LOCAL_THREAD_POOL_SIZE, DEFAULT_NET_THREAD_POOL_SIZE);
+        this(DEFAULT_LOCAL_THREAD_POOL_SIZE, DEFAULT_NET_THREAD_POOL_SIZE, DEFAULT_PROCESS_THREAD_POOL_SIZE);
     }
 
     public void submitDispatch(Runnable runnable) {
@@ -93,9 +109,76 @@ public class RequestExecutor implements Identifier {
                 }
             }
         }
+        loadStatistics.submit(localTaskExecutor);
         localTaskExecutor.execute(runnable);
     }
 
+    /**
+     * 提交处理任务，解码之后的处理（ImageProcessor、保存已处理图片等）放在单独的线程池里执行，
+     * 这样模糊之类比较耗时的处理就不会占着加载线程，影响后面的图片解码
+     * <p>
+     * 处理任务持有已经解码的图片，并且请求要等处理完才会结束，所以不能像其它线程池那样丢掉最老的任务，
+     * 队列满了就直接在提交任务的线程（加载线程）中执行，顺便让加载线程慢下来
+     *
+     * @return false：已经关闭了或者自定义的线程池拒绝了，调用方需要自己处理这个任务
+     */
+    public boolean submitProcess(Runnable runnable) {
+        if (shutdown) {
+            return false;
+        }
+
+        // 之所有这里采用了懒加载的方式是为了兼容多进程，避免资源浪费
+        if (processTaskExecutor == null) {
+            synchronized (RequestExecutor.this) {
+                if (processTaskExecutor == null) {
+                    processTaskExecutor = new ThreadPoolExecutor(
+                            processThreadPoolSize,
+                            processThreadPoolSize,
+                            60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(200),
+                            new DefaultThreadFactory("ProcessThread"),
+                            new RunInCallerPolicy());
+                }
+            }
+        }
+        processStatistics.submit(processTaskExecutor);
+        try {
+            processTaskExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 提交状态图片任务，预算模式下推迟到后台创建的加载中图片在这里执行
+     * <p>
+     * 只有一个线程并且同加载线程池分开，这样队列满了丢掉的也只是最老的状态图片任务，最多少显示一张加载中图片，
+     * 不会把加载线程池里还在排队的请求挤掉
+     */
+    public void submitStateImage(Runnable runnable) {
+        if (shutdown) {
+            return;
+        }
+
+        // 之所有这里采用了懒加载的方式是为了兼容多进程，避免资源浪费
+        if (stateImageTaskExecutor == null) {
+            synchronized (RequestExecutor.this) {
+                if (stateImageTaskExecutor == null) {
+                    stateImageTaskExecutor = new ThreadPoolExecutor(
+                            1,
+                            1,
+                            60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(50),
+                            new DefaultThreadFactory("StateImageThread"),
+                            new ThreadPoolExecutor.DiscardOldestPolicy());
+                }
+            }
+        }
+        stateImageTaskExecutor.execute(runnable);
+    }
+
     public void submitDownload(Runnable runnable) {
         if (shutdown) {
             return;
@@ -115,6 +198,7 @@ public class RequestExecutor implements Identifier {
                 }
             }
         }
+        downloadStatistics.submit(netTaskExecutor);
         netTaskExecutor.execute(runnable);
     }
 
@@ -136,6 +220,56 @@ public class RequestExecutor implements Identifier {
         this.netTaskExecutor = netTaskExecutor;
     }
 
+    @SuppressWarnings("unused")
+    public void setProcessTaskExecutor(ExecutorService processTaskExecutor) {
+        if (shutdown) {
+            return;
+        }
+
+        this.processTaskExecutor = processTaskExecutor;
+    }
+
+    @SuppressWarnings("unused")
+    public void setStateImageTaskExecutor(ExecutorService stateImageTaskExecutor) {
+        if (shutdown) {
+            return;
+        }
+
+        this.stateImageTaskExecutor = stateImageTaskExecutor;
+    }
+
+    /**
+     * 获取下载阶段的统计信息
+     */
+    @SuppressWarnings("unused")
+    public StageStatistics getDownloadStatistics() {
+        return downloadStatistics;
+    }
+
+    /**
+     * 获取加载（解码）阶段的统计信息
+     */
+    @SuppressWarnings("unused")
+    public StageStatistics getLoadStatistics() {
+        return loadStatistics;
+    }
+
+    /**
+     * 获取处理阶段的统计信息
+     */
+    @SuppressWarnings("unused")
+    public StageStatistics getProcessStatistics() {
+        return processStatistics;
+    }
+
+    /**
+     * 获取各阶段的排队和耗时统计
+     */
+    public String getStatistics() {
+        return String.format("%s(%s, %s, %s)", KEY, downloadStatistics.getInfo(),
+                loadStatistics.getInfo(), processStatistics.getInfo());
+    }
+
     @Override
     public String getKey() {
         return String.format("%s(%s", KEY, shutdown ? "shutdown" : "running)");
@@ -165,6 +299,16 @@ public class RequestExecutor implements Identifier {
             localTaskExecutor = null;
         }
 
+        if (processTaskExecutor != null) {
+            processTaskExecutor.shutdown();
+            processTaskExecutor = null;
+        }
+
+        if (stateImageTaskExecutor != null) {
+            stateImageTaskExecutor.shutdown();
+            stateImageTaskExecutor = null;
+        }
+
         shutdown = true;
     }
 
@@ -172,6 +316,72 @@ public class RequestExecutor implements Identifier {
         return shutdown;
     }
 
+    /**
+     * 一个执行阶段的统计信息，包括执行次数、平均排队时间、平均执行时间以及队列长度的峰值
+     */
+    public static class StageStatistics {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
+        private final AtomicLong runTime = new AtomicLong();
+        private final AtomicInteger peakQueueSize = new AtomicInteger();
+
+        StageStatistics(String name) {
+            this.name = name;
+        }
+
+        void submit(ExecutorService executorService) {
+            if (!(executorService instanceof ThreadPoolExecutor)) {
+                return;
+            }
+
+            int queueSize = ((ThreadPoolExecutor) executorService).getQueue().size() + 1;
+            int peak = peakQueueSize.get();
+            while (queueSize > peak && !peakQueueSize.compareAndSet(peak, queueSize)) {
+                peak = peakQueueSize.get();
+            }
+        }
+
+        void record(long waitTime, long runTime) {
+            this.count.incrementAndGet();
+            this.waitTime.addAndGet(waitTime);
+            this.runTime.addAndGet(runTime);
+        }
+
+        @SuppressWarnings("unused")
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * 获取平均排队时间，单位毫秒
+         */
+        public long getAverageWaitTime() {
+            long count = this.count.get();
+            return count > 0 ? waitTime.get() / count : 0;
+        }
+
+        /**
+         * 获取平均执行时间，单位毫秒
+         */
+        public long getAverageRunTime() {
+            long count = this.count.get();
+            return count > 0 ? runTime.get() / count : 0;
+        }
+
+        /**
+         * 获取队列长度的峰值
+         */
+        public int getPeakQueueSize() {
+            return peakQueueSize.get();
+        }
+
+        public String getInfo() {
+            return String.format("%s=%d/wait %dms/run %dms/peakQueue %d",
+                    name, getCount(), getAverageWaitTime(), getAverageRunTime(), getPeakQueueSize());
+        }
+    }
+
     private static final class DispatchThread extends HandlerThread {
 
         public DispatchThread(String name) {
@@ -188,6 +398,16 @@ public class RequestExecutor implements Identifier {
         }
     }
 
+    /**
+     * 队列满了或者已经关闭了都在提交任务的线程中直接执行，任务不会被丢掉
+     */
+    private static class RunInCallerPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            runnable.run();
+        }
+    }
+
     private static class DefaultThreadFactory implements ThreadFactory {
         private final ThreadGroup group;
         private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.request;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import me.xiaopan.sketch.Identifier;
+
+/**
+ * 正在进行中的异步请求的登记表，用来在应用内查看每个请求走到了哪一步，默认关闭
+ * <p>
+ * 登记和注销都只是对一个槽位做CAS，读取快照时也不加锁；槽位里放的是弱引用，请求结束时会主动注销，
+ * 即使因为异常没有走到结束状态也不会被登记表拖住，槽位会在弱引用被清空后重新利用
+ */
+public class RequestRegistry implements Identifier {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final String KEY = "RequestRegistry";
+
+    private final AtomicReferenceArray<WeakReference<AsyncRequest>> slots;
+    private final int mask;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean enabled;
+
+    public RequestRegistry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 最多同时登记多少个请求，会向上取整为2的幂，超出的请求不登记，只计数
+     */
+    public RequestRegistry(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<WeakReference<AsyncRequest>>(size);
+        this.mask = size - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置是否开启，关闭后不再登记新请求，已经登记的请求结束时照常注销
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 登记请求
+     *
+     * @return 槽位下标，-1：没有开启或槽位已满
+     */
+    int register(AsyncRequest request) {
+        if (!enabled) {
+            return -1;
+        }
+
+        WeakReference<AsyncRequest> reference = new WeakReference<AsyncRequest>(request);
+        int start = nextIndex.getAndIncrement();
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            WeakReference<AsyncRequest> old = slots.get(index);
+            if ((old == null || old.get() == null) && slots.compareAndSet(index, old, reference)) {
+                return index;
+            }
+        }
+
+        droppedCount.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * 注销请求
+     */
+    void unregister(AsyncRequest request, int index) {
+        if (index < 0 || index > mask) {
+            return;
+        }
+
+        WeakReference<AsyncRequest> old = slots.get(index);
+        if (old != null && old.get() == request) {
+            slots.compareAndSet(index, old, null);
+        }
+    }
+
+    /**
+     * 获取所有进行中的请求的快照，不加锁，每个请求的数据可能不是同一时刻的，但对查看进度来说足够了
+     */
+    public List<RequestSnapshot> getSnapshot() {
+        long nowNanos = System.nanoTime();
+        List<RequestSnapshot> snapshots = new ArrayList<RequestSnapshot>();
+        for (int index = 0; index <= mask; index++) {
+            WeakReference<AsyncRequest> reference = slots.get(index);
+            AsyncRequest request = reference != null ? reference.get() : null;
+            if (request == null) {
+                if (reference != null) {
+                    slots.compareAndSet(index, reference, null);
+                }
+                continue;
+            }
+
+            RequestSnapshot snapshot = RequestSnapshot.create(request, nowNanos);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * 获取因为槽位已满而没有登记的请求数
+     */
+    @SuppressWarnings("unused")
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public String getKey() {
+        return String.format("%s(capacity=%d,enabled=%s)", KEY, mask + 1, enabled);
+    }
+}
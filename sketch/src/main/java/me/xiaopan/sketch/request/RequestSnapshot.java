@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.request;
+
+import java.util.Locale;
+
+import me.xiaopan.sketch.metrics.RequestTimeline;
+
+/**
+ * 进行中的请求在某一时刻的快照，创建后不再变化，不持有请求本身
+ */
+public class RequestSnapshot {
+    private static final BaseRequest.Status[] STATUSES = BaseRequest.Status.values();
+
+    private final String logName;
+    private final String key;
+    private final String uri;
+    private final BaseRequest.Status status;
+    private final String threadName;
+    private final long elapsedNanos;
+    private final long statusElapsedNanos;
+    private final long[] durationNanos;
+    private final long downloadedLength;
+    private final long contentLength;
+    private final int freeRideCount;
+
+    private RequestSnapshot(AsyncRequest request, BaseRequest.Status status, long nowNanos) {
+        RequestTimeline timeline = request.getTimeline();
+        long currentEnterNanos = timeline.getCurrentEnterNanos();
+
+        this.logName = request.getLogName();
+        this.key = request.getKey();
+        this.uri = request.getUri();
+        this.status = status;
+        this.threadName = request.getThreadName();
+        this.elapsedNanos = nowNanos - timeline.getStartNanos();
+        this.statusElapsedNanos = currentEnterNanos != 0 ? Math.max(0, nowNanos - currentEnterNanos) : 0;
+
+        this.durationNanos = new long[STATUSES.length];
+        timeline.copyDurationNanos(durationNanos);
+        if (status != null) {
+            durationNanos[status.ordinal()] += statusElapsedNanos;
+        }
+
+        if (request instanceof DownloadRequest) {
+            DownloadRequest downloadRequest = (DownloadRequest) request;
+            this.downloadedLength = downloadRequest.getDownloadedLength();
+            this.contentLength = downloadRequest.getContentLength();
+        } else {
+            this.downloadedLength = 0;
+            this.contentLength = 0;
+        }
+
+        int riders = 0;
+        if (request instanceof FreeRideDownloadRequest) {
+            riders += ((FreeRideDownloadRequest) request).getDownloadFreeRideCount();
+        }
+        if (request instanceof FreeRideDisplayRequest) {
+            riders += ((FreeRideDisplayRequest) request).getDisplayFreeRideCount();
+        }
+        this.freeRideCount = riders;
+    }
+
+    /**
+     * @return null：请求已经结束了
+     */
+    static RequestSnapshot create(AsyncRequest request, long nowNanos) {
+        BaseRequest.Status status = request.getTimeline().getCurrentStatus();
+        if (status == BaseRequest.Status.COMPLETED || status == BaseRequest.Status.FAILED
+                || status == BaseRequest.Status.CANCELED) {
+            return null;
+        }
+        return new RequestSnapshot(request, status, nowNanos);
+    }
+
+    public String getLogName() {
+        return logName;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * 获取当前状态
+     *
+     * @return null：已经提交但还没进入任何状态
+     */
+    public BaseRequest.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * 获取最近一次执行这个请求的线程的名称
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * 获取从开始到现在一共过去了多长时间
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 获取在当前状态上已经停留了多长时间
+     */
+    public long getStatusElapsedNanos() {
+        return statusElapsedNanos;
+    }
+
+    /**
+     * 获取在指定状态上一共停留了多长时间，包括当前状态正在停留的时间
+     */
+    public long getDurationNanos(BaseRequest.Status status) {
+        return durationNanos[status.ordinal()];
+    }
+
+    /**
+     * 获取已经下载的长度，每100毫秒更新一次
+     */
+    public long getDownloadedLength() {
+        return downloadedLength;
+    }
+
+    /**
+     * 获取文件总长度，小于等于0表示未知或还没开始下载
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 获取搭顺风车的请求数
+     */
+    public int getFreeRideCount() {
+        return freeRideCount;
+    }
+
+    public String getInfo() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(logName);
+        builder.append(". ").append(status != null ? status.getLog() : "submitted");
+        builder.append(String.format(Locale.US, " %.0fms/%.0fms", statusElapsedNanos / 1000000f, elapsedNanos / 1000000f));
+        if (downloadedLength > 0 || contentLength > 0) {
+            builder.append(String.format(Locale.US, ". %dKB/%sKB", downloadedLength / 1024,
+                    contentLength > 0 ? String.valueOf(contentLength / 1024) : "?"));
+        }
+        if (freeRideCount > 0) {
+            builder.append(". freeRide=").append(freeRideCount);
+        }
+        if (threadName != null) {
+            builder.append(". ").append(threadName);
+        }
+        builder.append(". ").append(key);
+        return builder.toString();
+    }
+}
@@ -28,6 +28,7 @@ import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.BitmapPoolUtils;
 import me.xiaopan.sketch.cache.MemoryCache;
+import me.xiaopan.sketch.cache.MemoryGovernor;
 import me.xiaopan.sketch.drawable.ImageAttrs;
 import me.xiaopan.sketch.drawable.SketchBitmapDrawable;
 import me.xiaopan.sketch.drawable.SketchRefBitmap;
@@ -72,6 +73,19 @@ public class MakerStateImage implements StateImage {
         return drawable;
     }
 
+    /**
+     * 是否可以很快的拿到Drawable，不需要处理或者内存缓存中已经有了的话，在主线程中获取也不会耗时
+     */
+    public boolean canGetQuickly(Context context, DisplayOptions displayOptions) {
+        if (displayOptions.getImageProcessor() == null && displayOptions.getResize() == null) {
+            return true;
+        }
+
+        String memoryCacheKey = SketchUtils.makeStateImageMemoryCacheKey(String.valueOf(resId), displayOptions);
+        SketchRefBitmap cachedRefBitmap = Sketch.with(context).getConfiguration().getMemoryCache().get(memoryCacheKey);
+        return cachedRefBitmap != null && !cachedRefBitmap.isRecycled();
+    }
+
     private Drawable makeDrawable(Sketch sketch, DisplayOptions options) {
         Configuration configuration = sketch.getConfiguration();
 
@@ -159,6 +173,10 @@ public class MakerStateImage implements StateImage {
             ImageAttrs imageAttrs = new ImageAttrs(boundsOptions.outMimeType, boundsOptions.outWidth, boundsOptions.outHeight, 0);
 
             SketchRefBitmap newRefBitmap = new SketchRefBitmap(bitmap, memoryCacheKey, uri, imageAttrs, bitmapPool);
+            MemoryGovernor memoryGovernor = configuration.getMemoryGovernor();
+            memoryGovernor.trackRefBitmap(newRefBitmap);
+            // 先腾地方再放入，新放入的没有别的引用，放入之后再缩减的话有可能刚放进去就被回收了
+            memoryGovernor.checkBudget();
             memoryCache.put(memoryCacheKey, newRefBitmap);
             return new SketchBitmapDrawable(newRefBitmap, ImageFrom.LOCAL);
         } else {
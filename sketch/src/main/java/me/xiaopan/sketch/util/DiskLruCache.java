@@ -939,6 +939,14 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
+        /**
+         * Returns the file that is being written for {@code index}. Its
+         * content is incomplete until {@link #commit} is called.
+         */
+        public File getFile(int index) {
+            return entry.getDirtyFile(index);
+        }
+
         /**
          * Sets the value at {@code index} to {@code value}.
          */
@@ -26,6 +26,9 @@ import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.decode.ImageType;
 import me.xiaopan.sketch.drawable.SketchDrawable;
 import me.xiaopan.sketch.drawable.SketchLoadingDrawable;
+import me.xiaopan.sketch.request.DisplayRequest;
+import me.xiaopan.sketch.request.UriInfo;
+import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.SketchUtils;
 import me.xiaopan.sketch.viewfun.large.LargeImageViewer;
 import me.xiaopan.sketch.viewfun.zoom.ImageZoomer;
@@ -177,15 +180,66 @@ public class LargeImageFunction extends ViewFunction implements ImageZoomer.OnMa
             }
         }
 
+        // 边下边解，图片还在下载中
+        String streamingImageUri = null;
+        if (!drawableQualified && largeImageViewer.isStreamingEnabled()) {
+            streamingImageUri = findStreamingImageUri(previewDrawable);
+        }
+
         if (drawableQualified) {
             imageUri = sketchDrawable.getUri();
             largeImageViewer.setImage(imageUri, view.getOptions().isCorrectImageOrientationDisabled());
+        } else if (streamingImageUri != null) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "Use large image function with streaming. %s", streamingImageUri);
+            }
+            imageUri = streamingImageUri;
+            largeImageViewer.setImage(imageUri, view.getOptions().isCorrectImageOrientationDisabled());
         } else {
             imageUri = null;
             largeImageViewer.setImage(null, false);
         }
     }
 
+    /**
+     * 边下边解模式下，加载中占位图是同一张图片的缩略图并且正在下载的是网络图片时，就可以先用缩略图作为预览图开启大图功能
+     *
+     * @return null：不满足条件
+     */
+    private String findStreamingImageUri(Drawable previewDrawable) {
+        if (!(previewDrawable instanceof SketchLoadingDrawable)) {
+            return null;
+        }
+
+        SketchLoadingDrawable loadingDrawable = (SketchLoadingDrawable) previewDrawable;
+        DisplayRequest request = loadingDrawable.getRequest();
+        if (request == null || request.isCanceled()) {
+            return null;
+        }
+
+        // 占位图必须是缩小过的，否则没必要使用大图功能
+        if (loadingDrawable.getOriginWidth() <= loadingDrawable.getIntrinsicWidth()
+                && loadingDrawable.getOriginHeight() <= loadingDrawable.getIntrinsicHeight()) {
+            return null;
+        }
+
+        UriInfo uriInfo = request.getUriInfo();
+        if (uriInfo == null || uriInfo.getScheme() != UriScheme.NET) {
+            return null;
+        }
+
+        // 占位图必须就是正在下载的这张图片，否则用别的图片当预览图会和碎片对不上
+        String requestUri = uriInfo.getUri();
+        if (!requestUri.equals(loadingDrawable.getUri())) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fw(SLogType.LARGE, NAME, "Loading drawable is not the downloading image. loadingUri=%s, requestUri=%s",
+                        loadingDrawable.getUri(), requestUri);
+            }
+            return null;
+        }
+        return requestUri;
+    }
+
     public void recycle(String why) {
         if (!SketchUtils.sdkSupportBitmapRegionDecoder()) {
             return;
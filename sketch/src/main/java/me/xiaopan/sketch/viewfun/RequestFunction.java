@@ -52,9 +52,11 @@ public class RequestFunction extends ViewFunction {
      * @param callingStation 调用位置
      * @param drawable       Drawable
      * @param isDisplayed    是否已显示
+     * @param keepRequest    不需要取消的请求，可以为null
      * @return true：drawable或其子Drawable是SketchDrawable
      */
-    private static boolean notifyDrawable(String callingStation, Drawable drawable, final boolean isDisplayed) {
+    private static boolean notifyDrawable(String callingStation, Drawable drawable, final boolean isDisplayed,
+                                          DisplayRequest keepRequest) {
         if (drawable == null) {
             return false;
         }
@@ -64,13 +66,13 @@ public class RequestFunction extends ViewFunction {
         if (drawable instanceof LayerDrawable) {
             LayerDrawable layerDrawable = (LayerDrawable) drawable;
             for (int i = 0, z = layerDrawable.getNumberOfLayers(); i < z; i++) {
-                isSketchDrawable |= notifyDrawable(callingStation, layerDrawable.getDrawable(i), isDisplayed);
+                isSketchDrawable |= notifyDrawable(callingStation, layerDrawable.getDrawable(i), isDisplayed, keepRequest);
             }
         } else {
             if (!isDisplayed && drawable instanceof SketchLoadingDrawable) {
                 SketchLoadingDrawable loadingDrawable = (SketchLoadingDrawable) drawable;
                 DisplayRequest displayRequest = loadingDrawable.getRequest();
-                if (displayRequest != null && !displayRequest.isFinished()) {
+                if (displayRequest != null && displayRequest != keepRequest && !displayRequest.isFinished()) {
                     displayRequest.cancel(CancelCause.BE_REPLACED_ON_SET_DRAWABLE);
                 }
             }
@@ -99,14 +101,18 @@ public class RequestFunction extends ViewFunction {
 
         // 如果当前图片是来自Sketch，那么就有可能在这里被主动回收，因此要主动设置ImageView的drawable为null
         final Drawable oldDrawable = sketchView.getDrawable();
-        return oldDrawable != null && notifyDrawable("onDetachedFromWindow", oldDrawable, false);
+        return oldDrawable != null && notifyDrawable("onDetachedFromWindow", oldDrawable, false, null);
     }
 
     @Override
     public boolean onDrawableChanged(String callPosition, Drawable oldDrawable, Drawable newDrawable) {
         // 当Drawable改变的时候新Drawable的显示引用计数加1，旧Drawable的显示引用计数减1，一定要先处理newDrawable
-        newDrawableFromSketch = notifyDrawable(callPosition + ":newDrawable", newDrawable, true);
-        oldDrawableFromSketch = notifyDrawable(callPosition + ":oldDrawable", oldDrawable, false);
+        newDrawableFromSketch = notifyDrawable(callPosition + ":newDrawable", newDrawable, true, null);
+
+        // 新Drawable是同一个请求的加载中占位图时（例如推迟创建的加载中图片替换空的占位图）不能取消这个请求
+        DisplayRequest keepRequest = newDrawable instanceof SketchLoadingDrawable ?
+                ((SketchLoadingDrawable) newDrawable).getRequest() : null;
+        oldDrawableFromSketch = notifyDrawable(callPosition + ":oldDrawable", oldDrawable, false, keepRequest);
 
         // 如果新Drawable不是来自Sketch，那么就要清空显示参数，防止被RecyclerCompatFunction在onAttachedToWindow的时候错误的恢复成上一张图片
         if (!newDrawableFromSketch) {
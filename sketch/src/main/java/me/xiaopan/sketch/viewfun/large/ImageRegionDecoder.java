@@ -25,6 +25,9 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Build;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -36,6 +39,7 @@ import me.xiaopan.sketch.decode.DecodeException;
 import me.xiaopan.sketch.decode.ImageDecodeUtils;
 import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.decode.ImageType;
+import me.xiaopan.sketch.http.DownloadingFile;
 import me.xiaopan.sketch.request.UriInfo;
 import me.xiaopan.sketch.util.ExifInterface;
 import me.xiaopan.sketch.util.SketchUtils;
@@ -44,20 +48,33 @@ import me.xiaopan.sketch.util.SketchUtils;
  * 图片碎片解码器，支持纠正图片方向
  */
 public class ImageRegionDecoder {
+    private static final int PARTIAL_HEADER_MAX_LENGTH = 128 * 1024;   // 读取尺寸和方向时最多读取的长度
+    private static final int PARTIAL_SAFE_ROWS = 16;    // 估算可解码的行数时预留的行数，JPEG的一个MCU最多16行
+    private static final int PARTIAL_VALIDATE_MAX_WIDTH = 256;    // 校验可解码行数时解码的条带的最大宽度
+    private static final int PARTIAL_VALIDATE_MAX_COUNT = 3;    // 校验失败时最多缩小几次
+    private static final float PARTIAL_VALIDATE_SHRINK_RATIO = 0.75f;    // 校验失败时可解码行数缩小的比例
+    private static final int PARTIAL_MISSING_DATA_COLOR = 0xFF808080;    // libjpeg遇到数据提前结束时用这个灰色填充剩下的区域
 
     private final int exifOrientation;
     private Point imageSize;
     private String imageUri;
     private ImageType imageType;
     private BitmapRegionDecoder regionDecoder;
+    private long dataLength;
+    private int decodableHeight = -1;
+    private int decodingCount;  // 正在解码的碎片数量
+    private boolean recyclePending;    // 等正在解码的碎片都结束了再回收
+
+    String cacheKey;    // 在ImageRegionDecoderCache中的key
 
     ImageRegionDecoder(String imageUri, Point imageSize, ImageType imageType,
-                       int exifOrientation, BitmapRegionDecoder regionDecoder) {
+                       int exifOrientation, BitmapRegionDecoder regionDecoder, long dataLength) {
         this.imageUri = imageUri;
         this.imageSize = imageSize;
         this.imageType = imageType;
         this.exifOrientation = exifOrientation;
         this.regionDecoder = regionDecoder;
+        this.dataLength = dataLength;
     }
 
     public static ImageRegionDecoder build(Context context, final String imageUri,
@@ -95,7 +112,179 @@ public class ImageRegionDecoder {
 
         ImageType imageType = ImageType.valueOfMimeType(boundOptions.outMimeType);
 
-        return new ImageRegionDecoder(imageUri, imageSize, imageType, exifOrientation, regionDecoder);
+        return new ImageRegionDecoder(imageUri, imageSize, imageType, exifOrientation, regionDecoder, dataSource.getLength());
+    }
+
+    /**
+     * 用正在下载的文件中已经下载的部分创建解码器，只支持基线JPEG，因为基线JPEG是从上到下逐行编码的，
+     * 已经下载的部分可以完整解码出图片的上半部分，而渐进式JPEG以及其它格式必须等下载完成
+     *
+     * @return null：数据还不够或者格式不支持
+     */
+    static ImageRegionDecoder buildPartial(Context context, String imageUri, DownloadingFile downloadingFile,
+                                           boolean correctImageOrientationDisabled) throws IOException {
+        long contentLength = downloadingFile.getContentLength();
+        long availableLength = downloadingFile.getAvailableLength();
+        if (contentLength <= 0 || availableLength <= 0 || downloadingFile.isFinished()) {
+            return null;
+        }
+
+        // 先读取文件头，文件头里有尺寸、方向以及编码方式
+        byte[] header = new byte[(int) Math.min(availableLength, PARTIAL_HEADER_MAX_LENGTH)];
+        int headerLength = 0;
+        InputStream headerInputStream = null;
+        try {
+            headerInputStream = new FileInputStream(downloadingFile.getFile());
+            int readLength;
+            while (headerLength < header.length
+                    && (readLength = headerInputStream.read(header, headerLength, header.length - headerLength)) != -1) {
+                headerLength += readLength;
+            }
+        } finally {
+            SketchUtils.close(headerInputStream);
+        }
+
+        int scanStart = findBaselineJpegScanStart(header, headerLength);
+        if (scanStart <= 0 || availableLength <= scanStart) {
+            return null;
+        }
+
+        BitmapFactory.Options boundOptions = new BitmapFactory.Options();
+        boundOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(header, 0, headerLength, boundOptions);
+        if (boundOptions.outWidth <= 0 || boundOptions.outHeight <= 0) {
+            return null;
+        }
+
+        // 按已下载的扫描数据占总扫描数据的比例估算可以完整解码的行数，多预留一些避免解码出灰色的区域
+        float availableRatio = (float) (availableLength - scanStart) / (contentLength - scanStart);
+        int decodableHeight = (int) (boundOptions.outHeight * availableRatio * 0.9f) - PARTIAL_SAFE_ROWS;
+        if (decodableHeight <= 0) {
+            return null;
+        }
+
+        Point imageSize = new Point(boundOptions.outWidth, boundOptions.outHeight);
+        Configuration configuration = Sketch.with(context).getConfiguration();
+        ImageOrientationCorrector orientationCorrector = configuration.getImageOrientationCorrector();
+        int exifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
+        if (!correctImageOrientationDisabled) {
+            exifOrientation = orientationCorrector.readExifOrientation(boundOptions.outMimeType,
+                    new ByteArrayInputStream(header, 0, headerLength));
+        }
+        orientationCorrector.rotateSize(imageSize, exifOrientation);
+
+        InputStream inputStream = null;
+        BitmapRegionDecoder regionDecoder;
+        try {
+            inputStream = new LimitedInputStream(new FileInputStream(downloadingFile.getFile()), availableLength);
+            regionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        } finally {
+            SketchUtils.close(inputStream);
+        }
+
+        // 扫描数据的压缩率上下并不均匀，按比例估算的行数可能偏多，实际解码一下边界处看看是否真的有数据
+        decodableHeight = validateDecodableHeight(regionDecoder, boundOptions.outWidth, decodableHeight);
+        if (decodableHeight <= 0) {
+            regionDecoder.recycle();
+            return null;
+        }
+
+        ImageType imageType = ImageType.valueOfMimeType(boundOptions.outMimeType);
+
+        ImageRegionDecoder decoder = new ImageRegionDecoder(imageUri, imageSize, imageType, exifOrientation, regionDecoder, availableLength);
+        decoder.decodableHeight = decodableHeight;
+        return decoder;
+    }
+
+    /**
+     * 解码可解码区域底部的一小条，如果最后一行是libjpeg在数据不足时填充的灰色，就说明估多了，缩小后再试
+     * <p>
+     * 这里只能发现估多了的情况，而且图片本身就是纯灰色的话也会被误判，误判只会少解码一些行，不影响显示，
+     * 另外下载完成后用临时解码器解码的碎片都会用完整的解码器重新解码，所以即使漏判也只是暂时显示不正确
+     *
+     * @return 校验后的可解码行数，小于等于0表示不可用
+     */
+    private static int validateDecodableHeight(BitmapRegionDecoder regionDecoder, int imageWidth, int decodableHeight) {
+        int inSampleSize = 1;
+        while (imageWidth / inSampleSize > PARTIAL_VALIDATE_MAX_WIDTH) {
+            inSampleSize *= 2;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Rect stripRect = new Rect();
+        int[] rowPixels = null;
+        for (int i = 0; i < PARTIAL_VALIDATE_MAX_COUNT && decodableHeight > 0; i++) {
+            stripRect.set(0, Math.max(0, decodableHeight - inSampleSize * 2), imageWidth, decodableHeight);
+
+            Bitmap strip = null;
+            try {
+                strip = regionDecoder.decodeRegion(stripRect, options);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+
+            boolean valid = false;
+            if (strip != null) {
+                int width = strip.getWidth();
+                if (rowPixels == null || rowPixels.length < width) {
+                    rowPixels = new int[width];
+                }
+                strip.getPixels(rowPixels, 0, width, 0, strip.getHeight() - 1, width, 1);
+                for (int x = 0; x < width; x++) {
+                    if (rowPixels[x] != PARTIAL_MISSING_DATA_COLOR) {
+                        valid = true;
+                        break;
+                    }
+                }
+                strip.recycle();
+            }
+
+            if (valid) {
+                return decodableHeight;
+            }
+            decodableHeight = (int) (decodableHeight * PARTIAL_VALIDATE_SHRINK_RATIO) - PARTIAL_SAFE_ROWS;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找基线JPEG的扫描数据的起始位置
+     *
+     * @return -1：不是JPEG、不是基线JPEG或者文件头还没下载完
+     */
+    private static int findBaselineJpegScanStart(byte[] data, int length) {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return -1;
+        }
+
+        boolean baseline = false;
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if ((data[offset] & 0xFF) != 0xFF) {
+                return -1;
+            }
+            int marker = data[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // 填充字节
+                offset++;
+                continue;
+            }
+
+            int segmentLength = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+            if (marker == 0xC0 || marker == 0xC1) {
+                baseline = true;
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                // 渐进式、无损以及算术编码的都不支持
+                return -1;
+            } else if (marker == 0xDA) {
+                int scanStart = offset + 2 + segmentLength;
+                return baseline && scanStart <= length ? scanStart : -1;
+            }
+            offset += 2 + segmentLength;
+        }
+        return -1;
     }
 
     @SuppressWarnings("unused")
@@ -116,25 +305,140 @@ public class ImageRegionDecoder {
         return exifOrientation;
     }
 
+    /**
+     * 获取图片数据长度，BitmapRegionDecoder会把数据全部读到内存中，因此可以用来估算解码器占用的内存
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * 是否是用正在下载的文件的一部分创建的
+     */
+    public boolean isPartial() {
+        return decodableHeight >= 0;
+    }
+
+    /**
+     * 判断指定区域的数据是否已经下载了，完整的解码器始终返回true
+     *
+     * @param srcRect 原始方向的区域
+     */
+    public boolean isDecodable(Rect srcRect) {
+        return decodableHeight < 0 || srcRect.bottom <= decodableHeight;
+    }
+
     @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
-    public boolean isReady() {
-        return regionDecoder != null && !regionDecoder.isRecycled();
+    public synchronized boolean isReady() {
+        return !recyclePending && regionDecoder != null && !regionDecoder.isRecycled();
     }
 
+    /**
+     * 回收，如果还有碎片正在解码就等到最后一个碎片解码结束后再回收
+     */
     @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
-    public void recycle() {
-        if (isReady()) {
+    public synchronized void recycle() {
+        if (decodingCount > 0) {
+            recyclePending = true;
+            return;
+        }
+
+        if (regionDecoder != null && !regionDecoder.isRecycled()) {
             regionDecoder.recycle();
-            regionDecoder = null;
+        }
+        regionDecoder = null;
+    }
+
+    /**
+     * 开始解码一个碎片，成功后必须在解码结束后调用{@link #endDecode()}，期间调用{@link #recycle()}会等到解码结束后才真正回收
+     *
+     * @return false：已经回收或者即将回收，不能再解码了
+     */
+    synchronized boolean beginDecode() {
+        if (!isReady()) {
+            return false;
+        }
+        decodingCount++;
+        return true;
+    }
+
+    /**
+     * 碎片解码结束
+     */
+    synchronized void endDecode() {
+        if (decodingCount > 0) {
+            decodingCount--;
+        }
+        if (decodingCount == 0 && recyclePending) {
+            recyclePending = false;
+            recycle();
         }
     }
 
     @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
     public Bitmap decodeRegion(Rect srcRect, BitmapFactory.Options options) {
-        if (isReady()) {
+        BitmapRegionDecoder regionDecoder;
+        synchronized (this) {
+            // 处于解码中的时候即使有人调用了recycle()也要能继续解码
+            regionDecoder = decodingCount > 0 || isReady() ? this.regionDecoder : null;
+        }
+        if (regionDecoder != null && !regionDecoder.isRecycled()) {
             return regionDecoder.decodeRegion(srcRect, options);
         } else {
             return null;
         }
     }
+
+    /**
+     * 只能读取指定长度的输入流，用来读取正在下载的文件中已经下载的部分
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int result = super.read();
+            if (result != -1) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int result = super.read(buffer, offset, (int) Math.min(count, remaining));
+            if (result != -1) {
+                remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(Math.min(count, remaining));
+            remaining -= result;
+            return result;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
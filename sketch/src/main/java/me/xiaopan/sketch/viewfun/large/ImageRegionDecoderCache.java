@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.viewfun.large;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+
+/**
+ * 碎片解码器缓存，所有LargeImageViewer共享
+ * <p>
+ * 初始化ImageRegionDecoder需要打开数据源、读取尺寸和方向，BitmapRegionDecoder.newInstance()还要把整个文件头解析一遍，
+ * 在ViewPager里来回滑动时每次都要重新初始化，非常浪费。因此用完的解码器先不回收，放在这里按LRU保留一段时间，再次打开同一张图片时直接复用
+ * <p>
+ * BitmapRegionDecoder.decodeRegion()内部是同步的，因此同一个解码器可以同时被多个LargeImageViewer使用
+ */
+public class ImageRegionDecoderCache {
+    public static final long DEFAULT_MAX_SIZE = 20 * 1024 * 1024;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private static final String NAME = "ImageRegionDecoderCache";
+    private static volatile ImageRegionDecoderCache instance;
+
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long size;
+    private int hitCount;
+    private int missCount;
+
+    private Handler handler;
+    private Runnable trimIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            trimIdle();
+        }
+    };
+
+    private ImageRegionDecoderCache() {
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    public static ImageRegionDecoderCache with() {
+        if (instance == null) {
+            synchronized (ImageRegionDecoderCache.class) {
+                if (instance == null) {
+                    instance = new ImageRegionDecoderCache();
+                }
+            }
+        }
+        return instance;
+    }
+
+    static String makeKey(String imageUri, boolean correctImageOrientationDisabled) {
+        return correctImageOrientationDisabled ? imageUri + "#correctImageOrientationDisabled" : imageUri;
+    }
+
+    /**
+     * 获取一个可用的解码器，找到后引用计数加一，用完后必须调用release()
+     *
+     * @return null：没有可用的解码器
+     */
+    synchronized ImageRegionDecoder acquire(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        if (!entry.decoder.isReady()) {
+            map.remove(key);
+            size -= entry.size;
+            missCount++;
+            return null;
+        }
+
+        entry.refCount++;
+        hitCount++;
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "hit. refCount=%d, %s", entry.refCount, key);
+        }
+        return entry.decoder;
+    }
+
+    /**
+     * 放入一个新创建的解码器，引用计数为一，用完后必须调用release()
+     *
+     * @return 如果已经有其它线程放入了同一张图片的解码器就返回已有的并回收新的，否则返回新的
+     */
+    synchronized ImageRegionDecoder put(String key, ImageRegionDecoder decoder) {
+        Entry oldEntry = map.get(key);
+        if (oldEntry != null && oldEntry.decoder.isReady()) {
+            oldEntry.refCount++;
+            decoder.recycle();
+            return oldEntry.decoder;
+        }
+
+        if (oldEntry != null) {
+            size -= oldEntry.size;
+        }
+
+        Entry entry = new Entry(key, decoder);
+        entry.refCount = 1;
+        decoder.cacheKey = key;
+        map.put(key, entry);
+        size += entry.size;
+
+        trimToSize(maxSize);
+        return decoder;
+    }
+
+    /**
+     * 释放一个解码器，引用计数减一，归零后并不会马上回收，而是等到超出空闲时间或内存预算时才回收
+     */
+    synchronized void release(ImageRegionDecoder decoder) {
+        if (decoder == null) {
+            return;
+        }
+
+        Entry entry = decoder.cacheKey != null ? map.get(decoder.cacheKey) : null;
+        if (entry == null || entry.decoder != decoder) {
+            // 已经被移出缓存了，直接回收
+            decoder.recycle();
+            return;
+        }
+
+        if (entry.refCount > 0) {
+            entry.refCount--;
+        }
+        if (entry.refCount == 0) {
+            entry.idleTime = SystemClock.uptimeMillis();
+        }
+
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "release. refCount=%d, %s", entry.refCount, entry.key);
+        }
+
+        trimToSize(maxSize);
+
+        handler.removeCallbacks(trimIdleRunnable);
+        handler.postDelayed(trimIdleRunnable, idleTimeout);
+    }
+
+    /**
+     * 回收所有超出空闲时间的解码器
+     */
+    private synchronized void trimIdle() {
+        long now = SystemClock.uptimeMillis();
+        boolean hasIdle = false;
+        Iterator<Map.Entry<String, Entry>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+
+            if (now - entry.idleTime >= idleTimeout) {
+                iterator.remove();
+                size -= entry.size;
+                entry.decoder.recycle();
+                if (SLogType.LARGE.isEnabled()) {
+                    SLog.fd(SLogType.LARGE, NAME, "idle timeout, recycle. %s", entry.key);
+                }
+            } else {
+                hasIdle = true;
+            }
+        }
+
+        if (hasIdle) {
+            handler.removeCallbacks(trimIdleRunnable);
+            handler.postDelayed(trimIdleRunnable, idleTimeout);
+        }
+    }
+
+    /**
+     * 按LRU回收空闲的解码器，直到总大小不超过maxSize，正在使用的解码器不受影响
+     */
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+
+            iterator.remove();
+            size -= entry.size;
+            entry.decoder.recycle();
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "over size, recycle. size=%d, maxSize=%d, %s", size, maxSize, entry.key);
+            }
+        }
+    }
+
+    /**
+     * 回收所有空闲的解码器
+     */
+    public synchronized void clear() {
+        trimToSize(-1);
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 设置内存预算，单位字节，按解码器持有的图片数据长度估算
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * 设置空闲时间，单位毫秒，引用计数归零后超过这个时间没有被再次使用就回收
+     */
+    public synchronized void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private static class Entry {
+        String key;
+        ImageRegionDecoder decoder;
+        long size;
+        int refCount;
+        long idleTime;
+
+        Entry(String key, ImageRegionDecoder decoder) {
+            this.key = key;
+            this.decoder = decoder;
+            this.size = Math.max(0, decoder.getDataLength());
+        }
+    }
+}
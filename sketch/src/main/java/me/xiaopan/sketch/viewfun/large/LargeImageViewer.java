@@ -59,6 +59,7 @@ public class LargeImageViewer {
 
     private boolean running;
     private boolean paused;
+    private boolean streamingEnabled;
     private String imageUri;
 
     public LargeImageViewer(Context context, Callback callback) {
@@ -79,9 +80,20 @@ public class LargeImageViewer {
             int saveCount = canvas.save();
             canvas.concat(matrix);
 
+            // 先画基础层和过渡碎片，最终碎片画在最上面
+            Tile baseTile = tileManager.baseTile;
+            if (baseTile != null && !baseTile.isEmpty()) {
+                drawTile(canvas, baseTile);
+            }
+            for (Tile refineTile : tileManager.refineTileList) {
+                if (!refineTile.isEmpty()) {
+                    drawTile(canvas, refineTile);
+                }
+            }
+
             for (Tile tile : tileManager.tileList) {
                 if (!tile.isEmpty()) {
-                    canvas.drawBitmap(tile.bitmap, tile.bitmapDrawSrcRect, tile.drawRect, drawTilePaint);
+                    drawTile(canvas, tile);
                     if (showTileRect) {
                         if (drawTileRectPaint == null) {
                             drawTileRectPaint = new Paint();
@@ -104,11 +116,23 @@ public class LargeImageViewer {
         }
     }
 
+    /**
+     * 绘制碎片，被旋转的图片的碎片是原始方向的，需要通过Matrix旋转后再绘制
+     */
+    private void drawTile(Canvas canvas, Tile tile) {
+        if (tile.rotated) {
+            canvas.drawBitmap(tile.bitmap, tile.bitmapDrawMatrix, drawTilePaint);
+        } else {
+            canvas.drawBitmap(tile.bitmap, tile.bitmapDrawSrcRect, tile.drawRect, drawTilePaint);
+        }
+    }
+
     /**
      * 设置新的图片
      */
     public void setImage(String imageUri, boolean correctImageOrientationDisabled) {
         clean("setImage");
+        tileManager.cleanBaseTile("setImage");
 
         this.imageUri = imageUri;
         this.running = !TextUtils.isEmpty(imageUri);
@@ -147,6 +171,9 @@ public class LargeImageViewer {
             return;
         }
 
+        // 正在操作的查看器的解码任务优先执行
+        tileExecutor.setFocused(true);
+
         // 更新Matrix
         lastZoomScale = zoomScale;
         matrix.set(drawMatrix);
@@ -187,6 +214,10 @@ public class LargeImageViewer {
         callback.invalidate();
     }
 
+    Context getContext() {
+        return context;
+    }
+
     TileDecoder getTileDecoder() {
         return tileDecoder;
     }
@@ -207,6 +238,8 @@ public class LargeImageViewer {
         if (paused) {
             SLog.fw(SLogType.LARGE, NAME, "pause. %s", imageUri);
 
+            tileExecutor.setFocused(false);
+
             if (running) {
                 clean("pause");
             }
@@ -262,6 +295,23 @@ public class LargeImageViewer {
         callback.invalidate();
     }
 
+    /**
+     * 是否开启了边下边解
+     */
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * 设置是否开启边下边解，开启后网络图片不用等下载完成，已经下载的部分就可以先解码出碎片，还没下载的区域等下载后再解码。
+     * 只支持基线JPEG，其它格式依然要等下载完成，在下次setImage()时生效。
+     * 还需要在显示选项中开启{@link me.xiaopan.sketch.request.DownloadOptions#setStreamingEnabled(boolean)}，否则下载时不会登记正在下载的文件
+     */
+    @SuppressWarnings("unused")
+    public void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
     /**
      * 获取当前缩放比例
      */
@@ -341,6 +391,54 @@ public class LargeImageViewer {
         return tileManager.tiles;
     }
 
+    /**
+     * 是否开启了基础层，开启后会先以较大的inSampleSize解码整张图片，在碎片加载出来之前代替模糊的预览图
+     */
+    @SuppressWarnings("unused")
+    public boolean isBaseLayerEnabled() {
+        return tileManager.baseLayerEnabled;
+    }
+
+    /**
+     * 设置是否开启基础层，开启后会先以较大的inSampleSize解码整张图片，在碎片加载出来之前代替模糊的预览图
+     */
+    @SuppressWarnings("unused")
+    public void setBaseLayerEnabled(boolean baseLayerEnabled) {
+        if (tileManager.baseLayerEnabled == baseLayerEnabled) {
+            return;
+        }
+        tileManager.baseLayerEnabled = baseLayerEnabled;
+        if (!baseLayerEnabled) {
+            tileManager.cleanBaseTile("setBaseLayerEnabled");
+        }
+        callback.invalidate();
+    }
+
+    /**
+     * 获取过渡层级数
+     */
+    @SuppressWarnings("unused")
+    public int getProgressiveLevels() {
+        return tileManager.progressiveLevels;
+    }
+
+    /**
+     * 设置过渡层级数，每一级的inSampleSize是上一级的一半，最后才是最终碎片。
+     * 0表示不使用过渡碎片，数值越大清晰图出来的越快，但总的解码量也越大，默认为1
+     */
+    @SuppressWarnings("unused")
+    public void setProgressiveLevels(int progressiveLevels) {
+        tileManager.progressiveLevels = Math.max(0, progressiveLevels);
+    }
+
+    /**
+     * 获取最近一次从提交碎片到第一块碎片（或过渡碎片）解码完成所用的时间，单位毫秒，-1表示还没有数据
+     */
+    @SuppressWarnings("unused")
+    public int getLastFirstRefinementTime() {
+        return tileManager.lastFirstRefinementTime;
+    }
+
     /**
      * 获取碎片变化监听器
      */
@@ -371,6 +469,14 @@ public class LargeImageViewer {
                 bytes += SketchUtils.getByteCount(tile.bitmap);
             }
         }
+        for (Tile tile : tileManager.refineTileList) {
+            if (!tile.isEmpty()) {
+                bytes += SketchUtils.getByteCount(tile.bitmap);
+            }
+        }
+        if (tileManager.baseTile != null && !tileManager.baseTile.isEmpty()) {
+            bytes += SketchUtils.getByteCount(tileManager.baseTile.bitmap);
+        }
         return bytes;
     }
 
@@ -398,7 +504,16 @@ public class LargeImageViewer {
                 return;
             }
 
+            // 边下边解时解码器刷新了，之前因为数据没下载而没解码的碎片需要重新加载
+            ImageRegionDecoder oldDecoder = tileDecoder.getDecoder();
             tileDecoder.initCompleted(imageUri, decoder);
+            if (oldDecoder != null) {
+                // 下载完成换成了完整的解码器，用临时解码器解码的碎片也要重新解码
+                if (oldDecoder.isPartial() && !decoder.isPartial()) {
+                    tileManager.cleanPartialTiles("download completed");
+                }
+                tileManager.resetDecodeRect("decoder refresh");
+            }
 
             callback.updateMatrix();
         }
@@ -17,10 +17,14 @@
 package me.xiaopan.sketch.viewfun.large;
 
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.graphics.RectF;
 
 import me.xiaopan.sketch.cache.BitmapPool;
 import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.cache.MemoryGovernor;
+import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
@@ -36,6 +40,13 @@ public class Tile {
 
     public Bitmap bitmap;
     public Rect bitmapDrawSrcRect = new Rect();
+    int allocationByteCount;  // 记到MemoryGovernor里的字节数，回收时原样减掉
+    boolean fromPartialDecoder;   // 是用边下边解的临时解码器解码的，可解码行数是估算的，下载完成后要用完整的解码器重新解码
+
+    // 被旋转的图片的碎片保持原始方向，绘制时通过这个Matrix将bitmap旋转并映射到drawRect上
+    public Matrix bitmapDrawMatrix;
+    public boolean rotated;
+    private RectF tempRectF;
 
     // 用来取消解码任务，开始解码这个碎片的时候会获取当时的key
     // 然后在解码过程的各个环节都会检验key是否已经失效
@@ -57,13 +68,18 @@ public class Tile {
         return keyCounter.getKey() != key;
     }
 
-    @SuppressWarnings("unused")
-    public void clean(BitmapPool bitmapPool) {
+    public void clean(BitmapPool bitmapPool, MemoryGovernor memoryGovernor) {
         if (bitmap != null) {
             BitmapPoolUtils.freeBitmapToPoolForRegionDecoder(bitmap, bitmapPool);
             bitmap = null;
         }
+        if (allocationByteCount > 0) {
+            memoryGovernor.onTileReleased(allocationByteCount);
+            allocationByteCount = 0;
+        }
         bitmapDrawSrcRect.setEmpty();
+        rotated = false;
+        fromPartialDecoder = false;
 
         srcRect.setEmpty();
         drawRect.setEmpty();
@@ -73,6 +89,30 @@ public class Tile {
         decoder = null;
     }
 
+    /**
+     * 根据图片方向计算绘制用的Matrix，需要在设置bitmap和drawRect之后调用
+     */
+    public void initDrawMatrix(int exifOrientation, ImageOrientationCorrector orientationCorrector) {
+        rotated = bitmap != null && orientationCorrector.hasRotate(exifOrientation);
+        if (!rotated) {
+            return;
+        }
+
+        if (bitmapDrawMatrix == null) {
+            bitmapDrawMatrix = new Matrix();
+            tempRectF = new RectF();
+        }
+
+        bitmapDrawMatrix.reset();
+        ImageOrientationCorrector.initializeMatrixForExifRotation(exifOrientation, bitmapDrawMatrix);
+
+        tempRectF.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        bitmapDrawMatrix.mapRect(tempRectF);
+        bitmapDrawMatrix.postTranslate(-tempRectF.left, -tempRectF.top);
+        bitmapDrawMatrix.postScale(drawRect.width() / tempRectF.width(), drawRect.height() / tempRectF.height());
+        bitmapDrawMatrix.postTranslate(drawRect.left, drawRect.top);
+    }
+
     public int getKey() {
         return keyCounter.getKey();
     }
@@ -36,7 +36,6 @@ import me.xiaopan.sketch.util.KeyCounter;
 class TileDecodeCallbackHandler extends Handler {
     private static final String NAME = "TileDecodeCallbackHandler";
 
-    private static final int WHAT_RECYCLE_DECODE_THREAD = 2001;
     private static final int WHAT_INIT_COMPLETED = 2002;
     private static final int WHAT_INIT_FAILED = 2003;
     private static final int WHAT_DECODE_COMPLETED = 2004;
@@ -54,9 +53,6 @@ class TileDecodeCallbackHandler extends Handler {
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
-            case WHAT_RECYCLE_DECODE_THREAD:
-                recycleDecodeThread();
-                break;
             case WHAT_INIT_COMPLETED:
                 InitResult initResult = (InitResult) msg.obj;
                 initCompleted(initResult.imageRegionDecoder, initResult.imageUrl, msg.arg1, initResult.keyCounter);
@@ -77,31 +73,6 @@ class TileDecodeCallbackHandler extends Handler {
     }
 
 
-    /**
-     * 延迟三十秒停止解码线程
-     */
-    public void postDelayRecycleDecodeThread() {
-        cancelDelayDestroyThread();
-
-        Message destroyMessage = obtainMessage(TileDecodeCallbackHandler.WHAT_RECYCLE_DECODE_THREAD);
-        sendMessageDelayed(destroyMessage, 30 * 1000);
-    }
-
-    private void recycleDecodeThread() {
-        TileExecutor executor = executorReference.get();
-        if (executor != null) {
-            executor.recycleDecodeThread();
-        }
-    }
-
-    /**
-     * 取消停止解码线程的延迟任务
-     */
-    public void cancelDelayDestroyThread() {
-        removeMessages(TileDecodeCallbackHandler.WHAT_RECYCLE_DECODE_THREAD);
-    }
-
-
     public void postInitCompleted(ImageRegionDecoder decoder, String imageUri, int initKey, KeyCounter keyCounter) {
         Message message = obtainMessage(TileDecodeCallbackHandler.WHAT_INIT_COMPLETED);
         message.arg1 = initKey;
@@ -137,7 +108,7 @@ class TileDecodeCallbackHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "weak reference break. initCompleted. key: %d, imageUri: %s", key, decoder.getImageUri());
             }
-            decoder.recycle();
+            ImageRegionDecoderCache.with().release(decoder);
             return;
         }
 
@@ -146,7 +117,7 @@ class TileDecodeCallbackHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "init key expired. initCompleted. key: %d. newKey: %d, imageUri: %s", key, newKey, decoder.getImageUri());
             }
-            decoder.recycle();
+            ImageRegionDecoderCache.with().release(decoder);
             return;
         }
 
@@ -20,9 +20,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 
 import java.lang.ref.WeakReference;
 
@@ -38,21 +35,19 @@ import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.decode.ImageType;
 
 /**
- * 解码处理器，运行在解码线程中，负责解码
+ * 解码处理器，负责把解码任务提交给TileDecodeScheduler，解码过程运行在共享的解码线程池中
  */
-class TileDecodeHandler extends Handler {
+class TileDecodeHandler {
     private static final String NAME = "DecodeHandler";
-    private static final int WHAT_DECODE = 1001;
 
-    private boolean disableInBitmap;
+    private static volatile boolean disableInBitmap;
 
     private WeakReference<TileExecutor> reference;
     private BitmapPool bitmapPool;
     private ErrorTracker errorTracker;
     private ImageOrientationCorrector orientationCorrector;
 
-    public TileDecodeHandler(Looper looper, TileExecutor executor) {
-        super(looper);
+    public TileDecodeHandler(TileExecutor executor) {
         this.reference = new WeakReference<>(executor);
 
         Configuration configuration = Sketch.with(executor.callback.getContext()).getConfiguration();
@@ -61,29 +56,18 @@ class TileDecodeHandler extends Handler {
         this.orientationCorrector = configuration.getImageOrientationCorrector();
     }
 
-    @Override
-    public void handleMessage(Message msg) {
-        TileExecutor decodeExecutor = reference.get();
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.cancelDelayDestroyThread();
-        }
-
-        switch (msg.what) {
-            case WHAT_DECODE:
-                decode(decodeExecutor, msg.arg1, (Tile) msg.obj);
-                break;
-        }
-
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.postDelayRecycleDecodeThread();
+    public void postDecode(final int key, final Tile tile) {
+        TileExecutor executor = reference.get();
+        if (executor == null) {
+            return;
         }
-    }
 
-    public void postDecode(int key, Tile tile) {
-        Message message = obtainMessage(TileDecodeHandler.WHAT_DECODE);
-        message.arg1 = key;
-        message.obj = tile;
-        message.sendToTarget();
+        TileDecodeScheduler.with().submit(new TileDecodeScheduler.Task(executor, TileDecodeScheduler.Task.TYPE_DECODE) {
+            @Override
+            void execute() {
+                decode(reference.get(), key, tile);
+            }
+        });
     }
 
     private void decode(TileExecutor executor, int key, Tile tile) {
@@ -104,12 +88,21 @@ class TileDecodeHandler extends Handler {
             return;
         }
 
+        // 边下边解时解码器随时可能被新的替换掉并回收，所以解码期间要占住它，结束后才能真正回收
         ImageRegionDecoder regionDecoder = tile.decoder;
-        if (regionDecoder == null || !regionDecoder.isReady()) {
+        if (regionDecoder == null || !regionDecoder.beginDecode()) {
             executor.tileDecodeCallbackHandler.postDecodeError(key, tile, new DecodeErrorException(DecodeErrorException.CAUSE_DECODER_NULL_OR_NOT_READY));
             return;
         }
 
+        try {
+            decode(executor, key, tile, regionDecoder);
+        } finally {
+            regionDecoder.endDecode();
+        }
+    }
+
+    private void decode(TileExecutor executor, int key, Tile tile, ImageRegionDecoder regionDecoder) {
         Rect srcRect = new Rect(tile.srcRect);
         int inSampleSize = tile.inSampleSize;
 
@@ -117,6 +110,12 @@ class TileDecodeHandler extends Handler {
         Point imageSize = regionDecoder.getImageSize();
         orientationCorrector.reverseRotate(srcRect, imageSize.x, imageSize.y, regionDecoder.getExifOrientation());
 
+        // 图片还在下载中，这块区域的数据还没有下载下来，等解码器刷新后再解码
+        if (!regionDecoder.isDecodable(srcRect)) {
+            executor.tileDecodeCallbackHandler.postDecodeError(key, tile, new DecodeErrorException(DecodeErrorException.CAUSE_DATA_NOT_READY));
+            return;
+        }
+
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inSampleSize = inSampleSize;
         ImageType imageType = regionDecoder.getImageType();
@@ -165,17 +164,7 @@ class TileDecodeHandler extends Handler {
             return;
         }
 
-        // 旋转图片
-        Bitmap newBitmap = orientationCorrector.rotate(bitmap, regionDecoder.getExifOrientation(), bitmapPool);
-        if (newBitmap != null && newBitmap != bitmap) {
-            if (!newBitmap.isRecycled()) {
-                BitmapPoolUtils.freeBitmapToPool(bitmap, bitmapPool);
-                bitmap = newBitmap;
-            } else {
-                executor.tileDecodeCallbackHandler.postDecodeError(key, tile, new DecodeErrorException(DecodeErrorException.CAUSE_ROTATE_BITMAP_RECYCLED));
-                return;
-            }
-        }
+        // 这里不再旋转图片，碎片保持原始方向，绘制时再通过Matrix旋转，省掉一次Bitmap分配和像素拷贝
 
         if (bitmap.isRecycled()) {
             executor.tileDecodeCallbackHandler.postDecodeError(key, tile, new DecodeErrorException(DecodeErrorException.CAUSE_BITMAP_RECYCLED));
@@ -190,7 +179,10 @@ class TileDecodeHandler extends Handler {
             SLog.w(SLogType.LARGE, NAME, "clean. %s" + why);
         }
 
-        removeMessages(WHAT_DECODE);
+        TileExecutor executor = reference.get();
+        if (executor != null) {
+            TileDecodeScheduler.with().cancel(executor, TileDecodeScheduler.Task.TYPE_DECODE);
+        }
     }
 
     public static class DecodeErrorException extends Exception {
@@ -202,6 +194,7 @@ class TileDecodeHandler extends Handler {
         public static final int CAUSE_DECODE_PARAM_EMPTY = 1105;
         public static final int CAUSE_DECODER_NULL_OR_NOT_READY = 1106;
         public static final int CAUSE_ROTATE_BITMAP_RECYCLED = 1107;
+        public static final int CAUSE_DATA_NOT_READY = 1108;
 
         private int cause;
 
@@ -230,6 +223,8 @@ class TileDecodeHandler extends Handler {
                 return "decoder is null or not ready";
             } else if (cause == CAUSE_ROTATE_BITMAP_RECYCLED) {
                 return "rotate result bitmap is recycled";
+            } else if (cause == CAUSE_DATA_NOT_READY) {
+                return "image data not ready";
             } else {
                 return "unknown";
             }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.sketch.viewfun.large;
+
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.xiaopan.sketch.SLog;
+import me.xiaopan.sketch.SLogType;
+
+/**
+ * 全局的碎片解码调度器，所有LargeImageViewer共用一个有上限的线程池
+ * <p>
+ * 获得焦点的LargeImageViewer的任务优先执行，其余的按提交顺序执行
+ * <p>
+ * 同一个LargeImageViewer同时只会有一个任务在线程池里，其余的在自己的等待队列里排队，前一个执行完了才提交下一个，
+ * 因此同一个LargeImageViewer的任务是串行且按提交顺序执行的，多个线程只在多个LargeImageViewer之间并行
+ */
+public class TileDecodeScheduler {
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    private static final String NAME = "TileDecodeScheduler";
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static volatile TileDecodeScheduler instance;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private ThreadPoolExecutor threadPool;
+    private WeakReference<TileExecutor> focusedReference;
+
+    // key存在说明这个执行器有一个任务已经提交给了线程池，value是它后面排队的任务
+    private final Map<TileExecutor, LinkedList<Task>> serialMap = new HashMap<TileExecutor, LinkedList<Task>>();
+    private final AtomicInteger serialWaitingCount = new AtomicInteger();
+
+    // 统计
+    private final AtomicInteger peakQueueSize = new AtomicInteger();
+    private final AtomicLong focusedStartedCount = new AtomicLong();
+    private final AtomicLong focusedWaitTime = new AtomicLong();
+    private final AtomicLong otherStartedCount = new AtomicLong();
+    private final AtomicLong otherWaitTime = new AtomicLong();
+
+    private TileDecodeScheduler(int poolSize) {
+        threadPool = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new DecodeThreadFactory());
+        // 空闲一段时间后线程自动退出，取代以前每个查看器延迟三十秒回收解码线程的做法
+        threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    public static TileDecodeScheduler with() {
+        if (instance == null) {
+            synchronized (TileDecodeScheduler.class) {
+                if (instance == null) {
+                    instance = new TileDecodeScheduler(DEFAULT_POOL_SIZE);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一个任务
+     */
+    void submit(Task task) {
+        task.sequence = sequence.incrementAndGet();
+        task.focused = isFocused(task.executor);
+        task.submitTime = SystemClock.uptimeMillis();
+
+        boolean executeNow;
+        synchronized (serialMap) {
+            LinkedList<Task> waitingTasks = serialMap.get(task.executor);
+            if (waitingTasks == null) {
+                serialMap.put(task.executor, new LinkedList<Task>());
+                executeNow = true;
+            } else {
+                waitingTasks.add(task);
+                serialWaitingCount.incrementAndGet();
+                executeNow = false;
+            }
+        }
+        if (executeNow) {
+            threadPool.execute(task);
+        }
+
+        int queueSize = getQueueSize();
+        int peak = peakQueueSize.get();
+        while (queueSize > peak && !peakQueueSize.compareAndSet(peak, queueSize)) {
+            peak = peakQueueSize.get();
+        }
+    }
+
+    /**
+     * 取消指定执行器的指定类型的所有等待中的任务
+     */
+    void cancel(TileExecutor executor, int type) {
+        int count = 0;
+
+        // 先删排队的，再删线程池里的，否则线程池里的删掉之后排队的可能马上就被提交了
+        synchronized (serialMap) {
+            LinkedList<Task> waitingTasks = serialMap.get(executor);
+            if (waitingTasks != null) {
+                Iterator<Task> iterator = waitingTasks.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().type == type) {
+                        iterator.remove();
+                        serialWaitingCount.decrementAndGet();
+                        count++;
+                    }
+                }
+            }
+        }
+
+        Task removedTask = null;
+        for (Runnable runnable : queue) {
+            Task task = (Task) runnable;
+            if (task.executor == executor && task.type == type) {
+                removedTask = task;
+                break;
+            }
+        }
+        // 有可能刚刚被线程取走了，所以以remove的结果为准
+        if (removedTask != null && threadPool.remove(removedTask)) {
+            count++;
+            // 线程池里的任务被删了，它不会执行完了，要在这里提交下一个
+            executeNext(executor);
+        }
+
+        if (count > 0 && SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "cancel %d tasks. type=%d, queueSize=%d", count, type, getQueueSize());
+        }
+    }
+
+    /**
+     * 提交指定执行器排队中的下一个任务，没有了就释放它在线程池中的位置
+     */
+    private void executeNext(TileExecutor executor) {
+        Task nextTask;
+        synchronized (serialMap) {
+            LinkedList<Task> waitingTasks = serialMap.get(executor);
+            nextTask = waitingTasks != null ? waitingTasks.poll() : null;
+            if (nextTask != null) {
+                serialWaitingCount.decrementAndGet();
+            } else {
+                serialMap.remove(executor);
+            }
+        }
+
+        if (nextTask != null) {
+            // 排队期间焦点可能变了
+            nextTask.focused = isFocused(executor);
+            threadPool.execute(nextTask);
+        }
+    }
+
+    /**
+     * 设置获得焦点的执行器，它的任务将优先执行
+     */
+    void setFocused(TileExecutor executor) {
+        synchronized (this) {
+            if (isFocused(executor)) {
+                return;
+            }
+            focusedReference = executor != null ? new WeakReference<TileExecutor>(executor) : null;
+        }
+
+        // 优先级在入队时就已经确定了，焦点变化后要重新排序
+        List<Runnable> tasks = new ArrayList<Runnable>(queue.size());
+        queue.drainTo(tasks);
+        for (Runnable runnable : tasks) {
+            Task task = (Task) runnable;
+            task.focused = isFocused(task.executor);
+            queue.offer(task);
+        }
+    }
+
+    synchronized boolean isFocused(TileExecutor executor) {
+        return executor != null && focusedReference != null && focusedReference.get() == executor;
+    }
+
+    private void onTaskStart(Task task) {
+        long waitTime = SystemClock.uptimeMillis() - task.submitTime;
+        if (task.focused) {
+            focusedStartedCount.incrementAndGet();
+            focusedWaitTime.addAndGet(waitTime);
+        } else {
+            otherStartedCount.incrementAndGet();
+            otherWaitTime.addAndGet(waitTime);
+        }
+    }
+
+    /**
+     * 设置线程池大小，默认为2
+     */
+    @SuppressWarnings("unused")
+    public void setPoolSize(int poolSize) {
+        if (poolSize <= 0) {
+            return;
+        }
+
+        if (poolSize > threadPool.getMaximumPoolSize()) {
+            threadPool.setMaximumPoolSize(poolSize);
+            threadPool.setCorePoolSize(poolSize);
+        } else {
+            threadPool.setCorePoolSize(poolSize);
+            threadPool.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public int getPoolSize() {
+        return threadPool.getMaximumPoolSize();
+    }
+
+    /**
+     * 获取当前等待中的任务数，包括各执行器自己排队的任务
+     */
+    @SuppressWarnings("unused")
+    public int getQueueSize() {
+        return queue.size() + serialWaitingCount.get();
+    }
+
+    /**
+     * 获取等待中的任务数的峰值
+     */
+    @SuppressWarnings("unused")
+    public int getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    /**
+     * 获取正在执行的任务数
+     */
+    @SuppressWarnings("unused")
+    public int getActiveCount() {
+        return threadPool.getActiveCount();
+    }
+
+    /**
+     * 获取获得焦点的查看器已开始执行的任务数
+     */
+    @SuppressWarnings("unused")
+    public long getFocusedStartedCount() {
+        return focusedStartedCount.get();
+    }
+
+    /**
+     * 获取其它查看器已开始执行的任务数
+     */
+    @SuppressWarnings("unused")
+    public long getOtherStartedCount() {
+        return otherStartedCount.get();
+    }
+
+    /**
+     * 获取获得焦点的查看器的任务平均排队时间，单位毫秒
+     */
+    @SuppressWarnings("unused")
+    public long getFocusedAverageWaitTime() {
+        long count = focusedStartedCount.get();
+        return count > 0 ? focusedWaitTime.get() / count : 0;
+    }
+
+    /**
+     * 获取其它查看器的任务平均排队时间，单位毫秒，同获得焦点的查看器对比可以看出调度的公平性
+     */
+    @SuppressWarnings("unused")
+    public long getOtherAverageWaitTime() {
+        long count = otherStartedCount.get();
+        return count > 0 ? otherWaitTime.get() / count : 0;
+    }
+
+    public String getInfo() {
+        return String.format("%s(poolSize=%d, active=%d, queue=%d, peakQueue=%d, focused=%d/%dms, other=%d/%dms)",
+                NAME, getPoolSize(), getActiveCount(), getQueueSize(), getPeakQueueSize(),
+                getFocusedStartedCount(), getFocusedAverageWaitTime(), getOtherStartedCount(), getOtherAverageWaitTime());
+    }
+
+    /**
+     * 解码任务，获得焦点的排在前面，其余的按提交顺序排列，执行完后会提交同一个执行器排队中的下一个任务
+     */
+    static abstract class Task implements Runnable, Comparable<Task> {
+        static final int TYPE_INIT = 1;
+        static final int TYPE_DECODE = 2;
+
+        final TileExecutor executor;
+        final int type;
+        long sequence;
+        long submitTime;
+        volatile boolean focused;
+
+        Task(TileExecutor executor, int type) {
+            this.executor = executor;
+            this.type = type;
+        }
+
+        @Override
+        public final void run() {
+            TileDecodeScheduler scheduler = TileDecodeScheduler.with();
+            scheduler.onTaskStart(this);
+            try {
+                execute();
+            } finally {
+                scheduler.executeNext(executor);
+            }
+        }
+
+        abstract void execute();
+
+        @Override
+        public int compareTo(Task another) {
+            if (focused != another.focused) {
+                return focused ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ImageRegionDecodeThread" + threadNumber.getAndIncrement()) {
+                @Override
+                public void run() {
+                    // 调低线程优先级，避免同RequestExecutor和主线程抢CPU
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    super.run();
+                }
+            };
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fi(SLogType.LARGE, NAME, "image region decode thread %s created", thread.getName());
+            }
+            return thread;
+        }
+    }
+}
@@ -20,6 +20,10 @@ import android.text.TextUtils;
 
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.http.DownloadingFile;
+import me.xiaopan.sketch.request.UriInfo;
+import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
@@ -28,6 +32,9 @@ import me.xiaopan.sketch.util.KeyCounter;
 class TileDecoder {
 
     private static final String NAME = "TileDecoder";
+    private static final int STREAMING_REFRESH_INTERVAL = 500;   // 边下边解时检查下载进度的间隔
+    private static final long STREAMING_REFRESH_MIN_LENGTH = 512 * 1024;    // 新下载的数据超过这个长度才重建解码器
+    private static final int STREAMING_MAX_RETRY_COUNT = 10;    // 边下边解时初始化连续失败的最大重试次数
 
     private KeyCounter initKeyCounter;
     private ImageRegionDecoder decoder;
@@ -35,6 +42,16 @@ class TileDecoder {
     private boolean running;
     private boolean initializing;
 
+    private String imageUri;
+    private boolean correctImageOrientationDisabled;
+    private int streamingRetryCount;
+    private Runnable streamingRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshStreaming();
+        }
+    };
+
     public TileDecoder(LargeImageViewer largeImageViewer) {
         this.largeImageViewer = largeImageViewer;
         this.initKeyCounter = new KeyCounter();
@@ -46,14 +63,20 @@ class TileDecoder {
     void setImage(String imageUri, boolean correctImageOrientationDisabled) {
         clean("setImage");
 
+        // 交给缓存，等会儿再次打开同一张图片时可以直接复用
         if (decoder != null) {
-            decoder.recycle();
+            ImageRegionDecoderCache.with().release(decoder);
             decoder = null;
         }
 
+        this.imageUri = imageUri;
+        this.correctImageOrientationDisabled = correctImageOrientationDisabled;
+        this.streamingRetryCount = 0;
+
         if (!TextUtils.isEmpty(imageUri)) {
             running = initializing = true;
-            largeImageViewer.getTileExecutor().submitInit(imageUri, initKeyCounter, correctImageOrientationDisabled);
+            largeImageViewer.getTileExecutor().submitInit(imageUri, initKeyCounter,
+                    correctImageOrientationDisabled, largeImageViewer.isStreamingEnabled());
         } else {
             running = initializing = false;
         }
@@ -80,6 +103,7 @@ class TileDecoder {
         }
 
         initKeyCounter.refresh();
+        largeImageViewer.getTileExecutor().tileDecodeCallbackHandler.removeCallbacks(streamingRefreshRunnable);
     }
 
     void recycle(String why) {
@@ -87,18 +111,31 @@ class TileDecoder {
             SLog.fw(SLogType.LARGE, NAME, "recycle. %s", why);
         }
 
+        largeImageViewer.getTileExecutor().tileDecodeCallbackHandler.removeCallbacks(streamingRefreshRunnable);
+
         if (decoder != null) {
-            decoder.recycle();
+            ImageRegionDecoderCache.with().release(decoder);
+            decoder = null;
         }
     }
 
     void initCompleted(String imageUri, ImageRegionDecoder decoder) {
         if (SLogType.LARGE.isEnabled()) {
-            SLog.fd(SLogType.LARGE, NAME, "init completed. %s", imageUri);
+            SLog.fd(SLogType.LARGE, NAME, "init completed. partial=%s. %s", decoder.isPartial(), imageUri);
         }
 
         initializing = false;
+        streamingRetryCount = 0;
+
+        // 边下边解时会多次初始化，新的解码器替换旧的，旧的解码器上还在解码的碎片会在解码结束后才真正回收
+        if (this.decoder != null && this.decoder != decoder) {
+            ImageRegionDecoderCache.with().release(this.decoder);
+        }
         this.decoder = decoder;
+
+        if (decoder.isPartial()) {
+            scheduleStreamingRefresh();
+        }
     }
 
     void initError(String imageUri, Exception e) {
@@ -107,6 +144,71 @@ class TileDecoder {
         }
 
         initializing = false;
+
+        // 只有正在下载时才是下载的数据还不够，过一会儿再试，并且连续失败太多次就放弃，等显示完成后再用完整的文件初始化
+        if (!largeImageViewer.isStreamingEnabled() || findDownloadingFile() == null) {
+            return;
+        }
+        if (streamingRetryCount >= STREAMING_MAX_RETRY_COUNT) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fw(SLogType.LARGE, NAME, "streaming retry too many times. %d. %s", streamingRetryCount, imageUri);
+            }
+            return;
+        }
+        streamingRetryCount++;
+        scheduleStreamingRefresh();
+    }
+
+    /**
+     * 查找正在下载的文件，不是网络图片或者下载已经结束了就返回null
+     */
+    private DownloadingFile findDownloadingFile() {
+        UriInfo uriInfo = !TextUtils.isEmpty(imageUri) ? UriInfo.make(imageUri) : null;
+        if (uriInfo == null || uriInfo.getScheme() != UriScheme.NET) {
+            return null;
+        }
+        return Sketch.with(largeImageViewer.getContext()).getConfiguration()
+                .getImageDownloader().getDownloadingFile(uriInfo.getDiskCacheKey());
+    }
+
+    private void scheduleStreamingRefresh() {
+        TileDecodeCallbackHandler handler = largeImageViewer.getTileExecutor().tileDecodeCallbackHandler;
+        handler.removeCallbacks(streamingRefreshRunnable);
+        handler.postDelayed(streamingRefreshRunnable, STREAMING_REFRESH_INTERVAL);
+    }
+
+    /**
+     * 检查下载进度，下载完成后用完整的文件重新初始化，新下载了足够多的数据时重建临时解码器
+     */
+    private void refreshStreaming() {
+        if (!running || TextUtils.isEmpty(imageUri)) {
+            return;
+        }
+
+        DownloadingFile downloadingFile = findDownloadingFile();
+
+        boolean needInit;
+        if (downloadingFile == null) {
+            // 下载已经结束了，只有临时解码器需要换成完整的，下载失败的话初始化也只会失败一次，不会再重试
+            needInit = decoder == null || decoder.isPartial();
+        } else if (decoder == null) {
+            // 上次初始化时数据还不够
+            needInit = true;
+        } else {
+            long newLength = downloadingFile.getAvailableLength() - decoder.getDataLength();
+            long minLength = Math.max(STREAMING_REFRESH_MIN_LENGTH, downloadingFile.getContentLength() / 10);
+            needInit = newLength >= minLength;
+        }
+
+        if (needInit) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "streaming refresh. downloading=%s. %s", downloadingFile != null, imageUri);
+            }
+            largeImageViewer.getTileExecutor().submitInit(imageUri, initKeyCounter,
+                    correctImageOrientationDisabled, largeImageViewer.isStreamingEnabled());
+        } else {
+            scheduleStreamingRefresh();
+        }
     }
 
     boolean isReady() {
@@ -16,59 +16,47 @@
 
 package me.xiaopan.sketch.viewfun.large;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
-
 import java.lang.ref.WeakReference;
 
 import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.http.DownloadingFile;
+import me.xiaopan.sketch.request.UriInfo;
+import me.xiaopan.sketch.request.UriScheme;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
- * 运行在解码线程中，负责初始化TileDecoder
+ * 负责初始化TileDecoder，初始化过程运行在共享的解码线程池中
  */
-class TileDecoderInitHandler extends Handler {
+class TileDecoderInitHandler {
     private static final String NAME = "InitHandler";
-    private static final int WHAT_INIT = 1002;
 
     private WeakReference<TileExecutor> reference;
 
-    public TileDecoderInitHandler(Looper looper, TileExecutor decodeExecutor) {
-        super(looper);
+    public TileDecoderInitHandler(TileExecutor decodeExecutor) {
         reference = new WeakReference<>(decodeExecutor);
     }
 
-    @Override
-    public void handleMessage(Message msg) {
-        TileExecutor decodeExecutor = reference.get();
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.cancelDelayDestroyThread();
-        }
-
-        switch (msg.what) {
-            case WHAT_INIT:
-                Wrapper wrapper = (Wrapper) msg.obj;
-                init(decodeExecutor, wrapper.imageUri, wrapper.correctImageOrientationDisabled, msg.arg1, wrapper.keyCounter);
-                break;
-        }
-
-        if (decodeExecutor != null) {
-            decodeExecutor.tileDecodeCallbackHandler.postDelayRecycleDecodeThread();
+    public void postInit(final String imageUri, final boolean correctImageOrientationDisabled, final boolean streamingEnabled,
+                         final int key, final KeyCounter keyCounter) {
+        TileExecutor executor = reference.get();
+        if (executor == null) {
+            return;
         }
-    }
 
-    public void postInit(String imageUri, boolean correctImageOrientationDisabled, int key, KeyCounter keyCounter) {
-        removeMessages(WHAT_INIT);
-
-        Message message = obtainMessage(WHAT_INIT);
-        message.arg1 = key;
-        message.obj = new Wrapper(imageUri, correctImageOrientationDisabled, keyCounter);
-        message.sendToTarget();
+        TileDecodeScheduler scheduler = TileDecodeScheduler.with();
+        scheduler.cancel(executor, TileDecodeScheduler.Task.TYPE_INIT);
+        scheduler.submit(new TileDecodeScheduler.Task(executor, TileDecodeScheduler.Task.TYPE_INIT) {
+            @Override
+            void execute() {
+                init(reference.get(), imageUri, correctImageOrientationDisabled, streamingEnabled, key, keyCounter);
+            }
+        });
     }
 
-    private void init(TileExecutor decodeExecutor, String imageUri, boolean correctImageOrientationDisabled, int key, KeyCounter keyCounter) {
+    private void init(TileExecutor decodeExecutor, String imageUri, boolean correctImageOrientationDisabled,
+                      boolean streamingEnabled, int key, KeyCounter keyCounter) {
         if (decodeExecutor == null) {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "weak reference break. key: %d, imageUri: %s", key, imageUri);
@@ -84,13 +72,42 @@ class TileDecoderInitHandler extends Handler {
             return;
         }
 
-        ImageRegionDecoder decoder;
-        try {
-            decoder = ImageRegionDecoder.build(decodeExecutor.callback.getContext(), imageUri, correctImageOrientationDisabled);
-        } catch (final Exception e) {
-            e.printStackTrace();
-            decodeExecutor.tileDecodeCallbackHandler.postInitError(e, imageUri, key, keyCounter);
-            return;
+        // 优先复用缓存中的解码器，可以省掉打开数据源、读取尺寸和方向以及创建BitmapRegionDecoder的开销
+        ImageRegionDecoderCache decoderCache = ImageRegionDecoderCache.with();
+        String cacheKey = ImageRegionDecoderCache.makeKey(imageUri, correctImageOrientationDisabled);
+        ImageRegionDecoder decoder = decoderCache.acquire(cacheKey);
+        if (decoder == null) {
+            // 网络图片还在下载中的话就先用已经下载的部分创建一个临时的解码器，临时解码器不放入缓存
+            DownloadingFile downloadingFile = streamingEnabled ? findDownloadingFile(decodeExecutor, imageUri) : null;
+            if (downloadingFile != null) {
+                try {
+                    decoder = ImageRegionDecoder.buildPartial(decodeExecutor.callback.getContext(), imageUri, downloadingFile, correctImageOrientationDisabled);
+                } catch (final Exception e) {
+                    e.printStackTrace();
+                }
+
+                if (decoder == null || !decoder.isReady()) {
+                    decodeExecutor.tileDecodeCallbackHandler.postInitError(new Exception("downloaded data is not enough"), imageUri, key, keyCounter);
+                    return;
+                }
+
+                if (SLogType.LARGE.isEnabled()) {
+                    SLog.fd(SLogType.LARGE, NAME, "partial decoder. available=%d/%d, imageUri: %s",
+                            downloadingFile.getAvailableLength(), downloadingFile.getContentLength(), imageUri);
+                }
+            } else {
+                try {
+                    decoder = ImageRegionDecoder.build(decodeExecutor.callback.getContext(), imageUri, correctImageOrientationDisabled);
+                } catch (final Exception e) {
+                    e.printStackTrace();
+                    decodeExecutor.tileDecodeCallbackHandler.postInitError(e, imageUri, key, keyCounter);
+                    return;
+                }
+
+                if (decoder != null && decoder.isReady()) {
+                    decoder = decoderCache.put(cacheKey, decoder);
+                }
+            }
         }
 
         if (decoder == null || !decoder.isReady()) {
@@ -103,30 +120,34 @@ class TileDecoderInitHandler extends Handler {
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "init key expired. after init. key: %d, newKey: %d, imageUri: %s", key, newKey, imageUri);
             }
-            decoder.recycle();
+            decoderCache.release(decoder);
             return;
         }
 
         decodeExecutor.tileDecodeCallbackHandler.postInitCompleted(decoder, imageUri, key, keyCounter);
     }
 
-    public void clean(String why) {
-        if (SLogType.LARGE.isEnabled()) {
-            SLog.fw(SLogType.LARGE, NAME, "clean. %s", why);
+    /**
+     * 查找正在下载的网络图片，已经下载完成的话返回null
+     */
+    private DownloadingFile findDownloadingFile(TileExecutor decodeExecutor, String imageUri) {
+        UriInfo uriInfo = UriInfo.make(imageUri);
+        if (uriInfo == null || uriInfo.getScheme() != UriScheme.NET) {
+            return null;
         }
 
-        removeMessages(WHAT_INIT);
+        return Sketch.with(decodeExecutor.callback.getContext()).getConfiguration()
+                .getImageDownloader().getDownloadingFile(uriInfo.getDiskCacheKey());
     }
 
-    public static class Wrapper {
-        public String imageUri;
-        public KeyCounter keyCounter;
-        public boolean correctImageOrientationDisabled;
+    public void clean(String why) {
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fw(SLogType.LARGE, NAME, "clean. %s", why);
+        }
 
-        public Wrapper(String imageUri, boolean correctImageOrientationDisabled, KeyCounter keyCounter) {
-            this.imageUri = imageUri;
-            this.correctImageOrientationDisabled = correctImageOrientationDisabled;
-            this.keyCounter = keyCounter;
+        TileExecutor executor = reference.get();
+        if (executor != null) {
+            TileDecodeScheduler.with().cancel(executor, TileDecodeScheduler.Task.TYPE_INIT);
         }
     }
 }
@@ -18,29 +18,16 @@ package me.xiaopan.sketch.viewfun.large;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.os.Build;
-import android.os.HandlerThread;
 import android.os.Looper;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
-import me.xiaopan.sketch.SLog;
-import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.util.KeyCounter;
 
 /**
- * 碎片解码执行器，负责初始化解码器以及管理解码线程
+ * 碎片解码执行器，负责初始化解码器以及提交解码任务，解码线程由所有查看器共享的TileDecodeScheduler管理
  */
 class TileExecutor {
-    private static final String NAME = "TileExecutor";
-    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
-
-    private final Object handlerThreadLock = new Object();
-
     Callback callback;
 
-    private HandlerThread handlerThread;
-
     private TileDecoderInitHandler tileDecoderInitHandler;
     TileDecodeCallbackHandler tileDecodeCallbackHandler;
     private TileDecodeHandler tileDecodeHandler;
@@ -48,45 +35,21 @@ class TileExecutor {
     public TileExecutor(Callback callback) {
         this.callback = callback;
         this.tileDecodeCallbackHandler = new TileDecodeCallbackHandler(Looper.getMainLooper(), this);
-    }
-
-    /**
-     * 安装解码线程
-     */
-    private void installHandlerThread() {
-        if (handlerThread == null) {
-            synchronized (handlerThreadLock) {
-                if (handlerThread == null) {
-                    if (THREAD_NUMBER.get() >= Integer.MAX_VALUE) {
-                        THREAD_NUMBER.set(0);
-                    }
-                    handlerThread = new HandlerThread("ImageRegionDecodeThread" + THREAD_NUMBER.addAndGet(1));
-                    handlerThread.start();
-
-                    SLog.fi(SLogType.LARGE, NAME, "image region decode thread %s started", handlerThread.getName());
-
-                    tileDecodeHandler = new TileDecodeHandler(handlerThread.getLooper(), this);
-                    tileDecoderInitHandler = new TileDecoderInitHandler(handlerThread.getLooper(), this);
-
-                    tileDecodeCallbackHandler.postDelayRecycleDecodeThread();
-                }
-            }
-        }
+        this.tileDecodeHandler = new TileDecodeHandler(this);
+        this.tileDecoderInitHandler = new TileDecoderInitHandler(this);
     }
 
     /**
      * 初始化解码器，初始化结果会通过Callback的onInitCompleted()或onInitError(Exception)方法回调
      */
-    public void submitInit(String imageUri, KeyCounter keyCounter, boolean correctImageOrientationDisabled) {
-        installHandlerThread();
-        tileDecoderInitHandler.postInit(imageUri, correctImageOrientationDisabled, keyCounter.getKey(), keyCounter);
+    public void submitInit(String imageUri, KeyCounter keyCounter, boolean correctImageOrientationDisabled, boolean streamingEnabled) {
+        tileDecoderInitHandler.postInit(imageUri, correctImageOrientationDisabled, streamingEnabled, keyCounter.getKey(), keyCounter);
     }
 
     /**
      * 提交一个解码请求
      */
     public void submitDecodeTile(int key, Tile tile) {
-        installHandlerThread();
         tileDecodeHandler.postDecode(key, tile);
     }
 
@@ -94,48 +57,28 @@ class TileExecutor {
      * 取消所有的解码任务
      */
     public void cleanDecode(String why) {
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean(why);
-        }
+        tileDecodeHandler.clean(why);
     }
 
     /**
-     * 回收所有资源
+     * 设置是否获得焦点，获得焦点的查看器的解码任务会优先执行
      */
-    public void recycle(String why) {
-        if (tileDecoderInitHandler != null) {
-            tileDecoderInitHandler.clean(why);
-        }
-
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean(why);
+    public void setFocused(boolean focused) {
+        TileDecodeScheduler scheduler = TileDecodeScheduler.with();
+        if (focused) {
+            scheduler.setFocused(this);
+        } else if (scheduler.isFocused(this)) {
+            scheduler.setFocused(null);
         }
-
-        recycleDecodeThread();
     }
 
-    void recycleDecodeThread() {
-        if (tileDecoderInitHandler != null) {
-            tileDecoderInitHandler.clean("recycleDecodeThread");
-        }
-
-        if (tileDecodeHandler != null) {
-            tileDecodeHandler.clean("recycleDecodeThread");
-        }
-
-        synchronized (handlerThreadLock) {
-            if (handlerThread != null) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                    handlerThread.quitSafely();
-                } else {
-                    handlerThread.quit();
-                }
-
-                SLog.fw(SLogType.LARGE, NAME, "image region decode thread %s quit", handlerThread.getName());
-
-                handlerThread = null;
-            }
-        }
+    /**
+     * 回收所有资源
+     */
+    public void recycle(String why) {
+        tileDecoderInitHandler.clean(why);
+        tileDecodeHandler.clean(why);
+        setFocused(false);
     }
 
     public interface Callback {
@@ -33,6 +33,8 @@ import me.xiaopan.sketch.SLog;
 import me.xiaopan.sketch.SLogType;
 import me.xiaopan.sketch.Sketch;
 import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.MemoryGovernor;
+import me.xiaopan.sketch.decode.ImageOrientationCorrector;
 import me.xiaopan.sketch.decode.ImageSizeCalculator;
 import me.xiaopan.sketch.util.ObjectPool;
 import me.xiaopan.sketch.util.SketchUtils;
@@ -50,10 +52,19 @@ class TileManager {
     Rect drawSrcRect = new Rect();
     Rect decodeSrcRect = new Rect();
     List<Tile> tileList = new LinkedList<Tile>();
+    List<Tile> refineTileList = new LinkedList<Tile>();    // 过渡碎片，用较大的inSampleSize先把可见区域解码出来，最终碎片加载完后就丢弃
+    Tile baseTile;  // 基础层，以较大的inSampleSize解码的完整图片，在最终碎片出来之前先用它代替模糊的预览图
+    boolean baseTileFailed;  // 基础层是否解码失败了，失败后不再重新提交，直到换图片、换解码器或重新开启基础层
+    boolean baseLayerEnabled = true;    // 是否开启基础层
+    int progressiveLevels = 1;  // 过渡层级数，0表示不使用过渡碎片，数值越大清晰图出来的越快，但总解码量也越大
+    int lastFirstRefinementTime = -1;   // 最近一次从提交碎片到第一块碎片（或过渡碎片）解码完成所用的时间，单位毫秒
     LargeImageViewer.OnTileChangedListener onTileChangedListener;
     private Context context;
     private BitmapPool bitmapPool;
+    private MemoryGovernor memoryGovernor;
+    private ImageOrientationCorrector orientationCorrector;
     private LargeImageViewer largeImageViewer;
+    private long refineStartTime;
     private ObjectPool<Tile> tilePool = new ObjectPool<Tile>(new ObjectPool.ObjectFactory<Tile>() {
         @Override
         public Tile newObject() {
@@ -71,6 +82,8 @@ class TileManager {
         context = context.getApplicationContext();
         this.context = context;
         this.bitmapPool = Sketch.with(context).getConfiguration().getBitmapPool();
+        this.memoryGovernor = Sketch.with(context).getConfiguration().getMemoryGovernor();
+        this.orientationCorrector = Sketch.with(context).getConfiguration().getImageOrientationCorrector();
         this.largeImageViewer = largeImageViewer;
     }
 
@@ -96,6 +109,11 @@ class TileManager {
         final int imageWidth = imageSize.x;
         final int imageHeight = imageSize.y;
 
+        // 先加载基础层，之后的碎片都会绘制在它上面
+        if (baseLayerEnabled && baseTile == null && !baseTileFailed) {
+            loadBaseTile(previewImageWidth, previewImageHeight, imageWidth, imageHeight, viewWidth, viewHeight);
+        }
+
         // 原始图和预览图对比的缩放比例
         final float originWidthScale = (float) imageWidth / previewImageWidth;
         final float originHeightScale = (float) imageHeight / previewImageHeight;
@@ -162,10 +180,19 @@ class TileManager {
 
                 // 回收那些已经超出绘制区域的碎片
                 recycleTiles(tileList, newDecodeRect);
+                recycleTiles(refineTileList, newDecodeRect);
 
                 // 找出所有的空白区域，然后一个一个加载
                 List<Rect> emptyRectList = findEmptyRect(newDecodeRect, tileList);
                 if (emptyRectList != null && emptyRectList.size() > 0) {
+                    refineStartTime = System.currentTimeMillis();
+
+                    // 缩放比例变了或者第一次加载时先用较大的inSampleSize把可见区域解码出来，
+                    // 解码线程是按提交顺序执行的，因此过渡碎片会先于最终碎片完成
+                    if (largeImageViewer.getZoomScale() != largeImageViewer.getLastZoomScale() || decodeRect.isEmpty()) {
+                        loadRefineTiles(newVisibleRect, imageWidth, imageHeight, originWidthScale, originHeightScale, inSampleSize);
+                    }
+
                     loadTiles(emptyRectList, tileWidth, tileHeight, imageWidth, imageHeight,
                             originWidthScale, originHeightScale, inSampleSize, newDecodeRect);
                 } else {
@@ -564,7 +591,7 @@ class TileManager {
                         SLog.fd(SLogType.LARGE, NAME, "recycle tile. tile=%s", tile.getInfo());
                     }
                     tileIterator.remove();
-                    tile.clean(bitmapPool);
+                    tile.clean(bitmapPool, memoryGovernor);
                     tilePool.put(tile);
                 } else {
                     if (SLogType.LARGE.isEnabled()) {
@@ -577,6 +604,88 @@ class TileManager {
         }
     }
 
+    /**
+     * 加载基础层，以能完整显示在View中的inSampleSize解码整张图片
+     */
+    private void loadBaseTile(int previewImageWidth, int previewImageHeight, int imageWidth, int imageHeight,
+                              int viewWidth, int viewHeight) {
+        ImageSizeCalculator imageSizeCalculator = Sketch.with(context).getConfiguration().getImageSizeCalculator();
+        int baseInSampleSize = imageSizeCalculator.calculateInSampleSize(imageWidth, imageHeight, viewWidth, viewHeight, false);
+
+        Tile tile = tilePool.get();
+        tile.drawRect.set(0, 0, previewImageWidth, previewImageHeight);
+        tile.srcRect.set(0, 0, imageWidth, imageHeight);
+        tile.inSampleSize = baseInSampleSize;
+        tile.scale = 0;
+        baseTile = tile;
+
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "submit base tile. tile=%s", tile.getInfo());
+        }
+
+        tile.refreshKey();
+        largeImageViewer.getTileDecoder().decodeTile(tile);
+    }
+
+    /**
+     * 加载过渡碎片，从粗到细依次提交，每一级都会绘制在上一级之上
+     */
+    private void loadRefineTiles(Rect visibleRect, int imageWidth, int imageHeight,
+                                 float originWidthScale, float originHeightScale, int inSampleSize) {
+        if (progressiveLevels <= 0) {
+            return;
+        }
+
+        int maxInSampleSize = baseTile != null ? baseTile.inSampleSize : Integer.MAX_VALUE;
+        for (int level = progressiveLevels; level > 0; level--) {
+            int refineInSampleSize = inSampleSize << level;
+
+            // 比基础层还模糊的就没必要解码了
+            if (refineInSampleSize <= 0 || refineInSampleSize >= maxInSampleSize) {
+                continue;
+            }
+
+            Tile refineTile = tilePool.get();
+            refineTile.drawRect.set(visibleRect);
+            refineTile.inSampleSize = refineInSampleSize;
+            refineTile.scale = largeImageViewer.getZoomScale();
+            calculateSrcRect(refineTile.srcRect, refineTile.drawRect, imageWidth, imageHeight, originWidthScale, originHeightScale);
+
+            refineTileList.add(refineTile);
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "submit refine tile. level=%d, tile=%s", level, refineTile.getInfo());
+            }
+
+            refineTile.refreshKey();
+            largeImageViewer.getTileDecoder().decodeTile(refineTile);
+        }
+    }
+
+    /**
+     * 所有碎片都已加载完成的话就回收过渡碎片
+     */
+    private void recycleRefineTilesIfCompleted() {
+        if (refineTileList.size() == 0) {
+            return;
+        }
+
+        for (Tile tile : tileList) {
+            if (tile.isEmpty()) {
+                return;
+            }
+        }
+
+        for (Tile refineTile : refineTileList) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fd(SLogType.LARGE, NAME, "recycle refine tile. tile=%s", refineTile.getInfo());
+            }
+            refineTile.refreshKey();
+            refineTile.clean(bitmapPool, memoryGovernor);
+            tilePool.put(refineTile);
+        }
+        refineTileList.clear();
+    }
+
     private void loadTiles(List<Rect> emptyRectList, int tileWidth, int tileHeight,
                            int imageWidth, int imageHeight, float originWidthScale, float originHeightScale,
                            int inSampleSize, Rect newDecodeRect) {
@@ -635,8 +744,25 @@ class TileManager {
 
         tile.bitmap = bitmap;
         tile.bitmapDrawSrcRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        tile.allocationByteCount = SketchUtils.getByteCount(bitmap);
+        memoryGovernor.onTileAllocated(tile.allocationByteCount);
+        if (tile.decoder != null) {
+            tile.initDrawMatrix(tile.decoder.getExifOrientation(), orientationCorrector);
+            tile.fromPartialDecoder = tile.decoder.isPartial();
+        }
         tile.decoder = null;
 
+        if (refineStartTime != 0 && tile != baseTile) {
+            lastFirstRefinementTime = (int) (System.currentTimeMillis() - refineStartTime);
+            refineStartTime = 0;
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fi(SLogType.LARGE, NAME, "first refinement. useTime=%dms, tile=%s", lastFirstRefinementTime, tile.getInfo());
+            }
+        }
+
+        recycleRefineTilesIfCompleted();
+        memoryGovernor.checkBudget();
+
         largeImageViewer.invalidateView();
 
         if (onTileChangedListener != null) {
@@ -650,22 +776,114 @@ class TileManager {
                     exception.getCauseMessage(), tile.getInfo(), tileList.size());
         }
 
-        tileList.remove(tile);
+        if (tile == baseTile) {
+            // 基础层是整张图片，失败了多半每次都会失败，不再重新提交，碎片照常加载
+            baseTile = null;
+            baseTileFailed = true;
+        } else if (!refineTileList.remove(tile)) {
+            tileList.remove(tile);
+        }
 
-        tile.clean(bitmapPool);
+        tile.clean(bitmapPool, memoryGovernor);
         tilePool.put(tile);
     }
 
+    /**
+     * 清理基础层并清除失败标记，换图片或回收时调用
+     */
+    void cleanBaseTile(String why) {
+        baseTileFailed = false;
+        if (baseTile != null) {
+            if (SLogType.LARGE.isEnabled()) {
+                SLog.fw(SLogType.LARGE, NAME, "clean base tile and refresh key. %s. tile=%s", why, baseTile.getInfo());
+            }
+            baseTile.refreshKey();
+            baseTile.clean(bitmapPool, memoryGovernor);
+            tilePool.put(baseTile);
+            baseTile = null;
+        }
+    }
+
+    /**
+     * 回收用边下边解的临时解码器解码的碎片，临时解码器的可解码行数是估算的，估多了的话碎片底部会是灰色的，
+     * 因此下载完成换成完整的解码器后要重新解码这些碎片，其它碎片保留
+     */
+    void cleanPartialTiles(String why) {
+        int count = 0;
+        Iterator<Tile> iterator = tileList.iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (tile.fromPartialDecoder) {
+                iterator.remove();
+                tile.refreshKey();
+                tile.clean(bitmapPool, memoryGovernor);
+                tilePool.put(tile);
+                count++;
+            }
+        }
+        iterator = refineTileList.iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (tile.fromPartialDecoder) {
+                iterator.remove();
+                tile.refreshKey();
+                tile.clean(bitmapPool, memoryGovernor);
+                tilePool.put(tile);
+                count++;
+            }
+        }
+        if (baseTile != null && baseTile.fromPartialDecoder) {
+            cleanBaseTile(why);
+            count++;
+        }
+        // 临时解码器解码不了的基础层换成完整的解码器后可以再试一次
+        baseTileFailed = false;
+
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "clean partial tiles. count=%d. %s", count, why);
+        }
+
+        if (count > 0) {
+            largeImageViewer.invalidateView();
+        }
+    }
+
+    /**
+     * 清空解码区域但保留已经加载的碎片，下次更新时会重新查找空白区域并加载
+     */
+    void resetDecodeRect(String why) {
+        if (SLogType.LARGE.isEnabled()) {
+            SLog.fd(SLogType.LARGE, NAME, "reset decode rect. %s", why);
+        }
+
+        visibleRect.setEmpty();
+        decodeRect.setEmpty();
+        decodeSrcRect.setEmpty();
+    }
+
     void clean(String why) {
         for (Tile tile : tileList) {
             tile.refreshKey();
-            tile.clean(bitmapPool);
+            tile.clean(bitmapPool, memoryGovernor);
             tilePool.put(tile);
             if (SLogType.LARGE.isEnabled()) {
                 SLog.fw(SLogType.LARGE, NAME, "clean tile and refresh key. %s. tile=%s", why, tile.getInfo());
             }
         }
         tileList.clear();
+        for (Tile refineTile : refineTileList) {
+            refineTile.refreshKey();
+            refineTile.clean(bitmapPool, memoryGovernor);
+            tilePool.put(refineTile);
+        }
+        refineTileList.clear();
+        refineStartTime = 0;
+
+        // 还在解码中的基础层会随着解码任务一起被取消，因此要清掉，下次更新时重新加载
+        if (baseTile != null && baseTile.isEmpty()) {
+            cleanBaseTile(why);
+        }
+
         visibleRect.setEmpty();
         drawRect.setEmpty();
         drawSrcRect.setEmpty();
@@ -675,6 +893,7 @@ class TileManager {
 
     void recycle(@SuppressWarnings("UnusedParameters") String why) {
         clean(why);
+        cleanBaseTile(why);
         tilePool.clear();
         rectPool.clear();
     }
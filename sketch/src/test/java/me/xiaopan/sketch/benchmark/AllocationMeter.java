@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 统计所有线程分配的字节数，依赖HotSpot的com.sun.management.ThreadMXBean，不支持时返回-1
+ * <p>
+ * 只能统计到读取时还活着的线程，期间退出的线程分配的内存会漏掉，所以结果偏小，只适合做前后对比
+ */
+public class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    public AllocationMeter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadMXBean = null;
+        }
+    }
+
+    public boolean isSupported() {
+        return threadMXBean != null;
+    }
+
+    /**
+     * 获取当前所有活着的线程累计分配的字节数
+     */
+    public long getAllocatedBytes() {
+        if (threadMXBean == null) {
+            return -1;
+        }
+
+        long[] bytes = threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds());
+        long total = 0;
+        for (long value : bytes) {
+            if (value > 0) {
+                total += value;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 获取当前线程累计分配的字节数，只在当前线程上执行的微基准测试用这个，不受其它线程的干扰
+     */
+    public long getCurrentThreadAllocatedBytes() {
+        if (threadMXBean == null) {
+            return -1;
+        }
+
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
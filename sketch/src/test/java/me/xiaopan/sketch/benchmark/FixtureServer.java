@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * 进程内的图片服务器，可以注入首字节延迟和带宽限制来模拟不同的网络
+ */
+class FixtureServer {
+    private final MockWebServer server = new MockWebServer();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final long latencyMs;
+    private final long bandwidthKbps;
+
+    /**
+     * @param latencyMs     每个响应返回头之前的延迟，单位毫秒，小于等于0表示不延迟
+     * @param bandwidthKbps 每个响应的带宽，单位KB/s，小于等于0表示不限速
+     */
+    FixtureServer(long latencyMs, long bandwidthKbps) {
+        this.latencyMs = latencyMs;
+        this.bandwidthKbps = bandwidthKbps;
+        server.setDispatcher(new FixtureDispatcher());
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    String url(Fixtures fixture, int index) {
+        return server.url(fixture.path(index)).toString();
+    }
+
+    /**
+     * 获取服务器收到的请求数，同发起的显示请求数对比可以看出有多少请求被合并了
+     */
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    void resetRequestCount() {
+        requestCount.set(0);
+    }
+
+    String getInfo() {
+        return String.format("FixtureServer(latency=%dms, bandwidth=%s)",
+                latencyMs, bandwidthKbps > 0 ? bandwidthKbps + "KB/s" : "unlimited");
+    }
+
+    private class FixtureDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            requestCount.incrementAndGet();
+
+            Fixtures fixture = Fixtures.fromPath(request.getPath());
+            if (fixture == null) {
+                return new MockResponse().setResponseCode(404);
+            }
+
+            // MockWebServer 3.8还不支持setHeadersDelay，在分发线程里等待来模拟响应头延迟
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+
+            byte[] bytes = fixture.getBytes();
+            MockResponse response = new MockResponse()
+                    .setHeader("Content-Type", fixture.getMimeType())
+                    .setBody(new Buffer().write(bytes));
+            if (bandwidthKbps > 0) {
+                // 每100毫秒发送带宽的十分之一
+                response.throttleBody(Math.max(1, bandwidthKbps * 1024 / 10), 100, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+    }
+}
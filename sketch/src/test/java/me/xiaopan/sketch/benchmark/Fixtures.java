@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.benchmark;
+
+import android.util.Base64;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 基准测试用的图片，运行时用ImageIO生成，免得往仓库里放二进制文件
+ * <p>
+ * 图片内容是渐变加噪点，压缩率接近真实照片，不会因为纯色导致文件太小而让下载耗时失真
+ */
+enum Fixtures {
+    JPEG("image/jpeg", "jpg", 1080, 720),
+    PNG("image/png", "png", 480, 480),
+    GIF("image/gif", "gif", 320, 320),
+    WEBP("image/webp", "webp", 1, 1),
+    LARGE_JPEG("image/jpeg", "jpg", 4000, 3000),;
+
+    // ImageIO不支持写WebP，这里用一张1x1的无损WebP，只用来走一遍WebP的识别和解码流程
+    private static final String WEBP_1X1_BASE64 = "UklGRhoAAABXRUJQVlA4TA0AAAAvAAAAEAcQERGIiP4HAA==";
+
+    private final String mimeType;
+    private final String extension;
+    private final int width;
+    private final int height;
+    private volatile byte[] bytes;
+
+    Fixtures(String mimeType, String extension, int width, int height) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.width = width;
+        this.height = height;
+    }
+
+    static Fixtures fromPath(String path) {
+        for (Fixtures fixture : values()) {
+            if (path.startsWith("/" + fixture.name().toLowerCase())) {
+                return fixture;
+            }
+        }
+        return null;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * 生成一个指向此图片的路径，index不同URL就不同，可以绕过缓存
+     */
+    String path(int index) {
+        return "/" + name().toLowerCase() + "/" + index + "." + extension;
+    }
+
+    byte[] getBytes() {
+        if (bytes == null) {
+            synchronized (this) {
+                if (bytes == null) {
+                    bytes = generate();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] generate() {
+        if (this == WEBP) {
+            return Base64.decode(WEBP_1X1_BASE64, Base64.DEFAULT);
+        }
+
+        boolean alpha = this == PNG;
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(0x3F51B5), width, height, new Color(0xFF9800, alpha)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        Random random = new Random(ordinal());
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                int pixel = image.getRGB(x, y);
+                image.setRGB(x, y, pixel ^ (random.nextInt() & 0x0F0F0F));
+            }
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(image, extension, outputStream)) {
+                throw new IllegalStateException("No ImageIO writer for " + extension);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.benchmark;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.StatFs;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RoboSettings;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import me.xiaopan.sketch.BuildConfig;
+import me.xiaopan.sketch.Configuration;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.SketchImageView;
+import me.xiaopan.sketch.cache.LruBitmapPool;
+import me.xiaopan.sketch.cache.LruMemoryCache;
+import me.xiaopan.sketch.drawable.ImageAttrs;
+import me.xiaopan.sketch.metrics.HistogramMetricsSink;
+import me.xiaopan.sketch.metrics.StageHistogram;
+import me.xiaopan.sketch.request.CancelCause;
+import me.xiaopan.sketch.request.DisplayListener;
+import me.xiaopan.sketch.request.ErrorCause;
+import me.xiaopan.sketch.request.ImageFrom;
+
+/**
+ * 端到端的流水线基准测试，在Robolectric中跑完整的下载、缓存、解码、显示流程，统计吞吐量、延迟分位数和每张图片的内存分配
+ * <p>
+ * 默认跳过，加上-Dsketch.benchmark=true才会执行，其它参数：
+ * <ul>
+ * <li>sketch.benchmark.latencyMs：服务器首字节延迟，默认50</li>
+ * <li>sketch.benchmark.bandwidthKbps：每个响应的带宽，单位KB/s，默认不限速</li>
+ * <li>sketch.benchmark.rounds：每个场景跑几轮，第一轮用来预热不计入结果，默认3</li>
+ * </ul>
+ * 注意Robolectric的BitmapFactory是影子实现，不会真的解码，所以这里测的是调度、下载、缓存和请求合并的开销，解码耗时要在真机上测
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, shadows = PipelineBenchmark.ShadowUnlimitedStatFs.class)
+public class PipelineBenchmark {
+    private static final long TIMEOUT_MS = 120 * 1000;
+    private static final int GRID_SIZE = 60;
+    private static final int REPEAT_URL_COUNT = 6;
+    private static final int REPEAT_VIEW_COUNT = 10;
+    private static final int LARGE_IMAGE_COUNT = 4;
+    private static final Fixtures[] GRID_FIXTURES = {Fixtures.JPEG, Fixtures.PNG, Fixtures.GIF, Fixtures.WEBP};
+
+    static {
+        // 分发线程是HandlerThread，使用全局调度器后它的消息也在主线程驱动Looper时执行，否则回调永远不会到达
+        RoboSettings.setUseGlobalScheduler(true);
+    }
+
+    private Context context;
+    private FixtureServer server;
+    private AllocationMeter allocationMeter;
+    private HistogramMetricsSink metricsSink;
+    private int rounds;
+    private int urlIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("PipelineBenchmark is disabled, run with -Dsketch.benchmark=true", Boolean.getBoolean("sketch.benchmark"));
+
+        context = RuntimeEnvironment.application;
+        server = new FixtureServer(Long.getLong("sketch.benchmark.latencyMs", 50), Long.getLong("sketch.benchmark.bandwidthKbps", 0));
+        server.start();
+        allocationMeter = new AllocationMeter();
+        rounds = Math.max(2, Integer.getInteger("sketch.benchmark.rounds", 3));
+
+        // 生成图片比较慢，提前生成好，不要算到第一个场景里
+        for (Fixtures fixture : Fixtures.values()) {
+            fixture.getBytes();
+        }
+
+        metricsSink = new HistogramMetricsSink();
+        Configuration configuration = Sketch.with(context).getConfiguration();
+        configuration.setMemoryCache(new LruMemoryCache(context, 64 * 1024 * 1024));
+        configuration.setBitmapPool(new LruBitmapPool(context, 32 * 1024 * 1024));
+        configuration.setMetricsSink(metricsSink);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        System.out.println(server.getInfo());
+
+        List<Result> results = new ArrayList<Result>();
+        results.add(coldGrid());
+        results.add(warmGrid());
+        results.add(repeatedUrls());
+        results.add(largeImage());
+
+        System.out.println();
+        for (Result result : results) {
+            System.out.println(result.getInfo());
+        }
+    }
+
+    /**
+     * 冷启动的列表，所有缓存都是空的，每张图片都要走下载、写磁盘缓存、解码
+     */
+    private Result coldGrid() {
+        Result result = new Result("coldGrid");
+        for (int round = 0; round < rounds; round++) {
+            clearCaches();
+            run(result, round == 0, nextUris(GRID_SIZE), false);
+        }
+        return result;
+    }
+
+    /**
+     * 热列表，同样的URL再显示一遍，应该全部命中内存缓存
+     */
+    private Result warmGrid() {
+        Result result = new Result("warmGrid");
+        clearCaches();
+        List<String> uris = nextUris(GRID_SIZE);
+        run(new Result("warmGrid-prepare"), true, uris, false);
+        for (int round = 0; round < rounds; round++) {
+            run(result, round == 0, uris, false);
+        }
+        return result;
+    }
+
+    /**
+     * 多个View同时显示同一个URL，只有一个请求真正下载和解码，其它的搭顺风车
+     */
+    private Result repeatedUrls() {
+        Result result = new Result("repeatedUrls");
+        for (int round = 0; round < rounds; round++) {
+            clearCaches();
+            List<String> distinctUris = nextUris(REPEAT_URL_COUNT);
+            List<String> uris = new ArrayList<String>(REPEAT_URL_COUNT * REPEAT_VIEW_COUNT);
+            for (int i = 0; i < REPEAT_VIEW_COUNT; i++) {
+                uris.addAll(distinctUris);
+            }
+            run(result, round == 0, uris, false);
+        }
+        return result;
+    }
+
+    /**
+     * 开启大图功能显示超大图片，统计到缩略图显示完成为止，碎片初始化和解码在之后异步进行
+     */
+    private Result largeImage() {
+        Result result = new Result("largeImage");
+        for (int round = 0; round < rounds; round++) {
+            clearCaches();
+            List<String> uris = new ArrayList<String>(LARGE_IMAGE_COUNT);
+            for (int i = 0; i < LARGE_IMAGE_COUNT; i++) {
+                uris.add(server.url(Fixtures.LARGE_JPEG, urlIndex++));
+            }
+            run(result, round == 0, uris, true);
+        }
+        return result;
+    }
+
+    private List<String> nextUris(int count) {
+        List<String> uris = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add(server.url(GRID_FIXTURES[i % GRID_FIXTURES.length], urlIndex++));
+        }
+        return uris;
+    }
+
+    private void clearCaches() {
+        Configuration configuration = Sketch.with(context).getConfiguration();
+        configuration.getMemoryCache().clear();
+        configuration.getBitmapPool().clear();
+        configuration.getDiskCache().clear();
+    }
+
+    private void run(Result result, boolean warmUp, List<String> uris, boolean largeImage) {
+        int count = uris.size();
+        List<SketchImageView> views = new ArrayList<SketchImageView>(count);
+        List<TimingListener> listeners = new ArrayList<TimingListener>(count);
+        Counter counter = new Counter();
+        StageHistogram histogram = warmUp ? new StageHistogram("warmUp") : result.latency;
+        for (int i = 0; i < count; i++) {
+            SketchImageView view = new SketchImageView(context);
+            view.setLayoutParams(largeImage
+                    ? new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT)
+                    : new ViewGroup.LayoutParams(240, 240));
+            if (largeImage) {
+                view.setBlockDisplayLargeImageEnabled(true);
+            }
+            TimingListener listener = new TimingListener(counter, histogram);
+            view.setDisplayListener(listener);
+            views.add(view);
+            listeners.add(listener);
+        }
+
+        server.resetRequestCount();
+        metricsSink.reset();
+        long startAllocated = allocationMeter.getAllocatedBytes();
+        long startNanos = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            listeners.get(i).startNanos = System.nanoTime();
+            views.get(i).displayImage(uris.get(i));
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (counter.finished < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(String.format("%s timeout, finished %d/%d", result.name, counter.finished, count));
+            }
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            if (counter.finished < count) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = allocationMeter.getAllocatedBytes() - startAllocated;
+
+        if (warmUp) {
+            return;
+        }
+        result.images += count;
+        result.errors += counter.errors;
+        result.elapsedNanos += elapsedNanos;
+        result.allocatedBytes += allocationMeter.isSupported() ? allocated : 0;
+        result.serverRequests += server.getRequestCount();
+        result.stages = metricsSink.getInfo();
+    }
+
+    private static class Counter {
+        int finished;
+        int errors;
+    }
+
+    /**
+     * 回调都在主线程，所以计数不需要同步
+     * <p>
+     * 显示图片时替换掉加载中Drawable会触发BE_REPLACED_ON_SET_DRAWABLE取消，onCompleted之后还会再收到一次onCanceled，所以只认第一个结束回调
+     */
+    private static class TimingListener implements DisplayListener {
+        private final Counter counter;
+        private final StageHistogram histogram;
+        long startNanos;
+        private boolean finished;
+
+        TimingListener(Counter counter, StageHistogram histogram) {
+            this.counter = counter;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void onStarted() {
+
+        }
+
+        @Override
+        public void onCompleted(Drawable drawable, ImageFrom imageFrom, ImageAttrs imageAttrs) {
+            if (finish()) {
+                histogram.recordNanos(System.nanoTime() - startNanos);
+            }
+        }
+
+        @Override
+        public void onError(ErrorCause errorCause) {
+            if (finish()) {
+                counter.errors++;
+            }
+        }
+
+        @Override
+        public void onCanceled(CancelCause cancelCause) {
+            if (finish()) {
+                counter.errors++;
+            }
+        }
+
+        private boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            counter.finished++;
+            return true;
+        }
+    }
+
+    /**
+     * Robolectric 3.3自带的ShadowStatFs没有实现API 18新增的getAvailableBytes()，会直接空指针，磁盘缓存也就建不起来，这里让所有目录都有足够的空间
+     */
+    @Implements(StatFs.class)
+    public static class ShadowUnlimitedStatFs {
+        private static final int BLOCK_SIZE = 4096;
+        private static final int BLOCK_COUNT = 256 * 1024;
+
+        @Implementation
+        public void __constructor__(String path) {
+        }
+
+        @Implementation
+        public int getBlockSize() {
+            return BLOCK_SIZE;
+        }
+
+        @Implementation
+        public int getAvailableBlocks() {
+            return BLOCK_COUNT;
+        }
+
+        @Implementation
+        public long getAvailableBytes() {
+            return (long) BLOCK_SIZE * BLOCK_COUNT;
+        }
+    }
+
+    private static class Result {
+        final String name;
+        final StageHistogram latency;
+        int images;
+        int errors;
+        int serverRequests;
+        long elapsedNanos;
+        long allocatedBytes;
+        String stages;
+
+        Result(String name) {
+            this.name = name;
+            this.latency = new StageHistogram(name);
+        }
+
+        String getInfo() {
+            StageHistogram.Snapshot snapshot = latency.getSnapshot();
+            double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.US, "%-12s images=%d, errors=%d, serverRequests=%d, throughput=%.1f images/s, " +
+                            "p50=%.2fms, p90=%.2fms, p99=%.2fms, max=%.2fms, allocation=%.1fKB/image\n  %s",
+                    name, images, errors, serverRequests, seconds > 0 ? images / seconds : 0,
+                    snapshot.getP50() / 1000f, snapshot.getP90() / 1000f, snapshot.getP99() / 1000f, snapshot.getMax() / 1000f,
+                    images > 0 ? allocatedBytes / 1024f / images : 0, stages != null ? stages.replace("\n", "\n  ") : "");
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.sketch.process;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowBitmap;
+import org.robolectric.shadows.ShadowCanvas;
+
+import java.util.Locale;
+
+import me.xiaopan.sketch.BuildConfig;
+import me.xiaopan.sketch.Sketch;
+import me.xiaopan.sketch.benchmark.AllocationMeter;
+import me.xiaopan.sketch.cache.BitmapPool;
+import me.xiaopan.sketch.cache.BitmapPoolUtils;
+import me.xiaopan.sketch.cache.LruBitmapPool;
+import me.xiaopan.sketch.request.Resize;
+
+/**
+ * 内置处理器的内存分配基准测试，对比关闭和开启{@link ProcessDrawCache}复用时处理每张图片分配的字节数和耗时
+ * <p>
+ * 关闭复用时每次都创建新的Canvas、Paint、Matrix、Path、RectF以及倒影的渐变，同没有ProcessDrawCache之前一样。
+ * 结果图片每次都放回BitmapPool，所以统计到的只有绘制用的对象，不包括图片本身
+ * <p>
+ * 默认跳过，加上-Dsketch.benchmark=true才会执行，其它参数：
+ * <ul>
+ * <li>sketch.benchmark.iterations：每个处理器处理多少次，默认500，前十分之一用来预热不计入结果</li>
+ * </ul>
+ * 注意Robolectric的Canvas是影子实现，不会真的绘制，所以耗时没有参考价值，只看分配的差值。
+ * 任意角度的Rotate要用Matrix.mapRect()计算新尺寸，ShadowMatrix算不出来，所以没有单独测，90度的在pipeline里
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, shadows = {ProcessorAllocationBenchmark.ShadowReconfigurableBitmap.class, ProcessorAllocationBenchmark.ShadowNoHistoryCanvas.class})
+public class ProcessorAllocationBenchmark {
+    private static final int IMAGE_SIZE = 256;
+
+    private Sketch sketch;
+    private BitmapPool bitmapPool;
+    private AllocationMeter allocationMeter;
+    private Bitmap source;
+    private int iterations;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("ProcessorAllocationBenchmark is disabled, run with -Dsketch.benchmark=true", Boolean.getBoolean("sketch.benchmark"));
+
+        allocationMeter = new AllocationMeter();
+        Assume.assumeTrue("thread allocated memory is not supported", allocationMeter.isSupported());
+
+        sketch = Sketch.with(RuntimeEnvironment.application);
+        bitmapPool = new LruBitmapPool(RuntimeEnvironment.application, 32 * 1024 * 1024);
+        sketch.getConfiguration().setBitmapPool(bitmapPool);
+        iterations = Math.max(10, Integer.getInteger("sketch.benchmark.iterations", 500));
+
+        source = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.GRAY);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProcessDrawCache.setReuseDisabled(false);
+    }
+
+    @Test
+    public void benchmark() {
+        final Resize resize = new Resize(IMAGE_SIZE / 2, IMAGE_SIZE / 2);
+        final ImageProcessorPipeline pipeline = ImageProcessorPipeline.compile(
+                new MaskImageProcessor(0x80000000, new RoundRectImageProcessor(20, new RotateImageProcessor(90))));
+
+        Case[] cases = {
+                new ProcessorCase("reflection", new ReflectionImageProcessor(), null),
+                new ProcessorCase("mask", new MaskImageProcessor(0x80000000), null),
+                new ProcessorCase("circle", CircleImageProcessor.getInstance(), resize),
+                new ProcessorCase("roundRect", new RoundRectImageProcessor(20), resize),
+                new ProcessorCase("resize", new ResizeImageProcessor(), resize),
+                new Case("pipeline") {
+                    @Override
+                    Bitmap process(Bitmap bitmap) {
+                        return pipeline.process(sketch, bitmap, resize, false, false);
+                    }
+                },
+        };
+
+        System.out.println();
+        for (Case benchmarkCase : cases) {
+            Result before = run(benchmarkCase, true);
+            Result after = run(benchmarkCase, false);
+            System.out.println(String.format(Locale.US, "%-10s before=%s, after=%s",
+                    benchmarkCase.name, before.getInfo(), after.getInfo()));
+        }
+    }
+
+    private Result run(Case benchmarkCase, boolean reuseDisabled) {
+        ProcessDrawCache.setReuseDisabled(reuseDisabled);
+
+        int warmUp = iterations / 10;
+        for (int i = 0; i < warmUp; i++) {
+            processAndFree(benchmarkCase);
+        }
+
+        Result result = new Result();
+        long startBytes = allocationMeter.getCurrentThreadAllocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            processAndFree(benchmarkCase);
+        }
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        result.allocatedBytes = allocationMeter.getCurrentThreadAllocatedBytes() - startBytes;
+        result.images = iterations;
+        return result;
+    }
+
+    private void processAndFree(Case benchmarkCase) {
+        Bitmap result = benchmarkCase.process(source);
+        if (result != null && result != source) {
+            BitmapPoolUtils.freeBitmapToPool(result, bitmapPool);
+        }
+    }
+
+    private static abstract class Case {
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        abstract Bitmap process(Bitmap bitmap);
+    }
+
+    private class ProcessorCase extends Case {
+        private final ImageProcessor processor;
+        private final Resize resize;
+
+        ProcessorCase(String name, ImageProcessor processor, Resize resize) {
+            super(name);
+            this.processor = processor;
+            this.resize = resize;
+        }
+
+        @Override
+        Bitmap process(Bitmap bitmap) {
+            return processor.process(sketch, bitmap, resize, false, false);
+        }
+    }
+
+    /**
+     * Robolectric的ShadowBitmap没有实现reconfigure()，从BitmapPool中复用图片时会抛异常，这里只改一下宽高和config
+     */
+    @Implements(Bitmap.class)
+    public static class ShadowReconfigurableBitmap extends ShadowBitmap {
+        @Implementation
+        public void reconfigure(int width, int height, Bitmap.Config config) {
+            setWidth(width);
+            setHeight(height);
+            setConfig(config);
+        }
+    }
+
+    /**
+     * ShadowCanvas会把每次绘制记录下来并追加到bitmap的描述中，复用Canvas和池中的bitmap时这些记录会越积越多，
+     * 分配的内存全是它的，这里改成什么都不做
+     */
+    @Implements(Canvas.class)
+    public static class ShadowNoHistoryCanvas extends ShadowCanvas {
+        @Implementation
+        public void drawPaint(Paint paint) {
+        }
+
+        @Implementation
+        public void drawColor(int color) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        }
+
+        @Implementation
+        public void drawPath(Path path, Paint paint) {
+        }
+
+        @Implementation
+        public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        }
+
+        @Implementation
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        }
+    }
+
+    private static class Result {
+        int images;
+        long elapsedNanos;
+        long allocatedBytes;
+
+        String getInfo() {
+            return String.format(Locale.US, "%.2fKB/image %.3fms/image",
+                    allocatedBytes / 1024f / images, elapsedNanos / 1e6 / images);
+        }
+    }
+}